@@ -13,14 +13,27 @@ import java.util.Set;
 import java.util.TreeSet;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.jsoup.select.Elements;
 
+import com.flatironschool.javacs.persistence.impl.JedisConnectionPool;
 import com.flatironschool.javacs.persistence.impl.JedisIndexer;
+import com.flatironschool.javacs.persistence.interfaces.IImpactIndex;
+import com.flatironschool.javacs.persistence.interfaces.IImpactIterator;
 import com.flatironschool.javacs.persistence.interfaces.IPersistIndex;
+import com.flatironschool.javacs.persistence.interfaces.IPositionIndex;
+import com.flatironschool.javacs.persistence.interfaces.IPostingIterator;
+import com.flatironschool.javacs.query.BM25Similarity;
+import com.flatironschool.javacs.query.Similarity;
+import com.flatironschool.javacs.query.TermWeight;
 
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.Transaction;
@@ -33,6 +46,48 @@ public class Indexer {
 
 	private IPersistIndex persistance;
 	private Set<String> stopWordsList;
+	// bumped on every change to the index, so cached results can tell they are stale
+	private final AtomicLong generation = new AtomicLong();
+	private volatile Similarity similarity = new BM25Similarity();
+	private volatile Weights weights;
+	private volatile Vocabulary vocabulary;
+
+	/**
+	 * Most terms a wildcard may expand to.
+	 */
+	public static final int MAX_EXPANSIONS = 1024;
+
+	/**
+	 * The corpus statistics and term weights of one generation of the index.
+	 */
+	private static class Weights {
+		final long generation;
+		final Similarity similarity;
+		final int documentCount;
+		final double averageDocumentLength;
+		// keyed by document frequency and term
+		final Map<String, TermWeight> terms = new ConcurrentHashMap<>();
+
+		Weights(long generation, Similarity similarity, int documentCount, double averageDocumentLength) {
+			this.generation = generation;
+			this.similarity = similarity;
+			this.documentCount = documentCount;
+			this.averageDocumentLength = averageDocumentLength;
+		}
+	}
+
+	/**
+	 * The terms of one generation of the index.
+	 */
+	private static class Vocabulary {
+		final long generation;
+		final TermDictionary terms;
+
+		Vocabulary(long generation, TermDictionary terms) {
+			this.generation = generation;
+			this.terms = terms;
+		}
+	}
 
 	/**
 	 * Constructor.
@@ -129,6 +184,94 @@ public class Indexer {
 	}
 	
 
+	/**
+	 * Returns the postings of a term in doc id order.
+	 * 
+	 * @param term
+	 * @return
+	 */
+	public IPostingIterator postings(String term) {
+		return this.persistance.postings(term);
+	}
+
+	/**
+	 * Returns the postings of a term from the highest term frequency down,
+	 * or null if the index cannot give them in that order.
+	 * 
+	 * @param term
+	 * @return
+	 */
+	public IImpactIterator impactPostings(String term) {
+		if (!(this.persistance instanceof IImpactIndex))
+			return null;
+		return ((IImpactIndex) this.persistance).impactPostings(term);
+	}
+
+	/**
+	 * Returns the doc id of a URL, or -1.
+	 * 
+	 * @param url
+	 * @return
+	 */
+	public int getDocId(String url) {
+		return this.persistance.getDocId(url);
+	}
+
+	/**
+	 * Returns the URL of a doc id, or null.
+	 * 
+	 * @param docId
+	 * @return
+	 */
+	public String getUrl(int docId) {
+		return this.persistance.getUrl(docId);
+	}
+
+	/**
+	 * Returns the positions of a term in a page, in order, or null if the
+	 * index does not keep positions.
+	 * 
+	 * @param term
+	 * @param docId
+	 * @return
+	 */
+	public int[] getPositions(String term, int docId) {
+		if (!(this.persistance instanceof IPositionIndex))
+			return null;
+		return ((IPositionIndex) this.persistance).positions(term, docId);
+	}
+
+	/**
+	 * Returns the number of documents in the index.
+	 * 
+	 * @return
+	 */
+	public int getDocumentCount() {
+		return this.persistance.getDocumentCount();
+	}
+
+	/**
+	 * Returns the number of documents the term weights were made with.
+	 * 
+	 * It is cached with them until the index changes, so once a query's
+	 * terms are weighed it costs no lookup.
+	 * 
+	 * @return
+	 */
+	public int getWeightedDocumentCount() {
+		return currentWeights().documentCount;
+	}
+
+	/**
+	 * Returns the number of documents that contain a term.
+	 * 
+	 * @param term
+	 * @return
+	 */
+	public int getDocumentFrequency(String term) {
+		return this.persistance.getDocumentFrequency(term);
+	}
+
 	/**
 	 * Returns the number of times the given term appears at the given URL.
 	 * 
@@ -140,6 +283,96 @@ public class Indexer {
 		return this.persistance.getCount(url, term);
 	}
 	
+	/**
+	 * Returns the scoring model.
+	 * 
+	 * @return
+	 */
+	public Similarity getSimilarity() {
+		return similarity;
+	}
+
+	/**
+	 * Sets the scoring model, BM25 by default. Results cached under the old
+	 * one go stale.
+	 * 
+	 * @param similarity
+	 */
+	public void setSimilarity(Similarity similarity) {
+		this.similarity = similarity;
+		generation.incrementAndGet();
+	}
+
+	/**
+	 * Returns the weight of a term under the scoring model.
+	 * 
+	 * Weights, and the document count and average length they are made
+	 * from, are cached until the index changes, so scoring a term again
+	 * costs no lookups. They are cached by document frequency as well as
+	 * term: callers count it differently (a Redis URL set may still hold
+	 * replaced pages), and the first caller's count must not decide the
+	 * weight the others get.
+	 * 
+	 * @param term
+	 * @param docFreq  document frequency of the term, at least 1
+	 * @return
+	 */
+	public TermWeight getTermWeight(String term, int docFreq) {
+		Weights current = currentWeights();
+		return current.terms.computeIfAbsent(docFreq + " " + term,
+				key -> current.similarity.weigh(docFreq, current.documentCount, current.averageDocumentLength));
+	}
+
+	/**
+	 * Returns the indexed terms as a sorted, front-coded dictionary.
+	 * 
+	 * The dictionary is built from the backend's term iterator the first
+	 * time it is asked for after the index changes, and shared until the
+	 * next change.
+	 * 
+	 * @return
+	 */
+	public TermDictionary getTermDictionary() {
+		long generation = this.generation.get();
+		Vocabulary current = vocabulary;
+		if (current == null || current.generation != generation) {
+			// as with the weights, a dictionary newer than its generation is
+			// at worst rebuilt early
+			current = new Vocabulary(generation, TermDictionary.build(this.persistance.termIterator()));
+			vocabulary = current;
+		}
+		return current.terms;
+	}
+
+	/**
+	 * Returns the indexed terms that match a pattern with * and ?
+	 * wildcards, in order.
+	 * 
+	 * @param pattern
+	 * @return
+	 * @throws IllegalArgumentException if more than MAX_EXPANSIONS terms
+	 *                                  match
+	 */
+	public List<String> expandTerms(String pattern) {
+		List<String> terms = getTermDictionary().expand(pattern);
+		if (terms.size() > MAX_EXPANSIONS)
+			throw new IllegalArgumentException(pattern + " matches more than " + MAX_EXPANSIONS + " terms");
+		return terms;
+	}
+
+	private Weights currentWeights() {
+		long generation = this.generation.get();
+		Weights current = weights;
+		if (current == null || current.generation != generation) {
+			// the generation is read first, so statistics newer than it are
+			// at worst replaced early, never kept late
+			current = new Weights(generation, similarity, this.persistance.getDocumentCount(),
+					this.persistance.getAverageDocumentLength());
+			weights = current;
+		}
+		return current;
+	}
+
 	/**
 	 * 
 	 * gets all the terms found in a doc and their count
@@ -159,27 +392,27 @@ public class Indexer {
 		Set<String> urls = urlToCount.keySet();
 		
 				
-		//get the total number of docs indexed
-		Set<String> indexedUrls = termCounterKeys();
-		
-		double idf = Math.log(indexedUrls.size()/(double)urls.size());
+		//weigh the term once; the weight is cached until the index changes
+		TermWeight weight = getTermWeight(term, urls.size());
 		
+		//read the document lengths for every hit in one call
+		Map<String, Double> urlToLength = this.persistance.getTotalTermCounts(urls);
 			
 		for (String url: urls)
 		{
 			Double termCount = urlToCount.get(url);
 			
-						
-			double totalCountOfAllTerms = this.persistance.getTotalTermCount(url);
+			Double totalCountOfAllTerms = urlToLength.get(url);
+			if (totalCountOfAllTerms == null || totalCountOfAllTerms == 0)
+				totalCountOfAllTerms = this.persistance.getTotalTermCount(url);
 			
-			double tf = termCount/totalCountOfAllTerms;
-			double tfidf = round(tf*idf, 1);
+			double tfidf = weight.score(termCount.intValue(), totalCountOfAllTerms.intValue());
 			
 			//add the ranking of this relevance
 			if (ranker != null)
 			{
-				Integer linkedCount = ranker.getLinkedCount(url);
-				tfidf  = tfidf + linkedCount;
+				//the ranker only knows pages crawled in this run
+				tfidf  = tfidf + ranker.getRank(url);
 			}
 					
 			urlToCount.put(url, tfidf);
@@ -203,14 +436,38 @@ public class Indexer {
 	public void indexPage(String url, Elements paragraphs) {
 				
 		// make a TermCounter and count the terms in the paragraphs
-		TermCounter tc = new TermCounter(url);
-		tc.processElements(paragraphs, this.stopWordsList);
+		TermCounter tc = countTerms(url, paragraphs);
 		
 		// push the contents of the TermCounter to Redis
 		pushTermCounterToRedis(tc);
 					
 	}
 
+	/**
+	 * Counts the terms of a page without adding it to the index.
+	 * 
+	 * Use with pushTermCountersToRedis to index pages in bulk.
+	 * 
+	 * @param url         URL of the page.
+	 * @param paragraphs  Collection of elements that should be indexed.
+	 * @return
+	 */
+	public TermCounter countTerms(String url, Elements paragraphs) {
+		// only keep positions when the backend can store them
+		TermCounter tc = new TermCounter(url, this.persistance instanceof IPositionIndex);
+		tc.processElements(paragraphs, this.stopWordsList);
+		return tc;
+	}
+
+	/**
+	 * Returns the words left out when pages are indexed.
+	 * 
+	 * @return
+	 */
+	public Set<String> getStopWords() {
+		return Collections.unmodifiableSet(stopWordsList);
+	}
+
 	/**
 	 * Pushes the contents of the TermCounter to Redis.
 	 * 
@@ -219,6 +476,35 @@ public class Indexer {
 	 */
 	public void pushTermCounterToRedis(TermCounter tc) {
 		this.persistance.pushTermCounter(tc);
+		generation.incrementAndGet();
+	}
+
+	/**
+	 * Pushes the contents of many TermCounters in one bulk call.
+	 * 
+	 * @param tcs
+	 */
+	public void pushTermCountersToRedis(Collection<TermCounter> tcs) {
+		this.persistance.pushTermCounters(tcs);
+		generation.incrementAndGet();
+	}
+
+	/**
+	 * Returns a counter that goes up every time pages are indexed or
+	 * deleted.
+	 * 
+	 * @return
+	 */
+	public long getGeneration() {
+		return generation.get();
+	}
+
+	/**
+	 * Marks the index as changed, for changes made to the persistence
+	 * layer directly, such as loading a snapshot.
+	 */
+	public void bumpGeneration() {
+		generation.incrementAndGet();
 	}
 
 	/**
@@ -227,8 +513,8 @@ public class Indexer {
 	 * Should be used for development and testing, not production.
 	 */
 	public void printIndex() {
-		// loop through the search terms
-		for (String term: termSet()) {
+		// loop through the search terms in order
+		for (String term : getTermDictionary()) {
 			System.out.println(term);
 			
 			// for each term, print the pages where it appears
@@ -241,22 +527,16 @@ public class Indexer {
 	}
 
 	/**
-	 * Returns the set of terms that have been indexed.
+	 * Returns the set of terms that have been indexed, in order.
 	 * 
 	 * Should be used for development and testing, not production.
 	 * 
 	 * @return
 	 */
 	public Set<String> termSet() {
-		Set<String> keys = urlSetKeys();
-		Set<String> terms = new HashSet<String>();
-		for (String key: keys) {
-			String[] array = key.split(":");
-			if (array.length < 2) {
-				terms.add("");
-			} else {
-				terms.add(array[1]);
-			}
+		Set<String> terms = new LinkedHashSet<String>();
+		for (String term : getTermDictionary()) {
+			terms.add(term);
 		}
 		return terms;
 	}
@@ -294,6 +574,7 @@ public class Indexer {
 	 */
 	public void deleteURLSets() {
 		this.persistance.deleteURLSets();
+		generation.incrementAndGet();
 	}
 
 	/**
@@ -305,7 +586,7 @@ public class Indexer {
 	 */
 	public void deleteTermCounters() {
 		this.persistance.deleteTermCounters();
-		
+		generation.incrementAndGet();
 	}
 
 	/**
@@ -317,7 +598,7 @@ public class Indexer {
 	 */
 	public void deleteAllKeys() {
 		this.persistance.deleteAllKeys();
-	
+		generation.incrementAndGet();
 	}
 	
 	/**
@@ -373,23 +654,19 @@ public class Indexer {
 	        }
 	  
 	    } finally {
-	        scan.close();
+	        if (scan != null)
+	            scan.close();
 	    }
 	}
 	
-	private static double round (double value, int precision) {
-	    int scale = (int) Math.pow(10, precision);
-	    return (double) Math.round(value * scale) / scale;
-	}
-
 	/**
 	 * @param args
 	 * @throws IOException 
 	 */
 	public static void main(String[] args) throws IOException {
-		Jedis jedis = JedisMaker.make();
+		JedisConnectionPool pool = JedisMaker.makePool();
 		
-		JedisIndexer jedisIndexer = new JedisIndexer (jedis);
+		JedisIndexer jedisIndexer = new JedisIndexer (pool);
 		Indexer index = new Indexer(jedisIndexer);
 		
 		//index.deleteTermCounters();
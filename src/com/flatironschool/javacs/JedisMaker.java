@@ -10,6 +10,8 @@ import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLDecoder;
 
+import com.flatironschool.javacs.persistence.impl.JedisConnectionPool;
+
 import redis.clients.jedis.Jedis;
 
 public class JedisMaker {
@@ -17,10 +19,92 @@ public class JedisMaker {
 	/**
 	 * Make a Jedis object and authenticate it.
 	 *
+	 * The database is left as it is; use make(true) to empty it.
+	 *
 	 * @return
 	 * @throws IOException
 	 */
 	public static Jedis make() throws IOException {
+		return make(false);
+	}
+
+	/**
+	 * Make a Jedis object, authenticate it and optionally empty the database.
+	 *
+	 * @param flush  whether to run FLUSHDB after connecting
+	 * @return
+	 * @throws IOException
+	 */
+	public static Jedis make(boolean flush) throws IOException {
+		URI uri = readRedisURI();
+		if (uri == null)
+			return null;
+
+		String host = uri.getHost();
+		int port = uri.getPort();
+		String auth = getAuth(uri);
+
+		Jedis jedis = new Jedis(host, port, 3600);
+
+		try {
+			jedis.auth(auth);
+			if (flush)
+				jedis.flushDB();
+		} catch (Exception e) {
+			printConnectionError(host, port, auth, e);
+			return null;
+		}
+		return jedis;
+	}
+
+	/**
+	 * Make a connection pool for the server in redis_url.txt with the
+	 * default settings.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public static JedisConnectionPool makePool() throws IOException {
+		return makePool(new JedisConnectionPool.Config(), false);
+	}
+
+	/**
+	 * Make a connection pool for the server in redis_url.txt.
+	 *
+	 * One connection is opened right away to check the server is reachable.
+	 *
+	 * @param config  pool size, timeouts and health checks
+	 * @param flush   whether to run FLUSHDB after connecting
+	 * @return
+	 * @throws IOException
+	 */
+	public static JedisConnectionPool makePool(JedisConnectionPool.Config config, boolean flush) throws IOException {
+		URI uri = readRedisURI();
+		if (uri == null)
+			return null;
+
+		String host = uri.getHost();
+		int port = uri.getPort();
+		String auth = getAuth(uri);
+
+		JedisConnectionPool pool = new JedisConnectionPool(host, port, auth, config);
+		try {
+			pool.execute(jedis -> flush ? jedis.flushDB() : jedis.ping());
+		} catch (Exception e) {
+			printConnectionError(host, port, auth, e);
+			pool.close();
+			return null;
+		}
+		return pool;
+	}
+
+	/**
+	 * Reads the server URI from redis_url.txt.
+	 *
+	 * @return the URI, or null if the file is missing or invalid
+	 * @throws IOException
+	 */
+	private static URI readRedisURI() throws IOException {
 
 		// assemble the file name
 		String slash = File.separator;
@@ -55,32 +139,26 @@ public class JedisMaker {
 			printInstructions();
 			return null;
 		}
-		String host = uri.getHost();
-		int port = uri.getPort();
+		return uri;
+	}
 
+	private static String getAuth(URI uri) {
 		String[] array = uri.getAuthority().split("[:@]");
-		String auth = array[1];
+		return array[1];
 
 		// Here's an older version that read the auth code from an environment
 		// variable.
 		// String host = "dory.redistogo.com";
 		// int port = 10534;
 		// String auth = System.getenv("REDISTOGO_AUTH");
+	}
 
-		Jedis jedis = new Jedis(host, port, 3600);
-
-		try {
-			jedis.auth(auth);
-			jedis.flushDB();
-		} catch (Exception e) {
-			System.out.println("Trying to connect to " + host);
-			System.out.println("on port " + port);
-			System.out.println("with authcode " + auth);
-			System.out.println("Got exception " + e);
-			printInstructions();
-			return null;
-		}
-		return jedis;
+	private static void printConnectionError(String host, int port, String auth, Exception e) {
+		System.out.println("Trying to connect to " + host);
+		System.out.println("on port " + port);
+		System.out.println("with authcode " + auth);
+		System.out.println("Got exception " + e);
+		printInstructions();
 	}
 
 	/**
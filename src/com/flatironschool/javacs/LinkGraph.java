@@ -0,0 +1,136 @@
+package com.flatironschool.javacs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The links between crawled pages, as int edges between dense page ids.
+ *
+ * Edges are appended to two int arrays as they are found. build() sorts
+ * them into a compressed adjacency layout: for each page, the pages that
+ * link to it, stored contiguously in one array, and its out-degree.
+ * Repeated links and links from a page to itself are dropped there.
+ */
+public class LinkGraph {
+
+	private final Map<String, Integer> ids = new HashMap<>();
+	private final List<String> urls = new ArrayList<>();
+	private int[] sources = new int[64];
+	private int[] targets = new int[64];
+	private int edgeCount = 0;
+
+	/**
+	 * The adjacency of a graph at one point in time.
+	 */
+	public static class Adjacency {
+		/** Number of pages. */
+		public final int size;
+		/** The pages linking to page p are inSources[inOffsets[p] .. inOffsets[p + 1]). */
+		public final int[] inOffsets;
+		public final int[] inSources;
+		/** Number of distinct pages each page links to. */
+		public final int[] outDegrees;
+
+		Adjacency(int size, int[] inOffsets, int[] inSources, int[] outDegrees) {
+			this.size = size;
+			this.inOffsets = inOffsets;
+			this.inSources = inSources;
+			this.outDegrees = outDegrees;
+		}
+	}
+
+	/**
+	 * Returns the id of a page, giving it one if it has none.
+	 *
+	 * @param url
+	 * @return
+	 */
+	public int id(String url) {
+		Integer id = ids.get(url);
+		if (id == null) {
+			id = urls.size();
+			ids.put(url, id);
+			urls.add(url);
+		}
+		return id;
+	}
+
+	/**
+	 * Returns the id of a page, or -1 if it has no links.
+	 *
+	 * @param url
+	 * @return
+	 */
+	public int getId(String url) {
+		Integer id = ids.get(url);
+		return id == null ? -1 : id;
+	}
+
+	public String getUrl(int id) {
+		return urls.get(id);
+	}
+
+	/**
+	 * Returns the number of pages.
+	 *
+	 * @return
+	 */
+	public int size() {
+		return urls.size();
+	}
+
+	/**
+	 * Records a link.
+	 *
+	 * @param from  URL of the page the link is on
+	 * @param to    URL it points to
+	 */
+	public void addLink(String from, String to) {
+		int source = id(from);
+		int target = id(to);
+		if (edgeCount == sources.length) {
+			sources = Arrays.copyOf(sources, edgeCount * 2);
+			targets = Arrays.copyOf(targets, edgeCount * 2);
+		}
+		sources[edgeCount] = source;
+		targets[edgeCount] = target;
+		edgeCount++;
+	}
+
+	/**
+	 * Lays out the links recorded so far.
+	 *
+	 * @return
+	 */
+	public Adjacency build() {
+		int n = urls.size();
+		// each edge packed as (target, source) in one long, so sorting
+		// groups the in-links of a page and brings repeats together
+		long[] edges = new long[edgeCount];
+		for (int i = 0; i < edgeCount; i++) {
+			edges[i] = (long) targets[i] << 32 | sources[i];
+		}
+		Arrays.sort(edges);
+
+		int[] inOffsets = new int[n + 1];
+		int[] inSources = new int[edgeCount];
+		int[] outDegrees = new int[n];
+		int count = 0;
+		for (int i = 0; i < edgeCount; i++) {
+			int target = (int) (edges[i] >>> 32);
+			int source = (int) edges[i];
+			if (source == target || (i > 0 && edges[i] == edges[i - 1]))
+				continue;
+			inSources[count++] = source;
+			inOffsets[target + 1]++;
+			outDegrees[source]++;
+		}
+		for (int p = 0; p < n; p++) {
+			inOffsets[p + 1] += inOffsets[p];
+		}
+		return new Adjacency(n, inOffsets, Arrays.copyOf(inSources, count), outDegrees);
+	}
+}
@@ -0,0 +1,184 @@
+package com.flatironschool.javacs;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Computes PageRank by power iteration over a {@link LinkGraph.Adjacency},
+ * splitting each pass over the pages into fork/join tasks.
+ *
+ * Each iteration first spreads the rank of every page over its out-links,
+ * then has every page pull in the shares of the pages that link to it, so
+ * tasks only write to their own range of pages and need no locking. Pages
+ * without out-links spread their rank over all pages. Iteration stops once
+ * the ranks move less than the tolerance in total, or after the maximum
+ * number of iterations.
+ */
+public class PageRank {
+
+	public static final double DEFAULT_DAMPING = 0.85;
+	public static final double DEFAULT_TOLERANCE = 1e-6;
+	public static final int DEFAULT_MAX_ITERATIONS = 100;
+
+	// pages per task below which a range is not split further
+	private static final int THRESHOLD = 2048;
+
+	private final double damping;
+	private final double tolerance;
+	private final int maxIterations;
+	private final ForkJoinPool pool;
+	private int iterations = 0;
+
+	public PageRank() {
+		this(DEFAULT_DAMPING, DEFAULT_TOLERANCE, DEFAULT_MAX_ITERATIONS, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * @param damping        chance of following a link rather than jumping to a random page
+	 * @param tolerance      total change in rank at which to stop
+	 * @param maxIterations
+	 * @param pool           runs the tasks
+	 */
+	public PageRank(double damping, double tolerance, int maxIterations, ForkJoinPool pool) {
+		if (damping < 0 || damping >= 1)
+			throw new IllegalArgumentException("damping must be in [0, 1): " + damping);
+		this.damping = damping;
+		this.tolerance = tolerance;
+		this.maxIterations = maxIterations;
+		this.pool = pool;
+	}
+
+	/**
+	 * Ranks the pages of a graph.
+	 *
+	 * @param graph
+	 * @return the rank of each page by id; the ranks add up to 1
+	 */
+	public double[] compute(LinkGraph.Adjacency graph) {
+		int n = graph.size;
+		double[] rank = new double[n];
+		if (n == 0)
+			return rank;
+		double[] next = new double[n];
+		double[] share = new double[n];
+		Arrays.fill(rank, 1.0 / n);
+
+		iterations = 0;
+		while (iterations < maxIterations) {
+			double dangling = pool.invoke(new Spread(graph, damping, rank, share, 0, n));
+			double base = (1 - damping) / n + damping * dangling / n;
+			double delta = pool.invoke(new Gather(graph, share, rank, next, base, 0, n));
+			double[] swap = rank;
+			rank = next;
+			next = swap;
+			iterations++;
+			if (delta < tolerance)
+				break;
+		}
+		return rank;
+	}
+
+	/**
+	 * Returns the number of iterations the last compute() ran.
+	 *
+	 * @return
+	 */
+	public int getIterations() {
+		return iterations;
+	}
+
+	/**
+	 * Works out what each page passes along each of its links, and returns
+	 * the total rank of the pages that have none.
+	 */
+	private static class Spread extends RecursiveTask<Double> {
+		private static final long serialVersionUID = 1L;
+
+		private final LinkGraph.Adjacency graph;
+		private final double damping;
+		private final double[] rank;
+		private final double[] share;
+		private final int lo, hi;
+
+		Spread(LinkGraph.Adjacency graph, double damping, double[] rank, double[] share, int lo, int hi) {
+			this.graph = graph;
+			this.damping = damping;
+			this.rank = rank;
+			this.share = share;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		@Override
+		protected Double compute() {
+			if (hi - lo > THRESHOLD) {
+				int mid = (lo + hi) >>> 1;
+				Spread left = new Spread(graph, damping, rank, share, lo, mid);
+				left.fork();
+				double right = new Spread(graph, damping, rank, share, mid, hi).compute();
+				return left.join() + right;
+			}
+			double dangling = 0;
+			for (int p = lo; p < hi; p++) {
+				int degree = graph.outDegrees[p];
+				if (degree == 0) {
+					dangling += rank[p];
+					share[p] = 0;
+				} else {
+					share[p] = damping * rank[p] / degree;
+				}
+			}
+			return dangling;
+		}
+	}
+
+	/**
+	 * Sums the shares of the pages linking to each page into its next rank,
+	 * and returns how far the ranks moved.
+	 */
+	private static class Gather extends RecursiveTask<Double> {
+		private static final long serialVersionUID = 1L;
+
+		private final LinkGraph.Adjacency graph;
+		private final double[] share;
+		private final double[] rank;
+		private final double[] next;
+		private final double base;
+		private final int lo, hi;
+
+		Gather(LinkGraph.Adjacency graph, double[] share, double[] rank, double[] next, double base, int lo,
+				int hi) {
+			this.graph = graph;
+			this.share = share;
+			this.rank = rank;
+			this.next = next;
+			this.base = base;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		@Override
+		protected Double compute() {
+			if (hi - lo > THRESHOLD) {
+				int mid = (lo + hi) >>> 1;
+				Gather left = new Gather(graph, share, rank, next, base, lo, mid);
+				left.fork();
+				double right = new Gather(graph, share, rank, next, base, mid, hi).compute();
+				return left.join() + right;
+			}
+			double delta = 0;
+			int[] offsets = graph.inOffsets;
+			int[] sources = graph.inSources;
+			for (int p = lo; p < hi; p++) {
+				double sum = base;
+				for (int i = offsets[p]; i < offsets[p + 1]; i++) {
+					sum += share[sources[i]];
+				}
+				next[p] = sum;
+				delta += Math.abs(sum - rank[p]);
+			}
+			return delta;
+		}
+	}
+}
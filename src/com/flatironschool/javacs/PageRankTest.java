@@ -0,0 +1,75 @@
+package com.flatironschool.javacs;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+public class PageRankTest {
+
+	private static double sum(double[] ranks) {
+		double sum = 0;
+		for (double rank : ranks) {
+			sum += rank;
+		}
+		return sum;
+	}
+
+	@Test
+	public void testCycle() {
+		LinkGraph graph = new LinkGraph();
+		graph.addLink("A", "B");
+		graph.addLink("B", "C");
+		graph.addLink("C", "A");
+		// repeats and self-links are dropped
+		graph.addLink("C", "A");
+		graph.addLink("A", "A");
+
+		double[] ranks = new PageRank().compute(graph.build());
+		for (double rank : ranks) {
+			assertThat(Math.abs(rank - 1 / 3.0) < 1e-9, is(true));
+		}
+	}
+
+	@Test
+	public void testStar() {
+		LinkGraph graph = new LinkGraph();
+		for (int i = 0; i < 4; i++) {
+			graph.addLink("Leaf" + i, "Hub");
+		}
+		LinkGraph.Adjacency adjacency = graph.build();
+		double[] ranks = new PageRank().compute(adjacency);
+
+		// the hub has no out-links, so its rank is spread over every page
+		int hub = graph.getId("Hub");
+		assertThat(adjacency.outDegrees[hub], is(0));
+		assertThat(ranks[hub] > 3 * ranks[graph.getId("Leaf0")], is(true));
+		assertThat(Math.abs(sum(ranks) - 1) < 1e-9, is(true));
+	}
+
+	@Test
+	public void testParallel() {
+		LinkGraph graph = new LinkGraph();
+		Random random = new Random(1);
+		for (int i = 0; i < 50000; i++) {
+			graph.addLink("Page" + random.nextInt(10000), "Page" + random.nextInt(10000));
+		}
+		LinkGraph.Adjacency adjacency = graph.build();
+
+		// enough pages that the passes are split between threads
+		ForkJoinPool pool = new ForkJoinPool(4);
+		ForkJoinPool single = new ForkJoinPool(1);
+		double[] parallel = new PageRank(PageRank.DEFAULT_DAMPING, 1e-9, 100, pool).compute(adjacency);
+		double[] serial = new PageRank(PageRank.DEFAULT_DAMPING, 1e-9, 100, single).compute(adjacency);
+		pool.shutdown();
+		single.shutdown();
+
+		assertThat(Math.abs(sum(parallel) - 1) < 1e-6, is(true));
+		for (int i = 0; i < parallel.length; i++) {
+			assertThat(Math.abs(parallel[i] - serial[i]) < 1e-9, is(true));
+		}
+	}
+}
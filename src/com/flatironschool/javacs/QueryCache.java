@@ -0,0 +1,238 @@
+package com.flatironschool.javacs;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import com.flatironschool.javacs.query.Query;
+
+/**
+ * An LRU cache of ranked search results, keyed by the normalized query.
+ *
+ * The cache is bounded both by number of queries and by weight, the total
+ * number of results held, since one broad query can keep far more URLs
+ * than a narrow one. Least recently used queries are evicted first.
+ *
+ * Every entry is stamped with the index generation it was computed at.
+ * A lookup with a newer generation drops the whole cache, because any
+ * change to the index can change any ranking.
+ */
+public class QueryCache {
+
+	public static final int DEFAULT_MAX_ENTRIES = 1000;
+	public static final int DEFAULT_MAX_WEIGHT = 100000;
+
+	private final int maxEntries;
+	private final int maxWeight;
+
+	// access order, so iteration starts at the least recently used
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private long generation = Long.MIN_VALUE;
+	private long weight = 0;
+
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+	private long invalidations = 0;
+	private long loadNanos = 0;
+
+	private static class Entry {
+		final WikiSearch result;
+		// results were asked for up to this many; fewer means there are no more
+		final int k;
+
+		Entry(WikiSearch result, int k) {
+			this.result = result;
+			this.k = k;
+		}
+
+		boolean covers(int k) {
+			return k <= this.k || result.size() < this.k;
+		}
+	}
+
+	public QueryCache() {
+		this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_WEIGHT);
+	}
+
+	/**
+	 * @param maxEntries  most queries to keep
+	 * @param maxWeight   most results to keep, over all queries
+	 */
+	public QueryCache(int maxEntries, int maxWeight) {
+		if (maxEntries < 1 || maxWeight < 1)
+			throw new IllegalArgumentException("cache bounds must be positive");
+		this.maxEntries = maxEntries;
+		this.maxWeight = maxWeight;
+	}
+
+	/**
+	 * Makes the cache key of a query. Terms are lower-cased and sorted,
+	 * since neither changes the results; repeated terms are kept, since
+	 * they are scored twice.
+	 *
+	 * @param operation
+	 * @param terms
+	 * @param ranked     whether page ranks are added to the scores
+	 * @return
+	 */
+	public static String key(WikiSearch.Operation operation, List<String> terms, boolean ranked) {
+		List<String> normalized = new ArrayList<>();
+		for (String term : terms) {
+			normalized.add(term.trim().toLowerCase());
+		}
+		Collections.sort(normalized);
+		return operation + (ranked ? "+rank" : "") + ":" + String.join(" ", normalized);
+	}
+
+	/**
+	 * Makes the cache key of a parsed query, which is written out in full
+	 * so that queries that group the same way share a key.
+	 *
+	 * @param query
+	 * @param ranked  whether page ranks are added to the scores
+	 * @return
+	 */
+	public static String key(Query query, boolean ranked) {
+		return "QUERY" + (ranked ? "+rank" : "") + ":" + query;
+	}
+
+	/**
+	 * Returns the cached results of a query, or loads and caches them.
+	 *
+	 * @param key         from key()
+	 * @param generation  current index generation; must never go down
+	 * @param k           number of results needed
+	 * @param loader      runs the query for the top k
+	 * @return
+	 */
+	public WikiSearch get(String key, long generation, int k, Supplier<WikiSearch> loader) {
+		synchronized (this) {
+			invalidateBefore(generation);
+			Entry entry = entries.get(key);
+			if (entry != null && entry.covers(k)) {
+				hits++;
+				return entry.result;
+			}
+			misses++;
+		}
+
+		long start = System.nanoTime();
+		WikiSearch result = loader.get();
+		long elapsed = System.nanoTime() - start;
+
+		synchronized (this) {
+			loadNanos += elapsed;
+			// the index may have changed while we were loading
+			if (generation >= this.generation) {
+				invalidateBefore(generation);
+				put(key, new Entry(result, k));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Drops every entry.
+	 */
+	public synchronized void clear() {
+		invalidations += entries.size();
+		entries.clear();
+		weight = 0;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Returns the total number of results held.
+	 *
+	 * @return
+	 */
+	public synchronized long weight() {
+		return weight;
+	}
+
+	public synchronized long getHitCount() {
+		return hits;
+	}
+
+	public synchronized long getMissCount() {
+		return misses;
+	}
+
+	/**
+	 * Returns the fraction of lookups served from the cache, or 0 before
+	 * the first lookup.
+	 *
+	 * @return
+	 */
+	public synchronized double getHitRate() {
+		long lookups = hits + misses;
+		return lookups == 0 ? 0 : hits / (double) lookups;
+	}
+
+	/**
+	 * Returns the number of entries evicted to stay within the bounds.
+	 *
+	 * @return
+	 */
+	public synchronized long getEvictionCount() {
+		return evictions;
+	}
+
+	/**
+	 * Returns the number of entries dropped because the index changed.
+	 *
+	 * @return
+	 */
+	public synchronized long getInvalidationCount() {
+		return invalidations;
+	}
+
+	/**
+	 * Returns the mean time spent running queries on a miss, in
+	 * milliseconds.
+	 *
+	 * @return
+	 */
+	public synchronized double getAverageLoadMillis() {
+		return misses == 0 ? 0 : loadNanos / 1e6 / misses;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("%d queries, %d results, hit rate %.1f%% (%d hits, %d misses), "
+				+ "%d evictions, %d invalidations, %.2f ms average load",
+				entries.size(), weight, 100 * getHitRate(), hits, misses, evictions, invalidations,
+				getAverageLoadMillis());
+	}
+
+	private void invalidateBefore(long generation) {
+		if (generation > this.generation) {
+			clear();
+			this.generation = generation;
+		}
+	}
+
+	private void put(String key, Entry entry) {
+		Entry old = entries.put(key, entry);
+		if (old != null)
+			weight -= old.result.size();
+		weight += entry.result.size();
+
+		Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+		while ((entries.size() > maxEntries || weight > maxWeight) && it.hasNext()) {
+			Map.Entry<String, Entry> eldest = it.next();
+			// an entry heavier than the whole cache is not kept either
+			weight -= eldest.getValue().result.size();
+			it.remove();
+			evictions++;
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package com.flatironschool.javacs;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class QueryCacheTest {
+
+	private int loads = 0;
+
+	private WikiSearch load(int results) {
+		loads++;
+		Map<String, Double> map = new HashMap<String, Double>();
+		for (int i = 0; i < results; i++) {
+			map.put("Page" + i, (double) i);
+		}
+		return new WikiSearch(map);
+	}
+
+	@Test
+	public void testKey() {
+		String key = QueryCache.key(WikiSearch.Operation.AND, Arrays.asList("Java", "language"), true);
+		assertThat(QueryCache.key(WikiSearch.Operation.AND, Arrays.asList("language", "java"), true), is(key));
+		assertThat(QueryCache.key(WikiSearch.Operation.OR, Arrays.asList("java", "language"), true), not(key));
+	}
+
+	@Test
+	public void testHitsAndInvalidation() {
+		QueryCache cache = new QueryCache();
+		cache.get("q", 1, 10, () -> load(10));
+		cache.get("q", 1, 5, () -> load(5));
+		assertThat(loads, is(1));
+		assertThat(cache.getHitCount(), is(1L));
+
+		// more results than were asked for the first time
+		cache.get("q", 1, 20, () -> load(20));
+		assertThat(loads, is(2));
+
+		// the index changed
+		cache.get("q", 2, 5, () -> load(5));
+		assertThat(loads, is(3));
+		assertThat(cache.getInvalidationCount(), is(1L));
+		assertThat(cache.getHitRate(), is(0.25));
+	}
+
+	@Test
+	public void testEviction() {
+		QueryCache cache = new QueryCache(10, 25);
+		for (int i = 0; i < 3; i++) {
+			cache.get("q" + i, 1, 10, () -> load(10));
+		}
+		// the third query pushed the weight to 30, so the first went
+		assertThat(cache.size(), is(2));
+		assertThat(cache.weight(), is(20L));
+		assertThat(cache.getEvictionCount(), is(1L));
+
+		cache.get("q2", 1, 10, () -> load(10));
+		assertThat(loads, is(3));
+		cache.get("q0", 1, 10, () -> load(10));
+		assertThat(loads, is(4));
+	}
+}
@@ -1,32 +1,127 @@
 package com.flatironschool.javacs;
 
-import java.util.HashMap;
-import java.util.Map;
-
+/**
+ * Ranks pages by PageRank over the links found while crawling.
+ *
+ * The crawler records each link with addLink. The ranks are worked out
+ * the first time they are needed after the links change, and scaled so
+ * that the average page has rank 1. Searches read them as a float[]
+ * indexed by doc id, so adding the rank of a page to its score costs one
+ * array read.
+ */
 public class Ranker {
 
-	Map<String, Integer> ranks;
-	
-	public Ranker ()
-	{
-		ranks = new HashMap<>();
-	}
-	
-	public void increment (String url)
-	{
-		Integer linkedCount = ranks.get(url);
-		if (linkedCount == null)
-		{
-			ranks.put(url, 1);
-		}
-		else
-		{
-			ranks.put(url, linkedCount+1);
+	private final LinkGraph graph = new LinkGraph();
+	private final PageRank pageRank;
+	private long version = 0;
+
+	// by page id, as of rankedVersion
+	private float[] ranks = new float[0];
+	private float maxRank = 0;
+	private long rankedVersion = 0;
+
+	// by doc id, for docRanksIndex as of docRanksGeneration and docRanksVersion
+	private float[] docRanks = new float[0];
+	private Indexer docRanksIndex;
+	private long docRanksGeneration = -1;
+	private long docRanksVersion = -1;
+
+	public Ranker() {
+		this(new PageRank());
+	}
+
+	/**
+	 * @param pageRank  computes the ranks
+	 */
+	public Ranker(PageRank pageRank) {
+		this.pageRank = pageRank;
+	}
+
+	/**
+	 * Records a link from one page to another.
+	 * 
+	 * @param from  URL of the page the link is on
+	 * @param to    URL it points to
+	 */
+	public synchronized void addLink(String from, String to) {
+		graph.addLink(from, to);
+		version++;
+	}
+
+	/**
+	 * Returns the rank of a page, or 0 if no link was seen to or from it.
+	 * 
+	 * @param url
+	 * @return
+	 */
+	public synchronized float getRank(String url) {
+		int id = graph.getId(url);
+		return id < 0 ? 0 : ranks()[id];
+	}
+
+	/**
+	 * Returns the largest rank of any page, an upper bound for pruning
+	 * searches.
+	 * 
+	 * @return
+	 */
+	public synchronized float getMaxRank() {
+		ranks();
+		return maxRank;
+	}
+
+	/**
+	 * Returns the rank of each page in an index by doc id, 0 for pages the
+	 * ranker has not seen. Doc ids past the end have rank 0 as well.
+	 * 
+	 * The array is laid out again only when the links or the index change.
+	 * 
+	 * @param index
+	 * @return
+	 */
+	public synchronized float[] getDocRanks(Indexer index) {
+		long generation = index.getGeneration();
+		if (index != docRanksIndex || generation != docRanksGeneration || version != docRanksVersion) {
+			float[] byId = ranks();
+			int[] docIds = new int[byId.length];
+			int size = 0;
+			for (int id = 0; id < byId.length; id++) {
+				docIds[id] = index.getDocId(graph.getUrl(id));
+				size = Math.max(size, docIds[id] + 1);
+			}
+			docRanks = new float[size];
+			for (int id = 0; id < byId.length; id++) {
+				if (docIds[id] >= 0)
+					docRanks[docIds[id]] = byId[id];
+			}
+			docRanksIndex = index;
+			docRanksGeneration = generation;
+			docRanksVersion = version;
 		}
+		return docRanks;
 	}
-	
-	public Integer getLinkedCount (String url)
-	{
-		return ranks.get(url);
+
+	/**
+	 * Returns a counter that goes up every time a link is added.
+	 * 
+	 * @return
+	 */
+	public synchronized long getVersion() {
+		return version;
+	}
+
+	private float[] ranks() {
+		if (rankedVersion != version) {
+			double[] computed = pageRank.compute(graph.build());
+			int n = computed.length;
+			ranks = new float[n];
+			maxRank = 0;
+			for (int id = 0; id < n; id++) {
+				ranks[id] = (float) (computed[id] * n);
+				maxRank = Math.max(maxRank, ranks[id]);
+			}
+			rankedVersion = version;
+		}
+		return ranks;
 	}
 }
@@ -1,5 +1,6 @@
 package com.flatironschool.javacs;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
@@ -13,11 +14,17 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
+import java.util.function.Supplier;
 
 import com.flatironschool.javacs.WikiSearch.MyFormatter;
 import com.flatironschool.javacs.WikiSearch.Operation;
 import com.flatironschool.javacs.persistence.impl.JavaIndexer;
 import com.flatironschool.javacs.persistence.impl.JedisIndexer;
+import com.flatironschool.javacs.persistence.impl.SegmentIndexer;
+import com.flatironschool.javacs.persistence.interfaces.IPersistIndex;
+import com.flatironschool.javacs.query.Query;
+import com.flatironschool.javacs.query.QueryParser;
+import com.flatironschool.javacs.query.QueryTimeoutException;
 
 import joptsimple.HelpFormatter;
 import joptsimple.OptionDescriptor;
@@ -66,11 +73,18 @@ public class SearchEngine {
 			{
 				accepts("c", "site to crawl").withRequiredArg().ofType(URI.class).describedAs("url to crawl");
 				accepts("d", "depth to crawl").requiredIf("c").withRequiredArg().ofType(Integer.class).describedAs("crawling depth");
-				accepts("q", "quit");
+				accepts("q", "quit").withOptionalArg().ofType(File.class).describedAs("file to save the index to first");
+				accepts("save", "save the index to a file").withRequiredArg().ofType(File.class).describedAs("snapshot file");
+				accepts("load", "load the index from a file").withRequiredArg().ofType(File.class).describedAs("snapshot file");
 				accepts("s", "search").withRequiredArg().describedAs("term1:term1..., must provide search operation")
 						.ofType(String.class).withValuesSeparatedBy(":");
-				//accepts("o", "search operation").requiredIf("s").withRequiredArg().ofType(Operation.class)
-				//		.describedAs("search operation, can have values 'AND' or 'OR'").defaultsTo(Operation.AND);
+				accepts("p", "page of results to show").withRequiredArg().ofType(Integer.class).defaultsTo(1);
+				accepts("n", "results per page").withRequiredArg().ofType(Integer.class)
+						.defaultsTo(WikiSearch.DEFAULT_PAGE_SIZE);
+				accepts("o", "search operation").withRequiredArg().ofType(Operation.class)
+						.describedAs("search operation, can have values 'AND' or 'OR'").defaultsTo(Operation.AND);
+				accepts("e", "search with the query expression after the options, such as a AND (b OR c) NOT \"d e\"");
+				accepts("m", "show query cache metrics");
 				accepts("a", "analyze images of the site").withRequiredArg().ofType(URI.class).describedAs("url to analyze");
 				
 			}
@@ -84,11 +98,22 @@ public class SearchEngine {
 
 		jedis = JedisMaker.make();
 		
-		//JedisIndexer jedisIndexer = new JedisIndexer (jedis);
-		JavaIndexer javaIndexer = new JavaIndexer();
-		index = new Indexer(javaIndexer);
+		//JedisIndexer jedisIndexer = new JedisIndexer (JedisMaker.makePool());
+		// with a directory argument the index is kept on disk between runs
+		IPersistIndex persistIndex;
+		if (args.length > 0) {
+			SegmentIndexer segments = new SegmentIndexer(new File(args[0]));
+			// searches then score each posting from its stored tf rather than
+			// the page length, and read common terms best first
+			segments.setImpactBits(16);
+			persistIndex = segments;
+		} else {
+			persistIndex = new JavaIndexer();
+		}
+		index = new Indexer(persistIndex);
 		
 		Ranker ranker = new Ranker ();
+		QueryCache cache = new QueryCache();
 
 		boolean quit = false;
 		
@@ -113,36 +138,85 @@ public class SearchEngine {
 				}
 
 				if (optionSet.has("q")) {
+					if (optionSet.hasArgument("q"))
+						saveSnapshot(persistIndex, (File) optionSet.valueOf("q"));
 					System.out.println("Quitting");
 					break;
 				}
-				if (optionSet.hasArgument("c") && optionSet.hasArgument("d")) {
+				if (optionSet.hasArgument("save")) {
+					saveSnapshot(persistIndex, (File) optionSet.valueOf("save"));
+				} else if (optionSet.hasArgument("load")) {
+					loadSnapshot(persistIndex, (File) optionSet.valueOf("load"));
+					index.bumpGeneration();
+				} else if (optionSet.has("m")) {
+					System.out.println("Query cache: " + cache);
+				} else if (optionSet.hasArgument("c") && optionSet.hasArgument("d")) {
 					URI crawlSite = (URI) optionSet.valueOf("c");
 					Integer depth = (Integer) optionSet.valueOf("d");
 					System.out.println("Crawling " + crawlSite.toString());
 					WikiCrawler crawler = new WikiCrawler(crawlSite.toString(), index, ranker);
 					crawler.crawlAll(depth);
 					System.out.println("Done Crawling " + crawlSite.toString());
-				} else if (optionSet.hasArgument("s")) {
-				 
-				
-					List<?> terms = optionSet.valuesOf("s");
+				} else if (optionSet.hasArgument("s") || optionSet.has("e")) {
+					int page = (Integer) optionSet.valueOf("p");
+					int pageSize = (Integer) optionSet.valueOf("n");
+					if (page < 1 || pageSize < 1) {
+						System.out.println("Page and page size must be positive");
+						continue;
+					}
+					// only the pages up to the requested one are ever ranked
+					int k = page * pageSize;
 					
-					List<WikiSearch> searches = new ArrayList<>();
-					for (Object term : terms) {
-						System.out.println("Query: " + term);
-
-						WikiSearch search = WikiSearch.search((String) term, index, ranker);
-						if (search != null)
-							searches.add(search);
+					String key;
+					Supplier<WikiSearch> loader;
+					Object terms;
+					// wildcards are only expanded by the query path
+					boolean wildcards = false;
+					for (Object term : optionSet.valuesOf("s")) {
+						wildcards |= QueryParser.isWildcard((String) term);
 					}
-
-					if (searches.size() > 0) {
-						WikiSearch searchResult = WikiSearch.searchAll(searches, searches.get(0), 1);
-						searchResult.print();
-					} else
+					if (optionSet.has("e") || wildcards) {
+						Query query;
+						try {
+							query = WikiSearch.toQuery(optionSet);
+						} catch (IllegalArgumentException e) {
+							System.out.println(e.getMessage());
+							continue;
+						}
+						System.out.println("Query: " + query);
+						terms = query;
+						key = QueryCache.key(query, true);
+						loader = () -> WikiSearch.search(query, index, ranker, k);
+					} else {
+						terms = optionSet.valuesOf("s");
+						System.out.println("Query: " + terms);
+						List<String> queryTerms = new ArrayList<>();
+						for (Object term : optionSet.valuesOf("s")) {
+							// pages are indexed in lower case
+							queryTerms.add(((String) term).toLowerCase());
+						}
+						Operation operation = (Operation) optionSet.valueOf("o");
+						key = QueryCache.key(operation, queryTerms, true);
+						loader = () -> operation == Operation.OR ? WikiSearch.searchOr(queryTerms, index, ranker, k)
+								: WikiSearch.searchAnd(queryTerms, index, ranker, k);
+					}
+					// both counters only go up, so their sum changes whenever either does
+					long generation = index.getGeneration() + ranker.getVersion();
+					WikiSearch searchResult;
+					long matches = 0;
+					try {
+						searchResult = cache.get(key, generation, k, loader);
+						// the result holds only the first k pages, so the rest are counted
+						if (searchResult.size() > 0)
+							matches = WikiSearch.count(WikiSearch.toQuery(optionSet), index);
+					} catch (IllegalArgumentException | QueryTimeoutException e) {
+						System.out.println("Search failed: " + e.getMessage());
+						continue;
+					}
+					if (searchResult.size() > 0)
+						searchResult.print((page - 1) * pageSize, pageSize, matches);
+					else
 						System.out.println("No match found for terms(s) " + terms);
-
 				}
 				else if (optionSet.hasArgument("a")) {
 					URI analyzeSite = (URI) optionSet.valueOf("a");
@@ -160,8 +234,40 @@ public class SearchEngine {
 		} finally {
 			if (scanner != null)
 				scanner.close();
+			if (persistIndex instanceof SegmentIndexer)
+				((SegmentIndexer) persistIndex).close();
 		}
 
 	}
 
+	private static void saveSnapshot(IPersistIndex persistIndex, File file) {
+		if (!(persistIndex instanceof JavaIndexer)) {
+			System.out.println("Only the in-memory index can be saved");
+			return;
+		}
+		long start = System.currentTimeMillis();
+		try {
+			((JavaIndexer) persistIndex).saveSnapshot(file);
+			System.out.println("Saved " + persistIndex.getDocumentCount() + " pages to " + file + " in "
+					+ (System.currentTimeMillis() - start) + " ms");
+		} catch (IOException e) {
+			System.out.println("Could not save " + file + ": " + e.getMessage());
+		}
+	}
+
+	private static void loadSnapshot(IPersistIndex persistIndex, File file) {
+		if (!(persistIndex instanceof JavaIndexer)) {
+			System.out.println("Only the in-memory index can be loaded");
+			return;
+		}
+		long start = System.currentTimeMillis();
+		try {
+			((JavaIndexer) persistIndex).loadSnapshot(file);
+			System.out.println("Loaded " + persistIndex.getDocumentCount() + " pages from " + file + " in "
+					+ (System.currentTimeMillis() - start) + " ms");
+		} catch (IOException e) {
+			System.out.println("Could not load " + file + ": " + e.getMessage());
+		}
+	}
+
 }
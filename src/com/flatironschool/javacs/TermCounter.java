@@ -1,6 +1,7 @@
 package com.flatironschool.javacs;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
@@ -20,10 +21,39 @@ public class TermCounter {
 	
 	private Map<String, Integer> map;
 	private String label;
+	
+	// where each term appears, if positions are kept
+	private Map<String, Positions> positions;
+	private int position = 0;
+	
+	/**
+	 * The positions of one term, in increasing order.
+	 */
+	private static class Positions {
+		int[] values = new int[4];
+		int size = 0;
+		
+		void add(int position) {
+			if (size == values.length)
+				values = Arrays.copyOf(values, size * 2);
+			values[size++] = position;
+		}
+	}
 		
 	public TermCounter(String label) {
+		this(label, false);
+	}
+	
+	/**
+	 * @param label
+	 * @param keepPositions  whether to record where each word appears, for
+	 *                       phrase and proximity queries
+	 */
+	public TermCounter(String label, boolean keepPositions) {
 		this.label = label;
 		this.map = new HashMap<String, Integer>();
+		if (keepPositions)
+			this.positions = new HashMap<String, Positions>();
 	}
 	
 	public String getLabel() {
@@ -81,11 +111,52 @@ public class TermCounter {
 		for (int i=0; i<array.length; i++) {
 			String term = array[i];
 			
+			// stop words still take up a position, so phrases around them
+			// keep their gaps; the empty string split leaves does not
+			int at = term.isEmpty() ? -1 : position++;
+			
 			if (stopWords != null && stopWords.contains(term))
 				continue;
+			if (positions != null && at >= 0)
+				addPosition(term, at);
 			incrementTermCount(term);
 		}
 	}
+	
+	private void addPosition(String term, int at) {
+		Positions termPositions = positions.get(term);
+		if (termPositions == null) {
+			termPositions = new Positions();
+			positions.put(term, termPositions);
+		}
+		termPositions.add(at);
+	}
+	
+	/**
+	 * Returns where a term appears, counting words from 0 across all the
+	 * text processed, or null if positions are not kept or do not match the
+	 * count of the term (after a put, for instance).
+	 * 
+	 * @param term
+	 * @return
+	 */
+	public int[] getPositions(String term) {
+		if (positions == null)
+			return null;
+		Positions termPositions = positions.get(term);
+		if (termPositions == null || termPositions.size != get(term))
+			return null;
+		return Arrays.copyOf(termPositions.values, termPositions.size);
+	}
+	
+	/**
+	 * Returns true if this counter records positions.
+	 * 
+	 * @return
+	 */
+	public boolean hasPositions() {
+		return positions != null;
+	}
 
 	/**
 	 * Increments the counter associated with `term`.
@@ -0,0 +1,327 @@
+package com.flatironschool.javacs;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.regex.Pattern;
+
+import com.flatironschool.javacs.persistence.impl.VarInt;
+
+/**
+ * A sorted, immutable set of terms, front-coded.
+ *
+ * Terms are kept as UTF-8 in code point order, in blocks of
+ * {@link #BLOCK_SIZE}. The first term of a block is stored whole; every
+ * other is stored as the length of the prefix it shares with the term
+ * before it and the rest of its bytes. Neighbouring terms share long
+ * prefixes, so the whole vocabulary takes a fraction of the space of one
+ * String per term.
+ *
+ * Finding a term binary searches the first terms of the blocks and then
+ * decodes one block. The terms with a prefix are found by seeking to the
+ * prefix and decoding forwards until a term no longer starts with it, so
+ * expanding a prefix costs one seek plus the terms it matches.
+ */
+public class TermDictionary implements Iterable<String> {
+
+	/** Number of terms per block. */
+	static final int BLOCK_SIZE = 16;
+
+	private final byte[] data;
+	// where each block starts in data
+	private final int[] blockOffsets;
+	private final int size;
+
+	private TermDictionary(byte[] data, int[] blockOffsets, int size) {
+		this.data = data;
+		this.blockOffsets = blockOffsets;
+		this.size = size;
+	}
+
+	/**
+	 * Builds a dictionary of some terms, given in any order; repeats are
+	 * dropped.
+	 *
+	 * @param terms
+	 * @return
+	 */
+	public static TermDictionary build(Iterator<String> terms) {
+		List<byte[]> encoded = new ArrayList<byte[]>();
+		while (terms.hasNext()) {
+			encoded.add(terms.next().getBytes(StandardCharsets.UTF_8));
+		}
+		// unsigned byte order is code point order
+		encoded.sort(TermDictionary::compare);
+
+		byte[] data = new byte[64];
+		int[] blockOffsets = new int[encoded.size() / BLOCK_SIZE + 1];
+		int pos = 0;
+		int size = 0;
+		byte[] last = null;
+		for (byte[] term : encoded) {
+			if (last != null && Arrays.equals(term, last))
+				continue;
+			if (pos + 2 * VarInt.MAX_BYTES + term.length > data.length)
+				data = Arrays.copyOf(data, Math.max(data.length * 2, pos + 2 * VarInt.MAX_BYTES + term.length));
+			int shared = 0;
+			if (size % BLOCK_SIZE == 0) {
+				blockOffsets[size / BLOCK_SIZE] = pos;
+			} else {
+				shared = sharedPrefix(last, term);
+				pos = VarInt.write(data, pos, shared);
+			}
+			pos = VarInt.write(data, pos, term.length - shared);
+			System.arraycopy(term, shared, data, pos, term.length - shared);
+			pos += term.length - shared;
+			last = term;
+			size++;
+		}
+		int blocks = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		return new TermDictionary(Arrays.copyOf(data, pos), Arrays.copyOf(blockOffsets, blocks), size);
+	}
+
+	/**
+	 * Returns the number of terms.
+	 *
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the term at a position in code point order.
+	 *
+	 * @param index
+	 * @return
+	 */
+	public String term(int index) {
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("no term " + index + " of " + size);
+		return new Cursor(index).term();
+	}
+
+	public boolean contains(String term) {
+		byte[] key = term.getBytes(StandardCharsets.UTF_8);
+		Cursor cursor = new Cursor(ceiling(key));
+		return cursor.index < size && compare(cursor.term, cursor.length, key) == 0;
+	}
+
+	/**
+	 * Iterates over the terms in code point order.
+	 */
+	@Override
+	public Iterator<String> iterator() {
+		return new PrefixIterator(0, new byte[0]);
+	}
+
+	/**
+	 * Iterates over the terms that start with `prefix`, in code point order.
+	 *
+	 * @param prefix
+	 * @return
+	 */
+	public Iterator<String> prefix(String prefix) {
+		byte[] key = prefix.getBytes(StandardCharsets.UTF_8);
+		return new PrefixIterator(ceiling(key), key);
+	}
+
+	/**
+	 * Returns the terms that match a pattern in which * stands for any run
+	 * of characters and ? for any one character, in code point order.
+	 *
+	 * Only the terms that start with the text before the first wildcard
+	 * are read, so a pattern should not start with one.
+	 *
+	 * @param pattern
+	 * @return
+	 */
+	public List<String> expand(String pattern) {
+		int wildcard = firstWildcard(pattern);
+		List<String> terms = new ArrayList<String>();
+		if (wildcard < 0) {
+			if (contains(pattern))
+				terms.add(pattern);
+			return terms;
+		}
+		Pattern regex = toRegex(pattern);
+		Iterator<String> candidates = prefix(pattern.substring(0, wildcard));
+		while (candidates.hasNext()) {
+			String term = candidates.next();
+			if (regex.matcher(term).matches())
+				terms.add(term);
+		}
+		return terms;
+	}
+
+	/**
+	 * Returns the position of the first * or ? in a pattern, or -1.
+	 *
+	 * @param pattern
+	 * @return
+	 */
+	public static int firstWildcard(String pattern) {
+		for (int i = 0; i < pattern.length(); i++) {
+			char c = pattern.charAt(i);
+			if (c == '*' || c == '?')
+				return i;
+		}
+		return -1;
+	}
+
+	private static Pattern toRegex(String pattern) {
+		StringBuilder regex = new StringBuilder();
+		int start = 0;
+		for (int i = 0; i < pattern.length(); i++) {
+			char c = pattern.charAt(i);
+			if (c != '*' && c != '?')
+				continue;
+			if (i > start)
+				regex.append(Pattern.quote(pattern.substring(start, i)));
+			regex.append(c == '*' ? ".*" : ".");
+			start = i + 1;
+		}
+		if (start < pattern.length())
+			regex.append(Pattern.quote(pattern.substring(start)));
+		return Pattern.compile(regex.toString(), Pattern.DOTALL);
+	}
+
+	/**
+	 * Returns the position of the first term at least `key`, or size if
+	 * there is none.
+	 */
+	private int ceiling(byte[] key) {
+		// the last block whose first term is at most the key
+		int lo = 0;
+		int hi = blockOffsets.length - 1;
+		int block = 0;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int pos = blockOffsets[mid];
+			ByteBuffer in = ByteBuffer.wrap(data, pos, data.length - pos);
+			int length = VarInt.read(in);
+			if (compare(data, in.position(), length, key) <= 0) {
+				block = mid;
+				lo = mid + 1;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		Cursor cursor = new Cursor(block * BLOCK_SIZE);
+		while (cursor.index < size && compare(cursor.term, cursor.length, key) < 0) {
+			cursor.next();
+		}
+		return cursor.index;
+	}
+
+	/**
+	 * Decodes terms forwards from a position, one term in a reused buffer.
+	 */
+	private class Cursor {
+		int index;
+		byte[] term = new byte[32];
+		int length = 0;
+		private final ByteBuffer in;
+
+		Cursor(int index) {
+			int block = Math.min(index, size) / BLOCK_SIZE;
+			in = ByteBuffer.wrap(data);
+			if (block < blockOffsets.length)
+				in.position(blockOffsets[block]);
+			this.index = block * BLOCK_SIZE;
+			if (this.index < size)
+				decode();
+			while (this.index < index && this.index < size) {
+				next();
+			}
+		}
+
+		void next() {
+			index++;
+			if (index < size)
+				decode();
+		}
+
+		private void decode() {
+			int shared = index % BLOCK_SIZE == 0 ? 0 : VarInt.read(in);
+			int suffix = VarInt.read(in);
+			if (shared + suffix > term.length)
+				term = Arrays.copyOf(term, Math.max(term.length * 2, shared + suffix));
+			in.get(term, shared, suffix);
+			length = shared + suffix;
+		}
+
+		String term() {
+			return new String(term, 0, length, StandardCharsets.UTF_8);
+		}
+
+		boolean startsWith(byte[] prefix) {
+			if (length < prefix.length)
+				return false;
+			for (int i = 0; i < prefix.length; i++) {
+				if (term[i] != prefix[i])
+					return false;
+			}
+			return true;
+		}
+	}
+
+	private class PrefixIterator implements Iterator<String> {
+		private final Cursor cursor;
+		private final byte[] prefix;
+
+		PrefixIterator(int index, byte[] prefix) {
+			this.cursor = new Cursor(index);
+			this.prefix = prefix;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return cursor.index < size && cursor.startsWith(prefix);
+		}
+
+		@Override
+		public String next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			String term = cursor.term();
+			cursor.next();
+			return term;
+		}
+	}
+
+	private static int sharedPrefix(byte[] a, byte[] b) {
+		int n = Math.min(a.length, b.length);
+		int i = 0;
+		while (i < n && a[i] == b[i]) {
+			i++;
+		}
+		return i;
+	}
+
+	private static int compare(byte[] a, byte[] b) {
+		return compare(a, 0, a.length, b);
+	}
+
+	private static int compare(byte[] a, int length, byte[] key) {
+		return compare(a, 0, length, key);
+	}
+
+	/**
+	 * Compares `length` bytes of `a` from `offset` with a key, as unsigned
+	 * bytes.
+	 */
+	private static int compare(byte[] a, int offset, int length, byte[] key) {
+		int n = Math.min(length, key.length);
+		for (int i = 0; i < n; i++) {
+			int cmp = (a[offset + i] & 0xFF) - (key[i] & 0xFF);
+			if (cmp != 0)
+				return cmp;
+		}
+		return length - key.length;
+	}
+}
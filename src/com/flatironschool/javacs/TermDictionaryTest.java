@@ -0,0 +1,77 @@
+package com.flatironschool.javacs;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TermDictionaryTest {
+
+	private static List<String> toList(Iterator<String> terms) {
+		List<String> list = new ArrayList<String>();
+		while (terms.hasNext()) {
+			list.add(terms.next());
+		}
+		return list;
+	}
+
+	@Test
+	public void testPrefix() {
+		List<String> terms = new ArrayList<String>();
+		for (int i = 0; i < 100; i++) {
+			terms.add("java" + i);
+			terms.add("jar" + i);
+		}
+		terms.add("java");
+		terms.add("java");
+		terms.add("caf\u00e9");
+		TermDictionary dictionary = TermDictionary.build(terms.iterator());
+
+		// repeats are dropped and the rest sorted, spanning several blocks
+		assertThat(dictionary.size(), is(202));
+		assertThat(dictionary.term(0), is("caf\u00e9"));
+		assertThat(dictionary.term(1), is("jar0"));
+		assertThat(dictionary.contains("java"), is(true));
+		assertThat(dictionary.contains("jav"), is(false));
+		assertThat(dictionary.contains("java100"), is(false));
+
+		List<String> all = toList(dictionary.iterator());
+		List<String> sorted = new ArrayList<String>(all);
+		Collections.sort(sorted);
+		assertThat(all, is(sorted));
+
+		assertThat(toList(dictionary.prefix("java")).size(), is(101));
+		assertThat(toList(dictionary.prefix("java9")), is(Arrays.asList("java9", "java90", "java91", "java92",
+				"java93", "java94", "java95", "java96", "java97", "java98", "java99")));
+		assertThat(toList(dictionary.prefix("jb")).isEmpty(), is(true));
+		assertThat(toList(dictionary.prefix("caf")), is(Arrays.asList("caf\u00e9")));
+	}
+
+	@Test
+	public void testExpand() {
+		TermDictionary dictionary = TermDictionary
+				.build(Arrays.asList("cat", "cot", "coat", "cut", "dog", "c.t").iterator());
+
+		assertThat(dictionary.expand("c?t"), is(Arrays.asList("c.t", "cat", "cot", "cut")));
+		assertThat(dictionary.expand("c*t"), is(Arrays.asList("c.t", "cat", "coat", "cot", "cut")));
+		assertThat(dictionary.expand("co*"), is(Arrays.asList("coat", "cot")));
+		assertThat(dictionary.expand("c.*"), is(Arrays.asList("c.t")));
+		assertThat(dictionary.expand("dog"), is(Arrays.asList("dog")));
+		assertThat(dictionary.expand("d?"), is(Collections.<String>emptyList()));
+	}
+
+	@Test
+	public void testEmpty() {
+		TermDictionary dictionary = TermDictionary.build(Collections.<String>emptyIterator());
+		assertThat(dictionary.size(), is(0));
+		assertThat(dictionary.contains("java"), is(false));
+		assertThat(dictionary.iterator().hasNext(), is(false));
+		assertThat(dictionary.expand("j*").isEmpty(), is(true));
+	}
+}
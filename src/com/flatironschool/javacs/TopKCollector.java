@@ -0,0 +1,153 @@
+package com.flatironschool.javacs;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the k best (id, score) pairs seen so far in a bounded min-heap of
+ * primitives, so picking the top k of n hits costs O(n log k) and no boxing.
+ *
+ * Ties are broken in favor of the smaller id, which keeps results stable.
+ */
+public class TopKCollector {
+
+	private final int k;
+	private final int[] ids;
+	private final double[] scores;
+	private int size = 0;
+
+	/**
+	 * @param k  number of results to keep
+	 */
+	public TopKCollector(int k) {
+		if (k < 0)
+			throw new IllegalArgumentException("k must not be negative: " + k);
+		this.k = k;
+		this.ids = new int[k];
+		this.scores = new double[k];
+	}
+
+	/**
+	 * Offers a hit.
+	 * 
+	 * @param id
+	 * @param score
+	 * @return true if the hit is now among the top k
+	 */
+	public boolean offer(int id, double score) {
+		if (size < k) {
+			ids[size] = id;
+			scores[size] = score;
+			siftUp(size++);
+			return true;
+		}
+		if (k == 0 || !better(id, score, ids[0], scores[0]))
+			return false;
+		ids[0] = id;
+		scores[0] = score;
+		siftDown(0);
+		return true;
+	}
+
+	/**
+	 * Returns the score a hit must beat to get in: the lowest kept score
+	 * once k hits are held, negative infinity before.
+	 * 
+	 * @return
+	 */
+	public double threshold() {
+		return size < k || k == 0 ? Double.NEGATIVE_INFINITY : scores[0];
+	}
+
+	public boolean isFull() {
+		return size == k;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the kept ids, best first. The collector is left unchanged.
+	 * 
+	 * @return
+	 */
+	public int[] ids() {
+		int[] order = order();
+		int[] result = new int[size];
+		for (int i = 0; i < size; i++) {
+			result[i] = ids[order[i]];
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the kept scores, in the same order as ids().
+	 * 
+	 * @return
+	 */
+	public double[] scores() {
+		int[] order = order();
+		double[] result = new double[size];
+		for (int i = 0; i < size; i++) {
+			result[i] = scores[order[i]];
+		}
+		return result;
+	}
+
+	/**
+	 * Heap slots sorted best first; k is small, so this is cheap.
+	 */
+	private int[] order() {
+		Integer[] order = new Integer[size];
+		for (int i = 0; i < size; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> better(ids[a], scores[a], ids[b], scores[b]) ? -1
+				: better(ids[b], scores[b], ids[a], scores[a]) ? 1 : 0);
+		int[] result = new int[size];
+		for (int i = 0; i < size; i++) {
+			result[i] = order[i];
+		}
+		return result;
+	}
+
+	private static boolean better(int id, double score, int otherId, double otherScore) {
+		int cmp = Double.compare(score, otherScore);
+		return cmp > 0 || (cmp == 0 && id < otherId);
+	}
+
+	private void siftUp(int i) {
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (!better(ids[parent], scores[parent], ids[i], scores[i]))
+				break;
+			swap(i, parent);
+			i = parent;
+		}
+	}
+
+	private void siftDown(int i) {
+		while (true) {
+			int left = 2 * i + 1;
+			if (left >= size)
+				break;
+			int worst = left;
+			int right = left + 1;
+			if (right < size && better(ids[left], scores[left], ids[right], scores[right]))
+				worst = right;
+			if (!better(ids[i], scores[i], ids[worst], scores[worst]))
+				break;
+			swap(i, worst);
+			i = worst;
+		}
+	}
+
+	private void swap(int a, int b) {
+		int id = ids[a];
+		ids[a] = ids[b];
+		ids[b] = id;
+		double score = scores[a];
+		scores[a] = scores[b];
+		scores[b] = score;
+	}
+}
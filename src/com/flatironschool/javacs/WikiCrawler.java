@@ -1,10 +1,14 @@
 package com.flatironschool.javacs;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Queue;
+import java.util.Set;
 
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
@@ -27,9 +31,17 @@ public class WikiCrawler {
 	// fetcher used to get pages from Wikipedia
 	final static WikiFetcher wf = new WikiFetcher();
 
-	// ranks each link
+	// ranks pages by the links between them
 	Ranker ranker;
 
+	// number of pages crawlAll counts before pushing them to the index
+	public static final int DEFAULT_BATCH_SIZE = 50;
+	private int batchSize = DEFAULT_BATCH_SIZE;
+
+	// pages counted by crawlAll but not yet pushed to the index
+	private List<TermCounter> pending = new ArrayList<TermCounter>();
+	private Set<String> pendingUrls = new HashSet<String>();
+
 	/**
 	 * Constructor.
 	 * 
@@ -54,6 +66,17 @@ public class WikiCrawler {
 		return queue.size();
 	}
 
+	/**
+	 * Sets how many pages crawlAll pushes to the index at a time.
+	 * 
+	 * @param batchSize
+	 */
+	public void setBatchSize(int batchSize) {
+		if (batchSize < 1)
+			throw new IllegalArgumentException("batch size must be positive: " + batchSize);
+		this.batchSize = batchSize;
+	}
+
 	/**
 	 * Gets a URL from the queue and indexes it.
 	 * 
@@ -73,6 +96,8 @@ public class WikiCrawler {
 		Elements paragraphs = wf.readWikipedia(urlLink.getUrl());
 		index.indexPage(urlLink.getUrl(), paragraphs);
 
+		if (ranker != null)
+			recordLinks(urlLink.getUrl(), paragraphs);
 		queueInternalLinks(paragraphs, 0);
 
 		return urlLink.getUrl();
@@ -87,10 +112,7 @@ public class WikiCrawler {
 		while (!queue.isEmpty()) {
 			Link urlLink = queue.poll();
 
-			if (ranker != null)
-				ranker.increment(urlLink.getUrl());
-
-			if (index.isIndexed(urlLink.getUrl())) {
+			if (pendingUrls.contains(urlLink.getUrl()) || index.isIndexed(urlLink.getUrl())) {
 				//System.out.println("Skipping URL " + urlLink.getUrl() + " as already indexed");
 				continue;
 			}
@@ -110,7 +132,15 @@ public class WikiCrawler {
 			   continue;
 			
 			System.out.println("Indexing url " + urlLink.getUrl() + " depth = " + urlLink.depth);
-			index.indexPage(urlLink.getUrl(), paragraphs);
+			pending.add(index.countTerms(urlLink.getUrl(), paragraphs));
+			pendingUrls.add(urlLink.getUrl());
+			if (pending.size() >= batchSize)
+				flushPending();
+
+			// the links of pages at the last level are not followed, but
+			// still count towards the ranks of the pages they point to
+			if (ranker != null)
+				recordLinks(urlLink.getUrl(), paragraphs);
 
 			// do not add links from this page if we are already at the depth
 			if ((urlLink.depth + 1) <= depth) {
@@ -118,9 +148,21 @@ public class WikiCrawler {
 			
 			}
 		}
+		flushPending();
 
 	}
 
+	/**
+	 * Pushes the pages counted so far to the index in one bulk call.
+	 */
+	private void flushPending() {
+		if (pending.isEmpty())
+			return;
+		index.pushTermCountersToRedis(pending);
+		pending.clear();
+		pendingUrls.clear();
+	}
+
 	/**
 	 * Parses paragraphs and adds internal links to the queue.
 	 * 
@@ -169,6 +211,19 @@ public class WikiCrawler {
 
 	}
 
+	/**
+	 * Tells the ranker about the internal links on a page.
+	 * 
+	 * @param url         URL of the page
+	 * @param paragraphs
+	 */
+	private void recordLinks(String url, Elements paragraphs) {
+		for (Element elt : paragraphs.select("a[href]")) {
+			if (elt.attr("href").startsWith("/"))
+				ranker.addLink(url, elt.attr("abs:href"));
+		}
+	}
+
 	private void addLinks(Element paragraph, int depth) {
 
 		// get the links
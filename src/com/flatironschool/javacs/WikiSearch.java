@@ -3,6 +3,7 @@ package com.flatironschool.javacs;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URL;
+import java.util.AbstractMap.SimpleEntry;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -10,12 +11,30 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.function.IntToDoubleFunction;
 
+import com.flatironschool.javacs.persistence.impl.JedisConnectionPool;
 import com.flatironschool.javacs.persistence.impl.JedisIndexer;
+import com.flatironschool.javacs.persistence.interfaces.IImpactIterator;
+import com.flatironschool.javacs.query.ConjunctionScorer;
+import com.flatironschool.javacs.query.ImpactScorer;
+import com.flatironschool.javacs.query.Query;
+import com.flatironschool.javacs.query.QueryPlan;
+import com.flatironschool.javacs.query.QueryParser;
+import com.flatironschool.javacs.query.QueryPlanner;
+import com.flatironschool.javacs.query.QueryTimeoutException;
+import com.flatironschool.javacs.query.ScoredDocs;
+import com.flatironschool.javacs.query.TermFetcher;
+import com.flatironschool.javacs.query.TermScorer;
+import com.flatironschool.javacs.query.TermSource;
+import com.flatironschool.javacs.query.TermWeight;
+import com.flatironschool.javacs.query.WandScorer;
 
 import java.util.Scanner;
 import java.util.Set;
@@ -30,16 +49,28 @@ import sun.net.dns.ResolverConfiguration.Options;
 /**
  * Represents the results of a search query.
  *
+ * Iterating reads the results best first, ranking them a batch at a time,
+ * so a caller that stops early never ranks or looks up the rest.
  */
-public class WikiSearch {
+public class WikiSearch implements Iterable<Entry<String, Double>> {
 
 	public static enum Operation {
 		AND, OR
 	};
 
-	// map from URLs that contain the term(s) to relevance score
+	/**
+	 * Number of results shown on a page unless asked otherwise.
+	 */
+	public static final int DEFAULT_PAGE_SIZE = 10;
+
+	// map from URLs that contain the term(s) to relevance score, or null
+	// when the results are kept by doc id
 	private Map<String, Double> map;
 
+	// results by doc id, and the index that resolves them to URLs
+	private ScoredDocs docs;
+	private Indexer index;
+
 	/**
 	 * Constructor.
 	 * 
@@ -49,6 +80,18 @@ public class WikiSearch {
 		this.map = map;
 	}
 
+	/**
+	 * Makes a result that stays in doc ids until URLs are asked for, so
+	 * combining results never boxes a score or hashes a URL.
+	 * 
+	 * @param docs
+	 * @param index
+	 */
+	public WikiSearch(ScoredDocs docs, Indexer index) {
+		this.docs = docs;
+		this.index = index;
+	}
+
 	/**
 	 * Looks up the relevance of a given URL.
 	 * 
@@ -56,25 +99,141 @@ public class WikiSearch {
 	 * @return
 	 */
 	public Double getRelevance(String url) {
+		if (docs != null) {
+			int docId = index.getDocId(url);
+			int i = docId < 0 ? -1 : docs.indexOf(docId);
+			return i < 0 ? 0 : docs.score(i);
+		}
 		Double relevance = map.get(url);
 		return relevance == null ? 0 : relevance;
 	}
 
 	/**
-	 * Prints the contents in order of term frequency.
+	 * Returns the number of URLs in the result.
 	 * 
-	 * @param map
+	 * @return
 	 */
-	void print() {
-		List<Entry<String, Double>> entries = sort();
-		
-		Collections.reverse(entries);
+	public int size() {
+		return docs != null ? docs.size() : map.size();
+	}
+
+	/**
+	 * Prints one page of results in order of relevance.
+	 * 
+	 * The result only holds the pages up to the one asked for, so the
+	 * number of matches is counted separately and passed in.
+	 * 
+	 * @param offset   number of results to skip
+	 * @param limit    number of results to print
+	 * @param matches  number of pages that match the query
+	 */
+	void print(int offset, int limit, long matches) {
+		List<Entry<String, Double>> entries = page(offset, limit);
 		
 		System.out.println ("********************************************************************************");
 		System.out.println ("Here the URLs in order of relevance:");
 		for (Entry<String, Double> entry : entries) {
 			System.out.println(entry);
 		}
+		if (entries.isEmpty())
+			System.out.println("No results past " + offset + " of " + matches);
+		else
+			System.out.println("Showing " + (offset + 1) + "-" + (offset + entries.size()) + " of " + matches);
+	}
+
+	/**
+	 * Returns the k most relevant results, best first.
+	 * 
+	 * @param k
+	 * @return List of entries with URL and relevance.
+	 */
+	public List<Entry<String, Double>> top(int k) {
+		return page(0, k);
+	}
+
+	/**
+	 * Returns the results ranked offset+1 to offset+limit, best first.
+	 * 
+	 * Only offset+limit results are ever held in order, in a bounded heap,
+	 * so this is O(n log(offset+limit)) rather than a full sort.
+	 * 
+	 * @param offset  number of results to skip
+	 * @param limit   maximum number of results to return
+	 * @return List of entries with URL and relevance.
+	 */
+	public List<Entry<String, Double>> page(int offset, int limit) {
+		if (offset < 0 || limit < 0)
+			throw new IllegalArgumentException("offset and limit must not be negative");
+		
+		int k = (int) Math.min((long) offset + limit, size());
+		if (docs != null) {
+			// only the requested page is looked up by URL
+			TopKCollector collector = docs.top(k);
+			int[] ids = collector.ids();
+			double[] scores = collector.scores();
+			List<Entry<String, Double>> entries = new ArrayList<>();
+			for (int rank = offset; rank < ids.length; rank++) {
+				entries.add(new SimpleEntry<String, Double>(index.getUrl(ids[rank]), scores[rank]));
+			}
+			return entries;
+		}
+		
+		TopKCollector collector = new TopKCollector(k);
+		String[] urls = new String[map.size()];
+		int i = 0;
+		for (Entry<String, Double> entry : map.entrySet()) {
+			urls[i] = entry.getKey();
+			collector.offer(i++, entry.getValue());
+		}
+		
+		int[] ids = collector.ids();
+		double[] scores = collector.scores();
+		List<Entry<String, Double>> entries = new ArrayList<>();
+		for (int rank = offset; rank < ids.length; rank++) {
+			entries.add(new SimpleEntry<String, Double>(urls[ids[rank]], scores[rank]));
+		}
+		return entries;
+	}
+
+	/**
+	 * Iterates over the results best first.
+	 * 
+	 * Results are ranked with page() in batches, each twice the size of the
+	 * last, starting at DEFAULT_PAGE_SIZE. Reading the first page costs what
+	 * page() does, and only the results handed out are looked up by URL.
+	 * 
+	 * @return
+	 */
+	@Override
+	public Iterator<Entry<String, Double>> iterator() {
+		return new Iterator<Entry<String, Double>>() {
+			private List<Entry<String, Double>> batch = Collections.emptyList();
+			// rank of the first result in the batch
+			private int offset = 0;
+			private int next = 0;
+			private int batchSize = DEFAULT_PAGE_SIZE;
+
+			@Override
+			public boolean hasNext() {
+				if (next < batch.size())
+					return true;
+				int start = offset + batch.size();
+				if (start >= size())
+					return false;
+				batch = page(start, batchSize);
+				offset = start;
+				next = 0;
+				batchSize = (int) Math.min(2L * batchSize, Integer.MAX_VALUE);
+				return !batch.isEmpty();
+			}
+
+			@Override
+			public Entry<String, Double> next() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+				return batch.get(next++);
+			}
+		};
 	}
 
 	/**
@@ -84,18 +243,21 @@ public class WikiSearch {
 	 * @return New WikiSearch object.
 	 */
 	public WikiSearch or(WikiSearch that) {
+		if (this.docs != null && that.docs != null)
+			return new WikiSearch(this.docs.or(that.docs), index);
 
 		Map<String, Double> unionMap = new HashMap<String, Double>();
 
-		unionMap.putAll(this.map);
+		unionMap.putAll(this.asMap());
 
-		Set<String> thatKeys = that.map.keySet();
+		Map<String, Double> thatMap = that.asMap();
+		Set<String> thatKeys = thatMap.keySet();
 
 		Iterator<String> ii = thatKeys.iterator();
 
 		while (ii.hasNext()) {
 			String thatKey = ii.next();
-			Double thatRelevance = that.map.get(thatKey);
+			Double thatRelevance = thatMap.get(thatKey);
 			Double thisRelevance = unionMap.get(thatKey);
 
 			if (thisRelevance != null)
@@ -114,18 +276,23 @@ public class WikiSearch {
 	 * @return New WikiSearch object.
 	 */
 	public WikiSearch and(WikiSearch that) {
+		if (this.docs != null && that.docs != null)
+			return new WikiSearch(this.docs.and(that.docs), index);
+		
 		Map<String, Double> andMap = new HashMap<String, Double>();
+		Map<String, Double> thisMap = this.asMap();
+		Map<String, Double> thatMap = that.asMap();
 
-		Set<String> thisKeys = this.map.keySet();
+		Set<String> thisKeys = thisMap.keySet();
 
 		Iterator<String> ii = thisKeys.iterator();
 
 		while (ii.hasNext()) {
 			String thisKey = ii.next();
-			Double thatRelevance = that.map.get(thisKey);
+			Double thatRelevance = thatMap.get(thisKey);
 
 			if (thatRelevance != null) {
-				Double thisRelevance = this.map.get(thisKey);
+				Double thisRelevance = thisMap.get(thisKey);
 				thisRelevance = thatRelevance + thisRelevance;
 				andMap.put(thisKey, thisRelevance);
 			}
@@ -142,18 +309,23 @@ public class WikiSearch {
 	 * @return New WikiSearch object.
 	 */
 	public WikiSearch minus(WikiSearch that) {
+		if (this.docs != null && that.docs != null)
+			return new WikiSearch(this.docs.minus(that.docs), index);
+		
 		Map<String, Double> minusMap = new HashMap<String, Double>();
+		Map<String, Double> thisMap = this.asMap();
+		Map<String, Double> thatMap = that.asMap();
 
-		Set<String> thisKeys = this.map.keySet();
+		Set<String> thisKeys = thisMap.keySet();
 
 		Iterator<String> ii = thisKeys.iterator();
 
 		while (ii.hasNext()) {
 			String thisKey = ii.next();
-			Double thatRelevance = that.map.get(thisKey);
+			Double thatRelevance = thatMap.get(thisKey);
 
 			if (thatRelevance == null) {
-				Double thisRelevance = this.map.get(thisKey);
+				Double thisRelevance = thisMap.get(thisKey);
 				minusMap.put(thisKey, thisRelevance);
 			}
 
@@ -184,7 +356,7 @@ public class WikiSearch {
 	public List<Entry<String, Double>> sort() {
 
 		List<Entry<String, Double>> listOfRel = new ArrayList<>();
-		listOfRel.addAll(this.map.entrySet());
+		listOfRel.addAll(this.asMap().entrySet());
 		Collections.sort(listOfRel, new Comparator<Entry<String, Double>>() {
 			@Override
 			public int compare(Entry<String, Double> arg0, Entry<String, Double> arg1) {
@@ -204,11 +376,193 @@ public class WikiSearch {
 	 * @return
 	 */
 	public static WikiSearch search(String term, Indexer index, Ranker ranker) {
-		Map<String, Double> map = index.getCountWithRelevance(term, ranker);
-		return new WikiSearch(map);
+		List<TermScorer> scorers = termScorers(Collections.singletonList(term), index, ranker);
+		if (scorers.isEmpty())
+			return new WikiSearch(ScoredDocs.empty(), index);
+		return new WikiSearch(ScoredDocs.score(scorers.get(0)), index);
+	}
+
+	/**
+	 * Returns every result keyed by URL, looking them all up if the results
+	 * are kept by doc id.
+	 */
+	private Map<String, Double> asMap() {
+		if (docs == null)
+			return map;
+		Map<String, Double> urlMap = new HashMap<String, Double>();
+		for (int i = 0; i < docs.size(); i++) {
+			urlMap.put(index.getUrl(docs.docId(i)), docs.score(i));
+		}
+		return urlMap;
+	}
+
+	/**
+	 * Finds the k most relevant pages that contain any of the terms.
+	 * 
+	 * Scores match search followed by or, but the postings are walked
+	 * document-at-a-time with WAND so that pages which cannot make the top
+	 * k are mostly skipped, and only the top k are looked up by URL.
+	 * 
+	 * @param terms
+	 * @param index
+	 * @param ranker  page ranks to add to the scores, or null
+	 * @param k       number of results to keep
+	 * @return
+	 */
+	public static WikiSearch searchOr(List<String> terms, Indexer index, Ranker ranker, int k) {
+		List<TermScorer> scorers = termScorers(terms, index, ranker);
+		
+		WandScorer wand = new WandScorer(scorers);
+		TopKCollector collector = wand.search(Math.min(k, index.getWeightedDocumentCount()));
+		return new WikiSearch(ScoredDocs.of(collector), index);
+	}
+
+	/**
+	 * Finds the k most relevant pages that contain all of the terms.
+	 * 
+	 * Scores match searchAll over search results, but the posting lists are
+	 * intersected in doc id order starting from the rarest term, so the
+	 * work is bounded by the shortest list, and only the top k are looked
+	 * up by URL.
+	 * 
+	 * @param terms
+	 * @param index
+	 * @param ranker  page ranks to add to the scores, or null
+	 * @param k       number of results to keep
+	 * @return
+	 */
+	public static WikiSearch searchAnd(List<String> terms, Indexer index, Ranker ranker, int k) {
+		List<TermScorer> scorers = termScorers(terms, index, ranker);
+		// a term that is nowhere matches nothing
+		if (scorers.size() < terms.size())
+			return new WikiSearch(ScoredDocs.empty(), index);
+		
+		ConjunctionScorer conjunction = new ConjunctionScorer(scorers);
+		TopKCollector collector = conjunction.search(Math.min(k, index.getWeightedDocumentCount()));
+		return new WikiSearch(ScoredDocs.of(collector), index);
+	}
+
+	/**
+	 * Finds the k most relevant pages that match a boolean query.
+	 * 
+	 * Wildcards are expanded to the indexed terms they match, the terms are
+	 * fetched concurrently, then the query is planned with their document
+	 * frequencies and run on their postings. Scores add up the same way as
+	 * in searchAnd and searchOr.
+	 * 
+	 * @param query
+	 * @param index
+	 * @param ranker  page ranks to add to the scores, or null
+	 * @param k       number of results to keep
+	 * @return
+	 * @throws IllegalArgumentException if the query cannot be planned, or a
+	 *                                  wildcard matches too many terms
+	 */
+	public static WikiSearch search(Query query, Indexer index, Ranker ranker, int k) {
+		query = query.expandWildcards(index::expandTerms);
+		List<String> terms = new ArrayList<>(new LinkedHashSet<>(query.terms()));
+		Map<String, TermScorer> fetched = new HashMap<>();
+		for (TermScorer scorer : termScorers(terms, index, ranker)) {
+			fetched.put(scorer.getTerm(), scorer);
+		}
+		
+		QueryPlan plan = plan(query, fetched, index);
+		TopKCollector collector = plan.search(Math.min(k, index.getWeightedDocumentCount()), termSource(fetched, index));
+		return new WikiSearch(ScoredDocs.of(collector), index);
+	}
+
+	/**
+	 * Counts the pages that match a boolean query.
+	 * 
+	 * Plain terms, and ANDs, ORs and phrases of them, walk their postings
+	 * without scoring or keeping the matches.
+	 * 
+	 * @param query
+	 * @param index
+	 * @return
+	 * @throws IllegalArgumentException if the query cannot be planned, or a
+	 *                                  wildcard matches too many terms
+	 */
+	public static long count(Query query, Indexer index) {
+		query = query.expandWildcards(index::expandTerms);
+		List<String> terms = new ArrayList<>(new LinkedHashSet<>(query.terms()));
+		Map<String, TermScorer> fetched = new HashMap<>();
+		for (TermScorer scorer : termScorers(terms, index, null)) {
+			fetched.put(scorer.getTerm(), scorer);
+		}
+		return plan(query, fetched, index).count(termSource(fetched, index));
+	}
+
+	/**
+	 * Plans a query with the document frequencies of its fetched terms.
+	 */
+	private static QueryPlan plan(Query query, Map<String, TermScorer> fetched, Indexer index) {
+		QueryPlanner planner = new QueryPlanner(term -> {
+			TermScorer scorer = fetched.get(term);
+			return scorer == null ? 0 : (int) scorer.postings().cost();
+		}, index.getStopWords());
+		return planner.plan(query);
+	}
+
+	/**
+	 * Hands the fetched postings to the first use of each term; any later
+	 * use reads them again.
+	 */
+	private static TermSource termSource(Map<String, TermScorer> fetched, Indexer index) {
+		Set<String> used = new HashSet<>();
+		return new TermSource() {
+			@Override
+			public TermScorer scorer(String term) {
+				TermScorer scorer = fetched.get(term);
+				return used.add(term) ? scorer : scorer.withPostings(index.postings(term));
+			}
+
+			@Override
+			public int[] positions(String term, int docId) {
+				return index.getPositions(term, docId);
+			}
+
+			@Override
+			public ImpactScorer impactScorer(String term) {
+				IImpactIterator postings = index.impactPostings(term);
+				TermScorer scorer = fetched.get(term);
+				return postings == null || scorer == null ? null : new ImpactScorer(scorer, postings);
+			}
+		};
+	}
+
+	/**
+	 * Makes a scorer for each term that is in the index.
+	 * 
+	 * The terms are looked up concurrently, so a remote index costs about
+	 * one term's latency, and the index caches the statistics their weights
+	 * need until it changes.
+	 * 
+	 * @throws QueryTimeoutException if the lookups take longer than
+	 *                               TermFetcher.DEFAULT_TIMEOUT_MILLIS
+	 */
+	private static List<TermScorer> termScorers(List<String> terms, Indexer index, Ranker ranker) {
+		TermFetcher fetcher = new TermFetcher(terms, index::getDocumentFrequency, index::postings,
+				TermFetcher.DEFAULT_TIMEOUT_MILLIS);
+		
+		IntToDoubleFunction boost = null;
+		double maxBoost = 0;
+		if (ranker != null && ranker.getMaxRank() > 0) {
+			maxBoost = ranker.getMaxRank();
+			float[] ranks = ranker.getDocRanks(index);
+			boost = docId -> docId < ranks.length ? ranks[docId] : 0;
+		}
+		
+		List<TermScorer> scorers = new ArrayList<>();
+		for (TermFetcher.Term term : fetcher.get()) {
+			if (term.docFreq == 0)
+				continue;
+			TermWeight weight = index.getTermWeight(term.term, term.docFreq);
+			scorers.add(new TermScorer(term.term, term.postings, weight, boost, maxBoost));
+		}
+		return scorers;
 	}
 
-	
 	static WikiSearch searchAll(List<WikiSearch> searches, WikiSearch thatSearch, int count) {
 		if (count >= searches.size())
 			return thatSearch;
@@ -223,6 +577,34 @@ public class WikiSearch {
 
 	}
 
+	/**
+	 * Makes the query of a command: the expression after the options with
+	 * -e, or else the -s terms joined with the -o operation. An -s term
+	 * with * or ? in it is a wildcard.
+	 * 
+	 * @param optionSet
+	 * @return
+	 * @throws IllegalArgumentException if the expression is malformed
+	 */
+	public static Query toQuery(OptionSet optionSet) {
+		if (optionSet.has("e")) {
+			List<String> words = new ArrayList<>();
+			for (Object word : optionSet.nonOptionArguments()) {
+				words.add((String) word);
+			}
+			return QueryParser.parse(String.join(" ", words));
+		}
+		List<Query> terms = new ArrayList<>();
+		for (Object term : optionSet.valuesOf("s")) {
+			// pages are indexed in lower case
+			String word = ((String) term).toLowerCase();
+			terms.add(QueryParser.isWildcard(word) ? new Query.Wildcard(word) : new Query.Term(word));
+		}
+		if (terms.size() == 1)
+			return terms.get(0);
+		return optionSet.valueOf("o") == Operation.OR ? new Query.Or(terms) : new Query.And(terms);
+	}
+
 	static class MyFormatter implements HelpFormatter {
 		public String format(Map<String, ? extends OptionDescriptor> options) {
 			StringBuilder buffer = new StringBuilder();
@@ -254,7 +636,6 @@ public class WikiSearch {
 
 	public static void main(String[] args) throws IOException {
 
-		Jedis jedis;
 		WikiCrawler wc;
 		Indexer index;
 
@@ -265,8 +646,9 @@ public class WikiSearch {
 				accepts("q", "quit");
 				accepts("s", "search").withRequiredArg().describedAs("term1:term1..., must provide search operation")
 						.ofType(String.class).withValuesSeparatedBy(":");
-			//	accepts("o", "search operation").requiredIf("s").withRequiredArg().ofType(Operation.class)
-			//			.describedAs("search operation, can have values 'AND' or 'OR'").defaultsTo(Operation.AND);
+				accepts("o", "search operation").withRequiredArg().ofType(Operation.class)
+						.describedAs("search operation, can have values 'AND' or 'OR'").defaultsTo(Operation.AND);
+				accepts("e", "search with the query expression after the options, such as a AND (b OR c) NOT \"d e\"");
 			
 				/*
 				 * accepts( "q" ).withOptionalArg().ofType( Double.class )
@@ -292,8 +674,8 @@ public class WikiSearch {
 
 		Scanner scanner = new Scanner(System.in);
 
-		jedis = JedisMaker.make();
-		JedisIndexer jedisIndexer = new JedisIndexer (jedis);
+		JedisConnectionPool pool = JedisMaker.makePool();
+		JedisIndexer jedisIndexer = new JedisIndexer (pool);
 		index = new Indexer(jedisIndexer);
 		
 		Ranker ranker = new Ranker ();
@@ -320,25 +702,30 @@ public class WikiSearch {
 					WikiCrawler crawler = new WikiCrawler(crawlSite.toString(), index, ranker);
 					crawler.crawlAll(depth);
 					System.out.println("Done Crawling " + crawlSite.toString());
-				} else if (optionSet.hasArgument("s") && optionSet.hasArgument("o")) {
-				 
-				
-					List<?> terms = optionSet.valuesOf("s");
-					
-					List<WikiSearch> searches = new ArrayList<>();
-					for (Object term : terms) {
-						System.out.println("Query: " + term);
-
-						WikiSearch search = search((String) term, index, ranker);
-						if (search != null)
-							searches.add(search);
+				} else if (optionSet.hasArgument("s") || optionSet.has("e")) {
+					Query query;
+					try {
+						query = toQuery(optionSet);
+					} catch (IllegalArgumentException e) {
+						System.out.println(e.getMessage());
+						continue;
 					}
-
-					if (searches.size() > 0) {
-						WikiSearch searchResult = searchAll(searches, searches.get(0), 1);
-						searchResult.print();
-					} else
-						System.out.println("No match found for terms(s) " + terms);
+					System.out.println("Query: " + query);
+
+					// only the first page is ranked; the rest are just counted
+					WikiSearch searchResult;
+					long matches;
+					try {
+						searchResult = search(query, index, ranker, DEFAULT_PAGE_SIZE);
+						matches = count(query, index);
+					} catch (IllegalArgumentException | QueryTimeoutException e) {
+						System.out.println("Search failed: " + e.getMessage());
+						continue;
+					}
+					if (searchResult.size() > 0)
+						searchResult.print(0, DEFAULT_PAGE_SIZE, matches);
+					else
+						System.out.println("No match found for " + query);
 
 				}
 			} while (!quit);
@@ -6,6 +6,7 @@ package com.flatironschool.javacs;
 import static org.junit.Assert.*;
 import static org.hamcrest.CoreMatchers.*;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -14,6 +15,10 @@ import java.util.Map.Entry;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.flatironschool.javacs.persistence.impl.JavaIndexer;
+import com.flatironschool.javacs.query.Query;
+import com.flatironschool.javacs.query.QueryParser;
+
 /**
  * @author downey
  *
@@ -90,4 +95,111 @@ public class WikiSearchTest {
 		assertThat(list.get(1).getValue(), is(5));
 		assertThat(list.get(2).getValue(), is(7));
 	}
+
+	/**
+	 * Test method for {@link com.flatironschool.javacs.WikiSearch#page(int, int)}.
+	 */
+	@Test
+	public void testPage() {
+		List<Entry<String, Double>> top = search2.top(2);
+		assertThat(top.size(), is(2));
+		assertThat(top.get(0).getKey(), is("Page4"));
+		assertThat(top.get(1).getValue(), is(5.0));
+
+		List<Entry<String, Double>> page = search2.page(2, 2);
+		assertThat(page.size(), is(1));
+		assertThat(page.get(0).getKey(), is("Page2"));
+		assertThat(search2.page(3, 2).isEmpty(), is(true));
+	}
+
+	/**
+	 * Test method for {@link com.flatironschool.javacs.WikiSearch#searchOr(List, Indexer, Ranker, int)}.
+	 */
+	@Test
+	public void testSearchOr() {
+		Indexer index = new Indexer(new JavaIndexer());
+		String[] pages = {"apple banana", "banana banana cherry", "cherry", "apple apple apple", "durian"};
+		for (int i = 0; i < pages.length; i++) {
+			TermCounter tc = new TermCounter("Page" + i);
+			tc.processText(pages[i], null);
+			index.pushTermCounterToRedis(tc);
+		}
+		Ranker ranker = new Ranker();
+		ranker.addLink("Page0", "Page2");
+		ranker.addLink("Page1", "Page2");
+		ranker.addLink("Page2", "Page3");
+
+		List<String> terms = Arrays.asList("apple", "cherry");
+		WikiSearch expected = WikiSearch.search("apple", index, ranker).or(WikiSearch.search("cherry", index, ranker));
+		List<Entry<String, Double>> top = WikiSearch.searchOr(terms, index, ranker, 3).top(3);
+		assertThat(top, is(expected.top(3)));
+		assertThat(WikiSearch.searchOr(terms, index, ranker, 10).size(), is(4));
+	}
+
+	/**
+	 * Test method for {@link com.flatironschool.javacs.WikiSearch#searchAnd(List, Indexer, Ranker, int)}.
+	 */
+	@Test
+	public void testSearchAnd() {
+		Indexer index = new Indexer(new JavaIndexer());
+		// enough pages that the common term's list has skip pointers
+		for (int i = 0; i < 200; i++) {
+			TermCounter tc = new TermCounter("Page" + i);
+			tc.processText(i % 50 == 7 ? "common rare" : "common filler", null);
+			index.pushTermCounterToRedis(tc);
+		}
+
+		List<String> terms = Arrays.asList("common", "rare");
+		WikiSearch expected = WikiSearch.search("common", index, null).and(WikiSearch.search("rare", index, null));
+		WikiSearch search = WikiSearch.searchAnd(terms, index, null, 10);
+		assertThat(search.size(), is(4));
+		for (Entry<String, Double> entry : search.top(4)) {
+			assertThat(entry.getValue(), is(expected.getRelevance(entry.getKey())));
+		}
+		assertThat(WikiSearch.searchAnd(Arrays.asList("common", "missing"), index, null, 10).size(), is(0));
+	}
+
+	@Test
+	public void testSearchQuery() {
+		Indexer index = new Indexer(new JavaIndexer());
+		for (int i = 0; i < 100; i++) {
+			TermCounter tc = new TermCounter("Page" + i);
+			tc.processText((i % 2 == 0 ? "java " : "") + (i % 3 == 0 ? "coffee " : "") + (i % 5 == 0 ? "island" : "filler"),
+					null);
+			index.pushTermCounterToRedis(tc);
+		}
+
+		WikiSearch java = WikiSearch.search("java", index, null);
+		WikiSearch coffee = WikiSearch.search("coffee", index, null);
+		WikiSearch island = WikiSearch.search("island", index, null);
+		WikiSearch expected = java.and(coffee.or(island)).minus(WikiSearch.search("filler", index, null));
+
+		Query query = QueryParser.parse("Java AND (coffee OR island) NOT filler");
+		WikiSearch search = WikiSearch.search(query, index, null, 100);
+		assertThat(search.size(), is(expected.size()));
+		for (Entry<String, Double> entry : search.top(100)) {
+			assertThat(entry.getValue(), is(expected.getRelevance(entry.getKey())));
+		}
+		assertThat(WikiSearch.search(QueryParser.parse("java missing"), index, null, 100).size(), is(0));
+
+		// counting walks the postings without scoring
+		assertThat(WikiSearch.count(query, index), is((long) expected.size()));
+		assertThat(WikiSearch.count(QueryParser.parse("java OR coffee"), index), is((long) java.or(coffee).size()));
+		assertThat(WikiSearch.count(QueryParser.parse("java coffee"), index), is((long) java.and(coffee).size()));
+		assertThat(WikiSearch.count(QueryParser.parse("java missing"), index), is(0L));
+
+		// wildcards expand to the indexed terms they match
+		assertThat(WikiSearch.count(QueryParser.parse("co* OR isl?nd"), index), is((long) coffee.or(island).size()));
+		assertThat(WikiSearch.search(QueryParser.parse("j*"), index, null, 100).size(), is(java.size()));
+		assertThat(WikiSearch.count(QueryParser.parse("java zz*"), index), is(0L));
+
+		// iterating reads the results best first, past the first batch
+		WikiSearch union = java.or(coffee).or(island);
+		List<Entry<String, Double>> all = union.top(union.size());
+		int i = 0;
+		for (Entry<String, Double> entry : union) {
+			assertThat(entry, is(all.get(i++)));
+		}
+		assertThat(i, is(union.size()));
+	}
 }
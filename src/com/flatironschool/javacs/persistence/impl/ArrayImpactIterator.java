@@ -0,0 +1,129 @@
+package com.flatironschool.javacs.persistence.impl;
+
+import java.util.Arrays;
+
+import com.flatironschool.javacs.persistence.interfaces.IImpactIterator;
+import com.flatironschool.javacs.persistence.interfaces.IPostingIterator;
+
+/**
+ * Impact-ordered iterator over postings sorted in memory, for postings that
+ * were not stored in impact order: the buffer of a SegmentIndexer, and terms
+ * too rare for a segment to have stored them twice.
+ *
+ * Postings are sorted by term frequency, or by their impact where that is
+ * higher, so the bound on what is left also covers scores taken from the
+ * impact. Ties go in doc id order.
+ */
+public class ArrayImpactIterator implements IImpactIterator {
+
+	private final int[] docIds;
+	private final int[] freqs;
+	private final int[] lengths;
+	// null if the postings have no impacts
+	private final float[] impacts;
+	// bound on the term frequency of each posting, in decreasing order
+	private final float[] bounds;
+	private final int size;
+	private int index = -1;
+
+	/**
+	 * @param docIds
+	 * @param freqs
+	 * @param lengths  document lengths
+	 * @param impacts  impact of each posting, or null
+	 * @param size     number of postings used from the arrays
+	 */
+	public ArrayImpactIterator(int[] docIds, int[] freqs, int[] lengths, float[] impacts, int size) {
+		// (bound, index) packed so one primitive sort puts the highest bound
+		// first; bounds are positive, so their float bits order like them
+		long[] order = new long[size];
+		for (int i = 0; i < size; i++) {
+			double tf = lengths[i] == 0 ? 0 : freqs[i] / (double) lengths[i];
+			float bound = Math.nextUp((float) Math.max(tf, impacts == null ? 0 : impacts[i]));
+			order[i] = (long) (Integer.MAX_VALUE - Float.floatToIntBits(bound)) << 32 | i;
+		}
+		Arrays.sort(order);
+
+		this.docIds = new int[size];
+		this.freqs = new int[size];
+		this.lengths = new int[size];
+		this.impacts = impacts == null ? null : new float[size];
+		this.bounds = new float[size];
+		for (int i = 0; i < size; i++) {
+			int from = (int) order[i];
+			this.docIds[i] = docIds[from];
+			this.freqs[i] = freqs[from];
+			this.lengths[i] = lengths[from];
+			if (impacts != null)
+				this.impacts[i] = impacts[from];
+			this.bounds[i] = Float.intBitsToFloat(Integer.MAX_VALUE - (int) (order[i] >>> 32));
+		}
+		this.size = size;
+	}
+
+	/**
+	 * Reads the rest of some postings and sorts them by impact.
+	 * 
+	 * @param postings  not yet started
+	 * @return
+	 */
+	public static ArrayImpactIterator of(IPostingIterator postings) {
+		int capacity = (int) Math.min(postings.cost(), 1 << 20);
+		int[] docIds = new int[capacity];
+		int[] freqs = new int[capacity];
+		int[] lengths = new int[capacity];
+		float[] impacts = new float[capacity];
+		boolean hasImpacts = false;
+		int n = 0;
+		while (postings.nextDoc() != IPostingIterator.NO_MORE_DOCS) {
+			if (n == docIds.length) {
+				int grown = Math.max(16, n * 2);
+				docIds = Arrays.copyOf(docIds, grown);
+				freqs = Arrays.copyOf(freqs, grown);
+				lengths = Arrays.copyOf(lengths, grown);
+				impacts = Arrays.copyOf(impacts, grown);
+			}
+			docIds[n] = postings.docId();
+			freqs[n] = postings.freq();
+			lengths[n] = postings.docLength();
+			impacts[n] = postings.impact();
+			hasImpacts |= impacts[n] >= 0;
+			n++;
+		}
+		return new ArrayImpactIterator(docIds, freqs, lengths, hasImpacts ? impacts : null, n);
+	}
+
+	@Override
+	public int docId() {
+		if (index < 0)
+			return -1;
+		return index < size ? docIds[index] : IPostingIterator.NO_MORE_DOCS;
+	}
+
+	@Override
+	public int freq() {
+		return freqs[index];
+	}
+
+	@Override
+	public int docLength() {
+		return lengths[index];
+	}
+
+	@Override
+	public float impact() {
+		return impacts == null ? -1 : impacts[index];
+	}
+
+	@Override
+	public int nextDoc() {
+		if (index < size)
+			index++;
+		return docId();
+	}
+
+	@Override
+	public double maxRemainingTermFrequency() {
+		return index + 1 < size ? bounds[index + 1] : 0;
+	}
+}
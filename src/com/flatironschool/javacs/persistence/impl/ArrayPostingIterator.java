@@ -0,0 +1,153 @@
+package com.flatironschool.javacs.persistence.impl;
+
+import java.util.Arrays;
+
+import com.flatironschool.javacs.persistence.interfaces.IPostingIterator;
+
+/**
+ * Posting iterator over postings already decoded into arrays, for backends
+ * that have to fetch or gather a term's postings before iterating.
+ */
+public class ArrayPostingIterator implements IPostingIterator {
+
+	private static final int[] NONE = new int[0];
+
+	private final int[] docIds;
+	private final int[] freqs;
+	private final int[] lengths;
+	private final int size;
+	private final double maxTermFrequency;
+	private int index = -1;
+
+	/**
+	 * @param docIds   in increasing order
+	 * @param freqs
+	 * @param lengths  document lengths
+	 * @param size     number of postings used from the arrays
+	 */
+	public ArrayPostingIterator(int[] docIds, int[] freqs, int[] lengths, int size) {
+		this.docIds = docIds;
+		this.freqs = freqs;
+		this.lengths = lengths;
+		this.size = size;
+
+		double max = 0;
+		for (int i = 0; i < size; i++) {
+			if (lengths[i] > 0)
+				max = Math.max(max, freqs[i] / (double) lengths[i]);
+		}
+		this.maxTermFrequency = max;
+	}
+
+	/**
+	 * Returns an iterator with no postings.
+	 */
+	public static ArrayPostingIterator empty() {
+		return new ArrayPostingIterator(NONE, NONE, NONE, 0);
+	}
+
+	/**
+	 * Sorts parallel arrays of postings by doc id and wraps them.
+	 * 
+	 * @param docIds
+	 * @param freqs
+	 * @param lengths
+	 * @param size
+	 * @return
+	 */
+	public static ArrayPostingIterator sorted(int[] docIds, int[] freqs, int[] lengths, int size) {
+		sort(docIds, freqs, lengths, size);
+		return new ArrayPostingIterator(docIds, freqs, lengths, size);
+	}
+
+	/**
+	 * Sorts the first `size` entries of parallel arrays of postings by doc
+	 * id, in place.
+	 * 
+	 * @param docIds
+	 * @param freqs
+	 * @param lengths
+	 * @param size
+	 */
+	public static void sort(int[] docIds, int[] freqs, int[] lengths, int size) {
+		// pack (doc id, position) so one primitive sort orders all three arrays
+		long[] order = new long[size];
+		for (int i = 0; i < size; i++) {
+			order[i] = ((long) docIds[i] << 32) | i;
+		}
+		Arrays.sort(order);
+		int[] oldFreqs = Arrays.copyOf(freqs, size);
+		int[] oldLengths = Arrays.copyOf(lengths, size);
+		for (int i = 0; i < size; i++) {
+			int from = (int) order[i];
+			docIds[i] = (int) (order[i] >>> 32);
+			freqs[i] = oldFreqs[from];
+			lengths[i] = oldLengths[from];
+		}
+	}
+
+	@Override
+	public int docId() {
+		if (index < 0)
+			return -1;
+		return index < size ? docIds[index] : NO_MORE_DOCS;
+	}
+
+	@Override
+	public int freq() {
+		return freqs[index];
+	}
+
+	@Override
+	public int docLength() {
+		return lengths[index];
+	}
+
+	@Override
+	public float impact() {
+		return -1;
+	}
+
+	@Override
+	public int nextDoc() {
+		if (index < size)
+			index++;
+		return docId();
+	}
+
+	@Override
+	public int advance(int target) {
+		int lo = Math.max(index, 0);
+		if (lo >= size || docIds[lo] >= target) {
+			index = lo;
+			return docId();
+		}
+		// gallop: double the step until we pass the target, then binary
+		// search the last step, so a short hop costs O(log distance)
+		int step = 1;
+		while (lo + step < size && docIds[lo + step] < target) {
+			lo += step;
+			step <<= 1;
+		}
+		int hi = Math.min(lo + step, size);
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (docIds[mid] < target)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		index = lo;
+		return docId();
+	}
+
+	@Override
+	public long cost() {
+		return size;
+	}
+
+	@Override
+	public double maxTermFrequency() {
+		return maxTermFrequency;
+	}
+}
@@ -0,0 +1,65 @@
+package com.flatironschool.javacs.persistence.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jsoup.select.Elements;
+
+import com.flatironschool.javacs.TermCounter;
+import com.flatironschool.javacs.WikiFetcher;
+
+/**
+ * Pages for the benchmarks in the main methods of the index backends, so
+ * the backends don't depend on each other for them.
+ */
+final class BenchmarkPages {
+
+	private BenchmarkPages() {
+	}
+
+	/**
+	 * Counts the terms of the Wikipedia pages stored in src/resources.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	static List<TermCounter> loadResourcePages() throws IOException {
+		String[] pages = { "Awareness", "Computer", "Computer_language", "Computer_science", "Computing",
+				"Concurrent_computing", "Consciousness", "Constructed_language", "Formal_language",
+				"Java_(programming_language)", "Knowledge", "Machine", "Mathematics", "Modern_philosophy",
+				"Philosophy", "Programming_language", "Property_(philosophy)", "Quality_(philosophy)", "Science" };
+
+		WikiFetcher wf = new WikiFetcher();
+		List<TermCounter> counters = new ArrayList<>();
+		for (String page : pages) {
+			String url = "https://en.wikipedia.org/wiki/" + page;
+			Elements paragraphs = wf.readWikipedia(url);
+			TermCounter tc = new TermCounter(url);
+			tc.processElements(paragraphs, null);
+			counters.add(tc);
+		}
+		return counters;
+	}
+
+	/**
+	 * Returns `copies` copies of each counter, labeled with distinct URLs.
+	 *
+	 * @param counters
+	 * @param copies
+	 * @return
+	 */
+	static List<TermCounter> copyPages(List<TermCounter> counters, int copies) {
+		List<TermCounter> result = new ArrayList<>();
+		for (int i = 0; i < copies; i++) {
+			for (TermCounter tc : counters) {
+				TermCounter copy = new TermCounter(tc.getLabel() + "?copy=" + i);
+				for (String term : tc.keySet()) {
+					copy.put(term, tc.get(term));
+				}
+				result.add(copy);
+			}
+		}
+		return result;
+	}
+}
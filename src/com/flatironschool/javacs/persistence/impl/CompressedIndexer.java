@@ -0,0 +1,670 @@
+package com.flatironschool.javacs.persistence.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.NoSuchElementException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.flatironschool.javacs.TermCounter;
+import com.flatironschool.javacs.persistence.interfaces.IPersistIndex;
+import com.flatironschool.javacs.persistence.interfaces.IPostingIterator;
+
+/**
+ * In-memory index that stores postings as compressed byte arrays.
+ *
+ * Every URL gets a dense int doc id and every term a dense int term id. The
+ * postings of a term are (doc id gap, count) pairs sorted by doc id and
+ * encoded with {@link VarInt}, so a posting usually takes two bytes instead
+ * of a boxed Integer plus a copy of the URL. A forward list per document,
+ * encoded the same way with term id gaps, answers per-document lookups and
+ * lets a page be re-indexed. Skip pointers every
+ * {@link PostingsBuilder#SKIP_INTERVAL} postings let an iterator jump ahead
+ * without decoding everything in between.
+ */
+public class CompressedIndexer implements IPersistIndex {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private static final byte[] EMPTY = new byte[0];
+
+	private static final int[] NO_SKIPS = new int[0];
+
+	// document table, indexed by doc id
+	private Map<String, Integer> urlToDocId;
+	private List<String> docUrls;
+	private int[] docLengths;
+	private int[] docUniqueTerms;
+	private byte[][] docTerms;
+
+	// term table, indexed by term id
+	private Map<String, Integer> termToId;
+	private List<String> terms;
+	private byte[][] postings;
+	private int[] postingsSize;
+	private int[] lastDocId;
+	private int[] docFreq;
+	// upper bound on count / length over the postings, for pruning
+	private double[] maxTermFrequency;
+	// (doc id, byte offset) after every SKIP_INTERVAL postings
+	private int[][] skips;
+
+	private CorpusStatistics statistics;
+
+	public CompressedIndexer() {
+		super();
+		statistics = new CorpusStatistics();
+		clearDocuments();
+		clearTerms();
+	}
+
+	@Override
+	public boolean isIndexed(String url) {
+		return urlToDocId.containsKey(url);
+	}
+
+	@Override
+	public Set<String> getUrls(String term) {
+		Set<String> urls = new HashSet<String>();
+		Integer termId = termToId.get(term);
+		if (termId == null)
+			return urls;
+
+		ByteBuffer buf = postingsBuffer(termId);
+		int docId = 0;
+		while (buf.hasRemaining()) {
+			docId += VarInt.read(buf);
+			VarInt.read(buf);
+			urls.add(docUrls.get(docId));
+		}
+		return urls;
+	}
+
+	@Override
+	public Map<String, Double> getUrlToTermCount(String term) {
+		Map<String, Double> map = new HashMap<String, Double>();
+		Integer termId = termToId.get(term);
+		if (termId == null)
+			return map;
+
+		ByteBuffer buf = postingsBuffer(termId);
+		int docId = 0;
+		while (buf.hasRemaining()) {
+			docId += VarInt.read(buf);
+			int count = VarInt.read(buf);
+			map.put(docUrls.get(docId), (double) count);
+		}
+		return map;
+	}
+
+	@Override
+	public double getTotalTermCount(String url) {
+		Integer docId = urlToDocId.get(url);
+		return docId == null ? 0 : docLengths[docId];
+	}
+
+	@Override
+	public int getUniqueTermCount(String url) {
+		Integer docId = urlToDocId.get(url);
+		return docId == null ? 0 : docUniqueTerms[docId];
+	}
+
+	@Override
+	public Map<String, Double> getTotalTermCounts(Collection<String> urls) {
+		Map<String, Double> map = new HashMap<String, Double>();
+		for (String url : urls) {
+			Integer docId = urlToDocId.get(url);
+			if (docId != null)
+				map.put(url, (double) docLengths[docId]);
+		}
+		return map;
+	}
+
+	@Override
+	public int getDocumentCount() {
+		return statistics.getDocumentCount();
+	}
+
+	@Override
+	public int getDocumentFrequency(String term) {
+		Integer termId = termToId.get(term);
+		return termId == null ? 0 : docFreq[termId];
+	}
+
+	@Override
+	public double getAverageDocumentLength() {
+		return statistics.getAverageDocumentLength();
+	}
+
+	@Override
+	public Integer getCount(String url, String term) {
+		Integer docId = urlToDocId.get(url);
+		Integer termId = termToId.get(term);
+		if (docId == null || termId == null)
+			return null;
+
+		// the forward list is sorted by term id, so stop once we pass it
+		ByteBuffer buf = ByteBuffer.wrap(docTerms[docId]);
+		int id = 0;
+		while (buf.hasRemaining()) {
+			id += VarInt.read(buf);
+			int count = VarInt.read(buf);
+			if (id == termId)
+				return count;
+			if (id > termId)
+				break;
+		}
+		return null;
+	}
+
+	@Override
+	public IPostingIterator postings(String term) {
+		Integer termId = termToId.get(term);
+		if (termId == null)
+			return ArrayPostingIterator.empty();
+		return new Postings(termId);
+	}
+
+	@Override
+	public int getDocId(String url) {
+		Integer docId = urlToDocId.get(url);
+		return docId == null ? -1 : docId;
+	}
+
+	@Override
+	public String getUrl(int docId) {
+		return docId >= 0 && docId < docUrls.size() ? docUrls.get(docId) : null;
+	}
+
+	@Override
+	public void pushTermCounter(TermCounter tc) {
+		String url = tc.getLabel();
+
+		Integer docId = urlToDocId.get(url);
+		int oldLength = -1;
+		if (docId == null) {
+			docId = addDocument(url);
+		} else {
+			oldLength = docLengths[docId];
+		}
+
+		// pack (term id, count) into longs so one primitive sort orders them
+		long[] entries = new long[tc.keySet().size()];
+		int n = 0;
+		for (String term : tc.keySet()) {
+			int count = tc.get(term);
+			if (count > 0)
+				entries[n++] = ((long) termId(term) << 32) | count;
+		}
+		Arrays.sort(entries, 0, n);
+
+		// walk the old forward list alongside the new one, so a re-indexed
+		// page only rewrites the postings of terms that were added, changed
+		// or removed
+		long[] old = forwardEntries(docId);
+		int j = 0;
+		byte[] forward = new byte[n * 2 * VarInt.MAX_BYTES];
+		int pos = 0;
+		int length = 0;
+		int previous = 0;
+		for (int i = 0; i < n; i++) {
+			int termId = (int) (entries[i] >>> 32);
+			int count = (int) entries[i];
+			while (j < old.length && (int) (old[j] >>> 32) < termId) {
+				rewritePostings((int) (old[j++] >>> 32), docId, 0);
+			}
+			if (j < old.length && (int) (old[j] >>> 32) == termId) {
+				if ((int) old[j++] != count)
+					addPosting(termId, docId, count);
+			} else {
+				addPosting(termId, docId, count);
+			}
+
+			pos = VarInt.write(forward, pos, termId - previous);
+			pos = VarInt.write(forward, pos, count);
+			previous = termId;
+			length += count;
+		}
+		while (j < old.length) {
+			rewritePostings((int) (old[j++] >>> 32), docId, 0);
+		}
+		docTerms[docId] = Arrays.copyOf(forward, pos);
+		docLengths[docId] = length;
+		docUniqueTerms[docId] = n;
+
+		// a new length changes the frequency of every term on the page;
+		// bounds are only raised, so removals leave them loose but valid
+		for (int i = 0; i < n; i++) {
+			int termId = (int) (entries[i] >>> 32);
+			maxTermFrequency[termId] = Math.max(maxTermFrequency[termId], (int) entries[i] / (double) length);
+		}
+
+		if (oldLength < 0)
+			statistics.addDocument(length);
+		else
+			statistics.replaceDocument(oldLength, length);
+	}
+
+	@Override
+	public void pushTermCounters(Collection<TermCounter> tcs) {
+		for (TermCounter tc : tcs) {
+			pushTermCounter(tc);
+		}
+	}
+
+	@Override
+	public Set<String> urlSetKeys() {
+		Set<String> keys = new LinkedHashSet<String>();
+		for (int termId = 0; termId < terms.size(); termId++) {
+			if (docFreq[termId] > 0)
+				keys.add(urlSetKey(terms.get(termId)));
+		}
+		return keys;
+	}
+
+	@Override
+	public void deleteURLSets() {
+		// forward lists hold term ids, so they go with the term table
+		clearTerms();
+		Arrays.fill(docTerms, 0, docUrls.size(), EMPTY);
+	}
+
+	@Override
+	public void deleteTermCounters() {
+		// postings hold doc ids, so they go with the document table
+		clearDocuments();
+		for (int termId = 0; termId < terms.size(); termId++) {
+			postings[termId] = EMPTY;
+			postingsSize[termId] = 0;
+			lastDocId[termId] = 0;
+			docFreq[termId] = 0;
+			maxTermFrequency[termId] = 0;
+			skips[termId] = NO_SKIPS;
+		}
+	}
+
+	@Override
+	public void deleteAllKeys() {
+		clearDocuments();
+		clearTerms();
+	}
+
+	@Override
+	public Set<String> termCounterKeys() {
+		Set<String> keys = new LinkedHashSet<String>();
+		for (String url : docUrls) {
+			keys.add(termCounterKey(url));
+		}
+		return keys;
+	}
+
+	@Override
+	public Iterator<String> termIterator() {
+		return new Iterator<String>() {
+			private int termId = advance(0);
+
+			private int advance(int from) {
+				// skip terms whose postings were all removed
+				while (from < terms.size() && docFreq[from] == 0) {
+					from++;
+				}
+				return from;
+			}
+
+			@Override
+			public boolean hasNext() {
+				return termId < terms.size();
+			}
+
+			@Override
+			public String next() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+				String term = terms.get(termId);
+				termId = advance(termId + 1);
+				return term;
+			}
+		};
+	}
+
+	@Override
+	public Iterator<String> urlIterator() {
+		return docUrls.iterator();
+	}
+
+	/**
+	 * Returns the number of bytes used by the encoded postings and forward
+	 * lists, not counting unused capacity.
+	 *
+	 * @return
+	 */
+	public long encodedSize() {
+		long size = 0;
+		for (int termId = 0; termId < terms.size(); termId++) {
+			size += postingsSize[termId];
+		}
+		for (int docId = 0; docId < docUrls.size(); docId++) {
+			size += docTerms[docId].length;
+		}
+		return size;
+	}
+
+	/**
+	 * Trims the postings arrays to their used size.
+	 *
+	 * Useful once a bulk load is done, since growing arrays leave slack.
+	 */
+	public void trimToSize() {
+		for (int termId = 0; termId < terms.size(); termId++) {
+			if (postings[termId].length != postingsSize[termId])
+				postings[termId] = Arrays.copyOf(postings[termId], postingsSize[termId]);
+		}
+	}
+
+	private ByteBuffer postingsBuffer(int termId) {
+		return ByteBuffer.wrap(postings[termId], 0, postingsSize[termId]);
+	}
+
+	private int addDocument(String url) {
+		int docId = docUrls.size();
+		if (docId == docLengths.length) {
+			int capacity = docId + (docId >> 1);
+			docLengths = Arrays.copyOf(docLengths, capacity);
+			docUniqueTerms = Arrays.copyOf(docUniqueTerms, capacity);
+			docTerms = Arrays.copyOf(docTerms, capacity);
+		}
+		urlToDocId.put(url, docId);
+		docUrls.add(url);
+		docTerms[docId] = EMPTY;
+		return docId;
+	}
+
+	private int termId(String term) {
+		Integer termId = termToId.get(term);
+		if (termId != null)
+			return termId;
+
+		int id = terms.size();
+		if (id == postings.length) {
+			int capacity = id + (id >> 1);
+			postings = Arrays.copyOf(postings, capacity);
+			postingsSize = Arrays.copyOf(postingsSize, capacity);
+			lastDocId = Arrays.copyOf(lastDocId, capacity);
+			docFreq = Arrays.copyOf(docFreq, capacity);
+			maxTermFrequency = Arrays.copyOf(maxTermFrequency, capacity);
+			skips = Arrays.copyOf(skips, capacity);
+		}
+		termToId.put(term, id);
+		terms.add(term);
+		postings[id] = EMPTY;
+		skips[id] = NO_SKIPS;
+		return id;
+	}
+
+	/**
+	 * Adds a posting, appending when the doc id is past the end of the list
+	 * and rewriting the list otherwise.
+	 */
+	private void addPosting(int termId, int docId, int count) {
+		if (docFreq[termId] > 0 && docId <= lastDocId[termId]) {
+			rewritePostings(termId, docId, count);
+			return;
+		}
+
+		int size = postingsSize[termId];
+		byte[] buf = postings[termId];
+		if (size + 2 * VarInt.MAX_BYTES > buf.length) {
+			int capacity = Math.max(INITIAL_CAPACITY, buf.length + (buf.length >> 1) + 2 * VarInt.MAX_BYTES);
+			buf = Arrays.copyOf(buf, capacity);
+			postings[termId] = buf;
+		}
+		int gap = docFreq[termId] == 0 ? docId : docId - lastDocId[termId];
+		size = VarInt.write(buf, size, gap);
+		size = VarInt.write(buf, size, count);
+		postingsSize[termId] = size;
+		lastDocId[termId] = docId;
+		docFreq[termId]++;
+		if (docFreq[termId] % PostingsBuilder.SKIP_INTERVAL == 0)
+			skips[termId] = addSkip(skips[termId], docFreq[termId] / PostingsBuilder.SKIP_INTERVAL - 1, docId, size);
+	}
+
+	/**
+	 * Stores a skip pointer, growing the array if needed. Arrays are never
+	 * changed below the new entry, so open iterators can keep using them.
+	 */
+	private static int[] addSkip(int[] skips, int index, int docId, int offset) {
+		if (2 * index + 2 > skips.length)
+			skips = Arrays.copyOf(skips, Math.max(8, skips.length * 2));
+		skips[2 * index] = docId;
+		skips[2 * index + 1] = offset;
+		return skips;
+	}
+
+	/**
+	 * Decodes the forward list of a document into (term id, count) pairs
+	 * packed into longs, in term id order.
+	 */
+	private long[] forwardEntries(int docId) {
+		ByteBuffer buf = ByteBuffer.wrap(docTerms[docId]);
+		long[] entries = new long[docUniqueTerms[docId]];
+		int n = 0;
+		int termId = 0;
+		// the list is empty after deleteURLSets, whatever the norms say
+		while (buf.hasRemaining()) {
+			termId += VarInt.read(buf);
+			entries[n++] = ((long) termId << 32) | VarInt.read(buf);
+		}
+		return n == entries.length ? entries : Arrays.copyOf(entries, n);
+	}
+
+	/**
+	 * Re-encodes the postings of a term with the count for `docId` replaced,
+	 * inserted, or removed when `count` is 0.
+	 */
+	private void rewritePostings(int termId, int docId, int count) {
+		int df = docFreq[termId];
+		ByteBuffer in = postingsBuffer(termId);
+
+		// the builder numbers the skip pointers as it goes
+		PostingsBuilder builder = new PostingsBuilder();
+		int current = 0;
+		boolean written = false;
+		for (int i = 0; i < df; i++) {
+			current += VarInt.read(in);
+			int currentCount = VarInt.read(in);
+			if (!written && current >= docId) {
+				if (count > 0)
+					builder.add(docId, count, 0);
+				written = true;
+				if (current == docId)
+					continue;
+			}
+			builder.add(current, currentCount, 0);
+		}
+		if (!written && count > 0)
+			builder.add(docId, count, 0);
+
+		int pos = builder.size();
+		int newDf = builder.docFreq();
+		int previous = newDf == 0 ? 0 : builder.lastDoc();
+		skips[termId] = Arrays.copyOf(builder.skips(), 2 * builder.skipCount());
+		postings[termId] = Arrays.copyOf(builder.bytes(), pos);
+		postingsSize[termId] = pos;
+		lastDocId[termId] = previous;
+		docFreq[termId] = newDf;
+	}
+
+	private void clearDocuments() {
+		statistics.clear();
+		urlToDocId = new HashMap<>();
+		docUrls = new ArrayList<>();
+		docLengths = new int[INITIAL_CAPACITY];
+		docUniqueTerms = new int[INITIAL_CAPACITY];
+		docTerms = new byte[INITIAL_CAPACITY][];
+	}
+
+	private void clearTerms() {
+		termToId = new HashMap<>();
+		terms = new ArrayList<>();
+		postings = new byte[INITIAL_CAPACITY][];
+		postingsSize = new int[INITIAL_CAPACITY];
+		lastDocId = new int[INITIAL_CAPACITY];
+		docFreq = new int[INITIAL_CAPACITY];
+		maxTermFrequency = new double[INITIAL_CAPACITY];
+		skips = new int[INITIAL_CAPACITY][];
+	}
+
+	/**
+	 * Decodes the postings of one term as it goes. It sees the list as it
+	 * was when created: appends land past its limit and rewrites replace
+	 * the array.
+	 */
+	private class Postings implements IPostingIterator {
+		private final ByteBuffer buf;
+		private final int df;
+		private final double maxTf;
+		private final int[] skipList;
+		private final int skipCount;
+		private int docId = -1;
+		private int freq;
+
+		Postings(int termId) {
+			buf = postingsBuffer(termId);
+			df = docFreq[termId];
+			maxTf = maxTermFrequency[termId];
+			skipList = skips[termId];
+			skipCount = df / PostingsBuilder.SKIP_INTERVAL;
+		}
+
+		@Override
+		public int docId() {
+			return docId;
+		}
+
+		@Override
+		public int freq() {
+			return freq;
+		}
+
+		@Override
+		public int docLength() {
+			return docLengths[docId];
+		}
+
+		@Override
+		public float impact() {
+			return -1;
+		}
+
+		@Override
+		public int nextDoc() {
+			if (!buf.hasRemaining())
+				return docId = NO_MORE_DOCS;
+			docId = docId < 0 ? VarInt.read(buf) : docId + VarInt.read(buf);
+			freq = VarInt.read(buf);
+			return docId;
+		}
+
+		@Override
+		public int advance(int target) {
+			if (docId >= target)
+				return docId;
+			// find the last skip pointer before the target
+			int lo = 0;
+			int hi = skipCount - 1;
+			while (lo <= hi) {
+				int mid = (lo + hi) >>> 1;
+				if (skipList[2 * mid] < target)
+					lo = mid + 1;
+				else
+					hi = mid - 1;
+			}
+			if (hi >= 0 && skipList[2 * hi] > docId) {
+				docId = skipList[2 * hi];
+				buf.position(skipList[2 * hi + 1]);
+			}
+			while (docId < target) {
+				nextDoc();
+			}
+			return docId;
+		}
+
+		@Override
+		public long cost() {
+			return df;
+		}
+
+		@Override
+		public double maxTermFrequency() {
+			return maxTf;
+		}
+	}
+
+	private String urlSetKey(String term) {
+		return "URLSet:" + term;
+	}
+
+	private String termCounterKey(String url) {
+		return "TermCounter:" + url;
+	}
+
+	/**
+	 * Measures the heap used by JavaIndexer and CompressedIndexer for the
+	 * same set of pages.
+	 *
+	 * The pages in src/resources are indexed `copies` times under distinct
+	 * URLs so the corpus is big enough to measure.
+	 *
+	 * @param args  optional number of copies (default 500)
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		int copies = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+		List<TermCounter> counters = BenchmarkPages.loadResourcePages();
+
+		long javaBytes = measure(new JavaIndexer(), counters, copies);
+		long compressedBytes = measure(new CompressedIndexer(), counters, copies);
+
+		System.out.println("Documents indexed:  " + counters.size() * copies);
+		System.out.println("JavaIndexer:        " + javaBytes / 1024 + " KB");
+		System.out.println("CompressedIndexer:  " + compressedBytes / 1024 + " KB");
+		System.out.printf("Reduction:          %.1fx%n", javaBytes / (double) compressedBytes);
+	}
+
+	private static long measure(IPersistIndex index, List<TermCounter> counters, int copies) {
+		long before = usedHeap();
+		for (int i = 0; i < copies; i++) {
+			for (TermCounter tc : counters) {
+				TermCounter copy = new TermCounter(tc.getLabel() + "?copy=" + i);
+				for (String term : tc.keySet()) {
+					copy.put(term, tc.get(term));
+				}
+				index.pushTermCounter(copy);
+			}
+		}
+		if (index instanceof CompressedIndexer)
+			((CompressedIndexer) index).trimToSize();
+		long after = usedHeap();
+
+		// keep the index reachable until after the measurement
+		if (!index.isIndexed(counters.get(0).getLabel() + "?copy=0"))
+			throw new IllegalStateException("index lost a document");
+		return after - before;
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
@@ -0,0 +1,71 @@
+package com.flatironschool.javacs.persistence.impl;
+
+import static com.flatironschool.javacs.persistence.impl.TestCounters.counter;
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class CompressedIndexerTest {
+
+	private CompressedIndexer index;
+
+	@Before
+	public void setUp() throws Exception {
+		index = new CompressedIndexer();
+		index.pushTermCounter(counter("Page1", "java", 3, "coffee", 1));
+		index.pushTermCounter(counter("Page2", "java", 200, "island", 2));
+		index.pushTermCounter(counter("Page3", "coffee", 5));
+	}
+
+	@Test
+	public void testLookups() {
+		assertThat(index.isIndexed("Page2"), is(true));
+		assertThat(index.isIndexed("Page4"), is(false));
+		assertThat(index.getUrls("java").size(), is(2));
+		assertThat(index.getUrls("missing").isEmpty(), is(true));
+		assertThat(index.getCount("Page2", "java"), is(200));
+		assertThat(index.getCount("Page2", "coffee"), is(nullValue()));
+		assertThat(index.getTotalTermCount("Page1"), is(4.0));
+
+		Map<String, Double> counts = index.getUrlToTermCount("coffee");
+		assertThat(counts.get("Page1"), is(1.0));
+		assertThat(counts.get("Page3"), is(5.0));
+		assertThat(counts.size(), is(2));
+	}
+
+	@Test
+	public void testReindex() {
+		index.pushTermCounter(counter("Page1", "coffee", 7, "island", 1));
+
+		assertThat(index.getUrls("java").size(), is(1));
+		assertThat(index.getUrls("island").size(), is(2));
+		assertThat(index.getUrlToTermCount("coffee").get("Page1"), is(7.0));
+		assertThat(index.getUrlToTermCount("coffee").get("Page3"), is(5.0));
+		assertThat(index.getTotalTermCount("Page1"), is(8.0));
+		assertThat(index.termCounterKeys().size(), is(3));
+	}
+
+	@Test
+	public void testStatistics() {
+		assertThat(index.getDocumentCount(), is(3));
+		assertThat(index.getDocumentFrequency("java"), is(2));
+		assertThat(index.getAverageDocumentLength(), is(211.0 / 3));
+
+		index.pushTermCounter(counter("Page2", "java", 2));
+		assertThat(index.getDocumentCount(), is(3));
+		assertThat(index.getDocumentFrequency("island"), is(0));
+		assertThat(index.getAverageDocumentLength(), is(11.0 / 3));
+	}
+
+	@Test
+	public void testDelete() {
+		index.deleteAllKeys();
+		assertThat(index.urlSetKeys().isEmpty(), is(true));
+		assertThat(index.termCounterKeys().isEmpty(), is(true));
+	}
+}
@@ -0,0 +1,84 @@
+package com.flatironschool.javacs.persistence.impl;
+
+import java.util.List;
+
+import com.flatironschool.javacs.persistence.interfaces.IPostingIterator;
+
+/**
+ * Chains posting iterators whose doc id ranges do not overlap and are
+ * given in increasing order, such as the segments of a SegmentIndexer.
+ */
+class ConcatPostingIterator implements IPostingIterator {
+
+	private final IPostingIterator[] parts;
+	private int current = 0;
+	private int docId = -1;
+	private final long cost;
+	private final double maxTermFrequency;
+
+	ConcatPostingIterator(List<IPostingIterator> parts) {
+		this.parts = parts.toArray(new IPostingIterator[parts.size()]);
+		long cost = 0;
+		double max = 0;
+		for (IPostingIterator part : parts) {
+			cost += part.cost();
+			max = Math.max(max, part.maxTermFrequency());
+		}
+		this.cost = cost;
+		this.maxTermFrequency = max;
+	}
+
+	@Override
+	public int docId() {
+		return docId;
+	}
+
+	@Override
+	public int freq() {
+		return parts[current].freq();
+	}
+
+	@Override
+	public int docLength() {
+		return parts[current].docLength();
+	}
+
+	@Override
+	public float impact() {
+		return parts[current].impact();
+	}
+
+	@Override
+	public int nextDoc() {
+		while (current < parts.length) {
+			int doc = parts[current].nextDoc();
+			if (doc != NO_MORE_DOCS)
+				return docId = doc;
+			current++;
+		}
+		return docId = NO_MORE_DOCS;
+	}
+
+	@Override
+	public int advance(int target) {
+		if (docId >= target)
+			return docId;
+		while (current < parts.length) {
+			int doc = parts[current].advance(target);
+			if (doc != NO_MORE_DOCS)
+				return docId = doc;
+			current++;
+		}
+		return docId = NO_MORE_DOCS;
+	}
+
+	@Override
+	public long cost() {
+		return cost;
+	}
+
+	@Override
+	public double maxTermFrequency() {
+		return maxTermFrequency;
+	}
+}
@@ -0,0 +1,78 @@
+package com.flatironschool.javacs.persistence.impl;
+
+/**
+ * Running totals over the indexed documents, kept up to date as pages are
+ * pushed so that scoring never has to enumerate the index.
+ *
+ * Document frequencies come from the backends' own posting structures; this
+ * class tracks what they don't have: the number of documents and the sum of
+ * their lengths.
+ */
+public class CorpusStatistics {
+
+	private int documentCount;
+	private long totalLength;
+
+	/**
+	 * Records a page that has not been indexed before.
+	 *
+	 * @param length  total number of terms on the page
+	 */
+	public void addDocument(int length) {
+		documentCount++;
+		totalLength += length;
+	}
+
+	/**
+	 * Records that an indexed page was replaced by a new version.
+	 *
+	 * @param oldLength
+	 * @param newLength
+	 */
+	public void replaceDocument(int oldLength, int newLength) {
+		totalLength += newLength - oldLength;
+	}
+
+	/**
+	 * Records that an indexed page was dropped.
+	 *
+	 * @param length
+	 */
+	public void removeDocument(int length) {
+		documentCount--;
+		totalLength -= length;
+	}
+
+	/**
+	 * Records pages whose totals were saved with the index.
+	 *
+	 * @param count
+	 * @param totalLength
+	 */
+	public void addDocuments(int count, long totalLength) {
+		documentCount += count;
+		this.totalLength += totalLength;
+	}
+
+	public void clear() {
+		documentCount = 0;
+		totalLength = 0;
+	}
+
+	public int getDocumentCount() {
+		return documentCount;
+	}
+
+	public long getTotalLength() {
+		return totalLength;
+	}
+
+	/**
+	 * Returns the mean number of terms per document, or 0 for an empty index.
+	 *
+	 * @return
+	 */
+	public double getAverageDocumentLength() {
+		return documentCount == 0 ? 0 : totalLength / (double) documentCount;
+	}
+}
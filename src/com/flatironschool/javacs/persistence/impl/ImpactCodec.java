@@ -0,0 +1,78 @@
+package com.flatironschool.javacs.persistence.impl;
+
+/**
+ * Quantizes the term frequency of a posting, count / length, to an 8 or
+ * 16 bit impact that is stored at index time.
+ *
+ * Term frequencies run from about one in a million words to 1, so the
+ * levels are spaced evenly on a log scale: 8 bits keep a frequency within
+ * about 3% and 16 bits within 0.01%. Impact 0 is a frequency of 0, and
+ * anything rarer than {@link #MIN_TF} gets impact 1.
+ */
+final class ImpactCodec {
+
+	/** Smallest term frequency with its own level. */
+	static final double MIN_TF = 1.0 / (1 << 20);
+
+	private static final float[] DECODE_8 = table(8);
+	private static final float[] DECODE_16 = table(16);
+
+	private ImpactCodec() {
+	}
+
+	/**
+	 * Returns true for the impact sizes a segment can store: 8, 16, or 0
+	 * for none.
+	 */
+	static boolean isSupported(int bits) {
+		return bits == 0 || bits == 8 || bits == 16;
+	}
+
+	/**
+	 * @param count   number of times the term appears
+	 * @param length  total number of terms in the page
+	 * @param bits    8 or 16
+	 * @return the impact nearest to count / length
+	 */
+	static int encode(int count, int length, int bits) {
+		if (count <= 0 || length <= 0)
+			return 0;
+		int levels = (1 << bits) - 1;
+		double tf = Math.min(count / (double) length, 1.0);
+		double x = Math.log(tf) / Math.log(MIN_TF);
+		long impact = levels - Math.round(x * (levels - 1));
+		return (int) Math.max(1, Math.min(levels, impact));
+	}
+
+	/**
+	 * Returns the term frequency of each impact.
+	 *
+	 * @param bits  8 or 16
+	 * @return
+	 */
+	static float[] decodeTable(int bits) {
+		return bits == 8 ? DECODE_8 : DECODE_16;
+	}
+
+	/**
+	 * Returns an upper bound on the term frequency of a posting stored with
+	 * a given impact: the next level up, since impacts are rounded to the
+	 * nearest level.
+	 *
+	 * @param impact
+	 * @param bits    8 or 16
+	 * @return
+	 */
+	static float upperBound(int impact, int bits) {
+		return decodeTable(bits)[Math.min(impact + 1, (1 << bits) - 1)];
+	}
+
+	private static float[] table(int bits) {
+		int levels = (1 << bits) - 1;
+		float[] table = new float[levels + 1];
+		for (int impact = 1; impact <= levels; impact++) {
+			table[impact] = (float) Math.pow(MIN_TF, (levels - impact) / (double) (levels - 1));
+		}
+		return table;
+	}
+}
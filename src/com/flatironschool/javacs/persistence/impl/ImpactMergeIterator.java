@@ -0,0 +1,78 @@
+package com.flatironschool.javacs.persistence.impl;
+
+import java.util.List;
+
+import com.flatironschool.javacs.persistence.interfaces.IImpactIterator;
+import com.flatironschool.javacs.persistence.interfaces.IPostingIterator;
+
+/**
+ * Merges impact-ordered iterators, such as those of the segments of a
+ * SegmentIndexer, by always taking the next posting from the part whose
+ * remaining bound is highest. The merged bound is then the highest of the
+ * parts', so it only falls.
+ *
+ * There are only a few parts, so they are scanned rather than kept in a
+ * heap.
+ */
+class ImpactMergeIterator implements IImpactIterator {
+
+	private final IImpactIterator[] parts;
+	private int current = -1;
+	private int docId = -1;
+
+	ImpactMergeIterator(List<IImpactIterator> parts) {
+		this.parts = parts.toArray(new IImpactIterator[parts.size()]);
+	}
+
+	@Override
+	public int docId() {
+		return docId;
+	}
+
+	@Override
+	public int freq() {
+		return parts[current].freq();
+	}
+
+	@Override
+	public int docLength() {
+		return parts[current].docLength();
+	}
+
+	@Override
+	public float impact() {
+		return parts[current].impact();
+	}
+
+	@Override
+	public int nextDoc() {
+		while (true) {
+			int best = -1;
+			double bound = 0;
+			for (int i = 0; i < parts.length; i++) {
+				double remaining = parts[i].maxRemainingTermFrequency();
+				if (remaining > bound) {
+					best = i;
+					bound = remaining;
+				}
+			}
+			if (best < 0)
+				return docId = IPostingIterator.NO_MORE_DOCS;
+			// a part whose rest is all deleted comes back empty
+			int doc = parts[best].nextDoc();
+			if (doc != IPostingIterator.NO_MORE_DOCS) {
+				current = best;
+				return docId = doc;
+			}
+		}
+	}
+
+	@Override
+	public double maxRemainingTermFrequency() {
+		double max = 0;
+		for (IImpactIterator part : parts) {
+			max = Math.max(max, part.maxRemainingTermFrequency());
+		}
+		return max;
+	}
+}
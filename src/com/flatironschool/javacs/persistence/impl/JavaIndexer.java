@@ -1,29 +1,65 @@
 package com.flatironschool.javacs.persistence.impl;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import com.flatironschool.javacs.TermCounter;
 import com.flatironschool.javacs.persistence.interfaces.IPersistIndex;
+import com.flatironschool.javacs.persistence.interfaces.IPositionIndex;
+import com.flatironschool.javacs.persistence.interfaces.IPostingIterator;
 
 import redis.clients.jedis.Transaction;
 
-public class JavaIndexer implements IPersistIndex {
+public class JavaIndexer implements IPersistIndex, IPositionIndex {
 
+	private static final int SNAPSHOT_MAGIC = 0x4a494458; // "JIDX"
+	private static final int SNAPSHOT_VERSION = 2;
+	private static final int SNAPSHOT_BUFFER_SIZE = 1 << 16;
 	
 	Map<String, Map<String, Integer>> urlToTerms;
 	Map<String, Set<String>> termToUrl;
 	
+	// document norms, filled at index time and keyed by URL
+	Map<String, Integer> docLengths;
+	Map<String, Integer> docUniqueTerms;
 	
+	// doc ids, in the order pages were first pushed
+	Map<String, Integer> urlToDocId;
+	List<String> docUrls;
+	
+	// encoded positions by term and doc id, kept apart from the counts so
+	// queries that only need counts never touch them
+	Map<String, Map<Integer, byte[]>> termPositions;
+	
+	CorpusStatistics statistics;
 	
 	public JavaIndexer() {
 		super();
 		urlToTerms = new HashMap<>();
 		termToUrl = new HashMap<>();
+		docLengths = new HashMap<>();
+		docUniqueTerms = new HashMap<>();
+		urlToDocId = new HashMap<>();
+		docUrls = new ArrayList<>();
+		termPositions = new HashMap<>();
+		statistics = new CorpusStatistics();
 		
 	}
 
@@ -52,7 +88,7 @@ public class JavaIndexer implements IPersistIndex {
 			if (termToCount != null)
 			{
 				Integer count = termToCount.get(term);
-				map.put(url, new Double (count));
+				map.put(url, Double.valueOf(count));
 			}
 		}
 		return map;
@@ -60,19 +96,42 @@ public class JavaIndexer implements IPersistIndex {
 
 	@Override
 	public double getTotalTermCount(String url) {
-		String redisKey = termCounterKey(url);
-		Map<String, Integer> termToCount = urlToTerms.get(redisKey);
-		
-	
-		Set<String> termKeys  = termToCount.keySet();
-		double totalCountOfAllTerms = 0;
-		for (String termKey : termKeys)
+		Integer length = docLengths.get(url);
+		return length == null ? 0 : length;
+	}
+
+	@Override
+	public int getUniqueTermCount(String url) {
+		Integer unique = docUniqueTerms.get(url);
+		return unique == null ? 0 : unique;
+	}
+
+	@Override
+	public Map<String, Double> getTotalTermCounts(Collection<String> urls) {
+		Map<String, Double> map = new HashMap<String, Double>();
+		for (String url : urls)
 		{
-			Integer count = new Integer (termToCount.get(termKey));
-			totalCountOfAllTerms += count;
+			Integer length = docLengths.get(url);
+			if (length != null)
+				map.put(url, Double.valueOf(length));
 		}
-		
-		return totalCountOfAllTerms;
+		return map;
+	}
+
+	@Override
+	public int getDocumentCount() {
+		return statistics.getDocumentCount();
+	}
+
+	@Override
+	public int getDocumentFrequency(String term) {
+		Set<String> urls = getUrls(term);
+		return urls == null ? 0 : urls.size();
+	}
+
+	@Override
+	public double getAverageDocumentLength() {
+		return statistics.getAverageDocumentLength();
 	}
 
 	@Override
@@ -87,37 +146,104 @@ public class JavaIndexer implements IPersistIndex {
 		return count;
 	}
 
+	@Override
+	public IPostingIterator postings(String term) {
+		Set<String> urls = getUrls(term);
+		if (urls == null)
+			return ArrayPostingIterator.empty();
+		
+		int[] docIds = new int[urls.size()];
+		int[] freqs = new int[urls.size()];
+		int[] lengths = new int[urls.size()];
+		int n = 0;
+		for (String url : urls)
+		{
+			Integer count = getCount(url, term);
+			if (count == null)
+				continue;
+			docIds[n] = urlToDocId.get(url);
+			freqs[n] = count;
+			lengths[n] = docLengths.get(url);
+			n++;
+		}
+		return ArrayPostingIterator.sorted(docIds, freqs, lengths, n);
+	}
+
+	@Override
+	public int getDocId(String url) {
+		Integer docId = urlToDocId.get(url);
+		return docId == null ? -1 : docId;
+	}
+
+	@Override
+	public String getUrl(int docId) {
+		return docId >= 0 && docId < docUrls.size() ? docUrls.get(docId) : null;
+	}
+
+	@Override
+	public int[] positions(String term, int docId) {
+		Map<Integer, byte[]> docToPositions = termPositions.get(term);
+		return docToPositions == null ? null : PositionCodec.decode(docToPositions.get(docId));
+	}
+
 	@Override
 	public void pushTermCounter(TermCounter tc) {
 		
 		String url = tc.getLabel();
 		String hashname = termCounterKey(url);
+		Map<String, Integer> termToCount = urlToTerms.get(hashname);
 		
+		// compare with what is stored so a re-indexed page only touches
+		// the terms that changed
+		TermCounterDiff diff = new TermCounterDiff(termToCount, tc);
+		Map<String, byte[]> positions = encodePositions(tc);
+		if (termToCount != null && diff.isEmpty() && samePositions(urlToDocId.get(url), termToCount, positions))
+			return;
 		
-		// for each term, add an entry in the termcounter and a new
-		// member of the index
-		for (String term: tc.keySet()) {
-			Integer count = tc.get(term);
-			Map<String, Integer> termToCount = urlToTerms.get(hashname);
-			if (termToCount == null)
-			{
-				termToCount = new HashMap<>();
-				urlToTerms.put(hashname, termToCount);
-			}
-			termToCount.put(term, count);
-			
-			Set<String> urls = this.termToUrl.get(urlSetKey(term));
-			if (urls == null)
-			{
-				urls = new HashSet<>();
-				this.termToUrl.put(urlSetKey(term), urls);
-			}
-			urls.add(url);
-			
+		if (termToCount == null)
+		{
+			termToCount = new HashMap<>();
+			urlToTerms.put(hashname, termToCount);
+			addDocId(url);
 		}
+		int docId = urlToDocId.get(url);
+		for (String term : termToCount.keySet())
+		{
+			removePositions(term, docId);
+		}
+		for (String term : diff.removed)
+		{
+			termToCount.remove(term);
+			removeUrl(term, url);
+		}
+		termToCount.putAll(diff.changed);
+		for (String term : diff.added)
+		{
+			addUrl(term, url);
+		}
+		for (Map.Entry<String, byte[]> entry : positions.entrySet())
+		{
+			termPositions.computeIfAbsent(entry.getKey(), term -> new HashMap<>()).put(docId, entry.getValue());
+		}
+		
+		// keep the norms next to the counts so scoring never has to sum them
+		Integer oldLength = docLengths.put(url, diff.length);
+		if (oldLength == null)
+			statistics.addDocument(diff.length);
+		else
+			statistics.replaceDocument(oldLength, diff.length);
+		docUniqueTerms.put(url, diff.uniqueTerms);
 		return;
 	}
 
+	@Override
+	public void pushTermCounters(Collection<TermCounter> tcs) {
+		for (TermCounter tc : tcs)
+		{
+			pushTermCounter(tc);
+		}
+	}
+
 	@Override
 	public Set<String> urlSetKeys() {
 		return this.termToUrl.keySet();
@@ -132,6 +258,12 @@ public class JavaIndexer implements IPersistIndex {
 	@Override
 	public void deleteTermCounters() {
 		this.urlToTerms.clear();
+		this.docLengths.clear();
+		this.docUniqueTerms.clear();
+		this.urlToDocId.clear();
+		this.docUrls.clear();
+		this.termPositions.clear();
+		this.statistics.clear();
 
 	}
 
@@ -146,6 +278,288 @@ public class JavaIndexer implements IPersistIndex {
 		return this.urlToTerms.keySet();
 	}
 	
+	@Override
+	public Iterator<String> termIterator() {
+		return stripPrefix(termToUrl.keySet().iterator(), "URLSet:");
+	}
+
+	@Override
+	public Iterator<String> urlIterator() {
+		return stripPrefix(urlToTerms.keySet().iterator(), "TermCounter:");
+	}
+
+	/**
+	 * Writes the index to `file` so it can be restored with
+	 * {@link #loadSnapshot(File)} instead of crawling again.
+	 * 
+	 * Layout: magic, version, term count, page count, then every term once
+	 * (varint length + UTF-8), then every page as its URL followed by
+	 * (term number, count, positions length) varints, each followed by its
+	 * encoded positions if it has any. The URL sets and norms are derived
+	 * from the pages, so they are rebuilt on load rather than stored.
+	 * 
+	 * The file is written next to `file` and renamed over it, so a failed
+	 * save leaves the previous snapshot intact.
+	 * 
+	 * @param file
+	 * @throws IOException
+	 */
+	public void saveSnapshot(File file) throws IOException {
+		
+		// number the terms so each page refers to them by a small int
+		Map<String, Integer> termIds = new HashMap<>();
+		List<String> terms = new ArrayList<>();
+		for (Map<String, Integer> termToCount : urlToTerms.values())
+		{
+			for (String term : termToCount.keySet())
+			{
+				if (!termIds.containsKey(term))
+				{
+					termIds.put(term, terms.size());
+					terms.add(term);
+				}
+			}
+		}
+		
+		File tmp = new File(file.getPath() + ".tmp");
+		try (FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+		{
+			ByteBuffer buf = ByteBuffer.allocateDirect(SNAPSHOT_BUFFER_SIZE);
+			buf.putInt(SNAPSHOT_MAGIC);
+			buf.putInt(SNAPSHOT_VERSION);
+			buf.putInt(terms.size());
+			buf.putInt(docUrls.size());
+			
+			for (String term : terms)
+			{
+				buf = putString(channel, buf, term);
+			}
+			// pages go out in doc id order so the ids survive a reload
+			for (int docId = 0; docId < docUrls.size(); docId++)
+			{
+				String url = docUrls.get(docId);
+				Map<String, Integer> termToCount = urlToTerms.get(termCounterKey(url));
+				buf = putString(channel, buf, url);
+				buf = ensureRoom(channel, buf, VarInt.MAX_BYTES);
+				VarInt.write(buf, termToCount.size());
+				for (Map.Entry<String, Integer> count : termToCount.entrySet())
+				{
+					Map<Integer, byte[]> docToPositions = termPositions.get(count.getKey());
+					byte[] positions = docToPositions == null ? null : docToPositions.get(docId);
+					int length = positions == null ? 0 : positions.length;
+					buf = ensureRoom(channel, buf, 3 * VarInt.MAX_BYTES + length);
+					VarInt.write(buf, termIds.get(count.getKey()));
+					VarInt.write(buf, count.getValue() == null ? 0 : count.getValue());
+					VarInt.write(buf, length);
+					if (length > 0)
+						buf.put(positions);
+				}
+			}
+			drain(channel, buf);
+			channel.force(false);
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+	
+	/**
+	 * Replaces the contents of the index with a snapshot written by
+	 * {@link #saveSnapshot(File)}.
+	 * 
+	 * The file is mapped and decoded in one pass; nothing is re-tokenized.
+	 * It is decoded into a new index that replaces this one's contents only
+	 * once the whole file has been read, so a truncated or corrupt file
+	 * leaves the index as it was.
+	 * 
+	 * @param file
+	 * @throws IOException
+	 */
+	public void loadSnapshot(File file) throws IOException {
+		MappedByteBuffer buf;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+		{
+			buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		
+		JavaIndexer loaded = new JavaIndexer();
+		try
+		{
+			if (buf.getInt() != SNAPSHOT_MAGIC)
+				throw new IOException("not an index snapshot: " + file);
+			// version 1 had no positions
+			int version = buf.getInt();
+			if (version != 1 && version != SNAPSHOT_VERSION)
+				throw new IOException("unsupported snapshot version in " + file);
+			
+			String[] terms = new String[buf.getInt()];
+			int pages = buf.getInt();
+			for (int i = 0; i < terms.length; i++)
+			{
+				terms[i] = getString(buf);
+			}
+			
+			for (int i = 0; i < pages; i++)
+			{
+				String url = getString(buf);
+				int size = VarInt.read(buf);
+				Map<String, Integer> termToCount = new HashMap<>(size * 4 / 3 + 1);
+				int length = 0;
+				int docId = loaded.docUrls.size();
+				for (int j = 0; j < size; j++)
+				{
+					String term = terms[VarInt.read(buf)];
+					int count = VarInt.read(buf);
+					termToCount.put(term, count);
+					loaded.addUrl(term, url);
+					length += count;
+					int positionsLength = version == 1 ? 0 : VarInt.read(buf);
+					if (positionsLength > 0)
+					{
+						byte[] positions = new byte[positionsLength];
+						buf.get(positions);
+						loaded.termPositions.computeIfAbsent(term, t -> new HashMap<>()).put(docId, positions);
+					}
+				}
+				loaded.urlToTerms.put(termCounterKey(url), termToCount);
+				loaded.addDocId(url);
+				loaded.docLengths.put(url, length);
+				loaded.docUniqueTerms.put(url, size);
+				loaded.statistics.addDocument(length);
+			}
+		}
+		catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException e)
+		{
+			throw new IOException("truncated or corrupt snapshot: " + file, e);
+		}
+		
+		urlToTerms = loaded.urlToTerms;
+		termToUrl = loaded.termToUrl;
+		docLengths = loaded.docLengths;
+		docUniqueTerms = loaded.docUniqueTerms;
+		urlToDocId = loaded.urlToDocId;
+		docUrls = loaded.docUrls;
+		termPositions = loaded.termPositions;
+		statistics = loaded.statistics;
+	}
+	
+	private void addDocId(String url) {
+		if (!urlToDocId.containsKey(url))
+		{
+			urlToDocId.put(url, docUrls.size());
+			docUrls.add(url);
+		}
+	}
+	
+	/**
+	 * Encodes the positions of every term of a page that has them.
+	 */
+	private static Map<String, byte[]> encodePositions(TermCounter tc) {
+		Map<String, byte[]> positions = new HashMap<>();
+		if (!tc.hasPositions())
+			return positions;
+		for (String term : tc.keySet())
+		{
+			byte[] encoded = PositionCodec.encode(tc.getPositions(term));
+			if (encoded.length > 0)
+				positions.put(term, encoded);
+		}
+		return positions;
+	}
+	
+	/**
+	 * Returns true if a page's stored positions are exactly `positions`.
+	 */
+	private boolean samePositions(int docId, Map<String, Integer> termToCount, Map<String, byte[]> positions) {
+		for (String term : termToCount.keySet())
+		{
+			Map<Integer, byte[]> docToPositions = termPositions.get(term);
+			byte[] stored = docToPositions == null ? null : docToPositions.get(docId);
+			byte[] encoded = positions.get(term);
+			if (stored == null ? encoded != null : !Arrays.equals(stored, encoded))
+				return false;
+		}
+		return true;
+	}
+	
+	private void removePositions(String term, int docId) {
+		Map<Integer, byte[]> docToPositions = termPositions.get(term);
+		if (docToPositions != null && docToPositions.remove(docId) != null && docToPositions.isEmpty())
+			termPositions.remove(term);
+	}
+	
+	private void addUrl(String term, String url) {
+		Set<String> urls = this.termToUrl.get(urlSetKey(term));
+		if (urls == null)
+		{
+			urls = new HashSet<>();
+			this.termToUrl.put(urlSetKey(term), urls);
+		}
+		urls.add(url);
+	}
+	
+	private void removeUrl(String term, String url) {
+		Set<String> urls = this.termToUrl.get(urlSetKey(term));
+		if (urls != null)
+		{
+			urls.remove(url);
+			
+			// drop the set so the term no longer shows up in termIterator
+			if (urls.isEmpty())
+				this.termToUrl.remove(urlSetKey(term));
+		}
+	}
+	
+	private static ByteBuffer putString(FileChannel channel, ByteBuffer buf, String s) throws IOException {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		buf = ensureRoom(channel, buf, VarInt.MAX_BYTES + bytes.length);
+		VarInt.write(buf, bytes.length);
+		buf.put(bytes);
+		return buf;
+	}
+	
+	private static String getString(ByteBuffer buf) {
+		byte[] bytes = new byte[VarInt.read(buf)];
+		buf.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Writes out `buf` if it has less than `room` bytes free, growing it
+	 * for values larger than the buffer.
+	 */
+	private static ByteBuffer ensureRoom(FileChannel channel, ByteBuffer buf, int room) throws IOException {
+		if (buf.remaining() >= room)
+			return buf;
+		drain(channel, buf);
+		if (buf.capacity() < room)
+			return ByteBuffer.allocateDirect(room);
+		return buf;
+	}
+	
+	private static void drain(FileChannel channel, ByteBuffer buf) throws IOException {
+		buf.flip();
+		while (buf.hasRemaining())
+		{
+			channel.write(buf);
+		}
+		buf.clear();
+	}
+
+	private static Iterator<String> stripPrefix(final Iterator<String> keys, final String prefix) {
+		return new Iterator<String>() {
+			@Override
+			public boolean hasNext() {
+				return keys.hasNext();
+			}
+
+			@Override
+			public String next() {
+				return keys.next().substring(prefix.length());
+			}
+		};
+	}
+
 	private String urlSetKey(String term) {
 		return "URLSet:" + term;
 	}
@@ -0,0 +1,113 @@
+package com.flatironschool.javacs.persistence.impl;
+
+import static com.flatironschool.javacs.persistence.impl.TestCounters.counter;
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.flatironschool.javacs.TermCounter;
+
+public class JavaIndexerTest {
+
+	private File file;
+	private JavaIndexer index;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("snapshot", ".idx");
+		index = new JavaIndexer();
+		TermCounter tc = new TermCounter("Text", true);
+		tc.processText("java is a language, java", null);
+		index.pushTermCounter(tc);
+		index.pushTermCounter(counter("Page1", "java", 3, "coffee", 1));
+		index.pushTermCounter(counter("Page2", "coffee", 5));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		file.delete();
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		index.saveSnapshot(file);
+
+		JavaIndexer loaded = new JavaIndexer();
+		loaded.loadSnapshot(file);
+		for (String url : Arrays.asList("Text", "Page1", "Page2")) {
+			assertThat(loaded.getDocId(url), is(index.getDocId(url)));
+			assertThat(loaded.getTotalTermCount(url), is(index.getTotalTermCount(url)));
+			assertThat(loaded.getUniqueTermCount(url), is(index.getUniqueTermCount(url)));
+		}
+		assertThat(loaded.getCount("Page1", "java"), is(3));
+		assertThat(loaded.getCount("Text", "java"), is(2));
+		assertThat(loaded.getUrls("coffee"), is(index.getUrls("coffee")));
+		assertThat(loaded.getDocumentCount(), is(3));
+		assertThat(loaded.getAverageDocumentLength(), is(index.getAverageDocumentLength()));
+		assertThat(loaded.positions("java", loaded.getDocId("Text")), is(new int[] { 0, 4 }));
+		assertThat(loaded.positions("language", loaded.getDocId("Text")), is(new int[] { 3 }));
+		assertThat(loaded.positions("java", loaded.getDocId("Page1")), is(nullValue()));
+	}
+
+	@Test
+	public void testVersion1() throws Exception {
+		// version 1 stored (term number, count) pairs with no positions
+		ByteBuffer buf = ByteBuffer.allocate(256);
+		buf.putInt(0x4a494458);
+		buf.putInt(1);
+		buf.putInt(2);
+		buf.putInt(1);
+		putString(buf, "java");
+		putString(buf, "coffee");
+		putString(buf, "Page1");
+		VarInt.write(buf, 2);
+		VarInt.write(buf, 0);
+		VarInt.write(buf, 3);
+		VarInt.write(buf, 1);
+		VarInt.write(buf, 1);
+		Files.write(file.toPath(), Arrays.copyOf(buf.array(), buf.position()));
+
+		index.loadSnapshot(file);
+		assertThat(index.getDocumentCount(), is(1));
+		assertThat(index.getDocId("Page1"), is(0));
+		assertThat(index.getCount("Page1", "java"), is(3));
+		assertThat(index.getTotalTermCount("Page1"), is(4.0));
+		assertThat(index.isIndexed("Text"), is(false));
+		assertThat(index.positions("java", 0), is(nullValue()));
+	}
+
+	@Test
+	public void testCorruptLeavesIndex() throws Exception {
+		index.saveSnapshot(file);
+		byte[] bytes = Files.readAllBytes(file.toPath());
+		Files.write(file.toPath(), Arrays.copyOf(bytes, bytes.length - 3));
+
+		JavaIndexer other = new JavaIndexer();
+		other.pushTermCounter(counter("Other", "island", 2));
+		try {
+			other.loadSnapshot(file);
+			fail("loaded a truncated snapshot");
+		} catch (IOException e) {
+			// expected
+		}
+		assertThat(other.getDocumentCount(), is(1));
+		assertThat(other.getCount("Other", "island"), is(2));
+		assertThat(other.isIndexed("Page1"), is(false));
+	}
+
+	private static void putString(ByteBuffer buf, String s) {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		VarInt.write(buf, bytes.length);
+		buf.put(bytes);
+	}
+}
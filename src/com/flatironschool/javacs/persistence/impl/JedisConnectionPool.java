@@ -0,0 +1,331 @@
+package com.flatironschool.javacs.persistence.impl;
+
+import java.io.Closeable;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+/**
+ * A bounded pool of Jedis connections that can be shared between threads.
+ *
+ * A Jedis object is a single socket and must not be used by two threads at
+ * once, so callers borrow a connection for the duration of one operation with
+ * {@link #execute(Function)}. Connections are opened lazily up to
+ * {@link Config#setMaxTotal(int)}; when all of them are busy, callers wait up
+ * to the borrow timeout and then get a JedisConnectionException.
+ *
+ * (Jedis ships a JedisPool, but it needs Apache commons-pool2, which is not
+ * one of our libraries.)
+ */
+public class JedisConnectionPool implements Closeable {
+
+	/**
+	 * Settings for a pool. The defaults suit a single-process crawler and
+	 * search CLI.
+	 */
+	public static class Config {
+		private int maxTotal = 8;
+		private int timeout = 3600;
+		private long borrowTimeout = 10000;
+		private boolean testOnBorrow = true;
+		private long minIdleTimeBeforeTest = 30000;
+		private int database = 0;
+
+		public int getMaxTotal() {
+			return maxTotal;
+		}
+
+		/**
+		 * Maximum number of open connections.
+		 */
+		public Config setMaxTotal(int maxTotal) {
+			if (maxTotal < 1)
+				throw new IllegalArgumentException("pool size must be positive: " + maxTotal);
+			this.maxTotal = maxTotal;
+			return this;
+		}
+
+		public int getTimeout() {
+			return timeout;
+		}
+
+		/**
+		 * Connect and socket read timeout in milliseconds.
+		 */
+		public Config setTimeout(int timeout) {
+			this.timeout = timeout;
+			return this;
+		}
+
+		public long getBorrowTimeout() {
+			return borrowTimeout;
+		}
+
+		/**
+		 * How long, in milliseconds, to wait for a free connection.
+		 */
+		public Config setBorrowTimeout(long borrowTimeout) {
+			this.borrowTimeout = borrowTimeout;
+			return this;
+		}
+
+		public boolean isTestOnBorrow() {
+			return testOnBorrow;
+		}
+
+		/**
+		 * Whether to PING a connection that has been idle for a while before
+		 * handing it out, replacing it if the PING fails.
+		 */
+		public Config setTestOnBorrow(boolean testOnBorrow) {
+			this.testOnBorrow = testOnBorrow;
+			return this;
+		}
+
+		public long getMinIdleTimeBeforeTest() {
+			return minIdleTimeBeforeTest;
+		}
+
+		/**
+		 * Connections idle for less than this many milliseconds are handed
+		 * out without a PING.
+		 */
+		public Config setMinIdleTimeBeforeTest(long minIdleTimeBeforeTest) {
+			this.minIdleTimeBeforeTest = minIdleTimeBeforeTest;
+			return this;
+		}
+
+		public int getDatabase() {
+			return database;
+		}
+
+		/**
+		 * Database number each new connection SELECTs.
+		 */
+		public Config setDatabase(int database) {
+			this.database = database;
+			return this;
+		}
+	}
+
+	/**
+	 * An idle connection and when it was returned.
+	 */
+	private static class Idle {
+		final Jedis jedis;
+		final long since;
+
+		Idle(Jedis jedis) {
+			this.jedis = jedis;
+			this.since = System.currentTimeMillis();
+		}
+	}
+
+	private final String host;
+	private final int port;
+	private final String auth;
+	private final Config config;
+
+	private final Semaphore permits;
+	private final ConcurrentLinkedDeque<Idle> idle = new ConcurrentLinkedDeque<Idle>();
+	private volatile boolean closed = false;
+
+	// set when the pool wraps one connection it did not open
+	private final Jedis single;
+
+	/**
+	 * Makes a pool that opens its own connections.
+	 *
+	 * @param host
+	 * @param port
+	 * @param auth    password, or null if the server has none
+	 * @param config
+	 */
+	public JedisConnectionPool(String host, int port, String auth, Config config) {
+		this.host = host;
+		this.port = port;
+		this.auth = auth;
+		this.config = config;
+		this.permits = new Semaphore(config.getMaxTotal(), true);
+		this.single = null;
+	}
+
+	/**
+	 * Makes a pool around one existing connection, so callers that already
+	 * have a Jedis get the same borrow/return discipline. Operations are
+	 * serialized on that connection.
+	 *
+	 * @param jedis
+	 */
+	public JedisConnectionPool(Jedis jedis) {
+		this(jedis, new Config());
+	}
+
+	/**
+	 * Makes a pool around one existing connection that waits for it as
+	 * long as `config` says. The other settings do not apply.
+	 *
+	 * @param jedis
+	 * @param config
+	 */
+	public JedisConnectionPool(Jedis jedis, Config config) {
+		this.host = null;
+		this.port = 0;
+		this.auth = null;
+		this.config = new Config().setMaxTotal(1).setTestOnBorrow(false)
+				.setBorrowTimeout(config.getBorrowTimeout());
+		this.permits = new Semaphore(1, true);
+		this.single = jedis;
+		this.idle.push(new Idle(jedis));
+	}
+
+	/**
+	 * Borrows a connection, runs `action` with it and returns it to the pool.
+	 *
+	 * If `action` throws, the connection may be left in the middle of a
+	 * MULTI or a pipeline, so it is closed instead of being returned.
+	 *
+	 * @param action
+	 * @return what `action` returned
+	 */
+	public <T> T execute(Function<Jedis, T> action) {
+		Jedis jedis = borrow();
+		boolean broken = false;
+		try {
+			return action.apply(jedis);
+		} catch (RuntimeException e) {
+			broken = true;
+			throw e;
+		} finally {
+			release(jedis, broken);
+		}
+	}
+
+	/**
+	 * Takes a connection out of the pool. Every call must be matched by a
+	 * call to {@link #release(Jedis, boolean)}; prefer {@link #execute}.
+	 *
+	 * @return
+	 */
+	public Jedis borrow() {
+		if (closed)
+			throw new IllegalStateException("pool is closed");
+		try {
+			if (!permits.tryAcquire(config.getBorrowTimeout(), TimeUnit.MILLISECONDS))
+				throw new JedisConnectionException(
+						"no Redis connection free after " + config.getBorrowTimeout() + " ms");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new JedisConnectionException("interrupted waiting for a Redis connection", e);
+		}
+
+		try {
+			Idle candidate;
+			while ((candidate = idle.pollFirst()) != null) {
+				if (isHealthy(candidate))
+					return candidate.jedis;
+				closeQuietly(candidate.jedis);
+			}
+			return open();
+		} catch (RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns a borrowed connection.
+	 *
+	 * @param jedis
+	 * @param broken  true if the connection failed and should be closed; a
+	 *                wrapped connection is reset instead, since the pool
+	 *                does not own it
+	 */
+	public void release(Jedis jedis, boolean broken) {
+		if (broken && single == null) {
+			closeQuietly(jedis);
+		} else if (broken) {
+			// drop any half-built transaction, pipeline or WATCH
+			try {
+				single.resetState();
+			} catch (RuntimeException e) {
+				// the next borrower will see the failure itself
+			}
+			idle.addFirst(new Idle(jedis));
+		} else if (closed && single == null) {
+			closeQuietly(jedis);
+		} else {
+			// most recently used first, so idle connections age out at the tail
+			idle.addFirst(new Idle(jedis));
+		}
+		permits.release();
+	}
+
+	/**
+	 * Number of connections currently sitting in the pool.
+	 *
+	 * @return
+	 */
+	public int getIdleCount() {
+		return idle.size();
+	}
+
+	/**
+	 * Closes the idle connections. Borrowed connections are closed when they
+	 * are returned.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		Idle candidate;
+		while ((candidate = idle.pollFirst()) != null) {
+			if (candidate.jedis != single)
+				closeQuietly(candidate.jedis);
+		}
+	}
+
+	private boolean isHealthy(Idle candidate) {
+		if (single != null)
+			return true;
+		if (!candidate.jedis.isConnected())
+			return false;
+		if (!config.isTestOnBorrow()
+				|| System.currentTimeMillis() - candidate.since < config.getMinIdleTimeBeforeTest())
+			return true;
+		try {
+			return "PONG".equals(candidate.jedis.ping());
+		} catch (RuntimeException e) {
+			return false;
+		}
+	}
+
+	// package-private so tests can hand out connections without a server
+	Jedis open() {
+		if (single != null)
+			return single;
+
+		Jedis jedis = new Jedis(host, port, config.getTimeout());
+		try {
+			if (auth != null)
+				jedis.auth(auth);
+			if (config.getDatabase() != 0)
+				jedis.select(config.getDatabase());
+		} catch (RuntimeException e) {
+			closeQuietly(jedis);
+			throw e;
+		}
+		return jedis;
+	}
+
+	private static void closeQuietly(Jedis jedis) {
+		try {
+			jedis.close();
+		} catch (RuntimeException e) {
+			// the connection is being thrown away anyway
+		}
+	}
+}
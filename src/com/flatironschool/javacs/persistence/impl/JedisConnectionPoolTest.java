@@ -0,0 +1,167 @@
+package com.flatironschool.javacs.persistence.impl;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+public class JedisConnectionPoolTest {
+
+	/**
+	 * A connection that never reaches a server, and counts how it is
+	 * reset and closed.
+	 */
+	private static class FakeJedis extends Jedis {
+		int resets = 0;
+		boolean closed = false;
+
+		FakeJedis() {
+			super("localhost", 6379);
+		}
+
+		@Override
+		public boolean isConnected() {
+			return !closed;
+		}
+
+		@Override
+		public void resetState() {
+			resets++;
+		}
+
+		@Override
+		public void close() {
+			closed = true;
+		}
+	}
+
+	/**
+	 * A pool that opens fake connections.
+	 */
+	private static class FakePool extends JedisConnectionPool {
+		final List<FakeJedis> opened = new ArrayList<FakeJedis>();
+
+		FakePool(Config config) {
+			super("localhost", 6379, null, config);
+		}
+
+		@Override
+		Jedis open() {
+			FakeJedis jedis = new FakeJedis();
+			opened.add(jedis);
+			return jedis;
+		}
+	}
+
+	private static Object failing(Jedis jedis) {
+		throw new JedisDataException("ERR wrong kind of value");
+	}
+
+	@Test
+	public void testReuse() {
+		FakePool pool = new FakePool(new JedisConnectionPool.Config());
+		Jedis first = pool.execute(jedis -> jedis);
+		Jedis second = pool.execute(jedis -> jedis);
+		assertThat(second, is(sameInstance(first)));
+		assertThat(pool.opened.size(), is(1));
+		assertThat(pool.getIdleCount(), is(1));
+	}
+
+	@Test
+	public void testBorrowTimeout() {
+		JedisConnectionPool pool = new JedisConnectionPool(new FakeJedis(),
+				new JedisConnectionPool.Config().setBorrowTimeout(50));
+		Jedis jedis = pool.borrow();
+		try {
+			pool.borrow();
+			fail("borrowed a connection that was in use");
+		} catch (JedisConnectionException e) {
+			assertThat(e.getMessage(), containsString("50 ms"));
+		}
+		pool.release(jedis, false);
+		assertThat(pool.execute(j -> j), is(sameInstance(jedis)));
+	}
+
+	@Test
+	public void testWaitForRelease() throws Exception {
+		FakePool pool = new FakePool(new JedisConnectionPool.Config().setMaxTotal(2).setBorrowTimeout(10000));
+		Jedis first = pool.borrow();
+		Jedis second = pool.borrow();
+		assertThat(pool.opened.size(), is(2));
+
+		// a third caller waits for one of the two
+		CompletableFuture<Jedis> waiting = CompletableFuture.supplyAsync(pool::borrow);
+		Thread.sleep(50);
+		assertThat(waiting.isDone(), is(false));
+		pool.release(first, false);
+		assertThat(waiting.get(5, TimeUnit.SECONDS), is(sameInstance(first)));
+		assertThat(pool.opened.size(), is(2));
+		pool.release(second, false);
+	}
+
+	@Test
+	public void testBrokenConnectionClosed() {
+		FakePool pool = new FakePool(new JedisConnectionPool.Config());
+		try {
+			pool.execute(JedisConnectionPoolTest::failing);
+			fail("the failure was swallowed");
+		} catch (JedisDataException e) {
+			// expected
+		}
+		// any failure may leave a MULTI or pipeline open, so it is not reused
+		assertThat(pool.opened.get(0).closed, is(true));
+		assertThat(pool.getIdleCount(), is(0));
+
+		Jedis next = pool.execute(jedis -> jedis);
+		assertThat(next, is(sameInstance(pool.opened.get(1))));
+	}
+
+	@Test
+	public void testBrokenSingleConnectionReset() {
+		FakeJedis wrapped = new FakeJedis();
+		JedisConnectionPool pool = new JedisConnectionPool(wrapped,
+				new JedisConnectionPool.Config().setBorrowTimeout(50));
+		try {
+			pool.execute(JedisConnectionPoolTest::failing);
+			fail("the failure was swallowed");
+		} catch (JedisDataException e) {
+			// expected
+		}
+		// the pool does not own the connection, so it resets it and keeps it
+		assertThat(wrapped.resets, is(1));
+		assertThat(wrapped.closed, is(false));
+		assertThat(pool.execute(jedis -> jedis), is(sameInstance((Jedis) wrapped)));
+
+		pool.close();
+		assertThat(wrapped.closed, is(false));
+	}
+
+	@Test
+	public void testClose() {
+		FakePool pool = new FakePool(new JedisConnectionPool.Config());
+		Jedis borrowed = pool.borrow();
+		pool.execute(jedis -> jedis);
+		pool.close();
+		assertThat(pool.opened.get(1).closed, is(true));
+		assertThat(pool.opened.get(0).closed, is(false));
+
+		// a connection returned after close is closed, not pooled
+		pool.release(borrowed, false);
+		assertThat(pool.opened.get(0).closed, is(true));
+		try {
+			pool.borrow();
+			fail("borrowed from a closed pool");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+}
@@ -1,57 +1,230 @@
 package com.flatironschool.javacs.persistence.impl;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import com.flatironschool.javacs.TermCounter;
 import com.flatironschool.javacs.persistence.interfaces.IPersistIndex;
+import com.flatironschool.javacs.persistence.interfaces.IPostingIterator;
 
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
 import redis.clients.jedis.Transaction;
+import redis.clients.jedis.exceptions.JedisDataException;
 
+/**
+ * Redis-backed index.
+ * 
+ * Every operation borrows a connection from a JedisConnectionPool and
+ * returns it when done, so one JedisIndexer can be shared by threads that
+ * index and search at the same time.
+ */
 public class JedisIndexer implements IPersistIndex {
 
-	private Jedis jedis;
+	/**
+	 * Redis hash from URL to the total number of terms on the page.
+	 */
+	private static final String DOC_LENGTH_KEY = "DocLength";
+
+	/**
+	 * Redis hash from URL to the number of distinct terms on the page.
+	 */
+	private static final String DOC_UNIQUE_TERMS_KEY = "DocUniqueTerms";
+
+	/**
+	 * Redis hashes from URL to doc id and back, and the counter the ids are
+	 * taken from.
+	 */
+	private static final String DOC_IDS_KEY = "DocIds";
+	private static final String DOC_URLS_KEY = "DocUrls";
+	private static final String NEXT_DOC_ID_KEY = "NextDocId";
+
+	/**
+	 * Redis counter incremented by every write to the index, so clients
+	 * with a near cache can tell their copies are stale.
+	 */
+	public static final String INDEX_VERSION_KEY = "IndexVersion";
+
+	/**
+	 * Redis hash with running totals over the corpus, updated by
+	 * pushTermCounter. On an index written before it was kept, the first
+	 * push starts it from the pages already in DocLength.
+	 */
+	private static final String CORPUS_STATISTICS_KEY = "CorpusStatistics";
+	private static final String DOCUMENTS_FIELD = "documents";
+	private static final String LENGTH_FIELD = "length";
+
+	/**
+	 * Default number of pages sent per pipeline by pushTermCounters.
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 50;
+
+	/**
+	 * Default number of keys fetched per SCAN and removed per UNLINK.
+	 */
+	public static final int DEFAULT_SCAN_BATCH_SIZE = 500;
+
+	/**
+	 * UNLINK frees memory in a background thread, but it only exists from
+	 * Redis 4.0 on and the bundled Jedis has no method for it.
+	 */
+	private static final String UNLINK_SCRIPT = "return redis.call('UNLINK', unpack(KEYS))";
+
+	/**
+	 * Gives doc ids to pages that have none, returning the id of each. Pages
+	 * pushed before ids were kept get one the first time they are read; the
+	 * script runs atomically, so racing readers agree on the id.
+	 */
+	private static final String ASSIGN_IDS_SCRIPT =
+			"local ids = {}\n"
+			+ "for i, url in ipairs(ARGV) do\n"
+			+ "  local id = redis.call('HGET', KEYS[1], url)\n"
+			+ "  if not id then\n"
+			+ "    id = tostring(redis.call('INCR', KEYS[3]) - 1)\n"
+			+ "    redis.call('HSET', KEYS[1], url, id)\n"
+			+ "    redis.call('HSET', KEYS[2], id, url)\n"
+			+ "    redis.call('INCR', KEYS[4])\n"
+			+ "  end\n"
+			+ "  ids[i] = id\n"
+			+ "end\n"
+			+ "return ids";
+
+	private final JedisConnectionPool pool;
+
+	private volatile int batchSize = DEFAULT_BATCH_SIZE;
+
+	private volatile int scanBatchSize = DEFAULT_SCAN_BATCH_SIZE;
+
+	private volatile boolean unlinkSupported = true;
 
+	// null unless enableNearCache was called
+	private volatile PostingsNearCache nearCache;
+
+	/**
+	 * Makes an index that borrows connections from `pool`.
+	 * 
+	 * @param pool
+	 */
+	public JedisIndexer(JedisConnectionPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Makes an index that uses one connection; operations from different
+	 * threads take turns on it.
+	 * 
+	 * @param jedis
+	 */
 	public JedisIndexer(Jedis jedis) {
-		this.jedis = jedis;
+		this(new JedisConnectionPool(jedis));
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * Sets the number of pages pushTermCounters sends per pipeline.
+	 * 
+	 * Bigger batches mean fewer round trips but a longer MULTI block on the
+	 * server.
+	 * 
+	 * @param batchSize
+	 */
+	public void setBatchSize(int batchSize) {
+		if (batchSize < 1)
+			throw new IllegalArgumentException("batch size must be positive: " + batchSize);
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Keeps decoded posting lists of recently searched terms in memory, so
+	 * repeated searches skip the SMEMBERS and HGET round trips.
+	 * 
+	 * The cache reads the index version from Redis at most once per
+	 * `maxStalenessMillis` and is emptied when it changes. Writes through
+	 * this indexer empty it at once. With a staleness of 0 every lookup
+	 * costs one GET; larger values trade freshness with other writers for
+	 * no round trips at all.
+	 * 
+	 * @param maxBytes            estimated heap the cached lists may use
+	 * @param maxStalenessMillis  longest another client's write can go unseen
+	 */
+	public void enableNearCache(long maxBytes, long maxStalenessMillis) {
+		nearCache = new PostingsNearCache(maxBytes, maxStalenessMillis);
+	}
+
+	public void disableNearCache() {
+		nearCache = null;
+	}
+
+	/**
+	 * Returns the near cache, for its statistics, or null if it is off.
+	 * 
+	 * @return
+	 */
+	public PostingsNearCache getNearCache() {
+		return nearCache;
 	}
 
 	@Override
 	public boolean isIndexed(String url) {
 		String redisKey = termCounterKey(url);
-		return jedis.exists(redisKey);
+		return pool.execute(jedis -> jedis.exists(redisKey));
 	}
 
 	@Override
 	public Set<String> getUrls(String term) {
-		Set<String> set = jedis.smembers(urlSetKey(term));
+		PostingsNearCache.Entry cached = cachedPostings(term);
+		if (cached != null)
+			return new HashSet<String>(Arrays.asList(cached.urls));
+		Set<String> set = pool.execute(jedis -> jedis.smembers(urlSetKey(term)));
 		return set;
 	}
 
 	@Override
 	public Map<String, Double> getUrlToTermCount(String term) {
+		PostingsNearCache.Entry cached = cachedPostings(term);
+		if (cached != null) {
+			Map<String, Double> map = new HashMap<String, Double>();
+			for (int i = 0; i < cached.urls.length; i++) {
+				if (cached.counts[i] >= 0)
+					map.put(cached.urls[i], (double) cached.counts[i]);
+			}
+			return map;
+		}
+		
 		// convert the set of strings to a list so we get the
 		// same traversal order every time
 		List<String> urls = new ArrayList<String>();
 		urls.addAll(getUrls(term));
 
 		// construct a transaction to perform all lookups
-		Transaction t = jedis.multi();
-		for (String url : urls) {
-			String redisKey = termCounterKey(url);
-			t.hget(redisKey, term);
-		}
-		List<Object> res = t.exec();
+		List<Object> res = pool.execute(jedis -> {
+			Transaction t = jedis.multi();
+			for (String url : urls) {
+				String redisKey = termCounterKey(url);
+				t.hget(redisKey, term);
+			}
+			return t.exec();
+		});
 
 		// iterate the results and make the map
 		Map<String, Double> map = new HashMap<String, Double>();
 		int i = 0;
 		for (String url : urls) {
-			Double count = new Double((String) res.get(i++));
+			Double count = Double.valueOf((String) res.get(i++));
 
 			map.put(url, count);
 
@@ -60,11 +233,125 @@ public class JedisIndexer implements IPersistIndex {
 		return map;
 	}
 
+	/**
+	 * Fetches the postings in two round trips, like getUrlToTermCount: the
+	 * URL set, then one pipeline with the counts, doc ids and lengths.
+	 * Served from the near cache when it is on.
+	 */
+	@Override
+	public IPostingIterator postings(String term) {
+		PostingsNearCache.Entry cached = cachedPostings(term);
+		if (cached != null)
+			return cached.iterator();
+		return fetchPostings(term).iterator();
+	}
+
+	/**
+	 * Looks a term up in the near cache, fetching and caching it on a miss.
+	 * Returns null if the cache is off.
+	 */
+	private PostingsNearCache.Entry cachedPostings(String term) {
+		PostingsNearCache cache = nearCache;
+		if (cache == null)
+			return null;
+		long token = cache.validate(() -> {
+			String version = pool.execute(jedis -> jedis.get(INDEX_VERSION_KEY));
+			return version == null ? 0 : Long.parseLong(version);
+		});
+		PostingsNearCache.Entry entry = cache.get(term);
+		if (entry == null) {
+			entry = fetchPostings(term);
+			cache.put(term, entry, token);
+		}
+		return entry;
+	}
+
+	private PostingsNearCache.Entry fetchPostings(String term) {
+		return pool.execute(jedis -> {
+			Set<String> members = jedis.smembers(urlSetKey(term));
+			String[] urls = members.toArray(new String[members.size()]);
+			int[] urlCounts = new int[urls.length];
+			if (urls.length == 0)
+				return new PostingsNearCache.Entry(urls, urlCounts, urlCounts, urlCounts, urlCounts, 0);
+
+			Pipeline p = jedis.pipelined();
+			List<Response<String>> counts = new ArrayList<Response<String>>(urls.length);
+			for (String url : urls) {
+				counts.add(p.hget(termCounterKey(url), term));
+			}
+			Response<List<String>> ids = p.hmget(DOC_IDS_KEY, urls);
+			Response<List<String>> lengths = p.hmget(DOC_LENGTH_KEY, urls);
+			p.sync();
+
+			// pages pushed before ids were kept get one now
+			List<String> unnumbered = new ArrayList<String>();
+			for (int i = 0; i < urls.length; i++) {
+				if (ids.get().get(i) == null && counts.get(i).get() != null)
+					unnumbered.add(urls[i]);
+			}
+			Map<String, String> assigned = unnumbered.isEmpty() ? Collections.<String, String>emptyMap()
+					: assignDocIds(jedis, unnumbered);
+
+			int[] docIds = new int[urls.length];
+			int[] freqs = new int[urls.length];
+			int[] docLengths = new int[urls.length];
+			int n = 0;
+			for (int i = 0; i < urls.length; i++) {
+				String id = ids.get().get(i);
+				if (id == null)
+					id = assigned.get(urls[i]);
+				String count = counts.get(i).get();
+				urlCounts[i] = count == null ? -1 : Integer.parseInt(count);
+				if (id == null || count == null)
+					continue;
+				String length = lengths.get().get(i);
+				docIds[n] = Integer.parseInt(id);
+				freqs[n] = urlCounts[i];
+				docLengths[n] = length == null ? 0 : Integer.parseInt(length);
+				n++;
+			}
+			ArrayPostingIterator.sort(docIds, freqs, docLengths, n);
+			return new PostingsNearCache.Entry(urls, urlCounts, docIds, freqs, docLengths, n);
+		});
+	}
+
+	@Override
+	public int getDocId(String url) {
+		String id = pool.execute(jedis -> {
+			String stored = jedis.hget(DOC_IDS_KEY, url);
+			if (stored != null || !jedis.exists(termCounterKey(url)))
+				return stored;
+			return assignDocIds(jedis, Collections.singletonList(url)).get(url);
+		});
+		return id == null ? -1 : Integer.parseInt(id);
+	}
+
+	/**
+	 * Gives doc ids to indexed pages that have none.
+	 * 
+	 * @return the id of each page
+	 */
+	@SuppressWarnings("unchecked")
+	private static Map<String, String> assignDocIds(Jedis jedis, List<String> urls) {
+		List<String> keys = Arrays.asList(DOC_IDS_KEY, DOC_URLS_KEY, NEXT_DOC_ID_KEY, INDEX_VERSION_KEY);
+		List<String> ids = (List<String>) jedis.eval(ASSIGN_IDS_SCRIPT, keys, urls);
+		Map<String, String> map = new HashMap<String, String>();
+		for (int i = 0; i < urls.size(); i++) {
+			map.put(urls.get(i), ids.get(i));
+		}
+		return map;
+	}
+
+	@Override
+	public String getUrl(int docId) {
+		return pool.execute(jedis -> jedis.hget(DOC_URLS_KEY, Integer.toString(docId)));
+	}
+
 	@Override
 	public Integer getCount(String url, String term) {
 		String redisKey = termCounterKey(url);
-		String count = jedis.hget(redisKey, term);
-		return new Integer(count);
+		String count = pool.execute(jedis -> jedis.hget(redisKey, term));
+		return Integer.valueOf(count);
 	}
 
 	
@@ -86,80 +373,539 @@ public class JedisIndexer implements IPersistIndex {
 		return "TermCounter:" + url;
 	}
 
+	/**
+	 * Indexes a page. If it was indexed before, the stored hash is compared
+	 * with the new counts and only the terms that were added, changed or
+	 * removed are written.
+	 * 
+	 * The page hash, DocLength and the corpus totals are WATCHed while they
+	 * are read, so if another client writes any of them before the MULTI
+	 * block runs, EXEC fails and the page is diffed again against what is
+	 * stored now.
+	 */
 	@Override
 	public void pushTermCounter(TermCounter tc) {
-	Transaction t = jedis.multi();
-		
 		String url = tc.getLabel();
 		String hashname = termCounterKey(url);
 		
-		// if this page has already been indexed; delete the old hash
-		t.del(hashname);
-
-		// for each term, add an entry in the termcounter and a new
-		// member of the index
-		for (String term: tc.keySet()) {
-			Integer count = tc.get(term);
-			t.hset(hashname, term, count.toString());
+		pool.execute(jedis -> {
+			List<Object> result;
+			do {
+				result = tryPushTermCounter(jedis, tc, hashname);
+			} while (result == null);
+			if (!result.isEmpty())
+				invalidateNearCache();
+			return result;
+		});
+	}
+
+	/**
+	 * Makes one attempt at pushTermCounter. Returns the EXEC replies, an
+	 * empty list if the page has not changed, or null if a watched key was
+	 * written in the meantime.
+	 */
+	private List<Object> tryPushTermCounter(Jedis jedis, TermCounter tc, String hashname) {
+		String url = tc.getLabel();
+		jedis.watch(hashname, DOC_LENGTH_KEY, CORPUS_STATISTICS_KEY);
+
+		// the old length tells us whether this is a new document
+		Pipeline p = jedis.pipelined();
+		Response<Map<String, String>> oldHash = p.hgetAll(hashname);
+		Response<String> oldLength = p.hget(DOC_LENGTH_KEY, url);
+		Response<String> docId = p.hget(DOC_IDS_KEY, url);
+		Response<Boolean> hasStatistics = p.hexists(CORPUS_STATISTICS_KEY, DOCUMENTS_FIELD);
+		p.sync();
+
+		TermCounterDiff diff = new TermCounterDiff(TermCounterDiff.parseCounts(oldHash.get()), tc);
+		if (oldLength.get() != null && docId.get() != null && diff.isEmpty()) {
+			jedis.unwatch();
+			return Collections.emptyList();
+		}
+
+		// ids come from a counter, so concurrent indexers never share one;
+		// a retry may waste one, which only leaves a gap
+		long newId = docId.get() == null ? jedis.incr(NEXT_DOC_ID_KEY) - 1 : -1;
+		long[] seed = hasStatistics.get() ? null : sumDocLengths(jedis);
+
+		Transaction t = jedis.multi();
+		writeDiff(t, url, diff);
+		if (newId >= 0) {
+			t.hset(DOC_IDS_KEY, url, Long.toString(newId));
+			t.hset(DOC_URLS_KEY, Long.toString(newId), url);
+		}
+
+		// keep the corpus totals current
+		if (seed != null)
+			seedCorpusStatistics(t, seed);
+		if (oldLength.get() == null) {
+			t.hincrBy(CORPUS_STATISTICS_KEY, DOCUMENTS_FIELD, 1);
+			t.hincrBy(CORPUS_STATISTICS_KEY, LENGTH_FIELD, diff.length);
+		} else {
+			t.hincrBy(CORPUS_STATISTICS_KEY, LENGTH_FIELD, diff.length - Integer.parseInt(oldLength.get()));
+		}
+		t.incr(INDEX_VERSION_KEY);
+		return t.exec();
+	}
+	
+	private void invalidateNearCache() {
+		PostingsNearCache cache = nearCache;
+		if (cache != null)
+			cache.invalidate();
+	}
+	
+	/**
+	 * Queues the writes for one changed page: HDEL and SREM for removed
+	 * terms, HMSET for added and changed ones, SADD for added ones, and the
+	 * norms.
+	 */
+	private void writeDiff(Transaction t, String url, TermCounterDiff diff) {
+		String hashname = termCounterKey(url);
+		if (!diff.removed.isEmpty()) {
+			t.hdel(hashname, diff.removed.toArray(new String[diff.removed.size()]));
+			for (String term : diff.removed) {
+				t.srem(urlSetKey(term), url);
+			}
+		}
+		if (!diff.changed.isEmpty())
+			t.hmset(hashname, toStrings(diff.changed));
+		for (String term : diff.added) {
 			t.sadd(urlSetKey(term), url);
 		}
-		t.exec();
-		
 		
+		// store the norms so scoring can read them with one HGET/HMGET
+		t.hset(DOC_LENGTH_KEY, url, Integer.toString(diff.length));
+		t.hset(DOC_UNIQUE_TERMS_KEY, url, Integer.toString(diff.uniqueTerms));
+	}
+	
+	private static Map<String, String> toStrings(Map<String, Integer> counts) {
+		Map<String, String> map = new HashMap<String, String>();
+		for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+			map.put(entry.getKey(), entry.getValue().toString());
+		}
+		return map;
 	}
 
+	public int getScanBatchSize() {
+		return scanBatchSize;
+	}
+
+	/**
+	 * Sets how many keys are fetched per SCAN and removed per UNLINK when
+	 * enumerating or deleting keys.
+	 * 
+	 * @param scanBatchSize
+	 */
+	public void setScanBatchSize(int scanBatchSize) {
+		if (scanBatchSize < 1)
+			throw new IllegalArgumentException("scan batch size must be positive: " + scanBatchSize);
+		this.scanBatchSize = scanBatchSize;
+	}
+
+	/**
+	 * Pushes pages in batches of getBatchSize().
+	 * 
+	 * Each batch takes two round trips. The first reads the stored hash of
+	 * every page, their old lengths and doc ids (one HGETALL per page and two
+	 * HMGETs). Pages without a doc id get one from a single INCRBY.
+	 * The second is one pipelined MULTI block that writes only what changed:
+	 * HDEL and HMSET per changed page, one variadic SREM or SADD per term
+	 * that left or joined pages in the batch, and one HMSET each for the
+	 * norms. Unchanged pages cost no writes.
+	 * 
+	 * As in pushTermCounter, the page hashes, DocLength and the corpus
+	 * totals are WATCHed from the first round trip to the EXEC, and the batch is read and diffed
+	 * again if another client wrote any of them in between.
+	 */
 	@Override
-	public void deleteURLSets() {
-		Set<String> keys = urlSetKeys();
+	public void pushTermCounters(Collection<TermCounter> tcs) {
+		List<TermCounter> batch = new ArrayList<TermCounter>(batchSize);
+		for (TermCounter tc : tcs) {
+			batch.add(tc);
+			if (batch.size() == batchSize) {
+				pushBatch(batch);
+				batch.clear();
+			}
+		}
+		if (!batch.isEmpty())
+			pushBatch(batch);
+	}
+
+	private void pushBatch(List<TermCounter> batch) {
+		// if a page shows up twice in a batch, the last version wins
+		Map<String, TermCounter> pages = new LinkedHashMap<String, TermCounter>();
+		for (TermCounter tc : batch) {
+			pages.put(tc.getLabel(), tc);
+		}
+		boolean changed = pool.execute(jedis -> {
+			Boolean result;
+			do {
+				result = tryPushBatch(jedis, pages);
+			} while (result == null);
+			return result;
+		});
+		if (changed)
+			invalidateNearCache();
+	}
+
+	/**
+	 * Makes one attempt at pushing a batch. Returns whether any page
+	 * changed, or null if a watched key was written in the meantime.
+	 */
+	private Boolean tryPushBatch(Jedis jedis, Map<String, TermCounter> pages) {
+		String[] urls = pages.keySet().toArray(new String[pages.size()]);
+		String[] watched = new String[urls.length + 2];
+		for (int i = 0; i < urls.length; i++) {
+			watched[i] = termCounterKey(urls[i]);
+		}
+		watched[urls.length] = DOC_LENGTH_KEY;
+		watched[urls.length + 1] = CORPUS_STATISTICS_KEY;
+		jedis.watch(watched);
+
+		Pipeline read = jedis.pipelined();
+		List<Response<Map<String, String>>> oldHashes = new ArrayList<Response<Map<String, String>>>();
+		for (String url : urls) {
+			oldHashes.add(read.hgetAll(termCounterKey(url)));
+		}
+		Response<List<String>> oldLengthsResponse = read.hmget(DOC_LENGTH_KEY, urls);
+		Response<List<String>> docIdsResponse = read.hmget(DOC_IDS_KEY, urls);
+		Response<Boolean> hasStatistics = read.hexists(CORPUS_STATISTICS_KEY, DOCUMENTS_FIELD);
+		read.sync();
+		List<String> oldLengths = oldLengthsResponse.get();
+		List<String> docIds = docIdsResponse.get();
+
+		// reserve a block of ids for the pages that have none yet
+		int missing = 0;
+		for (String id : docIds) {
+			if (id == null)
+				missing++;
+		}
+		long nextId = missing == 0 ? 0 : jedis.incrBy(NEXT_DOC_ID_KEY, missing) - missing;
+		long[] seed = hasStatistics.get() ? null : sumDocLengths(jedis);
+		Map<String, String> newIds = new HashMap<String, String>();
+		Map<String, String> newUrls = new HashMap<String, String>();
+
+		Map<String, List<String>> termToAddedUrls = new HashMap<String, List<String>>();
+		Map<String, List<String>> termToRemovedUrls = new HashMap<String, List<String>>();
+		Map<String, String> lengths = new HashMap<String, String>();
+		Map<String, String> uniqueTerms = new HashMap<String, String>();
+		long addedDocuments = 0;
+		long addedLength = 0;
+
 		Transaction t = jedis.multi();
-		for (String key: keys) {
-			t.del(key);
+		int i = 0;
+		for (TermCounter tc : pages.values()) {
+			String url = tc.getLabel();
+			String hashname = termCounterKey(url);
+			TermCounterDiff diff = new TermCounterDiff(TermCounterDiff.parseCounts(oldHashes.get(i).get()), tc);
+			String oldLength = oldLengths.get(i);
+			if (docIds.get(i++) == null) {
+				String id = Long.toString(nextId++);
+				newIds.put(url, id);
+				newUrls.put(id, url);
+			} else if (oldLength != null && diff.isEmpty()) {
+				continue;
+			}
+
+			if (!diff.removed.isEmpty())
+				t.hdel(hashname, diff.removed.toArray(new String[diff.removed.size()]));
+			if (!diff.changed.isEmpty())
+				t.hmset(hashname, toStrings(diff.changed));
+			groupByTerm(termToRemovedUrls, diff.removed, url);
+			groupByTerm(termToAddedUrls, diff.added, url);
+
+			lengths.put(url, Integer.toString(diff.length));
+			uniqueTerms.put(url, Integer.toString(diff.uniqueTerms));
+			if (oldLength == null) {
+				addedDocuments++;
+				addedLength += diff.length;
+			} else {
+				addedLength += diff.length - Integer.parseInt(oldLength);
+			}
+		}
+
+		for (Map.Entry<String, List<String>> entry : termToRemovedUrls.entrySet()) {
+			List<String> termUrls = entry.getValue();
+			t.srem(urlSetKey(entry.getKey()), termUrls.toArray(new String[termUrls.size()]));
+		}
+		for (Map.Entry<String, List<String>> entry : termToAddedUrls.entrySet()) {
+			List<String> termUrls = entry.getValue();
+			t.sadd(urlSetKey(entry.getKey()), termUrls.toArray(new String[termUrls.size()]));
+		}
+		if (!newIds.isEmpty()) {
+			t.hmset(DOC_IDS_KEY, newIds);
+			t.hmset(DOC_URLS_KEY, newUrls);
+		}
+		if (!lengths.isEmpty()) {
+			t.hmset(DOC_LENGTH_KEY, lengths);
+			t.hmset(DOC_UNIQUE_TERMS_KEY, uniqueTerms);
+			if (seed != null)
+				seedCorpusStatistics(t, seed);
+			t.hincrBy(CORPUS_STATISTICS_KEY, DOCUMENTS_FIELD, addedDocuments);
+			t.hincrBy(CORPUS_STATISTICS_KEY, LENGTH_FIELD, addedLength);
+			t.incr(INDEX_VERSION_KEY);
+		}
+		if (t.exec() == null)
+			return null;
+		return !lengths.isEmpty();
+	}
+
+	/**
+	 * Returns the number of pages in DocLength and their total length, to
+	 * start the corpus totals of an index written before they were kept.
+	 */
+	private static long[] sumDocLengths(Jedis jedis) {
+		List<String> lengths = jedis.hvals(DOC_LENGTH_KEY);
+		long total = 0;
+		for (String length : lengths) {
+			total += Long.parseLong(length);
+		}
+		return new long[] { lengths.size(), total };
+	}
+
+	private static void seedCorpusStatistics(Transaction t, long[] seed) {
+		t.hset(CORPUS_STATISTICS_KEY, DOCUMENTS_FIELD, Long.toString(seed[0]));
+		t.hset(CORPUS_STATISTICS_KEY, LENGTH_FIELD, Long.toString(seed[1]));
+	}
+
+	private static void groupByTerm(Map<String, List<String>> termToUrls, Collection<String> terms, String url) {
+		for (String term : terms) {
+			List<String> termUrls = termToUrls.get(term);
+			if (termUrls == null) {
+				termUrls = new ArrayList<String>();
+				termToUrls.put(term, termUrls);
+			}
+			termUrls.add(url);
 		}
-		t.exec();
-		
+	}
+
+	@Override
+	public void deleteURLSets() {
+		deleteMatching("URLSet:");
+		bumpVersion();
 	}
 	
 	public Set<String> urlSetKeys() {
-		return jedis.keys("URLSet:*");
+		Set<String> keys = new HashSet<String>();
+		Iterator<String> terms = termIterator();
+		while (terms.hasNext()) {
+			keys.add(urlSetKey(terms.next()));
+		}
+		return keys;
 	}
 	
 	public Set<String> termCounterKeys() {
-		return jedis.keys("TermCounter:*");
+		Set<String> keys = new HashSet<String>();
+		Iterator<String> urls = urlIterator();
+		while (urls.hasNext()) {
+			keys.add(termCounterKey(urls.next()));
+		}
+		return keys;
 	}
 	
 	public void deleteTermCounters() {
-		Set<String> keys = termCounterKeys();
-		Transaction t = jedis.multi();
-		for (String key: keys) {
-			t.del(key);
-		}
-		t.exec();
+		deleteMatching("TermCounter:");
+		unlink(Arrays.asList(DOC_LENGTH_KEY, DOC_UNIQUE_TERMS_KEY, CORPUS_STATISTICS_KEY, DOC_IDS_KEY, DOC_URLS_KEY,
+				NEXT_DOC_ID_KEY));
+		bumpVersion();
 	}
 	
 	public void deleteAllKeys() {
-		Set<String> keys = jedis.keys("*");
-		Transaction t = jedis.multi();
-		for (String key: keys) {
-			t.del(key);
+		deleteMatching("");
+		bumpVersion();
+	}
+	
+	private void bumpVersion() {
+		pool.execute(jedis -> jedis.incr(INDEX_VERSION_KEY));
+		invalidateNearCache();
+	}
+
+	@Override
+	public Iterator<String> termIterator() {
+		return new RedisScanIterator(pool, "URLSet:", scanBatchSize);
+	}
+
+	@Override
+	public Iterator<String> urlIterator() {
+		return new RedisScanIterator(pool, "TermCounter:", scanBatchSize);
+	}
+
+	/**
+	 * Removes every key that starts with `prefix`, scanning and unlinking
+	 * getScanBatchSize() keys at a time.
+	 * 
+	 * @param prefix
+	 */
+	private void deleteMatching(String prefix) {
+		Iterator<String> keys = new RedisScanIterator(pool, prefix, scanBatchSize);
+		List<String> batch = new ArrayList<String>(scanBatchSize);
+		while (keys.hasNext()) {
+			String key = prefix + keys.next();
+			// the version must never go back, or near caches could match an old one
+			if (key.equals(INDEX_VERSION_KEY))
+				continue;
+			batch.add(key);
+			if (batch.size() == scanBatchSize) {
+				unlink(batch);
+				batch.clear();
+			}
+		}
+		if (!batch.isEmpty())
+			unlink(batch);
+	}
+
+	private void unlink(List<String> keys) {
+		if (unlinkSupported) {
+			try {
+				pool.execute(jedis -> jedis.eval(UNLINK_SCRIPT, keys, Collections.<String>emptyList()));
+				return;
+			} catch (JedisDataException e) {
+				// servers older than 4.0 don't know UNLINK; anything else,
+				// such as NOAUTH or READONLY, is a real failure
+				if (!isUnknownCommand(e))
+					throw e;
+				unlinkSupported = false;
+			}
 		}
-		t.exec();
+		pool.execute(jedis -> jedis.del(keys.toArray(new String[keys.size()])));
+	}
+
+	/**
+	 * Returns true if Redis rejected a command, or a command called from a
+	 * script, because it does not know it.
+	 */
+	static boolean isUnknownCommand(JedisDataException e) {
+		String message = e.getMessage() == null ? "" : e.getMessage().toLowerCase();
+		return message.contains("unknown") && message.contains("command");
 	}
 
 	@Override
 	public double getTotalTermCount(String url) {
+		String length = pool.execute(jedis -> jedis.hget(DOC_LENGTH_KEY, url));
+		if (length != null)
+			return Double.valueOf(length);
+		
+		// pages indexed before the norms were stored
+		return sumTermCounts(url);
+	}
+
+	@Override
+	public int getUniqueTermCount(String url) {
+		String unique = pool.execute(jedis -> jedis.hget(DOC_UNIQUE_TERMS_KEY, url));
+		if (unique != null)
+			return Integer.valueOf(unique);
+		return pool.execute(jedis -> jedis.hlen(termCounterKey(url))).intValue();
+	}
+
+	@Override
+	public Map<String, Double> getTotalTermCounts(Collection<String> urls) {
+		Map<String, Double> map = new HashMap<String, Double>();
+		if (urls.isEmpty())
+			return map;
+		
+		// convert to a list so the HMGET replies line up with the URLs
+		List<String> urlList = new ArrayList<String>(urls);
+		List<String> lengths = pool.execute(jedis -> jedis.hmget(DOC_LENGTH_KEY, urlList.toArray(new String[urlList.size()])));
+		
+		int i = 0;
+		for (String url : urlList) {
+			String length = lengths.get(i++);
+			if (length != null) {
+				map.put(url, Double.valueOf(length));
+			} else if (isIndexed(url)) {
+				map.put(url, sumTermCounts(url));
+			}
+		}
+		return map;
+	}
+
+	@Override
+	public int getDocumentCount() {
+		String documents = pool.execute(jedis -> jedis.hget(CORPUS_STATISTICS_KEY, DOCUMENTS_FIELD));
+		if (documents != null)
+			return Integer.parseInt(documents);
+		
+		// index written before the totals were kept
+		return pool.execute(jedis -> jedis.hlen(DOC_LENGTH_KEY)).intValue();
+	}
+
+	@Override
+	public int getDocumentFrequency(String term) {
+		// a search asks for the postings next, so fetching them now is no waste
+		PostingsNearCache.Entry cached = cachedPostings(term);
+		if (cached != null)
+			return cached.urls.length;
+		return pool.execute(jedis -> jedis.scard(urlSetKey(term))).intValue();
+	}
+
+	@Override
+	public double getAverageDocumentLength() {
+		List<String> totals = pool.execute(jedis -> jedis.hmget(CORPUS_STATISTICS_KEY, DOCUMENTS_FIELD, LENGTH_FIELD));
+		if (totals.get(0) == null || totals.get(1) == null)
+			return 0;
+		
+		int documents = Integer.parseInt(totals.get(0));
+		return documents == 0 ? 0 : Long.parseLong(totals.get(1)) / (double) documents;
+	}
+
+	private double sumTermCounts(String url) {
 		String redisKey = termCounterKey(url);
-		Map<String, String> termToCount = jedis.hgetAll(redisKey);
+		Map<String, String> termToCount = pool.execute(jedis -> jedis.hgetAll(redisKey));
 		
 	
 		Set<String> termKeys  = termToCount.keySet();
 		double totalCountOfAllTerms = 0;
 		for (String termKey : termKeys)
 		{
-			Integer count = new Integer (termToCount.get(termKey));
+			Integer count = Integer.valueOf(termToCount.get(termKey));
 			totalCountOfAllTerms += count;
 		}
 		
 		return totalCountOfAllTerms;
 	}
 
+	/**
+	 * Compares pushTermCounter with pushTermCounters on a Redis server.
+	 * 
+	 * Arguments, all optional: host (localhost), port (6379), number of
+	 * copies of each resource page (20), database number (15). The selected
+	 * database is flushed before each run, so don't point this at real data.
+	 * 
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		String host = args.length > 0 ? args[0] : "localhost";
+		int port = args.length > 1 ? Integer.parseInt(args[1]) : 6379;
+		int copies = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+		int db = args.length > 3 ? Integer.parseInt(args[3]) : 15;
+
+		List<TermCounter> pages = BenchmarkPages.copyPages(BenchmarkPages.loadResourcePages(), copies);
+
+		JedisConnectionPool pool = new JedisConnectionPool(host, port, null,
+				new JedisConnectionPool.Config().setDatabase(db));
+		JedisIndexer indexer = new JedisIndexer(pool);
+
+		pool.execute(jedis -> jedis.flushDB());
+		long start = System.nanoTime();
+		for (TermCounter tc : pages) {
+			indexer.pushTermCounter(tc);
+		}
+		printThroughput("pushTermCounter", pages.size(), start);
+
+		for (int batchSize : new int[] { 10, 50, 200 }) {
+			pool.execute(jedis -> jedis.flushDB());
+			indexer.setBatchSize(batchSize);
+			start = System.nanoTime();
+			indexer.pushTermCounters(pages);
+			printThroughput("pushTermCounters, batch size " + batchSize, pages.size(), start);
+		}
+
+		pool.execute(jedis -> jedis.flushDB());
+		pool.close();
+	}
+
+	private static void printThroughput(String label, int pages, long start) {
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("%-32s %6d pages in %7.2f s = %8.1f pages/s%n", label, pages, seconds, pages / seconds);
+	}
 }
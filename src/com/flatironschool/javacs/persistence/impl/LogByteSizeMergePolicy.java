@@ -0,0 +1,75 @@
+package com.flatironschool.javacs.persistence.impl;
+
+import java.util.List;
+
+/**
+ * Picks segments to merge by grouping them into levels of log(size).
+ *
+ * A segment's level is floor(log_mergeFactor(size / minSegmentSize)), where
+ * size is the file size scaled by the fraction of live documents. Whenever
+ * `mergeFactor` adjacent segments share a level they are merged into one
+ * segment of roughly the next level, so an index of N bytes has at most
+ * about mergeFactor * log(N) segments and each byte is rewritten about
+ * log(N) times.
+ *
+ * Only adjacent segments are merged so that doc ids stay in segment order.
+ */
+class LogByteSizeMergePolicy {
+
+	static final int DEFAULT_MERGE_FACTOR = 10;
+	static final long DEFAULT_MIN_SEGMENT_SIZE = 64 * 1024;
+
+	private final int mergeFactor;
+	private final long minSegmentSize;
+
+	LogByteSizeMergePolicy() {
+		this(DEFAULT_MERGE_FACTOR, DEFAULT_MIN_SEGMENT_SIZE);
+	}
+
+	/**
+	 * @param mergeFactor     number of same-level segments merged at a time
+	 * @param minSegmentSize  segments smaller than this are all level 0
+	 */
+	LogByteSizeMergePolicy(int mergeFactor, long minSegmentSize) {
+		if (mergeFactor < 2)
+			throw new IllegalArgumentException("merge factor must be at least 2: " + mergeFactor);
+		this.mergeFactor = mergeFactor;
+		this.minSegmentSize = minSegmentSize;
+	}
+
+	int getMergeFactor() {
+		return mergeFactor;
+	}
+
+	/**
+	 * Returns the range [start, end) of segments to merge next, or null if
+	 * no level is full. Runs at lower levels are preferred since they are
+	 * the cheapest to merge.
+	 *
+	 * @param segments  oldest first
+	 * @return
+	 */
+	int[] findMerge(List<Segment> segments) {
+		int[] best = null;
+		int bestLevel = Integer.MAX_VALUE;
+		int runStart = 0;
+		for (int i = 1; i <= segments.size(); i++) {
+			int level = level(segments.get(runStart));
+			if (i < segments.size() && level(segments.get(i)) == level)
+				continue;
+			if (i - runStart >= mergeFactor && level < bestLevel) {
+				best = new int[] { runStart, runStart + mergeFactor };
+				bestLevel = level;
+			}
+			runStart = i;
+		}
+		return best;
+	}
+
+	private int level(Segment segment) {
+		double live = segment.docCount() == 0 ? 0
+				: 1.0 - segment.deletedCount() / (double) segment.docCount();
+		double size = Math.max(segment.sizeInBytes() * live, minSegmentSize);
+		return (int) Math.floor(Math.log(size / minSegmentSize) / Math.log(mergeFactor));
+	}
+}
@@ -0,0 +1,60 @@
+package com.flatironschool.javacs.persistence.impl;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Encodes the positions of a term in a page as varint gaps, which mostly
+ * take one or two bytes each.
+ */
+final class PositionCodec {
+
+	private static final byte[] NONE = new byte[0];
+
+	private PositionCodec() {
+	}
+
+	/**
+	 * @param positions  in increasing order, or null
+	 * @return the encoded gaps, empty for null
+	 */
+	static byte[] encode(int[] positions) {
+		if (positions == null || positions.length == 0)
+			return NONE;
+		byte[] buf = new byte[positions.length * VarInt.MAX_BYTES];
+		int size = 0;
+		int last = 0;
+		for (int position : positions) {
+			size = VarInt.write(buf, size, position - last);
+			last = position;
+		}
+		return Arrays.copyOf(buf, size);
+	}
+
+	/**
+	 * @param bytes  from encode
+	 * @return the positions, or null if there are none
+	 */
+	static int[] decode(byte[] bytes) {
+		return bytes == null ? null : decode(ByteBuffer.wrap(bytes), bytes.length);
+	}
+
+	/**
+	 * Decodes `length` bytes of gaps from the current position of `buf`.
+	 *
+	 * @return the positions, or null if length is 0
+	 */
+	static int[] decode(ByteBuffer buf, int length) {
+		if (length == 0)
+			return null;
+		int end = buf.position() + length;
+		int[] positions = new int[length];
+		int n = 0;
+		int last = 0;
+		while (buf.position() < end) {
+			last += VarInt.read(buf);
+			positions[n++] = last;
+		}
+		return Arrays.copyOf(positions, n);
+	}
+}
@@ -0,0 +1,155 @@
+package com.flatironschool.javacs.persistence.impl;
+
+import java.util.Arrays;
+
+/**
+ * Accumulates the postings of one term as (doc gap, count) varint pairs.
+ *
+ * Positions go to a second buffer, as a varint byte length and then the
+ * encoded positions for each posting (length 0 if it has none), so that
+ * reading counts never steps over them.
+ *
+ * Every {@link #SKIP_INTERVAL} postings it also records a skip pointer: the
+ * doc of the last posting so far and the byte offsets just past it in both
+ * buffers. A reader can jump to a skip pointer and carry on decoding gaps
+ * from there.
+ *
+ * Documents must be added in increasing order.
+ */
+class PostingsBuilder {
+
+	/** Number of postings between skip pointers. */
+	static final int SKIP_INTERVAL = 32;
+
+	private byte[] buf = new byte[16];
+	private int size = 0;
+	private int lastDoc = 0;
+	private int docFreq = 0;
+	private double maxTermFrequency = 0;
+	// (doc, offset) pairs, and the positions offset of each
+	private int[] skips = new int[0];
+	private int[] positionSkips = new int[0];
+	private int skipCount = 0;
+
+	private byte[] positions = new byte[16];
+	private int positionsSize = 0;
+	private boolean hasPositions = false;
+
+	/**
+	 * Appends a posting.
+	 *
+	 * @param doc     doc id or ordinal, greater than the previous one
+	 * @param count   number of times the term appears
+	 * @param length  total number of terms in the document
+	 */
+	void add(int doc, int count, int length) {
+		add(doc, count, length, null, 0, 0);
+	}
+
+	/**
+	 * Appends a posting with its positions.
+	 *
+	 * @param doc        doc id or ordinal, greater than the previous one
+	 * @param count      number of times the term appears
+	 * @param length     total number of terms in the document
+	 * @param positions  holds the positions encoded by PositionCodec, or null
+	 * @param offset     where they start in `positions`
+	 * @param bytes      their length in bytes, 0 if there are none
+	 */
+	void add(int doc, int count, int length, byte[] positions, int offset, int bytes) {
+		if (this.positionsSize + VarInt.MAX_BYTES + bytes > this.positions.length)
+			this.positions = Arrays.copyOf(this.positions,
+					this.positions.length + (this.positions.length >> 1) + VarInt.MAX_BYTES + bytes);
+		this.positionsSize = VarInt.write(this.positions, this.positionsSize, bytes);
+		if (bytes > 0) {
+			System.arraycopy(positions, offset, this.positions, this.positionsSize, bytes);
+			this.positionsSize += bytes;
+			hasPositions = true;
+		}
+
+		if (length > 0)
+			maxTermFrequency = Math.max(maxTermFrequency, count / (double) length);
+		if (size + 2 * VarInt.MAX_BYTES > buf.length)
+			buf = Arrays.copyOf(buf, buf.length + (buf.length >> 1) + 2 * VarInt.MAX_BYTES);
+		size = VarInt.write(buf, size, docFreq == 0 ? doc : doc - lastDoc);
+		size = VarInt.write(buf, size, count);
+		lastDoc = doc;
+		docFreq++;
+		if (docFreq % SKIP_INTERVAL == 0) {
+			if (2 * skipCount == skips.length) {
+				skips = Arrays.copyOf(skips, Math.max(8, skips.length * 2));
+				positionSkips = Arrays.copyOf(positionSkips, skips.length / 2);
+			}
+			skips[2 * skipCount] = doc;
+			skips[2 * skipCount + 1] = size;
+			positionSkips[skipCount] = positionsSize;
+			skipCount++;
+		}
+	}
+
+	byte[] bytes() {
+		return buf;
+	}
+
+	int size() {
+		return size;
+	}
+
+	int docFreq() {
+		return docFreq;
+	}
+
+	/**
+	 * Returns the doc of the last posting added.
+	 */
+	int lastDoc() {
+		return lastDoc;
+	}
+
+	/**
+	 * Returns the skip pointers as (doc, byte offset) pairs.
+	 */
+	int[] skips() {
+		return skips;
+	}
+
+	/**
+	 * Returns the offset in the positions buffer of each skip pointer.
+	 */
+	int[] positionSkips() {
+		return positionSkips;
+	}
+
+	int skipCount() {
+		return skipCount;
+	}
+
+	byte[] positionBytes() {
+		return positions;
+	}
+
+	/**
+	 * Returns the size of the positions buffer, or 0 if no posting has
+	 * positions, in which case the buffer need not be stored.
+	 */
+	int positionsSize() {
+		return hasPositions ? positionsSize : 0;
+	}
+
+	/**
+	 * Largest count / length among the postings added.
+	 */
+	double maxTermFrequency() {
+		return maxTermFrequency;
+	}
+
+	void clear() {
+		size = 0;
+		lastDoc = 0;
+		docFreq = 0;
+		maxTermFrequency = 0;
+		skipCount = 0;
+		positionsSize = 0;
+		hasPositions = false;
+	}
+}
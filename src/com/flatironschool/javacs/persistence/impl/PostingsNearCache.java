@@ -0,0 +1,196 @@
+package com.flatironschool.javacs.persistence.impl;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Client-side cache of decoded posting lists for {@link JedisIndexer}, so
+ * hot terms are served without going back to Redis.
+ *
+ * The cache holds whole posting lists, least recently used first out, up
+ * to a budget of estimated heap bytes. It is kept coherent with a version
+ * number that every write to the index increments on the server. Before a
+ * lookup the cache reads that version, at most once per staleness window,
+ * and drops everything if it moved. Writes made through the owning indexer
+ * invalidate the cache at once, so only other clients' writes can be seen
+ * late, and never later than the staleness window.
+ */
+public class PostingsNearCache {
+
+	/**
+	 * The posting list of one term, decoded.
+	 */
+	static class Entry {
+		// every URL in the term's set, and its count or -1 if it has none
+		final String[] urls;
+		final int[] counts;
+		// postings with a doc id, in doc id order
+		final int[] docIds;
+		final int[] freqs;
+		final int[] lengths;
+		final int size;
+		final long bytes;
+
+		Entry(String[] urls, int[] counts, int[] docIds, int[] freqs, int[] lengths, int size) {
+			this.urls = urls;
+			this.counts = counts;
+			this.docIds = docIds;
+			this.freqs = freqs;
+			this.lengths = lengths;
+			this.size = size;
+
+			long bytes = 96 + 4L * counts.length + 12L * docIds.length;
+			for (String url : urls) {
+				bytes += 48 + 2L * url.length();
+			}
+			this.bytes = bytes;
+		}
+
+		ArrayPostingIterator iterator() {
+			return new ArrayPostingIterator(docIds, freqs, lengths, size);
+		}
+	}
+
+	private static final long UNKNOWN = Long.MIN_VALUE;
+
+	private final long maxBytes;
+	private final long maxStalenessNanos;
+
+	// access order, so iteration starts at the least recently used
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private long bytes = 0;
+	private long version = UNKNOWN;
+	private long checkedAt;
+	// goes up whenever entries are dropped, so a list fetched before that
+	// is not put back
+	private long epoch = 0;
+
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+	private long invalidations = 0;
+
+	/**
+	 * @param maxBytes            budget for the cached lists, estimated
+	 * @param maxStalenessMillis  how long a version read is trusted; 0
+	 *                            reads it before every lookup
+	 */
+	public PostingsNearCache(long maxBytes, long maxStalenessMillis) {
+		if (maxBytes < 1 || maxStalenessMillis < 0)
+			throw new IllegalArgumentException("bad near cache bounds");
+		this.maxBytes = maxBytes;
+		this.maxStalenessNanos = maxStalenessMillis * 1000000;
+	}
+
+	/**
+	 * Makes sure the cache matches the server version, reading it if the
+	 * last read is too old.
+	 *
+	 * @param readVersion  fetches the version from the server
+	 * @return a token to pass to put() with lists fetched from now on
+	 */
+	long validate(LongSupplier readVersion) {
+		synchronized (this) {
+			if (version != UNKNOWN && System.nanoTime() - checkedAt < maxStalenessNanos)
+				return epoch;
+		}
+		// read before any postings are, so what gets cached is never older
+		long now = System.nanoTime();
+		long current = readVersion.getAsLong();
+		synchronized (this) {
+			if (current != version) {
+				clearEntries();
+				version = current;
+			}
+			checkedAt = now;
+			return epoch;
+		}
+	}
+
+	synchronized Entry get(String term) {
+		Entry entry = entries.get(term);
+		if (entry != null)
+			hits++;
+		else
+			misses++;
+		return entry;
+	}
+
+	/**
+	 * Caches a list fetched after validate() returned `token`, unless the
+	 * cache has been invalidated since.
+	 */
+	synchronized void put(String term, Entry entry, long token) {
+		if (token != epoch || entry.bytes > maxBytes)
+			return;
+		Entry old = entries.put(term, entry);
+		if (old != null)
+			bytes -= old.bytes;
+		bytes += entry.bytes;
+
+		Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+		while (bytes > maxBytes && it.hasNext()) {
+			bytes -= it.next().getValue().bytes;
+			it.remove();
+			evictions++;
+		}
+	}
+
+	/**
+	 * Drops everything and forgets the version, so the next lookup reads it
+	 * again. Called after every write through the owning indexer.
+	 */
+	synchronized void invalidate() {
+		clearEntries();
+		version = UNKNOWN;
+	}
+
+	private void clearEntries() {
+		epoch++;
+		invalidations += entries.size();
+		entries.clear();
+		bytes = 0;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Returns the estimated heap bytes of the cached lists.
+	 *
+	 * @return
+	 */
+	public synchronized long sizeInBytes() {
+		return bytes;
+	}
+
+	public synchronized long getHitCount() {
+		return hits;
+	}
+
+	public synchronized long getMissCount() {
+		return misses;
+	}
+
+	public synchronized long getEvictionCount() {
+		return evictions;
+	}
+
+	/**
+	 * Returns the number of lists dropped because the index changed.
+	 *
+	 * @return
+	 */
+	public synchronized long getInvalidationCount() {
+		return invalidations;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("%d terms, %d KB, %d hits, %d misses, %d evictions, %d invalidations",
+				entries.size(), bytes / 1024, hits, misses, evictions, invalidations);
+	}
+}
@@ -0,0 +1,111 @@
+package com.flatironschool.javacs.persistence.impl;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.junit.Test;
+
+public class PostingsNearCacheTest {
+
+	// stands in for the version key on the server, counting reads
+	private final AtomicLong version = new AtomicLong(7);
+	private final AtomicLong reads = new AtomicLong();
+	private final LongSupplier readVersion = () -> {
+		reads.incrementAndGet();
+		return version.get();
+	};
+
+	private static PostingsNearCache.Entry entry(int size) {
+		String[] urls = new String[size];
+		int[] counts = new int[size];
+		int[] docIds = new int[size];
+		for (int i = 0; i < size; i++) {
+			urls[i] = "Page" + i;
+			counts[i] = 1;
+			docIds[i] = i;
+		}
+		return new PostingsNearCache.Entry(urls, counts, docIds, counts, counts, size);
+	}
+
+	@Test
+	public void testVersionBump() {
+		PostingsNearCache cache = new PostingsNearCache(1 << 20, 0);
+		long token = cache.validate(readVersion);
+		cache.put("java", entry(3), token);
+		assertThat(cache.validate(readVersion), is(token));
+		assertThat(cache.get("java").size, is(3));
+
+		// another client wrote to the index
+		version.incrementAndGet();
+		cache.validate(readVersion);
+		assertThat(cache.get("java"), is(nullValue()));
+		assertThat(cache.size(), is(0));
+		assertThat(cache.getInvalidationCount(), is(1L));
+		assertThat(cache.getHitCount(), is(1L));
+		assertThat(cache.getMissCount(), is(1L));
+	}
+
+	@Test
+	public void testStaleToken() {
+		PostingsNearCache cache = new PostingsNearCache(1 << 20, 0);
+		long token = cache.validate(readVersion);
+
+		// the index changes while the list is being fetched
+		version.incrementAndGet();
+		cache.validate(readVersion);
+		cache.put("java", entry(3), token);
+		assertThat(cache.get("java"), is(nullValue()));
+
+		// and the same after a write through the owning indexer
+		token = cache.validate(readVersion);
+		cache.invalidate();
+		cache.put("java", entry(3), token);
+		assertThat(cache.size(), is(0));
+		assertThat(cache.sizeInBytes(), is(0L));
+	}
+
+	@Test
+	public void testStalenessWindow() {
+		PostingsNearCache cache = new PostingsNearCache(1 << 20, 60000);
+		long token = cache.validate(readVersion);
+		cache.put("java", entry(3), token);
+		version.incrementAndGet();
+
+		// within the window the version is not read again
+		cache.validate(readVersion);
+		assertThat(reads.get(), is(1L));
+		assertThat(cache.get("java"), is(notNullValue()));
+
+		// until a local write forgets it
+		cache.invalidate();
+		cache.validate(readVersion);
+		assertThat(reads.get(), is(2L));
+	}
+
+	@Test
+	public void testEviction() {
+		long budget = 3 * entry(10).bytes;
+		PostingsNearCache cache = new PostingsNearCache(budget, 0);
+		long token = cache.validate(readVersion);
+		for (int i = 0; i < 3; i++) {
+			cache.put("term" + i, entry(10), token);
+		}
+		assertThat(cache.size(), is(3));
+
+		// term0 was used last, so term1 goes first
+		cache.get("term0");
+		cache.put("term3", entry(10), token);
+		assertThat(cache.sizeInBytes() <= budget, is(true));
+		assertThat(cache.get("term1"), is(nullValue()));
+		assertThat(cache.get("term0"), is(notNullValue()));
+		assertThat(cache.getEvictionCount(), is(1L));
+
+		// a list bigger than the whole budget is not cached at all
+		cache.put("huge", entry(100), token);
+		assertThat(cache.get("huge"), is(nullValue()));
+		assertThat(cache.sizeInBytes() <= budget, is(true));
+	}
+}
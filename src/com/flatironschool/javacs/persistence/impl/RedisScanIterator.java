@@ -0,0 +1,62 @@
+package com.flatironschool.javacs.persistence.impl;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+
+/**
+ * Iterates over the Redis keys that match a pattern using SCAN, so only one
+ * batch of keys is held at a time and the server is never blocked by KEYS.
+ * Each SCAN borrows its own pooled connection, so a slow consumer does not
+ * tie one up.
+ *
+ * Like SCAN itself, this may return a key more than once if the keyspace is
+ * resized during the iteration, and keys added or removed meanwhile may or
+ * may not show up.
+ */
+public class RedisScanIterator implements Iterator<String> {
+
+	private final JedisConnectionPool pool;
+	private final ScanParams params;
+	private final int prefixLength;
+
+	private String cursor = ScanParams.SCAN_POINTER_START;
+	private boolean finished = false;
+	private List<String> batch;
+	private int position;
+
+	/**
+	 * @param pool
+	 * @param prefix     keys starting with this prefix are returned, minus the prefix
+	 * @param batchSize  COUNT hint passed to each SCAN
+	 */
+	public RedisScanIterator(JedisConnectionPool pool, String prefix, int batchSize) {
+		this.pool = pool;
+		this.params = new ScanParams().match(prefix + "*").count(batchSize);
+		this.prefixLength = prefix.length();
+	}
+
+	@Override
+	public boolean hasNext() {
+		// a SCAN step can come back empty even when the cursor is not done
+		while ((batch == null || position == batch.size()) && !finished) {
+			String current = cursor;
+			ScanResult<String> result = pool.execute(jedis -> jedis.scan(current, params));
+			cursor = result.getStringCursor();
+			finished = ScanParams.SCAN_POINTER_START.equals(cursor);
+			batch = result.getResult();
+			position = 0;
+		}
+		return batch != null && position < batch.size();
+	}
+
+	@Override
+	public String next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		return batch.get(position++).substring(prefixLength);
+	}
+}
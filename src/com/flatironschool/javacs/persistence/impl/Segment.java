@@ -0,0 +1,667 @@
+package com.flatironschool.javacs.persistence.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+
+import com.flatironschool.javacs.persistence.interfaces.IImpactIterator;
+import com.flatironschool.javacs.persistence.interfaces.IPostingIterator;
+
+/**
+ * A read-only view of a segment file written by {@link SegmentWriter}.
+ *
+ * The whole file is mapped with FileChannel.map, so lookups read straight
+ * from the page cache and nothing but the deletion bits lives on the heap.
+ * Documents are numbered by ordinal (0 to docCount - 1) in increasing order
+ * of their global doc ids; terms and URLs are stored in UTF-8 byte order and
+ * found by binary search.
+ *
+ * Reads use absolute positions or duplicates of the mapped buffer, so a
+ * Segment can be shared between threads. The deletion bits are owned by the
+ * index that opened the segment.
+ */
+class Segment {
+
+	private static final int TERM_INFO_BYTES = 4 * SegmentWriter.TERM_INFO_INTS;
+	private static final int SKIP_BYTES = 4 * SegmentWriter.SKIP_INTS;
+
+	private final File file;
+	private final MappedByteBuffer buf;
+
+	private final int docCount;
+	private final int termCount;
+	private final int docIdsPos, normsPos, urlOffsetsPos, urlDataPos, urlOrderPos, postingsPos, positionsPos;
+	private final int termOffsetsPos, termDataPos, termInfoPos, skipsPos;
+	// 8 or 16 if each term's postings are followed by their impacts, else 0
+	private final int impactBits;
+	private final float[] impactTable;
+
+	// documents replaced by a newer version in a later segment or the buffer
+	private final BitSet deleted = new BitSet();
+	// file the index last saved the deletions to, and how many it held
+	private File deletionsFile;
+	private int savedDeletions;
+
+	private Segment(File file, MappedByteBuffer buf) throws IOException {
+		this.file = file;
+		this.buf = buf;
+
+		int footerPos = buf.getInt(buf.limit() - 4);
+		if (footerPos < 0 || footerPos > buf.limit() - 4 * (SegmentWriter.FOOTER_INTS + 1)
+				|| buf.getInt(footerPos) != SegmentWriter.MAGIC)
+			throw new IOException("not a segment file: " + file);
+		if (buf.getInt(footerPos + 4) != SegmentWriter.VERSION)
+			throw new IOException("unsupported segment version in " + file);
+
+		int p = footerPos + 8;
+		docCount = buf.getInt(p);
+		termCount = buf.getInt(p += 4);
+		docIdsPos = buf.getInt(p += 4);
+		normsPos = buf.getInt(p += 4);
+		urlOffsetsPos = buf.getInt(p += 4);
+		urlDataPos = buf.getInt(p += 4);
+		urlOrderPos = buf.getInt(p += 4);
+		postingsPos = buf.getInt(p += 4);
+		positionsPos = buf.getInt(p += 4);
+		termOffsetsPos = buf.getInt(p += 4);
+		termDataPos = buf.getInt(p += 4);
+		termInfoPos = buf.getInt(p += 4);
+		skipsPos = buf.getInt(p += 4);
+		impactBits = buf.getInt(p += 4);
+		impactTable = impactBits == 0 ? null : ImpactCodec.decodeTable(impactBits);
+	}
+
+	/**
+	 * Maps a segment file.
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	static Segment open(File file) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+				FileChannel channel = raf.getChannel()) {
+			// the mapping stays valid after the channel is closed
+			MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return new Segment(file, buf);
+		}
+	}
+
+	File getFile() {
+		return file;
+	}
+
+	long sizeInBytes() {
+		return buf.capacity();
+	}
+
+	int docCount() {
+		return docCount;
+	}
+
+	int termCount() {
+		return termCount;
+	}
+
+	/**
+	 * Returns the global doc id of the document with the given ordinal.
+	 */
+	int docId(int ord) {
+		return buf.getInt(docIdsPos + 4 * ord);
+	}
+
+	/**
+	 * Returns the ordinal of the first document whose global doc id is at
+	 * least `docId`, or docCount if there is none.
+	 */
+	int ceilingOrdinal(int docId) {
+		int lo = 0;
+		int hi = docCount;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (docId(mid) < docId)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * Returns the ordinal of a global doc id, or -1 if it is not here.
+	 */
+	int ordinalOfDocId(int docId) {
+		int lo = 0;
+		int hi = docCount - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int id = docId(mid);
+			if (id < docId)
+				lo = mid + 1;
+			else if (id > docId)
+				hi = mid - 1;
+			else
+				return mid;
+		}
+		return -1;
+	}
+
+	int docLength(int ord) {
+		return buf.getInt(normsPos + 8 * ord);
+	}
+
+	int uniqueTerms(int ord) {
+		return buf.getInt(normsPos + 8 * ord + 4);
+	}
+
+	String url(int ord) {
+		int start = buf.getInt(urlOffsetsPos + 4 * ord);
+		int end = buf.getInt(urlOffsetsPos + 4 * ord + 4);
+		return decode(urlDataPos + start, end - start);
+	}
+
+	/**
+	 * Returns the ordinal of a URL, or -1 if it is not in this segment.
+	 * Deleted documents are found too.
+	 */
+	int ordinal(String url) {
+		byte[] key = url.getBytes(StandardCharsets.UTF_8);
+		int lo = 0;
+		int hi = docCount - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int ord = buf.getInt(urlOrderPos + 4 * mid);
+			int start = buf.getInt(urlOffsetsPos + 4 * ord);
+			int end = buf.getInt(urlOffsetsPos + 4 * ord + 4);
+			int cmp = compareBytes(urlDataPos + start, end - start, key);
+			if (cmp < 0)
+				lo = mid + 1;
+			else if (cmp > 0)
+				hi = mid - 1;
+			else
+				return ord;
+		}
+		return -1;
+	}
+
+	String term(int index) {
+		int start = buf.getInt(termOffsetsPos + 4 * index);
+		int end = buf.getInt(termOffsetsPos + 4 * index + 4);
+		return decode(termDataPos + start, end - start);
+	}
+
+	/**
+	 * Returns the dictionary index of a term, or -1 if it is not here.
+	 */
+	int termIndex(String term) {
+		int index = seekTerm(term.getBytes(StandardCharsets.UTF_8));
+		return index >= 0 ? index : -1;
+	}
+
+	/**
+	 * Binary search over the term dictionary.
+	 *
+	 * @return index of the term if found, otherwise -(insertion point) - 1
+	 */
+	int seekTerm(byte[] key) {
+		int lo = 0;
+		int hi = termCount - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int start = buf.getInt(termOffsetsPos + 4 * mid);
+			int end = buf.getInt(termOffsetsPos + 4 * mid + 4);
+			int cmp = compareBytes(termDataPos + start, end - start, key);
+			if (cmp < 0)
+				lo = mid + 1;
+			else if (cmp > 0)
+				hi = mid - 1;
+			else
+				return mid;
+		}
+		return -(lo + 1);
+	}
+
+	/**
+	 * Number of documents, deleted or not, that contain the term.
+	 */
+	int docFreq(int termIndex) {
+		return buf.getInt(termInfoPos + TERM_INFO_BYTES * termIndex + 8);
+	}
+
+	/**
+	 * Upper bound on count / length over the postings of a term.
+	 */
+	double maxTermFrequency(int termIndex) {
+		return Float.intBitsToFloat(buf.getInt(termInfoPos + TERM_INFO_BYTES * termIndex + 12));
+	}
+
+	/**
+	 * Returns the (ordinal gap, count) varint pairs of a term, positioned at
+	 * the first posting and limited to the last.
+	 */
+	ByteBuffer postings(int termIndex) {
+		int offset = buf.getInt(termInfoPos + TERM_INFO_BYTES * termIndex);
+		int length = buf.getInt(termInfoPos + TERM_INFO_BYTES * termIndex + 4);
+		ByteBuffer postings = buf.duplicate();
+		postings.limit(postingsPos + offset + length);
+		postings.position(postingsPos + offset);
+		return postings;
+	}
+
+	/**
+	 * Returns the size of the stored impacts in bits, or 0 if there are
+	 * none.
+	 */
+	int impactBits() {
+		return impactBits;
+	}
+
+	/**
+	 * Returns the term frequency stored for the i-th posting of a term
+	 * whose impacts start at `impactsPos`.
+	 */
+	private float impact(int impactsPos, int i) {
+		if (impactBits == 8)
+			return impactTable[buf.get(impactsPos + i) & 0xFF];
+		return impactTable[buf.getShort(impactsPos + 2 * i) & 0xFFFF];
+	}
+
+	/**
+	 * Finds the last skip pointer of a term that lands before `ord`.
+	 *
+	 * @return index of the skip pointer within the term, or -1
+	 */
+	int findSkip(int termIndex, int ord) {
+		int first = buf.getInt(termInfoPos + TERM_INFO_BYTES * termIndex + 16);
+		int lo = 0;
+		int hi = docFreq(termIndex) / PostingsBuilder.SKIP_INTERVAL - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (buf.getInt(skipsPos + SKIP_BYTES * (first + mid)) < ord)
+				lo = mid + 1;
+			else
+				hi = mid - 1;
+		}
+		return hi;
+	}
+
+	/**
+	 * Returns the ordinal of the last posting before a skip pointer.
+	 */
+	int skipOrdinal(int termIndex, int skip) {
+		int first = buf.getInt(termInfoPos + TERM_INFO_BYTES * termIndex + 16);
+		return buf.getInt(skipsPos + SKIP_BYTES * (first + skip));
+	}
+
+	/**
+	 * Returns where decoding resumes after a skip pointer, relative to the
+	 * start of the term's postings.
+	 */
+	int skipOffset(int termIndex, int skip) {
+		int first = buf.getInt(termInfoPos + TERM_INFO_BYTES * termIndex + 16);
+		return buf.getInt(skipsPos + SKIP_BYTES * (first + skip) + 4);
+	}
+
+	/**
+	 * Returns where the positions resume after a skip pointer, relative to
+	 * the start of the term's positions.
+	 */
+	int skipPositionsOffset(int termIndex, int skip) {
+		int first = buf.getInt(termInfoPos + TERM_INFO_BYTES * termIndex + 16);
+		return buf.getInt(skipsPos + SKIP_BYTES * (first + skip) + 8);
+	}
+
+	/**
+	 * Returns the (byte length, encoded positions) entries of a term, one
+	 * per posting, or null if the term has no positions.
+	 */
+	ByteBuffer positions(int termIndex) {
+		int offset = buf.getInt(termInfoPos + TERM_INFO_BYTES * termIndex + 20);
+		int length = buf.getInt(termInfoPos + TERM_INFO_BYTES * termIndex + 24);
+		if (length == 0)
+			return null;
+		ByteBuffer positions = buf.duplicate();
+		positions.limit(positionsPos + offset + length);
+		positions.position(positionsPos + offset);
+		return positions;
+	}
+
+	/**
+	 * Returns the positions of a term in a document, or null if the term is
+	 * not in it or has no positions there.
+	 *
+	 * Only the postings from the nearest skip pointer are walked, and the
+	 * positions of the postings before `ord` are stepped over unread.
+	 */
+	int[] positions(int ord, int termIndex) {
+		ByteBuffer positions = positions(termIndex);
+		if (positions == null)
+			return null;
+		ByteBuffer postings = postings(termIndex);
+		int doc = 0;
+		int skip = findSkip(termIndex, ord);
+		if (skip >= 0) {
+			doc = skipOrdinal(termIndex, skip);
+			postings.position(postings.position() + skipOffset(termIndex, skip));
+			positions.position(positions.position() + skipPositionsOffset(termIndex, skip));
+		}
+		while (postings.hasRemaining()) {
+			doc += VarInt.read(postings);
+			VarInt.read(postings);
+			int length = VarInt.read(positions);
+			if (doc == ord)
+				return PositionCodec.decode(positions, length);
+			if (doc > ord)
+				break;
+			positions.position(positions.position() + length);
+		}
+		return null;
+	}
+
+	/**
+	 * Returns an iterator over the live postings of a term, by global doc
+	 * id. Deletions made after this call are not seen.
+	 */
+	IPostingIterator postingIterator(int termIndex) {
+		return new Postings(termIndex, deletions());
+	}
+
+	/**
+	 * Returns an iterator over the live postings of a term in impact order,
+	 * or null if the segment did not store them that way.
+	 */
+	IImpactIterator impactIterator(int termIndex) {
+		int length = buf.getInt(termInfoPos + TERM_INFO_BYTES * termIndex + 32);
+		if (length == 0)
+			return null;
+		int offset = buf.getInt(termInfoPos + TERM_INFO_BYTES * termIndex + 28);
+		ByteBuffer blocks = buf.duplicate();
+		blocks.limit(postingsPos + offset + length);
+		blocks.position(postingsPos + offset);
+		return new ImpactPostings(blocks, deletions());
+	}
+
+	/**
+	 * Returns how many times a term appears in a document, or 0.
+	 */
+	int count(int ord, int termIndex) {
+		ByteBuffer postings = postings(termIndex);
+		int doc = 0;
+		int skip = findSkip(termIndex, ord);
+		if (skip >= 0) {
+			doc = skipOrdinal(termIndex, skip);
+			postings.position(postings.position() + skipOffset(termIndex, skip));
+		}
+		while (postings.hasRemaining()) {
+			doc += VarInt.read(postings);
+			int count = VarInt.read(postings);
+			if (doc == ord)
+				return count;
+			if (doc > ord)
+				break;
+		}
+		return 0;
+	}
+
+	boolean isDeleted(int ord) {
+		return deleted.get(ord);
+	}
+
+	void delete(int ord) {
+		deleted.set(ord);
+	}
+
+	void delete(BitSet ords) {
+		deleted.or(ords);
+	}
+
+	/**
+	 * Returns a copy of the deleted ordinals.
+	 */
+	BitSet deletions() {
+		return (BitSet) deleted.clone();
+	}
+
+	int deletedCount() {
+		return deleted.cardinality();
+	}
+
+	boolean hasDeletions() {
+		return !deleted.isEmpty();
+	}
+
+	/**
+	 * Returns the file the deletions were last saved to, or null.
+	 */
+	File getDeletionsFile() {
+		return deletionsFile;
+	}
+
+	int savedDeletionCount() {
+		return savedDeletions;
+	}
+
+	/**
+	 * Records that `count` of the deletions were saved to `file`.
+	 */
+	void setDeletionsFile(File file, int count) {
+		this.deletionsFile = file;
+		this.savedDeletions = count;
+	}
+
+	private class Postings implements IPostingIterator {
+		private final int termIndex;
+		private final ByteBuffer postings;
+		private final int start;
+		private final BitSet deleted;
+		private final int df;
+		private final double maxTf;
+		// where the impacts of the term start, if there are any
+		private final int impactsPos;
+		private int ord = -1;
+		private int docId = -1;
+		private int freq;
+		// index of the current posting within the term
+		private int index = -1;
+
+		Postings(int termIndex, BitSet deleted) {
+			this.termIndex = termIndex;
+			this.postings = postings(termIndex);
+			this.start = postings.position();
+			this.deleted = deleted;
+			this.df = docFreq(termIndex);
+			this.maxTf = Segment.this.maxTermFrequency(termIndex);
+			this.impactsPos = postings.limit();
+		}
+
+		@Override
+		public int docId() {
+			return docId;
+		}
+
+		@Override
+		public int freq() {
+			return freq;
+		}
+
+		@Override
+		public int docLength() {
+			return Segment.this.docLength(ord);
+		}
+
+		@Override
+		public float impact() {
+			return impactBits == 0 ? -1 : Segment.this.impact(impactsPos, index);
+		}
+
+		@Override
+		public int nextDoc() {
+			while (postings.hasRemaining()) {
+				ord = ord < 0 ? VarInt.read(postings) : ord + VarInt.read(postings);
+				freq = VarInt.read(postings);
+				index++;
+				if (!deleted.get(ord))
+					return docId = Segment.this.docId(ord);
+			}
+			return docId = NO_MORE_DOCS;
+		}
+
+		@Override
+		public int advance(int target) {
+			if (docId >= target)
+				return docId;
+			// jump over whole blocks first if a skip pointer is ahead of us
+			int skip = findSkip(termIndex, ceilingOrdinal(target));
+			if (skip >= 0) {
+				int skipOrd = skipOrdinal(termIndex, skip);
+				if (skipOrd > ord) {
+					ord = skipOrd;
+					index = (skip + 1) * PostingsBuilder.SKIP_INTERVAL - 1;
+					postings.position(start + skipOffset(termIndex, skip));
+				}
+			}
+			while (docId < target) {
+				nextDoc();
+			}
+			return docId;
+		}
+
+		@Override
+		public long cost() {
+			return df;
+		}
+
+		@Override
+		public double maxTermFrequency() {
+			return maxTf;
+		}
+	}
+
+	/**
+	 * Walks the impact blocks written by SegmentWriter. The header of the
+	 * next block is read as soon as a block runs out, so the bound on what
+	 * is left is always at hand.
+	 */
+	private class ImpactPostings implements IImpactIterator {
+		private final ByteBuffer blocks;
+		private final BitSet deleted;
+		// impact of the block the next posting is in, and postings left in it
+		private int blockImpact = 0;
+		private int left = 0;
+		private boolean blockStart;
+		private int ord = -1;
+		private int docId = -1;
+		private int freq;
+		private int impact;
+
+		ImpactPostings(ByteBuffer blocks, BitSet deleted) {
+			this.blocks = blocks;
+			this.deleted = deleted;
+			readBlockHeader();
+		}
+
+		private void readBlockHeader() {
+			if (!blocks.hasRemaining())
+				return;
+			blockImpact = VarInt.read(blocks);
+			left = VarInt.read(blocks);
+			blockStart = true;
+		}
+
+		@Override
+		public int docId() {
+			return docId;
+		}
+
+		@Override
+		public int freq() {
+			return freq;
+		}
+
+		@Override
+		public int docLength() {
+			return Segment.this.docLength(ord);
+		}
+
+		@Override
+		public float impact() {
+			return impactTable[impact];
+		}
+
+		@Override
+		public int nextDoc() {
+			while (left > 0) {
+				// ordinals restart at each block
+				ord = blockStart ? VarInt.read(blocks) : ord + VarInt.read(blocks);
+				blockStart = false;
+				freq = VarInt.read(blocks);
+				impact = blockImpact;
+				if (--left == 0)
+					readBlockHeader();
+				if (!deleted.get(ord))
+					return docId = Segment.this.docId(ord);
+			}
+			return docId = IPostingIterator.NO_MORE_DOCS;
+		}
+
+		@Override
+		public double maxRemainingTermFrequency() {
+			return left > 0 ? ImpactCodec.upperBound(blockImpact, impactBits) : 0;
+		}
+	}
+
+	private String decode(int pos, int length) {
+		byte[] bytes = new byte[length];
+		ByteBuffer view = buf.duplicate();
+		view.position(pos);
+		view.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private int compareBytes(int pos, int length, byte[] key) {
+		int n = Math.min(length, key.length);
+		for (int i = 0; i < n; i++) {
+			int cmp = (buf.get(pos + i) & 0xFF) - (key[i] & 0xFF);
+			if (cmp != 0)
+				return cmp;
+		}
+		return length - key.length;
+	}
+
+	/**
+	 * Compares UTF-8 byte strings as unsigned bytes.
+	 */
+	static int compareBytes(byte[] a, byte[] b) {
+		int n = Math.min(a.length, b.length);
+		for (int i = 0; i < n; i++) {
+			int cmp = (a[i] & 0xFF) - (b[i] & 0xFF);
+			if (cmp != 0)
+				return cmp;
+		}
+		return a.length - b.length;
+	}
+
+	/**
+	 * Compares terms by code point, which is the same order as their UTF-8
+	 * bytes and so the order of the dictionary. (String.compareTo differs for
+	 * characters outside the Basic Multilingual Plane.)
+	 */
+	static int compareTerms(String a, String b) {
+		int i = 0;
+		int j = 0;
+		while (i < a.length() && j < b.length()) {
+			int ca = a.codePointAt(i);
+			int cb = b.codePointAt(j);
+			if (ca != cb)
+				return ca - cb;
+			i += Character.charCount(ca);
+			j += Character.charCount(cb);
+		}
+		return (a.length() - i) - (b.length() - j);
+	}
+}
@@ -0,0 +1,1128 @@
+package com.flatironschool.javacs.persistence.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.flatironschool.javacs.TermCounter;
+import com.flatironschool.javacs.persistence.interfaces.IImpactIndex;
+import com.flatironschool.javacs.persistence.interfaces.IImpactIterator;
+import com.flatironschool.javacs.persistence.interfaces.IPersistIndex;
+import com.flatironschool.javacs.persistence.interfaces.IPositionIndex;
+import com.flatironschool.javacs.persistence.interfaces.IPostingIterator;
+
+/**
+ * Index stored on disk as immutable, memory-mapped segment files.
+ *
+ * Pushed pages are held in an in-memory buffer; once it holds
+ * {@link #setMaxBufferedDocs(int) maxBufferedDocs} pages, or on
+ * {@link #flush()}, they are written out as a new small segment (see
+ * {@link SegmentWriter}). A background thread then merges adjacent segments
+ * as chosen by {@link LogByteSizeMergePolicy}, so the number of segments a
+ * query visits stays logarithmic in the size of the index while indexing
+ * never waits for a merge.
+ *
+ * A text manifest named "segments" lists the live segment files; it is
+ * replaced atomically after each flush and merge, so a crash leaves either
+ * the old or the new segment set, and segment files the manifest does not
+ * name are deleted on open. The list of segments is copied on write, so a
+ * query or iterator works on one consistent set even while a merge swaps
+ * segments out.
+ *
+ * Every pushed page gets a new global doc id. When a page is indexed again,
+ * its older copy is marked deleted. Each manifest names a deletion file per
+ * segment that has deletions, holding those whose newer copy is already in
+ * a segment, and the corpus statistics of the segments, so opening the
+ * index reads neither the documents nor their URLs. Queries merge the
+ * buffer and the segments and skip deleted documents.
+ *
+ * Pages counted with positions keep them in a separate section of each
+ * segment, read only by phrase and proximity queries. With
+ * {@link #setImpactBits(int)} new segments also store the quantized term
+ * frequency of every posting, which TF-IDF and BM25 score from without
+ * looking up the page length, and a
+ * copy of the postings of common terms in impact order, which one-term
+ * queries read best first.
+ *
+ * Call {@link #close()} to flush the buffer before exiting.
+ */
+public class SegmentIndexer implements IPersistIndex, IPositionIndex, IImpactIndex, Closeable {
+
+	static final String MANIFEST = "segments";
+	static final String SEGMENT_SUFFIX = ".seg";
+	static final String DELETIONS_SUFFIX = ".del";
+	static final int DEFAULT_MAX_BUFFERED_DOCS = 500;
+	private static final int MANIFEST_VERSION = 2;
+
+	/**
+	 * A page waiting in the buffer.
+	 */
+	private static class BufferedDoc {
+		final int docId;
+		final String url;
+		final Map<String, Integer> counts;
+		// encoded positions of the terms that have them
+		final Map<String, byte[]> positions;
+		final int length;
+		// the copy in a segment this page supersedes, or null; it stays live
+		// on disk until the page is flushed
+		DocRef replaced;
+
+		BufferedDoc(int docId, String url, Map<String, Integer> counts, Map<String, byte[]> positions, int length,
+				DocRef replaced) {
+			this.docId = docId;
+			this.url = url;
+			this.counts = counts;
+			this.positions = positions;
+			this.length = length;
+			this.replaced = replaced;
+		}
+	}
+
+	/**
+	 * Where the live copy of a document is stored.
+	 */
+	private static class DocRef {
+		final Segment segment;
+		final int ord;
+
+		DocRef(Segment segment, int ord) {
+			this.segment = segment;
+			this.ord = ord;
+		}
+	}
+
+	private final File directory;
+
+	// oldest first; replaced, never modified, so readers can hold on to it
+	private List<Segment> segments = new ArrayList<>();
+	private Map<String, BufferedDoc> buffer = new LinkedHashMap<>();
+	private Map<Integer, BufferedDoc> bufferById = new HashMap<>();
+	private int maxBufferedDocs = DEFAULT_MAX_BUFFERED_DOCS;
+	private int impactBits = 0;
+
+	private int nextDocId = 0;
+	private int nextGeneration = 0;
+
+	private final CorpusStatistics statistics = new CorpusStatistics();
+
+	private LogByteSizeMergePolicy mergePolicy = new LogByteSizeMergePolicy();
+	private final ExecutorService mergeThread = Executors.newSingleThreadExecutor(r -> {
+		Thread thread = new Thread(r, "segment-merge");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private boolean closed = false;
+
+	/**
+	 * Opens the index in `directory`, creating it if needed.
+	 *
+	 * @param directory
+	 * @throws IOException
+	 */
+	public SegmentIndexer(File directory) throws IOException {
+		this.directory = directory;
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("cannot create index directory " + directory);
+
+		File manifest = new File(directory, MANIFEST);
+		if (manifest.exists())
+			readManifest(manifest);
+		deleteOrphans();
+		scheduleMerge();
+	}
+
+	@Override
+	public synchronized boolean isIndexed(String url) {
+		return buffer.containsKey(url) || locate(url) != null;
+	}
+
+	@Override
+	public synchronized Set<String> getUrls(String term) {
+		Set<String> urls = new HashSet<String>();
+		for (Segment segment : segments) {
+			int termIndex = segment.termIndex(term);
+			if (termIndex < 0)
+				continue;
+			ByteBuffer postings = segment.postings(termIndex);
+			int ord = 0;
+			while (postings.hasRemaining()) {
+				ord += VarInt.read(postings);
+				VarInt.read(postings);
+				if (!segment.isDeleted(ord))
+					urls.add(segment.url(ord));
+			}
+		}
+		for (BufferedDoc doc : buffer.values()) {
+			if (doc.counts.containsKey(term))
+				urls.add(doc.url);
+		}
+		return urls;
+	}
+
+	@Override
+	public synchronized Map<String, Double> getUrlToTermCount(String term) {
+		Map<String, Double> map = new HashMap<String, Double>();
+		for (Segment segment : segments) {
+			int termIndex = segment.termIndex(term);
+			if (termIndex < 0)
+				continue;
+			ByteBuffer postings = segment.postings(termIndex);
+			int ord = 0;
+			while (postings.hasRemaining()) {
+				ord += VarInt.read(postings);
+				int count = VarInt.read(postings);
+				if (!segment.isDeleted(ord))
+					map.put(segment.url(ord), (double) count);
+			}
+		}
+		for (BufferedDoc doc : buffer.values()) {
+			Integer count = doc.counts.get(term);
+			if (count != null)
+				map.put(doc.url, (double) count);
+		}
+		return map;
+	}
+
+	@Override
+	public synchronized double getTotalTermCount(String url) {
+		BufferedDoc doc = buffer.get(url);
+		if (doc != null)
+			return doc.length;
+		DocRef ref = locate(url);
+		return ref == null ? 0 : ref.segment.docLength(ref.ord);
+	}
+
+	@Override
+	public synchronized int getUniqueTermCount(String url) {
+		BufferedDoc doc = buffer.get(url);
+		if (doc != null)
+			return doc.counts.size();
+		DocRef ref = locate(url);
+		return ref == null ? 0 : ref.segment.uniqueTerms(ref.ord);
+	}
+
+	@Override
+	public synchronized Map<String, Double> getTotalTermCounts(Collection<String> urls) {
+		Map<String, Double> map = new HashMap<String, Double>();
+		for (String url : urls) {
+			BufferedDoc doc = buffer.get(url);
+			if (doc != null) {
+				map.put(url, (double) doc.length);
+				continue;
+			}
+			DocRef ref = locate(url);
+			if (ref != null)
+				map.put(url, (double) ref.segment.docLength(ref.ord));
+		}
+		return map;
+	}
+
+	@Override
+	public synchronized int getDocumentCount() {
+		return statistics.getDocumentCount();
+	}
+
+	@Override
+	public synchronized int getDocumentFrequency(String term) {
+		int df = 0;
+		for (Segment segment : segments) {
+			int termIndex = segment.termIndex(term);
+			if (termIndex < 0)
+				continue;
+			if (!segment.hasDeletions()) {
+				df += segment.docFreq(termIndex);
+				continue;
+			}
+			ByteBuffer postings = segment.postings(termIndex);
+			int ord = 0;
+			while (postings.hasRemaining()) {
+				ord += VarInt.read(postings);
+				VarInt.read(postings);
+				if (!segment.isDeleted(ord))
+					df++;
+			}
+		}
+		for (BufferedDoc doc : buffer.values()) {
+			if (doc.counts.containsKey(term))
+				df++;
+		}
+		return df;
+	}
+
+	@Override
+	public synchronized double getAverageDocumentLength() {
+		return statistics.getAverageDocumentLength();
+	}
+
+	@Override
+	public synchronized Integer getCount(String url, String term) {
+		BufferedDoc doc = buffer.get(url);
+		if (doc != null)
+			return doc.counts.get(term);
+		DocRef ref = locate(url);
+		if (ref == null)
+			return null;
+		int termIndex = ref.segment.termIndex(term);
+		if (termIndex < 0)
+			return null;
+		int count = ref.segment.count(ref.ord, termIndex);
+		return count == 0 ? null : count;
+	}
+
+	/**
+	 * Chains the postings of each segment, oldest first, and then the
+	 * buffer; doc ids only grow in that order.
+	 */
+	@Override
+	public synchronized IPostingIterator postings(String term) {
+		List<IPostingIterator> parts = new ArrayList<>();
+		for (Segment segment : segments) {
+			int termIndex = segment.termIndex(term);
+			if (termIndex >= 0)
+				parts.add(segment.postingIterator(termIndex));
+		}
+
+		int[] docIds = new int[buffer.size()];
+		int[] freqs = new int[buffer.size()];
+		int[] lengths = new int[buffer.size()];
+		int n = 0;
+		for (BufferedDoc doc : buffer.values()) {
+			Integer count = doc.counts.get(term);
+			if (count != null) {
+				docIds[n] = doc.docId;
+				freqs[n] = count;
+				lengths[n] = doc.length;
+				n++;
+			}
+		}
+		if (n > 0)
+			parts.add(ArrayPostingIterator.sorted(docIds, freqs, lengths, n));
+		return new ConcatPostingIterator(parts);
+	}
+
+	/**
+	 * Merges the impact-ordered postings of each segment with the rest of
+	 * the postings sorted in memory: the buffer, and the segments that did
+	 * not store the term in impact order.
+	 */
+	@Override
+	public synchronized IImpactIterator impactPostings(String term) {
+		List<IImpactIterator> parts = new ArrayList<>();
+		for (Segment segment : segments) {
+			int termIndex = segment.termIndex(term);
+			if (termIndex < 0)
+				continue;
+			IImpactIterator ordered = segment.impactIterator(termIndex);
+			parts.add(ordered != null ? ordered : ArrayImpactIterator.of(segment.postingIterator(termIndex)));
+		}
+
+		int[] docIds = new int[buffer.size()];
+		int[] freqs = new int[buffer.size()];
+		int[] lengths = new int[buffer.size()];
+		int n = 0;
+		for (BufferedDoc doc : buffer.values()) {
+			Integer count = doc.counts.get(term);
+			if (count != null) {
+				docIds[n] = doc.docId;
+				freqs[n] = count;
+				lengths[n] = doc.length;
+				n++;
+			}
+		}
+		if (n > 0)
+			parts.add(new ArrayImpactIterator(docIds, freqs, lengths, null, n));
+		return new ImpactMergeIterator(parts);
+	}
+
+	@Override
+	public synchronized int getDocId(String url) {
+		BufferedDoc doc = buffer.get(url);
+		if (doc != null)
+			return doc.docId;
+		DocRef ref = locate(url);
+		return ref == null ? -1 : ref.segment.docId(ref.ord);
+	}
+
+	@Override
+	public synchronized String getUrl(int docId) {
+		BufferedDoc doc = bufferById.get(docId);
+		if (doc != null)
+			return doc.url;
+		DocRef ref = locate(docId);
+		return ref == null ? null : ref.segment.url(ref.ord);
+	}
+
+	@Override
+	public synchronized int[] positions(String term, int docId) {
+		BufferedDoc doc = bufferById.get(docId);
+		if (doc != null)
+			return PositionCodec.decode(doc.positions.get(term));
+		DocRef ref = locate(docId);
+		if (ref == null)
+			return null;
+		int termIndex = ref.segment.termIndex(term);
+		return termIndex < 0 ? null : ref.segment.positions(ref.ord, termIndex);
+	}
+
+	@Override
+	public synchronized void pushTermCounter(TermCounter tc) {
+		String url = tc.getLabel();
+
+		Map<String, Integer> counts = new HashMap<String, Integer>();
+		Map<String, byte[]> positions = new HashMap<String, byte[]>();
+		int length = 0;
+		for (String term : tc.keySet()) {
+			int count = tc.get(term);
+			if (count > 0) {
+				counts.put(term, count);
+				length += count;
+				byte[] encoded = PositionCodec.encode(tc.getPositions(term));
+				if (encoded.length > 0)
+					positions.put(term, encoded);
+			}
+		}
+
+		// a page that is still buffered keeps its doc id; otherwise the
+		// copy in a segment is superseded by a new one. Segments are
+		// immutable, so only an unchanged page can skip the rewrite.
+		BufferedDoc old = buffer.get(url);
+		int oldLength = -1;
+		int docId;
+		DocRef replaced;
+		if (old != null) {
+			if (old.counts.equals(counts) && samePositions(old.positions, positions))
+				return;
+			docId = old.docId;
+			oldLength = old.length;
+			replaced = old.replaced;
+		} else {
+			replaced = locate(url);
+			if (replaced != null) {
+				if (sameCounts(replaced, counts, length) && samePositions(replaced, counts, positions))
+					return;
+				oldLength = replaced.segment.docLength(replaced.ord);
+				replaced.segment.delete(replaced.ord);
+			}
+			docId = nextDocId++;
+		}
+		BufferedDoc doc = new BufferedDoc(docId, url, counts, positions, length, replaced);
+		buffer.put(url, doc);
+		bufferById.put(docId, doc);
+
+		if (oldLength < 0)
+			statistics.addDocument(length);
+		else
+			statistics.replaceDocument(oldLength, length);
+
+		if (buffer.size() >= maxBufferedDocs) {
+			try {
+				flush();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	@Override
+	public synchronized void pushTermCounters(Collection<TermCounter> tcs) {
+		for (TermCounter tc : tcs) {
+			pushTermCounter(tc);
+		}
+	}
+
+	@Override
+	public synchronized Set<String> urlSetKeys() {
+		Set<String> keys = new LinkedHashSet<String>();
+		Iterator<String> it = termIterator();
+		while (it.hasNext()) {
+			keys.add("URLSet:" + it.next());
+		}
+		return keys;
+	}
+
+	/**
+	 * Postings and the URL table share segment files, so this drops the
+	 * whole index, like {@link #deleteAllKeys()}.
+	 */
+	@Override
+	public void deleteURLSets() {
+		deleteAllKeys();
+	}
+
+	/**
+	 * Drops the whole index, like {@link #deleteAllKeys()}.
+	 */
+	@Override
+	public void deleteTermCounters() {
+		deleteAllKeys();
+	}
+
+	@Override
+	public synchronized void deleteAllKeys() {
+		List<Segment> dropped = segments;
+		segments = new ArrayList<>();
+		buffer = new LinkedHashMap<>();
+		bufferById = new HashMap<>();
+		statistics.clear();
+		try {
+			writeManifest();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		for (Segment segment : dropped) {
+			deleteSegmentFiles(segment);
+		}
+	}
+
+	@Override
+	public synchronized Set<String> termCounterKeys() {
+		Set<String> keys = new LinkedHashSet<String>();
+		Iterator<String> it = urlIterator();
+		while (it.hasNext()) {
+			keys.add("TermCounter:" + it.next());
+		}
+		return keys;
+	}
+
+	/**
+	 * Returns the terms in code point order, merging the dictionaries of
+	 * the segments and the buffer.
+	 */
+	@Override
+	public synchronized Iterator<String> termIterator() {
+		List<Segment> view = new ArrayList<>(segments);
+		TreeSet<String> buffered = new TreeSet<String>(Segment::compareTerms);
+		for (BufferedDoc doc : buffer.values()) {
+			buffered.addAll(doc.counts.keySet());
+		}
+		return new TermMergeIterator(view, buffered.iterator());
+	}
+
+	@Override
+	public synchronized Iterator<String> urlIterator() {
+		List<String> urls = new ArrayList<String>();
+		for (Segment segment : segments) {
+			for (int ord = 0; ord < segment.docCount(); ord++) {
+				if (!segment.isDeleted(ord))
+					urls.add(segment.url(ord));
+			}
+		}
+		urls.addAll(buffer.keySet());
+		return urls.iterator();
+	}
+
+	/**
+	 * Writes the buffered pages as a new segment.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void flush() throws IOException {
+		if (buffer.isEmpty())
+			return;
+
+		File file = nextSegmentFile();
+		writeSegment(file, new ArrayList<>(buffer.values()), impactBits);
+		List<Segment> updated = new ArrayList<>(segments);
+		updated.add(Segment.open(file));
+		segments = updated;
+		buffer = new LinkedHashMap<>();
+		bufferById = new HashMap<>();
+		writeManifest();
+		scheduleMerge();
+	}
+
+	/**
+	 * Flushes the buffer and waits for a running merge to finish. Merges
+	 * that have not started are left for the next open.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			if (closed)
+				return;
+			flush();
+			closed = true;
+		}
+		mergeThread.shutdown();
+		try {
+			mergeThread.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Sets how many pages are buffered before they are flushed to a new
+	 * segment.
+	 *
+	 * @param maxBufferedDocs
+	 */
+	public synchronized void setMaxBufferedDocs(int maxBufferedDocs) {
+		if (maxBufferedDocs < 1)
+			throw new IllegalArgumentException("buffer size must be positive: " + maxBufferedDocs);
+		this.maxBufferedDocs = maxBufferedDocs;
+	}
+
+	/**
+	 * Sets the size of the impacts stored with the postings of segments
+	 * written from now on, by flushes and merges alike. Older segments keep
+	 * what they have until they are merged.
+	 *
+	 * @param impactBits  8, 16, or 0 to store none
+	 */
+	public synchronized void setImpactBits(int impactBits) {
+		if (!ImpactCodec.isSupported(impactBits))
+			throw new IllegalArgumentException("impacts must be 0, 8 or 16 bits: " + impactBits);
+		this.impactBits = impactBits;
+	}
+
+	/**
+	 * Sets how many segments of the same size are merged at a time.
+	 *
+	 * @param mergeFactor
+	 */
+	public synchronized void setMergeFactor(int mergeFactor) {
+		mergePolicy = new LogByteSizeMergePolicy(mergeFactor, LogByteSizeMergePolicy.DEFAULT_MIN_SEGMENT_SIZE);
+		scheduleMerge();
+	}
+
+	/**
+	 * Blocks until the merges scheduled so far are done.
+	 */
+	public void waitForMerges() {
+		try {
+			mergeThread.submit(() -> {
+			}).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	/**
+	 * Number of segment files in use.
+	 *
+	 * @return
+	 */
+	public synchronized int getSegmentCount() {
+		return segments.size();
+	}
+
+	/**
+	 * Number of pages waiting to be flushed.
+	 *
+	 * @return
+	 */
+	public synchronized int getBufferedDocumentCount() {
+		return buffer.size();
+	}
+
+	private File nextSegmentFile() {
+		return new File(directory, "_" + nextGeneration++ + SEGMENT_SUFFIX);
+	}
+
+	private void scheduleMerge() {
+		if (!closed)
+			mergeThread.execute(this::mergeSegments);
+	}
+
+	/**
+	 * Runs on the merge thread: merges segments until the policy is
+	 * satisfied. Only choosing and committing a merge hold the lock, so
+	 * pushes and queries go on while segments are being rewritten.
+	 */
+	private void mergeSegments() {
+		while (true) {
+			List<Segment> sources;
+			List<BitSet> deletions = new ArrayList<>();
+			File file;
+			int bits;
+			synchronized (this) {
+				int[] range = closed ? null : mergePolicy.findMerge(segments);
+				if (range == null)
+					return;
+				sources = new ArrayList<>(segments.subList(range[0], range[1]));
+				// copies replaced by buffered pages are kept, as on disk, and
+				// deleted again when the merge is committed
+				Map<Segment, BitSet> unflushed = unflushedDeletions();
+				for (Segment segment : sources) {
+					BitSet deleted = segment.deletions();
+					if (unflushed.containsKey(segment))
+						deleted.andNot(unflushed.get(segment));
+					deletions.add(deleted);
+				}
+				file = nextSegmentFile();
+				bits = impactBits;
+			}
+
+			try {
+				int[][] ordMaps = SegmentMerger.merge(sources, deletions, file, bits);
+				commitMerge(sources, deletions, ordMaps, Segment.open(file));
+			} catch (IOException e) {
+				// leave the sources in place; the partial file is an orphan
+				e.printStackTrace();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Swaps the merged segment in for its sources, carrying over pages that
+	 * were re-indexed while the merge ran.
+	 */
+	private synchronized void commitMerge(List<Segment> sources, List<BitSet> deletions, int[][] ordMaps,
+			Segment merged) throws IOException {
+		int start = segments.indexOf(sources.get(0));
+		if (start < 0 || start + sources.size() > segments.size()
+				|| !segments.subList(start, start + sources.size()).equals(sources)) {
+			// the index was cleared in the meantime
+			deleteSegmentFile(merged.getFile());
+			return;
+		}
+
+		for (int s = 0; s < sources.size(); s++) {
+			for (int ord : SegmentMerger.newDeletions(deletions.get(s), sources.get(s).deletions(), ordMaps[s])) {
+				merged.delete(ord);
+			}
+		}
+		for (BufferedDoc doc : buffer.values()) {
+			int s = doc.replaced == null ? -1 : sources.indexOf(doc.replaced.segment);
+			if (s >= 0) {
+				int ord = ordMaps[s][doc.replaced.ord];
+				doc.replaced = ord < 0 ? null : new DocRef(merged, ord);
+			}
+		}
+
+		List<Segment> updated = new ArrayList<>(segments.subList(0, start));
+		if (merged.docCount() > 0)
+			updated.add(merged);
+		else
+			deleteSegmentFile(merged.getFile());
+		updated.addAll(segments.subList(start + sources.size(), segments.size()));
+		segments = updated;
+		writeManifest();
+		for (Segment source : sources) {
+			deleteSegmentFiles(source);
+		}
+	}
+
+	/**
+	 * Returns true if a stored page has exactly the given counts. Equal
+	 * norms and equal counts for every new term mean no term was removed.
+	 */
+	private static boolean sameCounts(DocRef ref, Map<String, Integer> counts, int length) {
+		Segment segment = ref.segment;
+		if (segment.docLength(ref.ord) != length || segment.uniqueTerms(ref.ord) != counts.size())
+			return false;
+		for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+			int termIndex = segment.termIndex(entry.getKey());
+			if (termIndex < 0 || segment.count(ref.ord, termIndex) != entry.getValue())
+				return false;
+		}
+		return true;
+	}
+
+	private static boolean samePositions(Map<String, byte[]> a, Map<String, byte[]> b) {
+		if (a.size() != b.size())
+			return false;
+		for (Map.Entry<String, byte[]> entry : a.entrySet()) {
+			if (!Arrays.equals(entry.getValue(), b.get(entry.getKey())))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns true if a stored page has exactly the given positions; called
+	 * once its counts are known to match, so it has the same terms.
+	 */
+	private static boolean samePositions(DocRef ref, Map<String, Integer> counts, Map<String, byte[]> positions) {
+		Segment segment = ref.segment;
+		for (String term : counts.keySet()) {
+			int[] stored = segment.positions(ref.ord, segment.termIndex(term));
+			if (!Arrays.equals(stored, PositionCodec.decode(positions.get(term))))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Finds the live document with a doc id in the segments.
+	 */
+	private DocRef locate(int docId) {
+		// segments cover increasing, disjoint doc id ranges
+		int lo = 0;
+		int hi = segments.size() - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			Segment segment = segments.get(mid);
+			if (docId < segment.docId(0)) {
+				hi = mid - 1;
+			} else if (docId > segment.docId(segment.docCount() - 1)) {
+				lo = mid + 1;
+			} else {
+				int ord = segment.ordinalOfDocId(docId);
+				return ord < 0 || segment.isDeleted(ord) ? null : new DocRef(segment, ord);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Finds the live copy of a page in the segments, newest first.
+	 */
+	private DocRef locate(String url) {
+		for (int i = segments.size() - 1; i >= 0; i--) {
+			Segment segment = segments.get(i);
+			int ord = segment.ordinal(url);
+			if (ord >= 0) {
+				if (segment.isDeleted(ord))
+					return null;
+				return new DocRef(segment, ord);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Inverts the buffered pages and writes them, in doc id order, to `file`.
+	 */
+	private static void writeSegment(File file, List<BufferedDoc> docs, int impactBits) throws IOException {
+		Collections.sort(docs, (a, b) -> Integer.compare(a.docId, b.docId));
+		int n = docs.size();
+		int[] docIds = new int[n];
+		String[] urls = new String[n];
+		int[] lengths = new int[n];
+		int[] uniqueTerms = new int[n];
+
+		Map<String, PostingsBuilder> inverted = new HashMap<>();
+		for (int ord = 0; ord < n; ord++) {
+			BufferedDoc doc = docs.get(ord);
+			docIds[ord] = doc.docId;
+			urls[ord] = doc.url;
+			lengths[ord] = doc.length;
+			uniqueTerms[ord] = doc.counts.size();
+			for (Map.Entry<String, Integer> entry : doc.counts.entrySet()) {
+				byte[] positions = doc.positions.get(entry.getKey());
+				inverted.computeIfAbsent(entry.getKey(), term -> new PostingsBuilder()).add(ord, entry.getValue(),
+						doc.length, positions, 0, positions == null ? 0 : positions.length);
+			}
+		}
+
+		List<String> terms = new ArrayList<String>(inverted.keySet());
+		Collections.sort(terms, Segment::compareTerms);
+
+		try (SegmentWriter writer = new SegmentWriter(file, impactBits)) {
+			writer.writeDocuments(docIds, urls, lengths, uniqueTerms, n);
+			for (String term : terms) {
+				PostingsBuilder postings = inverted.get(term);
+				writer.addTerm(term, postings);
+			}
+			writer.finish();
+		} catch (IOException | RuntimeException e) {
+			deleteSegmentFile(file);
+			throw e;
+		}
+	}
+
+	/**
+	 * Manifest format, one value per line: version, next doc id, next
+	 * generation, the document count and total length of the segments, then
+	 * the segment file names, oldest first, each followed by the name of its
+	 * deletion file if it has one.
+	 */
+	private void readManifest(File manifest) throws IOException {
+		try (BufferedReader in = Files.newBufferedReader(manifest.toPath(), StandardCharsets.UTF_8)) {
+			String line = in.readLine();
+			if (line == null || Integer.parseInt(line.trim()) != MANIFEST_VERSION)
+				throw new IOException("unsupported manifest " + manifest);
+			nextDocId = Integer.parseInt(in.readLine().trim());
+			nextGeneration = Integer.parseInt(in.readLine().trim());
+			int documentCount = Integer.parseInt(in.readLine().trim());
+			long totalLength = Long.parseLong(in.readLine().trim());
+			statistics.addDocuments(documentCount, totalLength);
+			while ((line = in.readLine()) != null) {
+				String[] names = line.trim().split(" ");
+				if (names[0].isEmpty())
+					continue;
+				Segment segment = Segment.open(new File(directory, names[0]));
+				if (names.length > 1) {
+					File file = new File(directory, names[1]);
+					BitSet deleted = readDeletions(file);
+					segment.delete(deleted);
+					segment.setDeletionsFile(file, deleted.cardinality());
+				}
+				segments.add(segment);
+			}
+		} catch (NumberFormatException | NullPointerException e) {
+			throw new IOException("corrupt manifest " + manifest, e);
+		}
+	}
+
+	/**
+	 * Replaces the manifest by writing a temporary file and renaming it,
+	 * after saving the deletions of segments that have new ones. Pages
+	 * still in the buffer are left out, so that after a crash the copies
+	 * they replaced are live again.
+	 */
+	private void writeManifest() throws IOException {
+		int documentCount = statistics.getDocumentCount();
+		long totalLength = statistics.getTotalLength();
+		for (BufferedDoc doc : buffer.values()) {
+			totalLength -= doc.length;
+			if (doc.replaced == null)
+				documentCount--;
+			else
+				totalLength += doc.replaced.segment.docLength(doc.replaced.ord);
+		}
+		Map<Segment, BitSet> unflushed = unflushedDeletions();
+
+		// deletions only accumulate, so a new count means new deletions
+		Map<Segment, File> saved = new HashMap<>();
+		Map<Segment, Integer> savedCounts = new HashMap<>();
+		for (Segment segment : segments) {
+			BitSet deleted = segment.deletions();
+			if (unflushed.containsKey(segment))
+				deleted.andNot(unflushed.get(segment));
+			if (deleted.cardinality() == segment.savedDeletionCount())
+				continue;
+			File file = new File(directory, "_" + nextGeneration++ + DELETIONS_SUFFIX);
+			writeDeletions(file, deleted);
+			saved.put(segment, file);
+			savedCounts.put(segment, deleted.cardinality());
+		}
+
+		File tmp = new File(directory, MANIFEST + ".tmp");
+		try (FileOutputStream out = new FileOutputStream(tmp)) {
+			Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+			writer.write(MANIFEST_VERSION + "\n");
+			writer.write(nextDocId + "\n");
+			writer.write(nextGeneration + "\n");
+			writer.write(documentCount + "\n");
+			writer.write(totalLength + "\n");
+			for (Segment segment : segments) {
+				File deletions = saved.containsKey(segment) ? saved.get(segment) : segment.getDeletionsFile();
+				writer.write(segment.getFile().getName());
+				if (deletions != null)
+					writer.write(" " + deletions.getName());
+				writer.write("\n");
+			}
+			writer.flush();
+			out.getFD().sync();
+		}
+		Files.move(tmp.toPath(), new File(directory, MANIFEST).toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+
+		for (Map.Entry<Segment, File> entry : saved.entrySet()) {
+			Segment segment = entry.getKey();
+			if (segment.getDeletionsFile() != null)
+				segment.getDeletionsFile().delete();
+			segment.setDeletionsFile(entry.getValue(), savedCounts.get(segment));
+		}
+	}
+
+	/**
+	 * Returns the deletions of each segment made by pages still in the
+	 * buffer.
+	 */
+	private Map<Segment, BitSet> unflushedDeletions() {
+		Map<Segment, BitSet> unflushed = new HashMap<>();
+		for (BufferedDoc doc : buffer.values()) {
+			if (doc.replaced != null)
+				unflushed.computeIfAbsent(doc.replaced.segment, segment -> new BitSet()).set(doc.replaced.ord);
+		}
+		return unflushed;
+	}
+
+	/**
+	 * Deletion file format: the number of words, then the words of the
+	 * BitSet of deleted ordinals.
+	 */
+	private static void writeDeletions(File file, BitSet deleted) throws IOException {
+		long[] words = deleted.toLongArray();
+		try (FileOutputStream out = new FileOutputStream(file)) {
+			DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+			data.writeInt(words.length);
+			for (long word : words) {
+				data.writeLong(word);
+			}
+			data.flush();
+			out.getFD().sync();
+		}
+	}
+
+	private static BitSet readDeletions(File file) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			int n = in.readInt();
+			if (n < 0 || n > file.length() / 8)
+				throw new IOException("corrupt deletion file " + file);
+			long[] words = new long[n];
+			for (int i = 0; i < n; i++) {
+				words[i] = in.readLong();
+			}
+			return BitSet.valueOf(words);
+		}
+	}
+
+	/**
+	 * Deletes segment files left behind by a crash or by a delete that
+	 * failed because the file was still mapped.
+	 */
+	private void deleteOrphans() {
+		Set<String> live = new HashSet<String>();
+		for (Segment segment : segments) {
+			live.add(segment.getFile().getName());
+			if (segment.getDeletionsFile() != null)
+				live.add(segment.getDeletionsFile().getName());
+		}
+		File[] files = directory.listFiles();
+		if (files == null)
+			return;
+		for (File file : files) {
+			String name = file.getName();
+			if (((name.endsWith(SEGMENT_SUFFIX) || name.endsWith(DELETIONS_SUFFIX)) && !live.contains(name))
+					|| name.equals(MANIFEST + ".tmp")
+					|| name.endsWith(SEGMENT_SUFFIX + SegmentWriter.POSITIONS_TEMP_SUFFIX))
+				deleteSegmentFile(file);
+		}
+	}
+
+	private static void deleteSegmentFile(File file) {
+		// on Windows a mapped file cannot be deleted until the mapping is
+		// collected; deleteOrphans gets it next time
+		file.delete();
+	}
+
+	private static void deleteSegmentFiles(Segment segment) {
+		deleteSegmentFile(segment.getFile());
+		if (segment.getDeletionsFile() != null)
+			segment.getDeletionsFile().delete();
+	}
+
+	/**
+	 * K-way merge of the sorted term dictionaries, skipping terms whose
+	 * documents have all been deleted.
+	 */
+	private static class TermMergeIterator implements Iterator<String> {
+
+		private static class Cursor {
+			final Segment segment;
+			int index = -1;
+			String term;
+
+			Cursor(Segment segment) {
+				this.segment = segment;
+			}
+
+			boolean advance() {
+				while (++index < segment.termCount()) {
+					if (hasLiveDocument()) {
+						term = segment.term(index);
+						return true;
+					}
+				}
+				return false;
+			}
+
+			private boolean hasLiveDocument() {
+				if (!segment.hasDeletions())
+					return true;
+				ByteBuffer postings = segment.postings(index);
+				int ord = 0;
+				while (postings.hasRemaining()) {
+					ord += VarInt.read(postings);
+					VarInt.read(postings);
+					if (!segment.isDeleted(ord))
+						return true;
+				}
+				return false;
+			}
+		}
+
+		private final PriorityQueue<Cursor> queue = new PriorityQueue<>(
+				(a, b) -> Segment.compareTerms(a.term, b.term));
+		private final Iterator<String> buffered;
+		private String nextBuffered;
+		private String next;
+
+		TermMergeIterator(List<Segment> segments, Iterator<String> buffered) {
+			for (Segment segment : segments) {
+				Cursor cursor = new Cursor(segment);
+				if (cursor.advance())
+					queue.add(cursor);
+			}
+			this.buffered = buffered;
+			this.nextBuffered = buffered.hasNext() ? buffered.next() : null;
+			this.next = computeNext();
+		}
+
+		private String computeNext() {
+			String smallest = nextBuffered;
+			Cursor head = queue.peek();
+			if (head != null && (smallest == null || Segment.compareTerms(head.term, smallest) < 0))
+				smallest = head.term;
+			if (smallest == null)
+				return null;
+
+			// consume every source positioned on the smallest term
+			if (smallest.equals(nextBuffered))
+				nextBuffered = buffered.hasNext() ? buffered.next() : null;
+			while (!queue.isEmpty() && queue.peek().term.equals(smallest)) {
+				Cursor cursor = queue.poll();
+				if (cursor.advance())
+					queue.add(cursor);
+			}
+			return smallest;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		@Override
+		public String next() {
+			if (next == null)
+				throw new NoSuchElementException();
+			String term = next;
+			next = computeNext();
+			return term;
+		}
+	}
+}
@@ -0,0 +1,366 @@
+package com.flatironschool.javacs.persistence.impl;
+
+import static com.flatironschool.javacs.persistence.impl.TestCounters.counter;
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.flatironschool.javacs.TermCounter;
+import com.flatironschool.javacs.TopKCollector;
+import com.flatironschool.javacs.persistence.interfaces.IImpactIterator;
+import com.flatironschool.javacs.persistence.interfaces.IPostingIterator;
+import com.flatironschool.javacs.query.BM25Similarity;
+import com.flatironschool.javacs.query.ImpactScorer;
+import com.flatironschool.javacs.query.TermScorer;
+import com.flatironschool.javacs.query.TermWeight;
+import com.flatironschool.javacs.query.TfIdfSimilarity;
+
+public class SegmentIndexerTest {
+
+	private File directory;
+	private SegmentIndexer index;
+
+	@Before
+	public void setUp() throws Exception {
+		directory = Files.createTempDirectory("segments").toFile();
+		index = new SegmentIndexer(directory);
+		index.pushTermCounter(counter("Page1", "java", 3, "coffee", 1));
+		index.pushTermCounter(counter("Page2", "java", 200, "island", 2));
+		index.flush();
+		index.pushTermCounter(counter("Page3", "coffee", 5));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		index.close();
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void testLookups() {
+		assertThat(index.isIndexed("Page2"), is(true));
+		assertThat(index.isIndexed("Page4"), is(false));
+		assertThat(index.getUrls("java").size(), is(2));
+		assertThat(index.getCount("Page2", "java"), is(200));
+		assertThat(index.getCount("Page2", "coffee"), is(nullValue()));
+		assertThat(index.getUrlToTermCount("coffee").get("Page3"), is(5.0));
+		assertThat(index.getTotalTermCount("Page1"), is(4.0));
+		assertThat(index.getDocumentFrequency("coffee"), is(2));
+	}
+
+	@Test
+	public void testReopen() throws Exception {
+		index.pushTermCounter(counter("Page1", "coffee", 7));
+		index.close();
+
+		index = new SegmentIndexer(directory);
+		assertThat(index.getSegmentCount(), is(2));
+		assertThat(index.getDocumentCount(), is(3));
+		assertThat(index.getUrls("java").size(), is(1));
+		assertThat(index.getUrlToTermCount("coffee").get("Page1"), is(7.0));
+		assertThat(index.getDocumentFrequency("java"), is(1));
+		assertThat(index.getAverageDocumentLength(), is(214.0 / 3));
+	}
+
+	@Test
+	public void testDeletionsSaved() throws Exception {
+		index.pushTermCounter(counter("Page1", "coffee", 7));
+		index.flush();
+		// replaces a copy in a segment that is merged before it is flushed
+		index.pushTermCounter(counter("Page2", "java", 1));
+		index.setMergeFactor(2);
+		index.waitForMerges();
+		assertThat(index.getSegmentCount(), is(1));
+		assertThat(index.getCount("Page2", "java"), is(1));
+
+		// opened again without closing, as after a crash
+		SegmentIndexer reopened = new SegmentIndexer(directory);
+		try {
+			assertThat(reopened.getDocumentCount(), is(3));
+			assertThat(reopened.getCount("Page1", "java"), is(nullValue()));
+			assertThat(reopened.getCount("Page2", "java"), is(200));
+			assertThat(reopened.getAverageDocumentLength(), is(214.0 / 3));
+		} finally {
+			reopened.close();
+		}
+	}
+
+	@Test
+	public void testUnchangedReindex() throws Exception {
+		index.pushTermCounter(counter("Page1", "java", 3, "coffee", 1));
+		index.pushTermCounter(counter("Page3", "coffee", 5));
+		assertThat(index.getBufferedDocumentCount(), is(1));
+
+		index.pushTermCounter(counter("Page2", "java", 200));
+		assertThat(index.getBufferedDocumentCount(), is(2));
+		assertThat(index.getDocumentFrequency("island"), is(0));
+	}
+
+	@Test
+	public void testTermIterator() throws Exception {
+		index.pushTermCounter(counter("Page2", "java", 1));
+
+		List<String> terms = new ArrayList<String>();
+		Iterator<String> it = index.termIterator();
+		while (it.hasNext()) {
+			terms.add(it.next());
+		}
+		assertThat(terms.toString(), is("[coffee, java]"));
+		assertThat(index.termCounterKeys().size(), is(3));
+	}
+
+	@Test
+	public void testMerge() throws Exception {
+		index.setMaxBufferedDocs(1);
+		index.setMergeFactor(2);
+		for (int i = 0; i < 20; i++) {
+			index.pushTermCounter(counter("Extra" + i, "java", i + 1, "page" + i, 1));
+		}
+		index.pushTermCounter(counter("Page1", "island", 4));
+		index.waitForMerges();
+
+		// with a factor of 2 every level holds at most one segment
+		assertThat(index.getSegmentCount() <= 5, is(true));
+		assertThat(index.getDocumentCount(), is(23));
+		assertThat(index.getDocumentFrequency("java"), is(21));
+		assertThat(index.getDocumentFrequency("coffee"), is(1));
+		assertThat(index.getCount("Extra7", "java"), is(8));
+		assertThat(index.getUrls("island").size(), is(2));
+
+		index.close();
+		index = new SegmentIndexer(directory);
+		assertThat(index.getDocumentCount(), is(23));
+		assertThat(index.getCount("Page1", "island"), is(4));
+		assertThat(index.getCount("Page1", "java"), is(nullValue()));
+	}
+
+	@Test
+	public void testPositions() throws Exception {
+		index.setMaxBufferedDocs(10);
+		index.setMergeFactor(2);
+		// enough pages that the positions are read from past a skip
+		for (int i = 0; i < 100; i++) {
+			TermCounter tc = new TermCounter("Text" + i, true);
+			tc.processText("java is a language, java " + i, null);
+			index.pushTermCounter(tc);
+		}
+		index.pushTermCounter(counter("Page4", "java", 2));
+		assertThat(index.positions("java", index.getDocId("Text99")), is(new int[] {0, 4}));
+		assertThat(index.positions("99", index.getDocId("Text99")), is(new int[] {5}));
+		index.waitForMerges();
+
+		index.close();
+		index = new SegmentIndexer(directory);
+		assertThat(index.positions("language", index.getDocId("Text42")), is(new int[] {3}));
+		assertThat(index.positions("java", index.getDocId("Text77")), is(new int[] {0, 4}));
+		assertThat(index.positions("java", index.getDocId("Page4")), is(nullValue()));
+		assertThat(index.positions("island", index.getDocId("Text1")), is(nullValue()));
+	}
+
+	@Test
+	public void testImpacts() throws Exception {
+		index.setImpactBits(8);
+		index.setMaxBufferedDocs(10);
+		index.setMergeFactor(2);
+		for (int i = 0; i < 100; i++) {
+			index.pushTermCounter(counter("Extra" + i, "java", i + 1, "page" + i, 100));
+		}
+		index.flush();
+		index.waitForMerges();
+
+		// merged segments are written with impacts, whatever their sources
+		// had, so the pages from setUp have them too
+		IPostingIterator postings = index.postings("java");
+		int n = 0;
+		while (postings.nextDoc() != IPostingIterator.NO_MORE_DOCS) {
+			double tf = postings.freq() / (double) postings.docLength();
+			assertThat(Math.abs(postings.impact() - tf) <= tf * 0.03, is(true));
+			assertThat(postings.impact() <= postings.maxTermFrequency(), is(true));
+			n++;
+		}
+		assertThat(n, is(102));
+
+		// skipping ahead keeps each posting with its own impact
+		postings = index.postings("java");
+		postings.advance(index.getDocId("Extra90"));
+		assertThat(Math.abs(postings.impact() - 91 / 191.0) <= 0.03, is(true));
+	}
+
+	@Test
+	public void testImpactOrder() throws Exception {
+		index.setImpactBits(16);
+		for (int i = 0; i < 300; i++) {
+			index.pushTermCounter(counter("Extra" + i, "java", i % 50 + 1, "page" + i, 50));
+		}
+		index.flush();
+		// a page replaced in the buffer, and one only in the buffer
+		index.pushTermCounter(counter("Extra7", "java", 40, "page7", 50));
+		index.pushTermCounter(counter("Page4", "java", 1, "coffee", 1));
+
+		// the segment with the Extra pages stores them in impact order
+		IImpactIterator postings = index.impactPostings("java");
+		int n = 0;
+		double bound = postings.maxRemainingTermFrequency();
+		while (postings.nextDoc() != IPostingIterator.NO_MORE_DOCS) {
+			double tf = postings.freq() / (double) postings.docLength();
+			assertThat(tf <= bound, is(true));
+			assertThat(postings.impact() <= bound, is(true));
+			bound = postings.maxRemainingTermFrequency();
+			if (postings.docId() == index.getDocId("Extra7"))
+				assertThat(postings.freq(), is(40));
+			n++;
+		}
+		assertThat(n, is(303));
+		assertThat(bound, is(0.0));
+	}
+
+	/**
+	 * Postings that fail if a scorer looks up a document length.
+	 */
+	private static class NoLengthPostings implements IPostingIterator {
+		private final IPostingIterator postings;
+
+		NoLengthPostings(IPostingIterator postings) {
+			this.postings = postings;
+		}
+
+		public int docId() {
+			return postings.docId();
+		}
+
+		public int freq() {
+			return postings.freq();
+		}
+
+		public int docLength() {
+			throw new AssertionError("scored from the document length");
+		}
+
+		public float impact() {
+			return postings.impact();
+		}
+
+		public int nextDoc() {
+			return postings.nextDoc();
+		}
+
+		public int advance(int target) {
+			return postings.advance(target);
+		}
+
+		public long cost() {
+			return postings.cost();
+		}
+
+		public double maxTermFrequency() {
+			return postings.maxTermFrequency();
+		}
+	}
+
+	private static class NoLengthImpacts implements IImpactIterator {
+		private final IImpactIterator postings;
+
+		NoLengthImpacts(IImpactIterator postings) {
+			this.postings = postings;
+		}
+
+		public int docId() {
+			return postings.docId();
+		}
+
+		public int freq() {
+			return postings.freq();
+		}
+
+		public int docLength() {
+			throw new AssertionError("scored from the document length");
+		}
+
+		public float impact() {
+			return postings.impact();
+		}
+
+		public int nextDoc() {
+			return postings.nextDoc();
+		}
+
+		public double maxRemainingTermFrequency() {
+			return postings.maxRemainingTermFrequency();
+		}
+	}
+
+	@Test
+	public void testImpactScoring() throws Exception {
+		index.setImpactBits(16);
+		for (int i = 0; i < 20; i++) {
+			index.pushTermCounter(counter("Extra" + i, "tea", i + 1, "page" + i, 30));
+		}
+		index.flush();
+		// a rare term, so the rounded scores of the pages differ
+		TermWeight weight = new TfIdfSimilarity().weigh(2, 1000, 30);
+
+		// postings with impacts are scored without their document lengths
+		TermScorer scorer = new TermScorer("tea", new NoLengthPostings(index.postings("tea")), weight, null, 0);
+		IPostingIterator postings = index.postings("tea");
+		int n = 0;
+		while (scorer.postings().nextDoc() != IPostingIterator.NO_MORE_DOCS) {
+			postings.nextDoc();
+			assertThat(postings.impact() >= 0, is(true));
+			assertThat(scorer.score(), is(weight.score(postings)));
+			n++;
+		}
+		assertThat(n, is(20));
+
+		IImpactIterator impacts = new NoLengthImpacts(index.impactPostings("tea"));
+		TopKCollector top = new ImpactScorer(scorer, impacts).search(3);
+		assertThat(top.size(), is(3));
+		assertThat(top.ids()[0], is(index.getDocId("Extra19")));
+	}
+
+	@Test
+	public void testBM25Impacts() throws Exception {
+		index.setImpactBits(16);
+		for (int i = 0; i < 20; i++) {
+			index.pushTermCounter(counter("Extra" + i, "tea", i + 1, "page" + i, 30));
+		}
+		index.flush();
+		TermWeight weight = new BM25Similarity().weigh(20, index.getDocumentCount(), 40);
+
+		// the page length is worked out from the impact, so the scores are
+		// as near the exact ones as the impacts are to freq / length
+		IPostingIterator scored = new NoLengthPostings(index.postings("tea"));
+		IPostingIterator postings = index.postings("tea");
+		int n = 0;
+		while (scored.nextDoc() != IPostingIterator.NO_MORE_DOCS) {
+			postings.nextDoc();
+			double exact = weight.score(postings.freq(), postings.docLength());
+			assertThat(Math.abs(weight.score(scored) - exact) <= exact * 0.001, is(true));
+			n++;
+		}
+		assertThat(n, is(20));
+
+		IImpactIterator impacts = new NoLengthImpacts(index.impactPostings("tea"));
+		impacts.nextDoc();
+		assertThat(weight.score(impacts) > 0, is(true));
+	}
+
+	@Test
+	public void testDelete() throws Exception {
+		index.deleteAllKeys();
+		assertThat(index.urlSetKeys().isEmpty(), is(true));
+		assertThat(index.getDocumentCount(), is(0));
+		assertThat(directory.list().length, is(1));
+	}
+}
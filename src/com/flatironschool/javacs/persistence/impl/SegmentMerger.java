@@ -0,0 +1,174 @@
+package com.flatironschool.javacs.persistence.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Merges adjacent segments into one, dropping deleted documents.
+ *
+ * The sources must be in doc id order (as they are in the manifest), so the
+ * merged document table is just the live documents of each source in turn.
+ * Terms are merged one at a time from the sorted dictionaries, so only the
+ * postings of the current term are held in memory. Impacts are not copied
+ * but computed again from the counts and lengths, so sources written with
+ * other impact sizes, or none, merge just the same.
+ */
+class SegmentMerger {
+
+	/**
+	 * A position in the term dictionary of one source.
+	 */
+	private static class Cursor {
+		final int source;
+		final Segment segment;
+		int index = -1;
+		String term;
+
+		Cursor(int source, Segment segment) {
+			this.source = source;
+			this.segment = segment;
+		}
+
+		boolean advance() {
+			if (++index >= segment.termCount())
+				return false;
+			term = segment.term(index);
+			return true;
+		}
+	}
+
+	private SegmentMerger() {
+	}
+
+	/**
+	 * Writes the live documents of `sources` to `file`.
+	 *
+	 * @param sources    segments to merge, oldest first
+	 * @param deletions  the deleted ordinals of each source, as of the start of the merge
+	 * @param file
+	 * @param impactBits  size of the impacts to store, 8, 16 or 0
+	 * @return for each source, the merged ordinal of each of its ordinals, or -1 if it was dropped
+	 * @throws IOException
+	 */
+	static int[][] merge(List<Segment> sources, List<BitSet> deletions, File file, int impactBits)
+			throws IOException {
+		int[][] ordMaps = new int[sources.size()][];
+		int live = 0;
+		for (int s = 0; s < sources.size(); s++) {
+			Segment segment = sources.get(s);
+			BitSet deleted = deletions.get(s);
+			int[] map = new int[segment.docCount()];
+			for (int ord = 0; ord < map.length; ord++) {
+				map[ord] = deleted.get(ord) ? -1 : live++;
+			}
+			ordMaps[s] = map;
+		}
+
+		int[] docIds = new int[live];
+		String[] urls = new String[live];
+		int[] lengths = new int[live];
+		int[] uniqueTerms = new int[live];
+		for (int s = 0; s < sources.size(); s++) {
+			Segment segment = sources.get(s);
+			for (int ord = 0; ord < ordMaps[s].length; ord++) {
+				int target = ordMaps[s][ord];
+				if (target < 0)
+					continue;
+				docIds[target] = segment.docId(ord);
+				urls[target] = segment.url(ord);
+				lengths[target] = segment.docLength(ord);
+				uniqueTerms[target] = segment.uniqueTerms(ord);
+			}
+		}
+
+		PriorityQueue<Cursor> queue = new PriorityQueue<>((a, b) -> {
+			int cmp = Segment.compareTerms(a.term, b.term);
+			// equal terms come out oldest source first, keeping ordinals sorted
+			return cmp != 0 ? cmp : Integer.compare(a.source, b.source);
+		});
+		for (int s = 0; s < sources.size(); s++) {
+			Cursor cursor = new Cursor(s, sources.get(s));
+			if (cursor.advance())
+				queue.add(cursor);
+		}
+
+		PostingsBuilder postings = new PostingsBuilder();
+		try (SegmentWriter writer = new SegmentWriter(file, impactBits)) {
+			writer.writeDocuments(docIds, urls, lengths, uniqueTerms, live);
+			while (!queue.isEmpty()) {
+				String term = queue.peek().term;
+				postings.clear();
+				while (!queue.isEmpty() && queue.peek().term.equals(term)) {
+					Cursor cursor = queue.poll();
+					copyPostings(cursor.segment.postings(cursor.index), cursor.segment.positions(cursor.index),
+							ordMaps[cursor.source], lengths, postings);
+					if (cursor.advance())
+						queue.add(cursor);
+				}
+				// a term used only by deleted documents is dropped
+				if (postings.docFreq() > 0)
+					writer.addTerm(term, postings);
+			}
+			writer.finish();
+		} catch (IOException | RuntimeException e) {
+			file.delete();
+			throw e;
+		}
+		return ordMaps;
+	}
+
+	/**
+	 * Copies the live postings of a term, and their positions if it has
+	 * any; the encoded positions are copied as they are.
+	 */
+	private static void copyPostings(ByteBuffer in, ByteBuffer positions, int[] ordMap, int[] lengths,
+			PostingsBuilder out) {
+		// the positions are mapped, so they are read into an array once
+		byte[] bytes = null;
+		int base = 0;
+		if (positions != null) {
+			base = positions.position();
+			bytes = new byte[positions.remaining()];
+			positions.duplicate().get(bytes);
+		}
+		int ord = 0;
+		while (in.hasRemaining()) {
+			ord += VarInt.read(in);
+			int count = VarInt.read(in);
+			int length = 0;
+			int start = 0;
+			if (positions != null) {
+				length = VarInt.read(positions);
+				start = positions.position();
+				positions.position(start + length);
+			}
+			if (ordMap[ord] >= 0)
+				out.add(ordMap[ord], count, lengths[ordMap[ord]], bytes, start - base, length);
+		}
+	}
+
+	/**
+	 * Returns the merged ordinals of the documents deleted from a source
+	 * while it was being merged.
+	 *
+	 * @param before  deletions the merge started with
+	 * @param after   deletions now
+	 * @param ordMap
+	 * @return
+	 */
+	static int[] newDeletions(BitSet before, BitSet after, int[] ordMap) {
+		BitSet added = (BitSet) after.clone();
+		added.andNot(before);
+		int[] result = new int[added.cardinality()];
+		int n = 0;
+		for (int ord = added.nextSetBit(0); ord >= 0; ord = added.nextSetBit(ord + 1)) {
+			result[n++] = ordMap[ord];
+		}
+		return Arrays.copyOf(result, n);
+	}
+}
@@ -0,0 +1,377 @@
+package com.flatironschool.javacs.persistence.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Writes one immutable segment file, section by section, for
+ * {@link Segment} to map.
+ *
+ * The document table goes first, then the postings of each term in term
+ * order, then their positions, then the term dictionary, the skip pointers
+ * and a footer with the section positions. A term with df postings has
+ * df / SKIP_INTERVAL skip pointers, stored as (ordinal, offset within the
+ * term's postings, offset within its positions) int triples. A term none
+ * of whose postings have positions stores none.
+ * A segment written with impacts follows the postings of each term with
+ * one {@link ImpactCodec} impact per posting, 1 or 2 bytes each, so
+ * scoring a posting needs no lookup of the page length.
+ * Terms with at least {@link #IMPACT_ORDER_MIN_DF} postings then get a
+ * second, impact-ordered copy of them: one block per impact, highest
+ * first, each a varint impact, a varint posting count and the (ordinal
+ * gap, count) varint pairs of its postings in ordinal order. A query for
+ * the term can read its best postings first and stop early.
+ * Because the footer comes last, postings can be streamed straight to disk
+ * and only the dictionary and skip pointers have to be held in memory.
+ * Positions are streamed to a temporary file next to the segment and
+ * copied in after the postings.
+ *
+ * Usage: writeDocuments once, addTerm for each term in
+ * {@link Segment#compareTerms} order, then finish.
+ */
+class SegmentWriter implements Closeable {
+
+	static final int MAGIC = 0x53454731; // "SEG1"
+	static final int VERSION = 6;
+
+	/**
+	 * Ints per term in the TERM_INFO section: offset, length, df, max tf,
+	 * the index of its first skip pointer, the offset and length of its
+	 * positions, and the offset and length of its impact-ordered postings.
+	 */
+	static final int TERM_INFO_INTS = 9;
+
+	/**
+	 * Smallest df at which a term's postings are also stored in impact
+	 * order; rarer terms are cheap to sort when queried.
+	 */
+	static final int IMPACT_ORDER_MIN_DF = 128;
+
+	/** Ints per skip pointer: ordinal, postings offset, positions offset. */
+	static final int SKIP_INTS = 3;
+
+	/** Number of int fields in the footer, excluding the trailing position. */
+	static final int FOOTER_INTS = 16;
+
+	/** Suffix of the file positions are buffered in while writing. */
+	static final String POSITIONS_TEMP_SUFFIX = ".pos.tmp";
+
+	private final File file;
+	private final FileOutputStream fileOut;
+	private final DataOutputStream out;
+	private final File positionsFile;
+	private final DataOutputStream positionsOut;
+	private final int impactBits;
+
+	private int docCount = -1;
+	private int docIdsPos, normsPos, urlOffsetsPos, urlDataPos, urlOrderPos, postingsPos;
+	private long positionsSize = 0;
+	// page lengths, kept to compute impacts
+	private int[] lengths;
+
+	// term dictionary, buffered until finish
+	private byte[][] terms = new byte[64][];
+	private int[] termInfo = new int[64 * TERM_INFO_INTS];
+	private int termCount = 0;
+	private byte[] lastTerm = null;
+	private int[] skips = new int[64];
+	private int skipCount = 0;
+
+	/**
+	 * @param file
+	 * @param impactBits  size of the stored impacts: 8, 16, or 0 for none
+	 * @throws IOException
+	 */
+	SegmentWriter(File file, int impactBits) throws IOException {
+		if (!ImpactCodec.isSupported(impactBits))
+			throw new IllegalArgumentException("impacts must be 0, 8 or 16 bits: " + impactBits);
+		this.impactBits = impactBits;
+		this.file = file;
+		this.fileOut = new FileOutputStream(file);
+		this.out = new DataOutputStream(new BufferedOutputStream(fileOut, 1 << 16));
+		this.positionsFile = new File(file.getPath() + POSITIONS_TEMP_SUFFIX);
+		this.positionsOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(positionsFile),
+				1 << 16));
+	}
+
+	File getFile() {
+		return file;
+	}
+
+	/**
+	 * Writes the document table.
+	 *
+	 * @param docIds       global doc ids, in increasing order
+	 * @param urls         URL of each document
+	 * @param lengths      total term count of each document
+	 * @param uniqueTerms  distinct term count of each document
+	 * @param count        number of documents
+	 * @throws IOException
+	 */
+	void writeDocuments(int[] docIds, String[] urls, int[] lengths, int[] uniqueTerms, int count)
+			throws IOException {
+		if (docCount >= 0)
+			throw new IllegalStateException("documents already written");
+		docCount = count;
+		if (impactBits > 0)
+			this.lengths = Arrays.copyOf(lengths, count);
+
+		docIdsPos = out.size();
+		for (int i = 0; i < count; i++) {
+			if (i > 0 && docIds[i] <= docIds[i - 1])
+				throw new IllegalArgumentException("doc ids out of order at " + i);
+			out.writeInt(docIds[i]);
+		}
+
+		normsPos = out.size();
+		for (int i = 0; i < count; i++) {
+			out.writeInt(lengths[i]);
+			out.writeInt(uniqueTerms[i]);
+		}
+
+		byte[][] encoded = new byte[count][];
+		urlOffsetsPos = out.size();
+		int offset = 0;
+		for (int i = 0; i < count; i++) {
+			encoded[i] = urls[i].getBytes(StandardCharsets.UTF_8);
+			out.writeInt(offset);
+			offset += encoded[i].length;
+		}
+		out.writeInt(offset);
+
+		urlDataPos = out.size();
+		for (int i = 0; i < count; i++) {
+			out.write(encoded[i]);
+		}
+
+		// ordinals sorted by URL, for binary search
+		Integer[] order = new Integer[count];
+		for (int i = 0; i < count; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> Segment.compareBytes(encoded[a], encoded[b]));
+		urlOrderPos = out.size();
+		for (int i = 0; i < count; i++) {
+			out.writeInt(order[i]);
+		}
+
+		postingsPos = out.size();
+	}
+
+	/**
+	 * Appends the postings of one term.
+	 *
+	 * @param term      must sort after the previous term
+	 * @param postings  postings by ordinal
+	 * @throws IOException
+	 */
+	void addTerm(String term, PostingsBuilder postings) throws IOException {
+		if (docCount < 0)
+			throw new IllegalStateException("documents must be written first");
+		byte[] bytes = term.getBytes(StandardCharsets.UTF_8);
+		if (lastTerm != null && Segment.compareBytes(lastTerm, bytes) >= 0)
+			throw new IllegalArgumentException("terms out of order: " + term);
+		lastTerm = bytes;
+
+		if (termCount == terms.length) {
+			terms = Arrays.copyOf(terms, termCount * 2);
+			termInfo = Arrays.copyOf(termInfo, termCount * 2 * TERM_INFO_INTS);
+		}
+		terms[termCount] = bytes;
+		int info = termCount * TERM_INFO_INTS;
+		termInfo[info] = out.size() - postingsPos;
+		termInfo[info + 1] = postings.size();
+		termInfo[info + 2] = postings.docFreq();
+		// rounded up, so the float is still an upper bound
+		float maxTf = Math.nextUp((float) postings.maxTermFrequency());
+		byte[] impacts = null;
+		if (impactBits > 0) {
+			impacts = impacts(postings);
+			// an impact may round up past the exact maximum
+			maxTf = Math.max(maxTf, maxImpact(impacts));
+		}
+		termInfo[info + 3] = Float.floatToIntBits(maxTf);
+		termInfo[info + 4] = skipCount;
+		termInfo[info + 5] = (int) positionsSize;
+		termInfo[info + 6] = postings.positionsSize();
+		termCount++;
+
+		int[] termSkips = postings.skips();
+		int[] positionSkips = postings.positionSkips();
+		int needed = SKIP_INTS * (skipCount + postings.skipCount());
+		if (needed > skips.length)
+			skips = Arrays.copyOf(skips, Math.max(skips.length * 2, needed));
+		for (int i = 0; i < postings.skipCount(); i++) {
+			skips[SKIP_INTS * skipCount] = termSkips[2 * i];
+			skips[SKIP_INTS * skipCount + 1] = termSkips[2 * i + 1];
+			skips[SKIP_INTS * skipCount + 2] = positionSkips[i];
+			skipCount++;
+		}
+
+		out.write(postings.bytes(), 0, postings.size());
+		if (impacts != null)
+			out.write(impacts);
+		if (impacts != null && postings.docFreq() >= IMPACT_ORDER_MIN_DF) {
+			byte[] ordered = impactOrdered(postings);
+			termInfo[info + 7] = out.size() - postingsPos;
+			termInfo[info + 8] = ordered.length;
+			out.write(ordered);
+		}
+		positionsOut.write(postings.positionBytes(), 0, postings.positionsSize());
+		positionsSize += postings.positionsSize();
+		if (positionsSize > Integer.MAX_VALUE)
+			throw new IOException("positions larger than 2 GB: " + file);
+	}
+
+	/**
+	 * Encodes the impact of each posting, high byte first.
+	 */
+	private byte[] impacts(PostingsBuilder postings) {
+		int width = impactBits / 8;
+		byte[] impacts = new byte[postings.docFreq() * width];
+		ByteBuffer in = ByteBuffer.wrap(postings.bytes(), 0, postings.size());
+		int ord = 0;
+		for (int i = 0; in.hasRemaining(); i++) {
+			ord += VarInt.read(in);
+			int impact = ImpactCodec.encode(VarInt.read(in), lengths[ord], impactBits);
+			if (width == 2)
+				impacts[2 * i] = (byte) (impact >>> 8);
+			impacts[width * i + width - 1] = (byte) impact;
+		}
+		return impacts;
+	}
+
+	/**
+	 * Encodes the postings again, grouped into blocks by impact, highest
+	 * first.
+	 */
+	private byte[] impactOrdered(PostingsBuilder postings) {
+		int df = postings.docFreq();
+		int[] ords = new int[df];
+		int[] counts = new int[df];
+		// (levels - impact, index) packed so one sort puts the highest
+		// impact first and keeps ordinal order within it
+		long[] order = new long[df];
+		int levels = (1 << impactBits) - 1;
+		ByteBuffer in = ByteBuffer.wrap(postings.bytes(), 0, postings.size());
+		int ord = 0;
+		for (int i = 0; i < df; i++) {
+			ord += VarInt.read(in);
+			ords[i] = ord;
+			counts[i] = VarInt.read(in);
+			int impact = ImpactCodec.encode(counts[i], lengths[ord], impactBits);
+			order[i] = (long) (levels - impact) << 32 | i;
+		}
+		Arrays.sort(order);
+
+		// at worst every posting is a block of its own
+		byte[] out = new byte[4 * df * VarInt.MAX_BYTES];
+		int size = 0;
+		int start = 0;
+		while (start < df) {
+			int impact = levels - (int) (order[start] >>> 32);
+			int end = start + 1;
+			while (end < df && order[end] >>> 32 == order[start] >>> 32) {
+				end++;
+			}
+			size = VarInt.write(out, size, impact);
+			size = VarInt.write(out, size, end - start);
+			int last = 0;
+			for (int j = start; j < end; j++) {
+				int i = (int) order[j];
+				size = VarInt.write(out, size, j == start ? ords[i] : ords[i] - last);
+				size = VarInt.write(out, size, counts[i]);
+				last = ords[i];
+			}
+			start = end;
+		}
+		return Arrays.copyOf(out, size);
+	}
+
+	private float maxImpact(byte[] impacts) {
+		float[] table = ImpactCodec.decodeTable(impactBits);
+		float max = 0;
+		for (int i = 0; i < impacts.length; i += impactBits / 8) {
+			int impact = impactBits == 8 ? impacts[i] & 0xFF : (impacts[i] & 0xFF) << 8 | (impacts[i + 1] & 0xFF);
+			max = Math.max(max, table[impact]);
+		}
+		return max;
+	}
+
+	/**
+	 * Writes the term dictionary and footer and closes the file.
+	 *
+	 * @throws IOException
+	 */
+	void finish() throws IOException {
+		int positionsPos = out.size();
+		positionsOut.close();
+		Files.copy(positionsFile.toPath(), out);
+		positionsFile.delete();
+
+		int termOffsetsPos = out.size();
+		int offset = 0;
+		for (int i = 0; i < termCount; i++) {
+			out.writeInt(offset);
+			offset += terms[i].length;
+		}
+		out.writeInt(offset);
+
+		int termDataPos = out.size();
+		for (int i = 0; i < termCount; i++) {
+			out.write(terms[i]);
+		}
+
+		int termInfoPos = out.size();
+		for (int i = 0; i < termCount * TERM_INFO_INTS; i++) {
+			out.writeInt(termInfo[i]);
+		}
+
+		int skipsPos = out.size();
+		for (int i = 0; i < SKIP_INTS * skipCount; i++) {
+			out.writeInt(skips[i]);
+		}
+
+		int footerPos = out.size();
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(docCount);
+		out.writeInt(termCount);
+		out.writeInt(docIdsPos);
+		out.writeInt(normsPos);
+		out.writeInt(urlOffsetsPos);
+		out.writeInt(urlDataPos);
+		out.writeInt(urlOrderPos);
+		out.writeInt(postingsPos);
+		out.writeInt(positionsPos);
+		out.writeInt(termOffsetsPos);
+		out.writeInt(termDataPos);
+		out.writeInt(termInfoPos);
+		out.writeInt(skipsPos);
+		out.writeInt(impactBits);
+		out.writeInt(footerPos);
+		// DataOutputStream stops counting at Integer.MAX_VALUE
+		if (out.size() == Integer.MAX_VALUE)
+			throw new IOException("segment larger than 2 GB: " + file);
+
+		// the manifest will point at this file, so it must be on disk first
+		out.flush();
+		fileOut.getFD().sync();
+		out.close();
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.close();
+		positionsOut.close();
+		positionsFile.delete();
+	}
+}
@@ -0,0 +1,87 @@
+package com.flatironschool.javacs.persistence.impl;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.flatironschool.javacs.TermCounter;
+
+/**
+ * The difference between the stored term counts of a page and a freshly
+ * counted version of it, so a re-indexed page only touches the postings
+ * that changed.
+ *
+ * Terms with a count of zero or less are treated as absent.
+ */
+class TermCounterDiff {
+
+	/** Terms that are new or whose count changed, with their new counts. */
+	final Map<String, Integer> changed = new HashMap<String, Integer>();
+
+	/** Terms that were not on the page before. */
+	final Set<String> added = new HashSet<String>();
+
+	/** Terms that are no longer on the page. */
+	final Set<String> removed = new HashSet<String>();
+
+	/** Total number of terms on the new page. */
+	final int length;
+
+	/** Number of distinct terms on the new page. */
+	final int uniqueTerms;
+
+	/**
+	 * @param old  stored counts, or null if the page has not been indexed
+	 * @param tc   new counts
+	 */
+	TermCounterDiff(Map<String, Integer> old, TermCounter tc) {
+		if (old == null)
+			old = Collections.emptyMap();
+
+		int length = 0;
+		int uniqueTerms = 0;
+		for (String term : tc.keySet()) {
+			Integer count = tc.get(term);
+			if (count == null || count <= 0)
+				continue;
+			length += count;
+			uniqueTerms++;
+
+			Integer oldCount = old.get(term);
+			if (oldCount == null || oldCount <= 0)
+				added.add(term);
+			if (!count.equals(oldCount))
+				changed.put(term, count);
+		}
+		for (Map.Entry<String, Integer> entry : old.entrySet()) {
+			Integer count = tc.get(entry.getKey());
+			if (entry.getValue() != null && entry.getValue() > 0 && (count == null || count <= 0))
+				removed.add(entry.getKey());
+		}
+		this.length = length;
+		this.uniqueTerms = uniqueTerms;
+	}
+
+	/**
+	 * Returns true if the page is unchanged.
+	 */
+	boolean isEmpty() {
+		return changed.isEmpty() && removed.isEmpty();
+	}
+
+	/**
+	 * Parses the string counts of a Redis hash.
+	 *
+	 * @param hash
+	 * @return
+	 */
+	static Map<String, Integer> parseCounts(Map<String, String> hash) {
+		Map<String, Integer> counts = new HashMap<String, Integer>();
+		for (Map.Entry<String, String> entry : hash.entrySet()) {
+			counts.put(entry.getKey(), Integer.valueOf(entry.getValue()));
+		}
+		return counts;
+	}
+}
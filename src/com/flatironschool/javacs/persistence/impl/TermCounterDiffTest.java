@@ -0,0 +1,75 @@
+package com.flatironschool.javacs.persistence.impl;
+
+import static com.flatironschool.javacs.persistence.impl.TestCounters.counter;
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class TermCounterDiffTest {
+
+	private static Map<String, Integer> counts(Object... termsAndCounts) {
+		Map<String, Integer> map = new HashMap<String, Integer>();
+		for (int i = 0; i < termsAndCounts.length; i += 2) {
+			map.put((String) termsAndCounts[i], (Integer) termsAndCounts[i + 1]);
+		}
+		return map;
+	}
+
+	@Test
+	public void testNewPage() {
+		TermCounterDiff diff = new TermCounterDiff(null, counter("Page1", "java", 3, "coffee", 1));
+		assertThat(diff.changed, is(counts("java", 3, "coffee", 1)));
+		assertThat(diff.added, is(new HashSet<String>(diff.changed.keySet())));
+		assertThat(diff.removed.isEmpty(), is(true));
+		assertThat(diff.length, is(4));
+		assertThat(diff.uniqueTerms, is(2));
+		assertThat(diff.isEmpty(), is(false));
+	}
+
+	@Test
+	public void testChangedPage() {
+		Map<String, Integer> old = counts("java", 3, "coffee", 1, "island", 2);
+		TermCounterDiff diff = new TermCounterDiff(old, counter("Page1", "java", 4, "coffee", 1, "tea", 2));
+
+		// only the terms whose count moved are written
+		assertThat(diff.changed, is(counts("java", 4, "tea", 2)));
+		assertThat(diff.added, is(Collections.singleton("tea")));
+		assertThat(diff.removed, is(Collections.singleton("island")));
+		assertThat(diff.length, is(7));
+		assertThat(diff.uniqueTerms, is(3));
+	}
+
+	@Test
+	public void testUnchangedPage() {
+		Map<String, Integer> old = counts("java", 3, "coffee", 1);
+		TermCounterDiff diff = new TermCounterDiff(old, counter("Page1", "coffee", 1, "java", 3));
+		assertThat(diff.isEmpty(), is(true));
+		assertThat(diff.length, is(4));
+	}
+
+	@Test
+	public void testZeroCounts() {
+		// a zero count is the same as no count, on either side
+		Map<String, Integer> old = counts("java", 3, "coffee", 0);
+		TermCounterDiff diff = new TermCounterDiff(old, counter("Page1", "java", 0, "coffee", 2));
+		assertThat(diff.changed, is(counts("coffee", 2)));
+		assertThat(diff.added, is(Collections.singleton("coffee")));
+		assertThat(diff.removed, is(Collections.singleton("java")));
+		assertThat(diff.uniqueTerms, is(1));
+	}
+
+	@Test
+	public void testParseCounts() {
+		Map<String, String> hash = new HashMap<String, String>();
+		hash.put("java", "3");
+		hash.put("coffee", "12");
+		assertThat(TermCounterDiff.parseCounts(hash), is(counts("java", 3, "coffee", 12)));
+		assertThat(TermCounterDiff.parseCounts(Collections.<String, String>emptyMap()).isEmpty(), is(true));
+	}
+}
@@ -0,0 +1,28 @@
+package com.flatironschool.javacs.persistence.impl;
+
+import com.flatironschool.javacs.TermCounter;
+
+/**
+ * Builds the small pages the index backend tests push.
+ */
+final class TestCounters {
+
+	private TestCounters() {
+	}
+
+	/**
+	 * Makes a counter from alternating terms and counts, such as
+	 * counter("Page1", "java", 3, "coffee", 1).
+	 *
+	 * @param url
+	 * @param termsAndCounts
+	 * @return
+	 */
+	static TermCounter counter(String url, Object... termsAndCounts) {
+		TermCounter tc = new TermCounter(url);
+		for (int i = 0; i < termsAndCounts.length; i += 2) {
+			tc.put((String) termsAndCounts[i], (Integer) termsAndCounts[i + 1]);
+		}
+		return tc;
+	}
+}
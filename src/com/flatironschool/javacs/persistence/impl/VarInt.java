@@ -0,0 +1,82 @@
+package com.flatironschool.javacs.persistence.impl;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Variable-length encoding for non-negative ints: seven bits per byte, low
+ * bits first, with the high bit set on every byte except the last.
+ *
+ * Small values (doc id gaps, term counts) take a single byte.
+ */
+public final class VarInt {
+
+	/** The most bytes an encoded int can take. */
+	public static final int MAX_BYTES = 5;
+
+	private VarInt() {
+	}
+
+	/**
+	 * Writes `value` into `buf` starting at `pos`.
+	 *
+	 * The caller must make sure there are at least MAX_BYTES free bytes.
+	 *
+	 * @param buf
+	 * @param pos
+	 * @param value
+	 * @return Position after the last byte written.
+	 */
+	public static int write(byte[] buf, int pos, int value) {
+		while ((value & ~0x7F) != 0) {
+			buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buf[pos++] = (byte) value;
+		return pos;
+	}
+
+	/**
+	 * Writes `value` at the current position of `buf`.
+	 *
+	 * @param buf
+	 * @param value
+	 */
+	public static void write(ByteBuffer buf, int value) {
+		while ((value & ~0x7F) != 0) {
+			buf.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buf.put((byte) value);
+	}
+
+	/**
+	 * Reads an int from the current position of `buf`.
+	 *
+	 * @param buf
+	 * @return
+	 */
+	public static int read(ByteBuffer buf) {
+		int b = buf.get();
+		int value = b & 0x7F;
+		for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+			b = buf.get();
+			value |= (b & 0x7F) << shift;
+		}
+		return value;
+	}
+
+	/**
+	 * Returns the number of bytes needed to encode `value`.
+	 *
+	 * @param value
+	 * @return
+	 */
+	public static int size(int value) {
+		int size = 1;
+		while ((value & ~0x7F) != 0) {
+			value >>>= 7;
+			size++;
+		}
+		return size;
+	}
+}
@@ -0,0 +1,18 @@
+package com.flatironschool.javacs.persistence.interfaces;
+
+/**
+ * Implemented by indexes that can hand out the postings of a term in
+ * impact order, for queries that only want the top k documents of one
+ * term.
+ */
+public interface IImpactIndex {
+
+	 /**
+	  * Returns the live postings of `term` from the highest term frequency
+	  * down; empty if the term is not indexed.
+	  * 
+	  * @param term
+	  * @return
+	  */
+	 public IImpactIterator impactPostings (String term);
+}
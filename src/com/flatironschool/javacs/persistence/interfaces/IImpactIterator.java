@@ -0,0 +1,48 @@
+package com.flatironschool.javacs.persistence.interfaces;
+
+/**
+ * Iterates over the postings of one term from the highest term frequency
+ * down, rather than in doc id order, so a query can score the best
+ * documents first and stop once the rest cannot beat them.
+ *
+ * An iterator starts before its first posting: call nextDoc() before
+ * reading docId(), freq(), docLength() or impact().
+ */
+public interface IImpactIterator {
+
+	/**
+	 * Returns the current doc id, -1 before the first call to nextDoc(), or
+	 * IPostingIterator.NO_MORE_DOCS at the end.
+	 */
+	public int docId();
+
+	/**
+	 * Returns how many times the term appears in the current document.
+	 */
+	public int freq();
+
+	/**
+	 * Returns the total number of terms in the current document.
+	 */
+	public int docLength();
+
+	/**
+	 * Returns freq() / docLength() as quantized at index time, or -1 if the
+	 * postings were indexed without impacts.
+	 */
+	public float impact();
+
+	/**
+	 * Moves to the next posting in impact order, whose doc id may be lower
+	 * than the last.
+	 *
+	 * @return the new doc id, or IPostingIterator.NO_MORE_DOCS
+	 */
+	public int nextDoc();
+
+	/**
+	 * Returns an upper bound on freq() / docLength() over the postings
+	 * after the current one, or 0 if there are none.
+	 */
+	public double maxRemainingTermFrequency();
+}
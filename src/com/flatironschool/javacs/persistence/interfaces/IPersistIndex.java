@@ -1,6 +1,8 @@
 package com.flatironschool.javacs.persistence.interfaces;
 
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -11,16 +13,75 @@ public interface IPersistIndex {
 
 	 public boolean isIndexed (String url);
 	 
+	 /**
+	  * Returns every URL that contains `term` at once. To stop early, or
+	  * only count them, walk postings() instead.
+	  */
 	 public Set<String> getUrls (String term);
 	 
+	 /**
+	  * Returns every URL that contains `term` with its count at once. To
+	  * stop early, walk postings() instead.
+	  */
 	 public Map<String, Double> getUrlToTermCount (String term);
 	 
 	 public double getTotalTermCount (String url);
 	 
+	 public int getUniqueTermCount (String url);
+	 
+	 /**
+	  * Looks up the total term count of many documents in one call.
+	  * 
+	  * @param urls
+	  * @return Map from URL to total term count; unknown URLs are left out.
+	  */
+	 public Map<String, Double> getTotalTermCounts (Collection<String> urls);
+	 
+	 /**
+	  * Returns the number of documents in the index.
+	  */
+	 public int getDocumentCount ();
+	 
+	 /**
+	  * Returns the number of documents that contain `term`.
+	  */
+	 public int getDocumentFrequency (String term);
+	 
+	 /**
+	  * Returns the mean number of terms per document.
+	  */
+	 public double getAverageDocumentLength ();
+	 
 	 public Integer getCount (String url, String term);
 	 
+	 /**
+	  * Returns the postings of `term` in doc id order; empty if the term is
+	  * not indexed.
+	  * 
+	  * Doc ids are ints assigned by the index when a page is first pushed.
+	  */
+	 public IPostingIterator postings (String term);
+	 
+	 /**
+	  * Returns the doc id of a page, or -1 if it is not indexed.
+	  */
+	 public int getDocId (String url);
+	 
+	 /**
+	  * Returns the URL of a doc id, or null if there is no such document.
+	  */
+	 public String getUrl (int docId);
+	 
 	 public void pushTermCounter (TermCounter tc);
 	 
+	 /**
+	  * Pushes many pages at once; backends that talk to a server use this to
+	  * cut round trips.
+	  * 
+	  * @param tcs
+	  */
+	 public void pushTermCounters (Collection<TermCounter> tcs);
+	 
 	 public Set<String> urlSetKeys();
 	 
 	 public void deleteURLSets();
@@ -31,5 +92,19 @@ public interface IPersistIndex {
 	 
 	 public Set<String> termCounterKeys();
 	 
+	 /**
+	  * Iterates over the indexed terms without loading them all at once.
+	  * 
+	  * Backends that page through a server may return a term more than once.
+	  */
+	 public Iterator<String> termIterator();
+	 
+	 /**
+	  * Iterates over the indexed URLs without loading them all at once.
+	  * 
+	  * Backends that page through a server may return a URL more than once.
+	  */
+	 public Iterator<String> urlIterator();
+	 
 	 	 
 }
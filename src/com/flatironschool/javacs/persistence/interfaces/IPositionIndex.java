@@ -0,0 +1,23 @@
+package com.flatironschool.javacs.persistence.interfaces;
+
+/**
+ * Implemented by indexes that can keep where each term appears in a page,
+ * for phrase and proximity queries.
+ * 
+ * Positions are stored apart from the postings, so queries that only need
+ * counts never read them. They are looked up one page at a time, for the
+ * few pages that already contain every term of a phrase.
+ */
+public interface IPositionIndex {
+
+	 /**
+	  * Returns the word positions of `term` in a page, in increasing order,
+	  * or null if the term is not on the page or the page was indexed
+	  * without positions.
+	  * 
+	  * @param term
+	  * @param docId
+	  * @return
+	  */
+	 public int[] positions (String term, int docId);
+}
@@ -0,0 +1,66 @@
+package com.flatironschool.javacs.persistence.interfaces;
+
+/**
+ * Iterates over the postings of one term in increasing doc id order.
+ * 
+ * An iterator starts before its first document: call nextDoc() or
+ * advance() before reading docId(), freq() or docLength().
+ */
+public interface IPostingIterator {
+
+	/**
+	 * Doc id returned once the postings are exhausted. It is larger than any
+	 * real doc id, so exhausted iterators sort last.
+	 */
+	public static final int NO_MORE_DOCS = Integer.MAX_VALUE;
+
+	/**
+	 * Returns the current doc id, -1 before the first call to nextDoc() or
+	 * advance(), or NO_MORE_DOCS at the end.
+	 */
+	public int docId();
+
+	/**
+	 * Returns how many times the term appears in the current document.
+	 */
+	public int freq();
+
+	/**
+	 * Returns the total number of terms in the current document.
+	 */
+	public int docLength();
+
+	/**
+	 * Returns freq() / docLength() as quantized at index time, or -1 if the
+	 * postings were indexed without impacts.
+	 */
+	public float impact();
+
+	/**
+	 * Moves to the next document.
+	 * 
+	 * @return the new doc id, or NO_MORE_DOCS
+	 */
+	public int nextDoc();
+
+	/**
+	 * Moves to the first document whose id is at least `target`. Does not
+	 * move backwards.
+	 * 
+	 * @param target
+	 * @return the new doc id, or NO_MORE_DOCS
+	 */
+	public int advance(int target);
+
+	/**
+	 * Returns the number of documents this iterator will visit, or an
+	 * upper bound on it.
+	 */
+	public long cost();
+
+	/**
+	 * Returns an upper bound on freq() / docLength() over all the documents
+	 * of this iterator, for pruning.
+	 */
+	public double maxTermFrequency();
+}
@@ -0,0 +1,86 @@
+package com.flatironschool.javacs.query;
+
+import com.flatironschool.javacs.persistence.interfaces.IImpactIterator;
+import com.flatironschool.javacs.persistence.interfaces.IPostingIterator;
+
+/**
+ * Okapi BM25: a count saturates with k1, and is measured against the page
+ * length relative to the average as much as b says.
+ *
+ *     score = idf * freq * (k1 + 1) / (freq + k1 * (1 - b + b * length / avgdl))
+ *     idf   = log(1 + (N - df + 0.5) / (df + 0.5))
+ *
+ * The length norm k1 * (1 - b + b * length / avgdl) is folded into two
+ * constants per term, so a page costs a multiply-add on the length its
+ * posting already carries. Postings indexed with impacts carry
+ * freq / length, so the length is taken as freq / impact instead of being
+ * looked up. Scores are not rounded, so pages rarely tie.
+ */
+public class BM25Similarity implements Similarity {
+
+	public static final double DEFAULT_K1 = 1.2;
+	public static final double DEFAULT_B = 0.75;
+
+	private final double k1;
+	private final double b;
+
+	public BM25Similarity() {
+		this(DEFAULT_K1, DEFAULT_B);
+	}
+
+	/**
+	 * @param k1  how slowly a count saturates, usually 1.2 to 2
+	 * @param b   how much page length matters, from 0 to 1
+	 */
+	public BM25Similarity(double k1, double b) {
+		if (k1 < 0 || b < 0 || b > 1)
+			throw new IllegalArgumentException("need k1 >= 0 and 0 <= b <= 1: k1=" + k1 + ", b=" + b);
+		this.k1 = k1;
+		this.b = b;
+	}
+
+	@Override
+	public TermWeight weigh(int docFreq, int documentCount, double averageDocumentLength) {
+		double idf = Math.log(1 + (documentCount - docFreq + 0.5) / (docFreq + 0.5));
+		double weight = idf * (k1 + 1);
+		// norm(length) = base + perTerm * length
+		double base = k1 * (1 - b);
+		double perTerm = averageDocumentLength > 0 ? k1 * b / averageDocumentLength : 0;
+		return new TermWeight() {
+			@Override
+			public double score(int freq, int length) {
+				return freq == 0 ? 0 : weight * freq / (freq + base + perTerm * length);
+			}
+
+			@Override
+			public double score(IPostingIterator postings) {
+				float impact = postings.impact();
+				return impact <= 0 ? super.score(postings) : scoreImpact(postings.freq(), impact);
+			}
+
+			@Override
+			public double score(IImpactIterator postings) {
+				float impact = postings.impact();
+				return impact <= 0 ? super.score(postings) : scoreImpact(postings.freq(), impact);
+			}
+
+			private double scoreImpact(int freq, float impact) {
+				return freq == 0 ? 0 : weight * freq / (freq + base + perTerm * freq / impact);
+			}
+
+			@Override
+			public double maxScore(double maxTermFrequency) {
+				// with freq = tf * length the score only grows with length,
+				// and tends to this
+				if (maxTermFrequency <= 0)
+					return 0;
+				return weight * maxTermFrequency / (maxTermFrequency + perTerm);
+			}
+		};
+	}
+
+	@Override
+	public String toString() {
+		return "BM25(k1=" + k1 + ", b=" + b + ")";
+	}
+}
@@ -0,0 +1,132 @@
+package com.flatironschool.javacs.query;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+import com.flatironschool.javacs.TopKCollector;
+import com.flatironschool.javacs.persistence.interfaces.IPostingIterator;
+
+/**
+ * Finds the top k documents that contain every term of an AND query by
+ * intersecting posting lists in doc id order.
+ *
+ * The rarest term leads: each of its documents is looked up in the other
+ * lists, from rarest to most common, with advance(). When a list has no
+ * such document the lead jumps ahead to wherever that list landed instead.
+ * advance() gallops or follows skip pointers, so the work is bounded by the
+ * length of the rarest list rather than the sum of all of them.
+ *
+ * The score of a document is the sum of the scores of its terms, which is
+ * what WikiSearch.and computes.
+ */
+public class ConjunctionScorer {
+
+	private final TermScorer[] scorers;
+	private long matches = 0;
+
+	public ConjunctionScorer(List<TermScorer> scorers) {
+		this.scorers = scorers.toArray(new TermScorer[scorers.size()]);
+		Arrays.sort(this.scorers, Comparator.comparingLong(scorer -> scorer.postings().cost()));
+	}
+
+	/**
+	 * Runs the query.
+	 * 
+	 * @param k  number of documents to keep
+	 * @return the top k doc ids and scores
+	 */
+	public TopKCollector search(int k) {
+		TopKCollector collector = new TopKCollector(k);
+		intersect(collector, null, null);
+		return collector;
+	}
+
+	/**
+	 * Runs the query and keeps every match, for combining with other
+	 * clauses.
+	 * 
+	 * @return
+	 */
+	public ScoredDocs matches() {
+		return matches(null);
+	}
+
+	/**
+	 * Runs the query and keeps every match that passes a check, such as
+	 * the positions of a phrase. The check only sees documents that
+	 * contain every term.
+	 * 
+	 * @param accept  decides on each match by doc id, or null to keep all
+	 * @return
+	 */
+	public ScoredDocs matches(IntPredicate accept) {
+		ScoredDocs.Builder builder = new ScoredDocs.Builder(scorers.length == 0 ? 0 : scorers[0].postings().cost());
+		intersect(null, builder, accept);
+		return builder.build();
+	}
+
+	/**
+	 * Counts the matches that pass a check without keeping them.
+	 * 
+	 * @param accept  decides on each match by doc id, or null to count all
+	 * @return
+	 */
+	public long count(IntPredicate accept) {
+		intersect(null, null, accept);
+		return matches;
+	}
+
+	/**
+	 * Walks the intersection, handing each match that `accept` takes to
+	 * whichever of the collector and builder is not null; with neither,
+	 * matches are only counted.
+	 */
+	private void intersect(TopKCollector collector, ScoredDocs.Builder builder, IntPredicate accept) {
+		matches = 0;
+		if (scorers.length == 0)
+			return;
+
+		IPostingIterator lead = scorers[0].postings();
+		int doc = lead.nextDoc();
+		outer:
+		while (doc != IPostingIterator.NO_MORE_DOCS) {
+			for (int i = 1; i < scorers.length; i++) {
+				int other = scorers[i].postings().advance(doc);
+				if (other > doc) {
+					doc = lead.advance(other);
+					continue outer;
+				}
+			}
+
+			if (accept != null && !accept.test(doc)) {
+				doc = lead.nextDoc();
+				continue;
+			}
+
+			matches++;
+			if (collector != null || builder != null) {
+				double score = 0;
+				for (TermScorer scorer : scorers) {
+					score += scorer.score();
+				}
+				if (collector != null)
+					collector.offer(doc, score);
+				else
+					builder.add(doc, score);
+			}
+			doc = lead.nextDoc();
+		}
+	}
+
+	/**
+	 * Returns the number of documents that matched every term in the last
+	 * search.
+	 * 
+	 * @return
+	 */
+	public long getMatchCount() {
+		return matches;
+	}
+}
@@ -0,0 +1,67 @@
+package com.flatironschool.javacs.query;
+
+import com.flatironschool.javacs.TopKCollector;
+import com.flatironschool.javacs.persistence.interfaces.IImpactIterator;
+import com.flatironschool.javacs.persistence.interfaces.IPostingIterator;
+
+/**
+ * Finds the top k documents of a one-term query score-at-a-time, reading
+ * the postings of the term in impact order.
+ *
+ * Before each posting the scorer bounds what the rest could score from
+ * the highest term frequency left. Once k documents are held and that
+ * bound cannot beat the lowest of them, it stops, so a common term costs
+ * about k postings rather than its df. Scores are those of TermScorer, so
+ * the results match scoring every posting.
+ */
+public class ImpactScorer {
+
+	// the sum of rounded scores can come out a little above the bound
+	private static final double EPSILON = 1e-9;
+
+	private final TermScorer scorer;
+	private final IImpactIterator postings;
+	private long scored = 0;
+
+	/**
+	 * @param scorer    scores the documents of the term
+	 * @param postings  postings of the term in impact order, not yet started
+	 */
+	public ImpactScorer(TermScorer scorer, IImpactIterator postings) {
+		this.scorer = scorer;
+		this.postings = postings;
+	}
+
+	/**
+	 * Runs the query.
+	 * 
+	 * @param k  number of documents to keep
+	 * @return the top k doc ids and scores
+	 */
+	public TopKCollector search(int k) {
+		TopKCollector collector = new TopKCollector(k);
+		scored = 0;
+		if (k == 0)
+			return collector;
+
+		while (true) {
+			if (collector.isFull()
+					&& scorer.maxScore(postings.maxRemainingTermFrequency()) + EPSILON <= collector.threshold())
+				break;
+			if (postings.nextDoc() == IPostingIterator.NO_MORE_DOCS)
+				break;
+			scored++;
+			collector.offer(postings.docId(), scorer.score(postings));
+		}
+		return collector;
+	}
+
+	/**
+	 * Returns the number of documents scored by the last search.
+	 * 
+	 * @return
+	 */
+	public long getScoredCount() {
+		return scored;
+	}
+}
@@ -0,0 +1,238 @@
+package com.flatironschool.javacs.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * A parsed boolean query: a tree of terms, wildcards, quoted phrases, NEAR,
+ * AND, OR and NOT.
+ *
+ * Queries say what matches, not how to find it; QueryPlanner decides that.
+ * toString() writes a query back out fully parenthesized, so two queries
+ * with the same string match the same pages.
+ */
+public abstract class Query {
+
+	/**
+	 * Adds the terms of this query to `terms`, in order, repeats included.
+	 */
+	abstract void collectTerms(List<String> terms);
+
+	/**
+	 * Returns every term in the query, in order, repeats included.
+	 *
+	 * @return
+	 */
+	public List<String> terms() {
+		List<String> terms = new ArrayList<>();
+		collectTerms(terms);
+		return terms;
+	}
+
+	/**
+	 * Returns this query with each wildcard replaced by an OR of the terms
+	 * it matches. A wildcard that matches nothing becomes an empty OR,
+	 * which matches nothing.
+	 *
+	 * @param expander  returns the indexed terms that match a pattern
+	 * @return
+	 */
+	public Query expandWildcards(Function<String, List<String>> expander) {
+		return this;
+	}
+
+	/**
+	 * A term with * standing for any run of characters and ? for any one
+	 * character, such as java* or c?t. It must start with a character, so
+	 * expanding it only reads the terms with that prefix.
+	 */
+	public static class Wildcard extends Query {
+		public final String pattern;
+
+		/**
+		 * @param pattern
+		 * @throws IllegalArgumentException if the pattern starts with a
+		 *                                  wildcard
+		 */
+		public Wildcard(String pattern) {
+			if (pattern.isEmpty() || pattern.charAt(0) == '*' || pattern.charAt(0) == '?')
+				throw new IllegalArgumentException("a wildcard must not start with * or ?: " + pattern);
+			this.pattern = pattern;
+		}
+
+		@Override
+		void collectTerms(List<String> terms) {
+			// it has no terms until it is expanded
+		}
+
+		@Override
+		public Query expandWildcards(Function<String, List<String>> expander) {
+			List<Query> terms = new ArrayList<>();
+			for (String term : expander.apply(pattern)) {
+				terms.add(new Term(term));
+			}
+			return terms.size() == 1 ? terms.get(0) : new Or(terms);
+		}
+
+		@Override
+		public String toString() {
+			return pattern;
+		}
+	}
+
+	public static class Term extends Query {
+		public final String term;
+
+		public Term(String term) {
+			this.term = term;
+		}
+
+		@Override
+		void collectTerms(List<String> terms) {
+			terms.add(term);
+		}
+
+		@Override
+		public String toString() {
+			return term;
+		}
+	}
+
+	/**
+	 * Terms that must appear next to each other, in order.
+	 */
+	public static class Phrase extends Query {
+		public final List<String> terms;
+
+		public Phrase(List<String> terms) {
+			this.terms = Collections.unmodifiableList(new ArrayList<>(terms));
+		}
+
+		@Override
+		void collectTerms(List<String> terms) {
+			terms.addAll(this.terms);
+		}
+
+		@Override
+		public String toString() {
+			return "\"" + String.join(" ", terms) + "\"";
+		}
+	}
+
+	/**
+	 * Terms that must all appear within `distance` positions of each other,
+	 * in any order.
+	 */
+	public static class Near extends Query {
+		public final List<String> terms;
+		public final int distance;
+
+		public Near(List<String> terms, int distance) {
+			this.terms = Collections.unmodifiableList(new ArrayList<>(terms));
+			this.distance = distance;
+		}
+
+		@Override
+		void collectTerms(List<String> terms) {
+			terms.addAll(this.terms);
+		}
+
+		@Override
+		public String toString() {
+			return "(" + String.join(" NEAR/" + distance + " ", terms) + ")";
+		}
+	}
+
+	public static class And extends Query {
+		public final List<Query> clauses;
+
+		public And(List<Query> clauses) {
+			this.clauses = Collections.unmodifiableList(new ArrayList<>(clauses));
+		}
+
+		@Override
+		void collectTerms(List<String> terms) {
+			for (Query clause : clauses) {
+				clause.collectTerms(terms);
+			}
+		}
+
+		@Override
+		public Query expandWildcards(Function<String, List<String>> expander) {
+			return new And(expandAll(clauses, expander));
+		}
+
+		@Override
+		public String toString() {
+			return join(clauses, " AND ");
+		}
+	}
+
+	public static class Or extends Query {
+		public final List<Query> clauses;
+
+		public Or(List<Query> clauses) {
+			this.clauses = Collections.unmodifiableList(new ArrayList<>(clauses));
+		}
+
+		@Override
+		void collectTerms(List<String> terms) {
+			for (Query clause : clauses) {
+				clause.collectTerms(terms);
+			}
+		}
+
+		@Override
+		public Query expandWildcards(Function<String, List<String>> expander) {
+			return new Or(expandAll(clauses, expander));
+		}
+
+		@Override
+		public String toString() {
+			return join(clauses, " OR ");
+		}
+	}
+
+	public static class Not extends Query {
+		public final Query clause;
+
+		public Not(Query clause) {
+			this.clause = clause;
+		}
+
+		@Override
+		void collectTerms(List<String> terms) {
+			clause.collectTerms(terms);
+		}
+
+		@Override
+		public Query expandWildcards(Function<String, List<String>> expander) {
+			return new Not(clause.expandWildcards(expander));
+		}
+
+		@Override
+		public String toString() {
+			return "NOT " + clause;
+		}
+	}
+
+	private static List<Query> expandAll(List<Query> clauses, Function<String, List<String>> expander) {
+		List<Query> expanded = new ArrayList<>();
+		for (Query clause : clauses) {
+			expanded.add(clause.expandWildcards(expander));
+		}
+		return expanded;
+	}
+
+	private static String join(List<Query> clauses, String operator) {
+		StringBuilder buffer = new StringBuilder("(");
+		for (int i = 0; i < clauses.size(); i++) {
+			if (i > 0)
+				buffer.append(operator);
+			buffer.append(clauses.get(i));
+		}
+		return buffer.append(')').toString();
+	}
+}
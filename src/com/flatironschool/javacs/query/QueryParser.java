@@ -0,0 +1,213 @@
+package com.flatironschool.javacs.query;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Parses query expressions such as
+ *
+ *     java AND (language OR platform) NOT "coffee bean"
+ *     java NEAR/5 virtual
+ *     jav* OR c?ffee
+ *
+ * AND, OR, NOT and NEAR must be in capitals; in any other case they are
+ * terms. Terms next to each other are ANDed, AND binds tighter than OR,
+ * NOT tighter than AND, and NEAR/k, which joins plain terms, tightest.
+ * Terms are lower-cased, since pages are indexed that way. A term with *
+ * or ? in it is a wildcard; it may not start with one, or be used in
+ * phrases or with NEAR.
+ */
+public class QueryParser {
+
+	private static final String AND = "AND";
+	private static final String OR = "OR";
+	private static final String NOT = "NOT";
+	private static final String NEAR = "NEAR/";
+
+	private final String input;
+	private int pos = 0;
+
+	private QueryParser(String input) {
+		this.input = input;
+	}
+
+	/**
+	 * Parses a query expression.
+	 *
+	 * @param input
+	 * @return
+	 * @throws IllegalArgumentException if the expression is malformed
+	 */
+	public static Query parse(String input) {
+		QueryParser parser = new QueryParser(input);
+		Query query = parser.parseOr();
+		parser.skipSpace();
+		if (parser.pos < input.length())
+			throw parser.error("unexpected '" + input.charAt(parser.pos) + "'");
+		return query;
+	}
+
+	private Query parseOr() {
+		List<Query> clauses = new ArrayList<>();
+		clauses.add(parseAnd());
+		while (nextKeyword(OR)) {
+			clauses.add(parseAnd());
+		}
+		return clauses.size() == 1 ? clauses.get(0) : new Query.Or(clauses);
+	}
+
+	private Query parseAnd() {
+		List<Query> clauses = new ArrayList<>();
+		clauses.add(parseNot());
+		while (true) {
+			if (nextKeyword(AND)) {
+				clauses.add(parseNot());
+			} else if (startsClause()) {
+				clauses.add(parseNot());
+			} else {
+				break;
+			}
+		}
+		return clauses.size() == 1 ? clauses.get(0) : new Query.And(clauses);
+	}
+
+	private Query parseNot() {
+		if (nextKeyword(NOT))
+			return new Query.Not(parseNot());
+		return parsePrimary();
+	}
+
+	private Query parsePrimary() {
+		skipSpace();
+		if (pos == input.length())
+			throw error("expected a term");
+		char c = input.charAt(pos);
+		if (c == '(') {
+			pos++;
+			Query query = parseOr();
+			skipSpace();
+			if (pos == input.length() || input.charAt(pos) != ')')
+				throw error("expected ')'");
+			pos++;
+			return query;
+		}
+		if (c == '"') {
+			int end = input.indexOf('"', pos + 1);
+			if (end < 0)
+				throw error("unclosed '\"'");
+			String text = input.substring(pos + 1, end).trim().toLowerCase();
+			pos = end + 1;
+			if (text.isEmpty())
+				throw error("empty phrase");
+			if (isWildcard(text))
+				throw error("wildcards cannot be used in phrases");
+			List<String> terms = Arrays.asList(text.split("\\s+"));
+			return terms.size() == 1 ? new Query.Term(terms.get(0)) : new Query.Phrase(terms);
+		}
+		String word = peekWord();
+		if (word.isEmpty())
+			throw error("unexpected '" + c + "'");
+		if (isKeyword(word))
+			throw error("expected a term before " + word);
+		String term = word.toLowerCase();
+		if (isWildcard(term)) {
+			if (term.charAt(0) == '*' || term.charAt(0) == '?')
+				throw error("a wildcard must not start with " + term.charAt(0));
+			pos += word.length();
+			skipSpace();
+			if (isNear(peekWord()))
+				throw error("wildcards cannot be used with NEAR");
+			return new Query.Wildcard(term);
+		}
+		pos += word.length();
+
+		skipSpace();
+		if (!isNear(peekWord()))
+			return new Query.Term(term);
+		List<String> terms = new ArrayList<>();
+		terms.add(term);
+		int distance = -1;
+		while (isNear(peekWord())) {
+			String near = peekWord();
+			int k = Integer.parseInt(near.substring(NEAR.length()));
+			if (distance >= 0 && k != distance)
+				throw error("NEAR distances in a chain must match");
+			distance = k;
+			pos += near.length();
+			skipSpace();
+			String next = peekWord();
+			if (next.isEmpty() || isKeyword(next))
+				throw error("expected a term after " + near);
+			if (isWildcard(next))
+				throw error("wildcards cannot be used with NEAR");
+			pos += next.length();
+			terms.add(next.toLowerCase());
+			skipSpace();
+		}
+		return new Query.Near(terms, distance);
+	}
+
+	/**
+	 * Returns true if the next token can start a clause, which makes it an
+	 * implicit AND.
+	 */
+	private boolean startsClause() {
+		skipSpace();
+		if (pos == input.length())
+			return false;
+		char c = input.charAt(pos);
+		if (c == '(' || c == '"')
+			return true;
+		String word = peekWord();
+		return !word.isEmpty() && (!isKeyword(word) || word.equals(NOT));
+	}
+
+	private boolean nextKeyword(String keyword) {
+		skipSpace();
+		if (!peekWord().equals(keyword))
+			return false;
+		pos += keyword.length();
+		return true;
+	}
+
+	private String peekWord() {
+		int end = pos;
+		while (end < input.length()) {
+			char c = input.charAt(end);
+			if (Character.isWhitespace(c) || c == '(' || c == ')' || c == '"')
+				break;
+			end++;
+		}
+		return input.substring(pos, end);
+	}
+
+	/**
+	 * Returns true if a word has a * or ? in it.
+	 *
+	 * @param word
+	 * @return
+	 */
+	public static boolean isWildcard(String word) {
+		return word.indexOf('*') >= 0 || word.indexOf('?') >= 0;
+	}
+
+	private static boolean isKeyword(String word) {
+		return word.equals(AND) || word.equals(OR) || word.equals(NOT) || isNear(word);
+	}
+
+	private static boolean isNear(String word) {
+		return word.startsWith(NEAR) && word.length() > NEAR.length() && word.length() <= NEAR.length() + 6
+				&& word.substring(NEAR.length()).chars().allMatch(Character::isDigit);
+	}
+
+	private void skipSpace() {
+		while (pos < input.length() && Character.isWhitespace(input.charAt(pos))) {
+			pos++;
+		}
+	}
+
+	private IllegalArgumentException error(String message) {
+		return new IllegalArgumentException(message + " at position " + pos + " of: " + input);
+	}
+}
@@ -0,0 +1,445 @@
+package com.flatironschool.javacs.query;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.flatironschool.javacs.TopKCollector;
+import com.flatironschool.javacs.persistence.interfaces.IPostingIterator;
+
+/**
+ * How to run a query, as made by QueryPlanner: an operator tree whose
+ * clauses are already in the order they will run, each with an estimated
+ * cost in postings.
+ *
+ * Scores add up the way WikiSearch.and and or do; excluded documents
+ * keep the score they had.
+ */
+public abstract class QueryPlan {
+
+	/**
+	 * Returns the estimated number of documents this clause produces.
+	 *
+	 * @return
+	 */
+	public abstract long cost();
+
+	/**
+	 * Finds every matching document.
+	 *
+	 * @param source
+	 * @return
+	 */
+	public abstract ScoredDocs execute(TermSource source);
+
+	/**
+	 * Finds the k best matching documents.
+	 *
+	 * @param k
+	 * @param source
+	 * @return
+	 */
+	public TopKCollector search(int k, TermSource source) {
+		return execute(source).top(k);
+	}
+
+	/**
+	 * Counts the matching documents. Clauses that can walk their postings
+	 * without scoring or keeping the matches do so.
+	 *
+	 * @param source
+	 * @return
+	 */
+	public long count(TermSource source) {
+		return execute(source).size();
+	}
+
+	/**
+	 * Matches nothing, such as a term that is not in the index.
+	 */
+	public static class Empty extends QueryPlan {
+		static final Empty INSTANCE = new Empty();
+
+		@Override
+		public long cost() {
+			return 0;
+		}
+
+		@Override
+		public ScoredDocs execute(TermSource source) {
+			return ScoredDocs.empty();
+		}
+
+		@Override
+		public long count(TermSource source) {
+			return 0;
+		}
+
+		@Override
+		public String toString() {
+			return "EMPTY";
+		}
+	}
+
+	public static class Term extends QueryPlan {
+		public final String term;
+		private final long cost;
+
+		Term(String term, long cost) {
+			this.term = term;
+			this.cost = cost;
+		}
+
+		@Override
+		public long cost() {
+			return cost;
+		}
+
+		@Override
+		public ScoredDocs execute(TermSource source) {
+			return ScoredDocs.score(source.scorer(term));
+		}
+
+		@Override
+		public long count(TermSource source) {
+			IPostingIterator postings = source.scorer(term).postings();
+			long count = 0;
+			while (postings.nextDoc() != IPostingIterator.NO_MORE_DOCS) {
+				count++;
+			}
+			return count;
+		}
+
+		/**
+		 * Reads the postings best first if the index has them in impact
+		 * order, so only about k of them are scored. When k covers them
+		 * all they are scored in doc id order, which is cheaper.
+		 */
+		@Override
+		public TopKCollector search(int k, TermSource source) {
+			ImpactScorer scorer = k < cost ? source.impactScorer(term) : null;
+			if (scorer == null)
+				return super.search(k, source);
+			return scorer.search(k);
+		}
+
+		@Override
+		public String toString() {
+			return term + "[" + cost + "]";
+		}
+	}
+
+	/**
+	 * Documents where some terms appear in a pattern of positions.
+	 *
+	 * The documents that contain every term are found first, by the same
+	 * leapfrogging intersection as an AND; only those have their positions
+	 * read. A document whose positions were not kept is let through, as if
+	 * this were an AND.
+	 */
+	public abstract static class Positional extends QueryPlan {
+		// in query order
+		public final List<Term> terms;
+
+		Positional(List<Term> terms) {
+			this.terms = Collections.unmodifiableList(new ArrayList<>(terms));
+		}
+
+		@Override
+		public long cost() {
+			long cost = Long.MAX_VALUE;
+			for (Term term : terms) {
+				cost = Math.min(cost, term.cost());
+			}
+			return cost;
+		}
+
+		@Override
+		public ScoredDocs execute(TermSource source) {
+			List<TermScorer> termScorers = new ArrayList<>();
+			for (Term term : terms) {
+				termScorers.add(source.scorer(term.term));
+			}
+			return new ConjunctionScorer(termScorers).matches(docId -> matches(source, docId));
+		}
+
+		@Override
+		public long count(TermSource source) {
+			List<TermScorer> termScorers = new ArrayList<>();
+			for (Term term : terms) {
+				termScorers.add(source.scorer(term.term));
+			}
+			return new ConjunctionScorer(termScorers).count(docId -> matches(source, docId));
+		}
+
+		/**
+		 * Reads the positions of the terms in a document that contains them
+		 * all and checks them.
+		 */
+		private boolean matches(TermSource source, int docId) {
+			int[][] positions = new int[terms.size()][];
+			for (int i = 0; i < positions.length; i++) {
+				positions[i] = source.positions(terms.get(i).term, docId);
+				if (positions[i] == null)
+					return true;
+				if (positions[i].length == 0)
+					return false;
+			}
+			return matches(positions);
+		}
+
+		/**
+		 * Checks the positions of the terms, in query order, in one
+		 * document.
+		 */
+		abstract boolean matches(int[][] positions);
+
+		String join(String separator) {
+			StringBuilder buffer = new StringBuilder();
+			for (int i = 0; i < terms.size(); i++) {
+				buffer.append(i > 0 ? separator : "").append(terms.get(i));
+			}
+			return buffer.toString();
+		}
+	}
+
+	/**
+	 * Documents where the terms appear in order, each at its offset from the
+	 * first. The offsets are consecutive unless stop words were left out.
+	 */
+	public static class Phrase extends Positional {
+		// where each term is in the phrase, counting from the first
+		private final int[] offsets;
+
+		Phrase(List<Term> terms, int[] offsets) {
+			super(terms);
+			this.offsets = new int[offsets.length];
+			for (int i = 0; i < offsets.length; i++) {
+				this.offsets[i] = offsets[i] - offsets[0];
+			}
+		}
+
+		@Override
+		boolean matches(int[][] positions) {
+			// anchor on the first term and look the others up at their offsets
+			for (int start : positions[0]) {
+				int i = 1;
+				while (i < positions.length && Arrays.binarySearch(positions[i], start + offsets[i]) >= 0) {
+					i++;
+				}
+				if (i == positions.length)
+					return true;
+			}
+			return false;
+		}
+
+		@Override
+		public String toString() {
+			return "PHRASE(" + join(", ") + ")";
+		}
+	}
+
+	/**
+	 * Documents where the terms all appear, in any order, within a window
+	 * of `distance` positions.
+	 */
+	public static class Near extends Positional {
+		public final int distance;
+
+		Near(List<Term> terms, int distance) {
+			super(terms);
+			this.distance = distance;
+		}
+
+		@Override
+		boolean matches(int[][] positions) {
+			// slide a window over the merged lists: the smallest position
+			// in view moves on until some window is narrow enough
+			int[] next = new int[positions.length];
+			while (true) {
+				int min = 0;
+				int max = Integer.MIN_VALUE;
+				for (int i = 0; i < positions.length; i++) {
+					int position = positions[i][next[i]];
+					if (position < positions[min][next[min]])
+						min = i;
+					max = Math.max(max, position);
+				}
+				if (max - positions[min][next[min]] <= distance)
+					return true;
+				if (++next[min] == positions[min].length)
+					return false;
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "NEAR/" + distance + "(" + join(", ") + ")";
+		}
+	}
+
+	/**
+	 * Documents that match every required clause and no excluded one.
+	 *
+	 * Plain terms are intersected together, leapfrogging from the rarest;
+	 * the other clauses then run rarest first, and the exclusions last, as
+	 * filters. Nothing more runs once the result is empty.
+	 */
+	public static class Intersect extends QueryPlan {
+		public final List<Term> terms;
+		public final List<QueryPlan> required;
+		public final List<QueryPlan> excluded;
+
+		Intersect(List<Term> terms, List<QueryPlan> required, List<QueryPlan> excluded) {
+			this.terms = Collections.unmodifiableList(new ArrayList<>(terms));
+			this.required = Collections.unmodifiableList(new ArrayList<>(required));
+			this.excluded = Collections.unmodifiableList(new ArrayList<>(excluded));
+		}
+
+		@Override
+		public long cost() {
+			long cost = Long.MAX_VALUE;
+			for (Term term : terms) {
+				cost = Math.min(cost, term.cost());
+			}
+			for (QueryPlan clause : required) {
+				cost = Math.min(cost, clause.cost());
+			}
+			return cost;
+		}
+
+		@Override
+		public ScoredDocs execute(TermSource source) {
+			ScoredDocs result = null;
+			if (!terms.isEmpty()) {
+				List<TermScorer> termScorers = new ArrayList<>();
+				for (Term term : terms) {
+					termScorers.add(source.scorer(term.term));
+				}
+				result = new ConjunctionScorer(termScorers).matches();
+			}
+			for (QueryPlan clause : required) {
+				if (result != null && result.size() == 0)
+					return result;
+				ScoredDocs docs = clause.execute(source);
+				result = result == null ? docs : result.and(docs);
+			}
+			for (QueryPlan clause : excluded) {
+				if (result.size() == 0)
+					return result;
+				result = result.minus(clause.execute(source));
+			}
+			return result;
+		}
+
+		@Override
+		public long count(TermSource source) {
+			if (!required.isEmpty() || !excluded.isEmpty())
+				return super.count(source);
+			List<TermScorer> termScorers = new ArrayList<>();
+			for (Term term : terms) {
+				termScorers.add(source.scorer(term.term));
+			}
+			return new ConjunctionScorer(termScorers).count(null);
+		}
+
+		@Override
+		public String toString() {
+			List<Object> clauses = new ArrayList<>();
+			clauses.addAll(terms);
+			clauses.addAll(required);
+			StringBuilder buffer = new StringBuilder("AND(");
+			for (int i = 0; i < clauses.size(); i++) {
+				buffer.append(i > 0 ? ", " : "").append(clauses.get(i));
+			}
+			for (QueryPlan clause : excluded) {
+				buffer.append(", NOT ").append(clause);
+			}
+			return buffer.append(")").toString();
+		}
+	}
+
+	/**
+	 * Documents that match any clause.
+	 *
+	 * When every clause is a plain term the top k are found with WAND
+	 * instead of scoring every match.
+	 */
+	public static class Union extends QueryPlan {
+		public final List<QueryPlan> clauses;
+
+		Union(List<QueryPlan> clauses) {
+			this.clauses = Collections.unmodifiableList(new ArrayList<>(clauses));
+		}
+
+		@Override
+		public long cost() {
+			long cost = 0;
+			for (QueryPlan clause : clauses) {
+				cost += clause.cost();
+			}
+			return cost;
+		}
+
+		@Override
+		public ScoredDocs execute(TermSource source) {
+			ScoredDocs result = ScoredDocs.empty();
+			for (QueryPlan clause : clauses) {
+				result = result.or(clause.execute(source));
+			}
+			return result;
+		}
+
+		@Override
+		public TopKCollector search(int k, TermSource source) {
+			for (QueryPlan clause : clauses) {
+				if (!(clause instanceof Term))
+					return super.search(k, source);
+			}
+			List<TermScorer> termScorers = new ArrayList<>();
+			for (QueryPlan clause : clauses) {
+				termScorers.add(source.scorer(((Term) clause).term));
+			}
+			return new WandScorer(termScorers).search(k);
+		}
+
+		/**
+		 * When every clause is a plain term, walks their postings together
+		 * in doc id order and counts each document once.
+		 */
+		@Override
+		public long count(TermSource source) {
+			IPostingIterator[] postings = new IPostingIterator[clauses.size()];
+			for (int i = 0; i < postings.length; i++) {
+				if (!(clauses.get(i) instanceof Term))
+					return super.count(source);
+				postings[i] = source.scorer(((Term) clauses.get(i)).term).postings();
+				postings[i].nextDoc();
+			}
+			long count = 0;
+			while (true) {
+				int doc = IPostingIterator.NO_MORE_DOCS;
+				for (IPostingIterator clause : postings) {
+					doc = Math.min(doc, clause.docId());
+				}
+				if (doc == IPostingIterator.NO_MORE_DOCS)
+					return count;
+				count++;
+				for (IPostingIterator clause : postings) {
+					if (clause.docId() == doc)
+						clause.nextDoc();
+				}
+			}
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder buffer = new StringBuilder("OR(");
+			for (int i = 0; i < clauses.size(); i++) {
+				buffer.append(i > 0 ? ", " : "").append(clauses.get(i));
+			}
+			return buffer.append(")").toString();
+		}
+	}
+}
@@ -0,0 +1,221 @@
+package com.flatironschool.javacs.query;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.function.ToIntFunction;
+
+/**
+ * Compiles a Query into a QueryPlan using the document frequency of each
+ * term as its cost.
+ *
+ * Nested ANDs and ORs are flattened, double negatives cancel, and clauses
+ * with a term that is not in the index are pruned before any postings are
+ * read. An AND runs its clauses rarest first and applies its NOTs last, as
+ * filters on what the other clauses matched.
+ *
+ * Phrases and NEARs become positional clauses, which an AND runs after its
+ * plain terms, so positions are only read for pages that have every term.
+ * Stop words are not indexed, so they are dropped from phrases and NEARs;
+ * a phrase still counts the place they take between the other words.
+ */
+public class QueryPlanner {
+
+	private final ToIntFunction<String> docFreq;
+	private final Set<String> stopWords;
+
+	/**
+	 * @param docFreq  looks up the document frequency of a term
+	 */
+	public QueryPlanner(ToIntFunction<String> docFreq) {
+		this(docFreq, Collections.<String>emptySet());
+	}
+
+	/**
+	 * @param docFreq    looks up the document frequency of a term
+	 * @param stopWords  words left out when the pages were indexed
+	 */
+	public QueryPlanner(ToIntFunction<String> docFreq, Set<String> stopWords) {
+		this.docFreq = docFreq;
+		this.stopWords = stopWords;
+	}
+
+	/**
+	 * Plans a query.
+	 *
+	 * @param query
+	 * @return
+	 * @throws IllegalArgumentException if a NOT is not inside an AND with
+	 *                                  some clause to filter, since every
+	 *                                  other page would match it
+	 */
+	public QueryPlan plan(Query query) {
+		if (query instanceof Query.Not)
+			throw new IllegalArgumentException("NOT needs another clause to filter: " + query);
+		if (query instanceof Query.Term)
+			return planTerm(((Query.Term) query).term);
+		if (query instanceof Query.Phrase)
+			return planPhrase(((Query.Phrase) query).terms);
+		if (query instanceof Query.Near)
+			return planNear((Query.Near) query);
+		if (query instanceof Query.And)
+			return planAnd(((Query.And) query).clauses);
+		if (query instanceof Query.Or)
+			return planOr(((Query.Or) query).clauses);
+		throw new IllegalArgumentException("unknown query: " + query);
+	}
+
+	private QueryPlan planTerm(String term) {
+		int df = docFreq.applyAsInt(term);
+		return df == 0 ? QueryPlan.Empty.INSTANCE : new QueryPlan.Term(term, df);
+	}
+
+	private QueryPlan planPhrase(List<String> words) {
+		List<String> kept = new ArrayList<>();
+		int[] offsets = new int[words.size()];
+		for (int i = 0; i < words.size(); i++) {
+			if (!stopWords.contains(words.get(i))) {
+				offsets[kept.size()] = i;
+				kept.add(words.get(i));
+			}
+		}
+		List<QueryPlan.Term> terms = planTerms(kept);
+		if (terms == null)
+			return QueryPlan.Empty.INSTANCE;
+		return terms.size() == 1 ? terms.get(0) : new QueryPlan.Phrase(terms, Arrays.copyOf(offsets, kept.size()));
+	}
+
+	private QueryPlan planNear(Query.Near near) {
+		List<String> kept = new ArrayList<>();
+		for (String word : near.terms) {
+			if (!stopWords.contains(word))
+				kept.add(word);
+		}
+		List<QueryPlan.Term> terms = planTerms(kept);
+		if (terms == null)
+			return QueryPlan.Empty.INSTANCE;
+		return terms.size() == 1 ? terms.get(0) : new QueryPlan.Near(terms, near.distance);
+	}
+
+	/**
+	 * Plans each word as a term, or returns null if one is not in the index
+	 * or there are none.
+	 */
+	private List<QueryPlan.Term> planTerms(List<String> words) {
+		if (words.isEmpty())
+			return null;
+		List<QueryPlan.Term> terms = new ArrayList<>();
+		for (String word : words) {
+			QueryPlan plan = planTerm(word);
+			if (plan instanceof QueryPlan.Empty)
+				return null;
+			terms.add((QueryPlan.Term) plan);
+		}
+		return terms;
+	}
+
+	private QueryPlan planAnd(List<Query> clauses) {
+		List<Query> positive = new ArrayList<>();
+		List<Query> negative = new ArrayList<>();
+		flattenAnd(clauses, positive, negative);
+		if (positive.isEmpty())
+			throw new IllegalArgumentException("NOT needs another clause to filter: " + new Query.And(clauses));
+
+		List<QueryPlan.Term> terms = new ArrayList<>();
+		List<QueryPlan> required = new ArrayList<>();
+		for (Query clause : positive) {
+			QueryPlan plan = plan(clause);
+			// one clause that matches nothing empties the whole AND
+			if (plan instanceof QueryPlan.Empty)
+				return plan;
+			if (plan instanceof QueryPlan.Term)
+				terms.add((QueryPlan.Term) plan);
+			else if (plan instanceof QueryPlan.Intersect)
+				// an OR may have planned down to an AND
+				merge((QueryPlan.Intersect) plan, terms, required);
+			else
+				required.add(plan);
+		}
+
+		List<QueryPlan> excluded = new ArrayList<>();
+		for (Query clause : negative) {
+			QueryPlan plan = plan(clause);
+			if (!(plan instanceof QueryPlan.Empty))
+				excluded.add(plan);
+		}
+
+		if (terms.size() == 1 && required.isEmpty() && excluded.isEmpty())
+			return terms.get(0);
+		if (terms.isEmpty() && required.size() == 1 && excluded.isEmpty())
+			return required.get(0);
+
+		terms.sort(Comparator.comparingLong(QueryPlan::cost));
+		required.sort(Comparator.comparingLong(QueryPlan::cost));
+		// the biggest exclusion first, so later ones have less to filter
+		excluded.sort(Comparator.comparingLong(QueryPlan::cost).reversed());
+		return new QueryPlan.Intersect(terms, required, excluded);
+	}
+
+	/**
+	 * Splits the clauses of an AND, and of any AND nested in it, into
+	 * required and excluded ones. NOT NOT x is required.
+	 */
+	private static void flattenAnd(List<Query> clauses, List<Query> positive, List<Query> negative) {
+		for (Query clause : clauses) {
+			boolean negated = false;
+			while (clause instanceof Query.Not) {
+				negated = !negated;
+				clause = ((Query.Not) clause).clause;
+			}
+			if (negated) {
+				negative.add(clause);
+			} else if (clause instanceof Query.And) {
+				flattenAnd(((Query.And) clause).clauses, positive, negative);
+			} else {
+				positive.add(clause);
+			}
+		}
+	}
+
+	/**
+	 * Adds the clauses of an AND nested under another to the outer one,
+	 * unless it has exclusions of its own, which only apply to it.
+	 */
+	private static void merge(QueryPlan.Intersect plan, List<QueryPlan.Term> terms, List<QueryPlan> required) {
+		if (!plan.excluded.isEmpty()) {
+			required.add(plan);
+			return;
+		}
+		terms.addAll(plan.terms);
+		required.addAll(plan.required);
+	}
+
+	private QueryPlan planOr(List<Query> clauses) {
+		List<Query> flat = new ArrayList<>();
+		flattenOr(clauses, flat);
+		List<QueryPlan> plans = new ArrayList<>();
+		for (Query clause : flat) {
+			QueryPlan plan = plan(clause);
+			// a clause that matches nothing adds nothing
+			if (!(plan instanceof QueryPlan.Empty))
+				plans.add(plan);
+		}
+		if (plans.isEmpty())
+			return QueryPlan.Empty.INSTANCE;
+		if (plans.size() == 1)
+			return plans.get(0);
+		return new QueryPlan.Union(plans);
+	}
+
+	private static void flattenOr(List<Query> clauses, List<Query> flat) {
+		for (Query clause : clauses) {
+			if (clause instanceof Query.Or)
+				flattenOr(((Query.Or) clause).clauses, flat);
+			else
+				flat.add(clause);
+		}
+	}
+}
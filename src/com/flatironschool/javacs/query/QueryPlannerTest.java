@@ -0,0 +1,40 @@
+package com.flatironschool.javacs.query;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class QueryPlannerTest {
+
+	private static final Set<String> STOP_WORDS = new HashSet<>(Arrays.asList("of", "the"));
+
+	// stop words are never indexed, so they have no document frequency
+	private final QueryPlanner planner = new QueryPlanner(term -> STOP_WORDS.contains(term) ? 0 : 10, STOP_WORDS);
+
+	@Test
+	public void testPhraseWithStopWords() {
+		QueryPlan plan = planner.plan(QueryParser.parse("\"united states of america\""));
+		assertThat(plan, instanceOf(QueryPlan.Phrase.class));
+		QueryPlan.Phrase phrase = (QueryPlan.Phrase) plan;
+		assertThat(phrase.terms.size(), is(3));
+
+		// america is one place further on for the stop word between
+		assertThat(phrase.matches(new int[][] { { 5 }, { 6 }, { 8 } }), is(true));
+		assertThat(phrase.matches(new int[][] { { 5 }, { 6 }, { 7 } }), is(false));
+
+		// a phrase of stop words has nothing to look for
+		assertThat(planner.plan(QueryParser.parse("\"of the\"")), instanceOf(QueryPlan.Empty.class));
+	}
+
+	@Test
+	public void testNearWithStopWords() {
+		QueryPlan plan = planner.plan(QueryParser.parse("java NEAR/3 the NEAR/3 island"));
+		assertThat(plan, instanceOf(QueryPlan.Near.class));
+		assertThat(((QueryPlan.Near) plan).terms.size(), is(2));
+	}
+}
@@ -0,0 +1,13 @@
+package com.flatironschool.javacs.query;
+
+/**
+ * Thrown when a query runs past its deadline.
+ */
+public class QueryTimeoutException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public QueryTimeoutException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,248 @@
+package com.flatironschool.javacs.query;
+
+import java.util.Arrays;
+
+import com.flatironschool.javacs.TopKCollector;
+import com.flatironschool.javacs.persistence.interfaces.IPostingIterator;
+
+/**
+ * An immutable set of scored documents, kept as parallel int and double
+ * arrays sorted by doc id.
+ *
+ * Because both sides are sorted, or, and and minus are single merges that
+ * allocate two primitive arrays, with no boxing and no hashing. URLs are
+ * only needed once the top k are known.
+ */
+public class ScoredDocs {
+
+	private static final ScoredDocs EMPTY = new ScoredDocs(new int[0], new double[0], 0);
+
+	private final int[] docIds;
+	private final double[] scores;
+	private final int size;
+
+	private ScoredDocs(int[] docIds, double[] scores, int size) {
+		this.docIds = docIds;
+		this.scores = scores;
+		this.size = size;
+	}
+
+	public static ScoredDocs empty() {
+		return EMPTY;
+	}
+
+	/**
+	 * Scores every posting of a term.
+	 *
+	 * @param scorer  not yet started
+	 * @return
+	 */
+	public static ScoredDocs score(TermScorer scorer) {
+		IPostingIterator postings = scorer.postings();
+		Builder builder = new Builder(postings.cost());
+		for (int doc = postings.nextDoc(); doc != IPostingIterator.NO_MORE_DOCS; doc = postings.nextDoc()) {
+			builder.add(doc, scorer.score());
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Collects the hits of a TopKCollector, which come best first.
+	 *
+	 * @param collector
+	 * @return
+	 */
+	public static ScoredDocs of(TopKCollector collector) {
+		int[] ids = collector.ids();
+		double[] best = collector.scores();
+		// pack (doc id, rank) to sort by doc id with one primitive sort
+		long[] order = new long[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			order[i] = ((long) ids[i] << 32) | i;
+		}
+		Arrays.sort(order);
+		int[] docIds = new int[ids.length];
+		double[] scores = new double[ids.length];
+		for (int i = 0; i < order.length; i++) {
+			docIds[i] = (int) (order[i] >>> 32);
+			scores[i] = best[(int) order[i]];
+		}
+		return new ScoredDocs(docIds, scores, ids.length);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int docId(int index) {
+		return docIds[index];
+	}
+
+	public double score(int index) {
+		return scores[index];
+	}
+
+	/**
+	 * Returns the position of a doc id, or a negative number if it is not
+	 * here.
+	 *
+	 * @param docId
+	 * @return
+	 */
+	public int indexOf(int docId) {
+		return Arrays.binarySearch(docIds, 0, size, docId);
+	}
+
+	/**
+	 * Documents in either set; a document in both gets the sum of its
+	 * scores.
+	 *
+	 * @param that
+	 * @return
+	 */
+	public ScoredDocs or(ScoredDocs that) {
+		int[] ids = new int[this.size + that.size];
+		double[] sums = new double[ids.length];
+		int i = 0;
+		int j = 0;
+		int n = 0;
+		while (i < this.size && j < that.size) {
+			int a = this.docIds[i];
+			int b = that.docIds[j];
+			if (a < b) {
+				ids[n] = a;
+				sums[n++] = this.scores[i++];
+			} else if (a > b) {
+				ids[n] = b;
+				sums[n++] = that.scores[j++];
+			} else {
+				ids[n] = a;
+				sums[n++] = this.scores[i++] + that.scores[j++];
+			}
+		}
+		for (; i < this.size; i++, n++) {
+			ids[n] = this.docIds[i];
+			sums[n] = this.scores[i];
+		}
+		for (; j < that.size; j++, n++) {
+			ids[n] = that.docIds[j];
+			sums[n] = that.scores[j];
+		}
+		return new ScoredDocs(ids, sums, n);
+	}
+
+	/**
+	 * Documents in both sets, scored with the sum of their scores.
+	 *
+	 * @param that
+	 * @return
+	 */
+	public ScoredDocs and(ScoredDocs that) {
+		// walk the smaller set and seek in the larger one
+		ScoredDocs small = this.size <= that.size ? this : that;
+		ScoredDocs large = small == this ? that : this;
+		int[] ids = new int[small.size];
+		double[] sums = new double[small.size];
+		int n = 0;
+		int from = 0;
+		for (int i = 0; i < small.size && from < large.size; i++) {
+			int j = large.seek(small.docIds[i], from);
+			if (j < large.size && large.docIds[j] == small.docIds[i]) {
+				ids[n] = small.docIds[i];
+				sums[n++] = small.scores[i] + large.scores[j];
+			}
+			from = j;
+		}
+		return new ScoredDocs(ids, sums, n);
+	}
+
+	/**
+	 * Documents in this set but not in that one, with their scores here.
+	 *
+	 * @param that
+	 * @return
+	 */
+	public ScoredDocs minus(ScoredDocs that) {
+		int[] ids = new int[this.size];
+		double[] kept = new double[this.size];
+		int n = 0;
+		int from = 0;
+		for (int i = 0; i < this.size; i++) {
+			from = that.seek(this.docIds[i], from);
+			if (from < that.size && that.docIds[from] == this.docIds[i])
+				continue;
+			ids[n] = this.docIds[i];
+			kept[n++] = this.scores[i];
+		}
+		return new ScoredDocs(ids, kept, n);
+	}
+
+	/**
+	 * Returns the k best documents.
+	 *
+	 * @param k
+	 * @return
+	 */
+	public TopKCollector top(int k) {
+		TopKCollector collector = new TopKCollector(Math.min(k, size));
+		for (int i = 0; i < size; i++) {
+			collector.offer(docIds[i], scores[i]);
+		}
+		return collector;
+	}
+
+	/**
+	 * Collects documents that are added in increasing doc id order.
+	 */
+	static class Builder {
+		private int[] docIds;
+		private double[] scores;
+		private int size = 0;
+
+		/**
+		 * @param expected  likely number of documents
+		 */
+		Builder(long expected) {
+			int capacity = (int) Math.min(Math.max(expected, 1), Integer.MAX_VALUE - 8);
+			docIds = new int[capacity];
+			scores = new double[capacity];
+		}
+
+		void add(int docId, double score) {
+			if (size == docIds.length) {
+				docIds = Arrays.copyOf(docIds, size + (size >> 1) + 1);
+				scores = Arrays.copyOf(scores, docIds.length);
+			}
+			docIds[size] = docId;
+			scores[size++] = score;
+		}
+
+		ScoredDocs build() {
+			return new ScoredDocs(docIds, scores, size);
+		}
+	}
+
+	/**
+	 * Returns the position of the first doc id at least `docId`, starting
+	 * from `from`. Gallops, so walking a long list in small hops is cheap.
+	 */
+	private int seek(int docId, int from) {
+		if (from >= size || docIds[from] >= docId)
+			return from;
+		int lo = from;
+		int step = 1;
+		while (lo + step < size && docIds[lo + step] < docId) {
+			lo += step;
+			step <<= 1;
+		}
+		int hi = Math.min(lo + step, size);
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (docIds[mid] < docId)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+}
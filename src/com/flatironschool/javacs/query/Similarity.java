@@ -0,0 +1,21 @@
+package com.flatironschool.javacs.query;
+
+/**
+ * A scoring model: how much a page that contains a term scores for it.
+ *
+ * Everything that depends only on the term and the index, such as its idf,
+ * is worked out once by weigh(); the TermWeight it returns then scores
+ * each page from its count and length alone.
+ */
+public interface Similarity {
+
+	/**
+	 * Weighs a term.
+	 *
+	 * @param docFreq                number of pages that contain the term
+	 * @param documentCount          number of pages in the index
+	 * @param averageDocumentLength  average number of terms in a page
+	 * @return
+	 */
+	public TermWeight weigh(int docFreq, int documentCount, double averageDocumentLength);
+}
@@ -0,0 +1,126 @@
+package com.flatironschool.javacs.query;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+import com.flatironschool.javacs.persistence.interfaces.IPostingIterator;
+
+/**
+ * Looks up the document frequency and postings of every query term at the
+ * same time, so a search against a remote index waits about as long as its
+ * slowest term instead of the sum of all of them.
+ *
+ * Fetches run on a shared pool of daemon threads. The caller gets to do
+ * its own lookups, such as corpus statistics, while they run.
+ */
+public class TermFetcher {
+
+	/**
+	 * Default time a query may spend fetching its terms.
+	 */
+	public static final long DEFAULT_TIMEOUT_MILLIS = 10000;
+
+	private static final int THREADS = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+
+	private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(THREADS, r -> {
+		Thread thread = new Thread(r, "term-fetch");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * What was fetched for one term.
+	 */
+	public static class Term {
+		public final String term;
+		public final int docFreq;
+		// null if the term is not in the index
+		public final IPostingIterator postings;
+
+		Term(String term, int docFreq, IPostingIterator postings) {
+			this.term = term;
+			this.docFreq = docFreq;
+			this.postings = postings;
+		}
+	}
+
+	private final ToIntFunction<String> docFreq;
+	private final Function<String, IPostingIterator> postings;
+	private final List<Future<Term>> pending = new ArrayList<>();
+	private final long deadline;
+
+	/**
+	 * Starts fetching the terms.
+	 *
+	 * @param terms
+	 * @param docFreq        looks up the document frequency of a term
+	 * @param postings       looks up the postings of a term
+	 * @param timeoutMillis  time allowed for all of the fetches
+	 */
+	public TermFetcher(List<String> terms, ToIntFunction<String> docFreq, Function<String, IPostingIterator> postings,
+			long timeoutMillis) {
+		this.docFreq = docFreq;
+		this.postings = postings;
+		this.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		// one term gains nothing from another thread
+		if (terms.size() > 1) {
+			for (String term : terms) {
+				pending.add(EXECUTOR.submit(() -> fetch(term)));
+			}
+		} else {
+			for (String term : terms) {
+				pending.add(CompletableFuture.completedFuture(fetch(term)));
+			}
+		}
+	}
+
+	private Term fetch(String term) {
+		int df = docFreq.applyAsInt(term);
+		return new Term(term, df, df == 0 ? null : postings.apply(term));
+	}
+
+	/**
+	 * Waits for the fetches and returns them in the order of the terms.
+	 *
+	 * @return
+	 * @throws QueryTimeoutException if the deadline passes first; the
+	 *                               fetches still running are cancelled
+	 */
+	public List<Term> get() {
+		List<Term> result = new ArrayList<>();
+		try {
+			for (Future<Term> future : pending) {
+				long remaining = deadline - System.nanoTime();
+				result.add(future.get(Math.max(remaining, 0), TimeUnit.NANOSECONDS));
+			}
+			return result;
+		} catch (TimeoutException e) {
+			cancel();
+			throw new QueryTimeoutException("term lookups did not finish in time");
+		} catch (InterruptedException e) {
+			cancel();
+			Thread.currentThread().interrupt();
+			throw new QueryTimeoutException("interrupted while looking up terms");
+		} catch (ExecutionException e) {
+			cancel();
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	private void cancel() {
+		for (Future<Term> future : pending) {
+			future.cancel(true);
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package com.flatironschool.javacs.query;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.flatironschool.javacs.persistence.impl.ArrayPostingIterator;
+
+public class TermFetcherTest {
+
+	@Test
+	public void testOrder() {
+		TermFetcher fetcher = new TermFetcher(Arrays.asList("java", "missing", "coffee"),
+				term -> term.equals("missing") ? 0 : term.length(), term -> ArrayPostingIterator.empty(),
+				TermFetcher.DEFAULT_TIMEOUT_MILLIS);
+		List<TermFetcher.Term> terms = fetcher.get();
+		assertThat(terms.get(0).term, is("java"));
+		assertThat(terms.get(0).docFreq, is(4));
+		// a term that is not in the index has no postings to fetch
+		assertThat(terms.get(1).postings, is(nullValue()));
+		assertThat(terms.get(2).docFreq, is(6));
+	}
+
+	@Test
+	public void testTimeout() throws Exception {
+		CountDownLatch never = new CountDownLatch(1);
+		CountDownLatch started = new CountDownLatch(2);
+		CountDownLatch interrupted = new CountDownLatch(2);
+		TermFetcher fetcher = new TermFetcher(Arrays.asList("java", "slow1", "slow2"), term -> {
+			if (term.startsWith("slow")) {
+				started.countDown();
+				try {
+					never.await();
+				} catch (InterruptedException e) {
+					interrupted.countDown();
+				}
+			}
+			return 1;
+		}, term -> ArrayPostingIterator.empty(), 100);
+		assertThat(started.await(5, TimeUnit.SECONDS), is(true));
+
+		try {
+			fetcher.get();
+			fail("fetches outlived the deadline");
+		} catch (QueryTimeoutException e) {
+			// expected
+		}
+		// the lookups still running were cancelled
+		assertThat(interrupted.await(5, TimeUnit.SECONDS), is(true));
+	}
+
+	@Test
+	public void testException() throws Exception {
+		CountDownLatch never = new CountDownLatch(1);
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch interrupted = new CountDownLatch(1);
+		TermFetcher fetcher = new TermFetcher(Arrays.asList("bad", "slow"), term -> {
+			if (term.equals("bad"))
+				throw new IllegalStateException("lookup failed");
+			started.countDown();
+			try {
+				never.await();
+			} catch (InterruptedException e) {
+				interrupted.countDown();
+			}
+			return 1;
+		}, term -> ArrayPostingIterator.empty(), TermFetcher.DEFAULT_TIMEOUT_MILLIS);
+		assertThat(started.await(5, TimeUnit.SECONDS), is(true));
+
+		// the lookup's own exception comes out, not an ExecutionException
+		try {
+			fetcher.get();
+			fail("the failed lookup was not reported");
+		} catch (IllegalStateException e) {
+			assertThat(e.getMessage(), is("lookup failed"));
+		}
+		assertThat(interrupted.await(5, TimeUnit.SECONDS), is(true));
+	}
+}
@@ -0,0 +1,111 @@
+package com.flatironschool.javacs.query;
+
+import java.util.function.IntToDoubleFunction;
+
+import com.flatironschool.javacs.persistence.interfaces.IImpactIterator;
+import com.flatironschool.javacs.persistence.interfaces.IPostingIterator;
+
+/**
+ * Scores the documents of one query term the way
+ * Indexer.getCountWithRelevance does: the score of its TermWeight plus an
+ * optional per-document boost such as the PageRank of the page.
+ *
+ * Also knows an upper bound on any score it can return, which is what lets
+ * {@link WandScorer} skip documents.
+ */
+public class TermScorer {
+
+	private final String term;
+	private final IPostingIterator postings;
+	private final TermWeight weight;
+	private final IntToDoubleFunction boost;
+	private final double maxBoost;
+	private final double maxScore;
+
+	/**
+	 * @param term
+	 * @param postings  postings of the term, not yet started
+	 * @param weight    scores the documents of the term
+	 * @param boost     added to the score of each document, or null
+	 * @param maxBoost  upper bound on the boost
+	 */
+	public TermScorer(String term, IPostingIterator postings, TermWeight weight, IntToDoubleFunction boost,
+			double maxBoost) {
+		this.term = term;
+		this.postings = postings;
+		this.weight = weight;
+		this.boost = boost;
+		this.maxBoost = maxBoost;
+		this.maxScore = Math.max(weight.maxScore(postings.maxTermFrequency()), 0)
+				+ (boost == null ? 0 : maxBoost);
+	}
+
+	public String getTerm() {
+		return term;
+	}
+
+	public IPostingIterator postings() {
+		return postings;
+	}
+
+	/**
+	 * Returns a scorer that scores the same way over fresh postings, for a
+	 * query that uses a term more than once.
+	 * 
+	 * @param postings  postings of the term, not yet started
+	 * @return
+	 */
+	public TermScorer withPostings(IPostingIterator postings) {
+		return new TermScorer(term, postings, weight, boost, maxBoost);
+	}
+
+	public int docId() {
+		return postings.docId();
+	}
+
+	/**
+	 * Scores the current document.
+	 * 
+	 * @return
+	 */
+	public double score() {
+		double score = weight.score(postings);
+		if (boost != null)
+			score += boost.applyAsDouble(postings.docId());
+		return score;
+	}
+
+	/**
+	 * Scores the current document of impact-ordered postings of the same
+	 * term.
+	 * 
+	 * @param postings
+	 * @return
+	 */
+	public double score(IImpactIterator postings) {
+		double score = weight.score(postings);
+		if (boost != null)
+			score += boost.applyAsDouble(postings.docId());
+		return score;
+	}
+
+	/**
+	 * Returns an upper bound on score() over all the postings.
+	 * 
+	 * @return
+	 */
+	public double maxScore() {
+		return maxScore;
+	}
+
+	/**
+	 * Returns an upper bound on score() over postings whose term frequency
+	 * is at most `maxTermFrequency`.
+	 * 
+	 * @param maxTermFrequency
+	 * @return
+	 */
+	public double maxScore(double maxTermFrequency) {
+		return Math.max(weight.maxScore(maxTermFrequency), 0) + (boost == null ? 0 : maxBoost);
+	}
+}
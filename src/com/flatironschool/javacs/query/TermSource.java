@@ -0,0 +1,36 @@
+package com.flatironschool.javacs.query;
+
+/**
+ * What a QueryPlan reads from the index while it runs.
+ */
+public interface TermSource {
+
+	/**
+	 * Returns a scorer over fresh postings of a term that is in the index.
+	 *
+	 * @param term
+	 * @return
+	 */
+	public TermScorer scorer(String term);
+
+	/**
+	 * Returns the word positions of a term in a document, or null if the
+	 * index did not keep them.
+	 *
+	 * @param term
+	 * @param docId
+	 * @return
+	 */
+	public int[] positions(String term, int docId);
+
+	/**
+	 * Returns a scorer over the postings of a term in impact order, or null
+	 * if the index cannot give them in that order.
+	 *
+	 * @param term
+	 * @return
+	 */
+	public default ImpactScorer impactScorer(String term) {
+		return null;
+	}
+}
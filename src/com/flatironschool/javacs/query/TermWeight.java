@@ -0,0 +1,48 @@
+package com.flatironschool.javacs.query;
+
+import com.flatironschool.javacs.persistence.interfaces.IImpactIterator;
+import com.flatironschool.javacs.persistence.interfaces.IPostingIterator;
+
+/**
+ * Scores the pages of one term, as weighed by a {@link Similarity}.
+ */
+public abstract class TermWeight {
+
+	/**
+	 * Scores a page.
+	 *
+	 * @param freq    number of times the term appears in it
+	 * @param length  total number of terms in it
+	 * @return
+	 */
+	public abstract double score(int freq, int length);
+
+	/**
+	 * Scores the current page of some postings.
+	 *
+	 * @param postings
+	 * @return
+	 */
+	public double score(IPostingIterator postings) {
+		return score(postings.freq(), postings.docLength());
+	}
+
+	/**
+	 * Scores the current page of impact-ordered postings.
+	 *
+	 * @param postings
+	 * @return
+	 */
+	public double score(IImpactIterator postings) {
+		return score(postings.freq(), postings.docLength());
+	}
+
+	/**
+	 * Returns an upper bound on score() over pages where the term makes up
+	 * at most `maxTermFrequency` of the terms.
+	 *
+	 * @param maxTermFrequency
+	 * @return
+	 */
+	public abstract double maxScore(double maxTermFrequency);
+}
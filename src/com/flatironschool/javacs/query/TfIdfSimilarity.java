@@ -0,0 +1,52 @@
+package com.flatironschool.javacs.query;
+
+import com.flatironschool.javacs.persistence.interfaces.IImpactIterator;
+import com.flatironschool.javacs.persistence.interfaces.IPostingIterator;
+
+/**
+ * The original scoring: count / length times log(N / df), rounded to one
+ * decimal.
+ *
+ * Postings indexed with impacts carry count / length already, so it is not
+ * divided out per page.
+ */
+public class TfIdfSimilarity implements Similarity {
+
+	@Override
+	public TermWeight weigh(int docFreq, int documentCount, double averageDocumentLength) {
+		double idf = Math.log(documentCount / (double) docFreq);
+		return new TermWeight() {
+			@Override
+			public double score(int freq, int length) {
+				return length == 0 ? 0 : round(freq / (double) length * idf);
+			}
+
+			@Override
+			public double score(IPostingIterator postings) {
+				float impact = postings.impact();
+				return impact < 0 ? super.score(postings) : round(impact * idf);
+			}
+
+			@Override
+			public double score(IImpactIterator postings) {
+				float impact = postings.impact();
+				return impact < 0 ? super.score(postings) : round(impact * idf);
+			}
+
+			@Override
+			public double maxScore(double maxTermFrequency) {
+				// rounding is monotonic, so rounding the bound keeps it a bound
+				return round(maxTermFrequency * idf);
+			}
+		};
+	}
+
+	private static double round(double value) {
+		return Math.round(value * 10) / 10.0;
+	}
+
+	@Override
+	public String toString() {
+		return "TF-IDF";
+	}
+}
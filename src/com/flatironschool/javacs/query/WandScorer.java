@@ -0,0 +1,134 @@
+package com.flatironschool.javacs.query;
+
+import java.util.List;
+
+import com.flatironschool.javacs.TopKCollector;
+import com.flatironschool.javacs.persistence.interfaces.IPostingIterator;
+
+/**
+ * Finds the top k documents of an OR query document-at-a-time with WAND
+ * (Broder et al., "Efficient query evaluation using a two-level retrieval
+ * process").
+ *
+ * The term scorers are kept sorted by their current doc id. Adding up their
+ * maximum scores in that order, the first doc id at which the sum can beat
+ * the lowest score in the top k is the pivot: no document before it can
+ * make it in, so the scorers behind it are advanced straight to it and
+ * the postings in between are never scored. Until k documents have been
+ * found every document is scored.
+ *
+ * The score of a document is the sum of the scores of the terms it
+ * contains, which is what WikiSearch.or computes.
+ */
+public class WandScorer {
+
+	// the sum of rounded scores can come out a little above the sum of the bounds
+	private static final double EPSILON = 1e-9;
+
+	private final TermScorer[] scorers;
+	private long scored = 0;
+	private long postings = 0;
+
+	public WandScorer(List<TermScorer> scorers) {
+		this.scorers = scorers.toArray(new TermScorer[scorers.size()]);
+		for (TermScorer scorer : this.scorers) {
+			postings += scorer.postings().cost();
+		}
+	}
+
+	/**
+	 * Runs the query.
+	 * 
+	 * @param k  number of documents to keep
+	 * @return the top k doc ids and scores
+	 */
+	public TopKCollector search(int k) {
+		TopKCollector collector = new TopKCollector(k);
+		scored = 0;
+		if (k == 0)
+			return collector;
+
+		for (TermScorer scorer : scorers) {
+			scorer.postings().nextDoc();
+		}
+		int n = scorers.length;
+
+		while (true) {
+			sortByDocId(n);
+			// exhausted scorers sort last and can be dropped
+			while (n > 0 && scorers[n - 1].docId() == IPostingIterator.NO_MORE_DOCS) {
+				n--;
+			}
+			if (n == 0)
+				break;
+
+			double threshold = collector.threshold();
+			int pivot = -1;
+			double bound = 0;
+			for (int i = 0; i < n; i++) {
+				bound += scorers[i].maxScore();
+				if (bound + EPSILON > threshold) {
+					pivot = i;
+					break;
+				}
+			}
+			// even all the terms together cannot beat the top k
+			if (pivot < 0)
+				break;
+			int pivotDoc = scorers[pivot].docId();
+
+			if (scorers[0].docId() == pivotDoc) {
+				double score = 0;
+				for (int i = 0; i < n && scorers[i].docId() == pivotDoc; i++) {
+					score += scorers[i].score();
+				}
+				scored++;
+				collector.offer(pivotDoc, score);
+				for (int i = 0; i < n && scorers[i].docId() == pivotDoc; i++) {
+					scorers[i].postings().nextDoc();
+				}
+			} else {
+				// move the cheapest list that is behind the pivot up to it
+				int skip = 0;
+				for (int i = 1; i < pivot && scorers[i].docId() < pivotDoc; i++) {
+					if (scorers[i].postings().cost() < scorers[skip].postings().cost())
+						skip = i;
+				}
+				scorers[skip].postings().advance(pivotDoc);
+			}
+		}
+		return collector;
+	}
+
+	/**
+	 * Returns the number of documents scored by the last search.
+	 * 
+	 * @return
+	 */
+	public long getScoredCount() {
+		return scored;
+	}
+
+	/**
+	 * Returns the total number of postings of the query terms, which is how
+	 * many documents scoring every posting would have to look at.
+	 * 
+	 * @return
+	 */
+	public long getPostingCount() {
+		return postings;
+	}
+
+	// insertion sort; the list is short and nearly sorted after each step
+	private void sortByDocId(int n) {
+		for (int i = 1; i < n; i++) {
+			TermScorer scorer = scorers[i];
+			int j = i - 1;
+			while (j >= 0 && scorers[j].docId() > scorer.docId()) {
+				scorers[j + 1] = scorers[j];
+				j--;
+			}
+			scorers[j + 1] = scorer;
+		}
+	}
+}